@@ -43,6 +43,7 @@ import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
@@ -68,6 +69,7 @@ import org.apache.lucene.util.IOUtils;
  *  <li><b>doc.maker</b>=&lt;class name for doc-maker| Default: DocMaker&gt;
  *  <li><b>facet.source</b>=&lt;class name for facet-source| Default: RandomFacetSource&gt;
  *  <li><b>query.maker</b>=&lt;class name for query-maker| Default: SimpleQueryMaker&gt;
+ *  <li><b>similarity</b>=&lt;class name for the similarity used to index and search| Default: IndexSearcher's default&gt;
  *  <li><b>log.queries</b>=&lt;whether queries should be printed| Default: false&gt;
  *  <li><b>directory</b>=&lt;type of directory to use for the index| Default: RAMDirectory&gt;
  *  <li><b>taxonomy.directory</b>=&lt;type of directory for taxonomy index| Default: RAMDirectory&gt;
@@ -83,6 +85,7 @@ public class PerfRunData implements Closeable {
   private Directory directory;
   private Map<String,AnalyzerFactory> analyzerFactories = new HashMap<String,AnalyzerFactory>();
   private Analyzer analyzer;
+  private Similarity similarity;
   private DocMaker docMaker;
   private ContentSource contentSource;
   private FacetSource facetSource;
@@ -111,6 +114,12 @@ public class PerfRunData implements Closeable {
     analyzer = NewAnalyzerTask.createAnalyzer(config.get("analyzer",
         "org.apache.lucene.analysis.standard.StandardAnalyzer"));
 
+    // similarity (default is IndexSearcher's default)
+    String similarityClass = config.get("similarity", null);
+    if (similarityClass != null) {
+      similarity = Class.forName(similarityClass).asSubclass(Similarity.class).newInstance();
+    }
+
     // content source
     String sourceClass = config.get("content.source", "org.apache.lucene.benchmark.byTask.feeds.SingleDocSource");
     contentSource = Class.forName(sourceClass).asSubclass(ContentSource.class).newInstance();
@@ -342,6 +351,9 @@ public class PerfRunData implements Closeable {
       // Hold reference to new IR
       indexReader.incRef();
       indexSearcher = new IndexSearcher(indexReader);
+      if (similarity != null) {
+        indexSearcher.setSimilarity(similarity);
+      }
     } else {
       indexSearcher = null;
     }
@@ -373,6 +385,14 @@ public class PerfRunData implements Closeable {
     this.analyzer = analyzer;
   }
 
+  /**
+   * Returns the similarity to index and search with, or null to
+   * use the default one.
+   */
+  public Similarity getSimilarity() {
+    return similarity;
+  }
+
   /** Returns the ContentSource. */
   public ContentSource getContentSource() {
     return contentSource;
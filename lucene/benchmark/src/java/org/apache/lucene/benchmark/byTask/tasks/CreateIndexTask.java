@@ -52,7 +52,7 @@ import java.nio.charset.Charset;
  * org.apache.lucene.index.ConcurrentMergeScheduler),
  * concurrent.merge.scheduler.max.thread.count and
  * concurrent.merge.scheduler.max.merge.count (defaults per
- * ConcurrentMergeScheduler), default.codec </code>.
+ * ConcurrentMergeScheduler), default.codec, similarity </code>.
  * <p>
  * This task also supports a "writer.info.stream" property with the following
  * values:
@@ -104,6 +104,9 @@ public class CreateIndexTask extends PerfTask {
     iwConf.setIndexDeletionPolicy(indexDeletionPolicy);
     if(commit != null)
       iwConf.setIndexCommit(commit);
+    if (runData.getSimilarity() != null) {
+      iwConf.setSimilarity(runData.getSimilarity());
+    }
     
 
     final String mergeScheduler = config.get("merge.scheduler",
@@ -89,6 +89,9 @@ public abstract class ReadTask extends PerfTask {
       Directory dir = getRunData().getDirectory();
       reader = DirectoryReader.open(dir);
       searcher = new IndexSearcher(reader);
+      if (getRunData().getSimilarity() != null) {
+        searcher.setSimilarity(getRunData().getSimilarity());
+      }
       closeSearcher = true;
     } else {
       // use existing one; this passes +1 ref to us
@@ -56,6 +56,9 @@ public class SearchWithCollectorTask extends SearchTask {
       collector = TopScoreDocCollector.create(numHits(), true);
     } else if (clnName.equalsIgnoreCase("topScoreDocUnOrdered") == true) {
       collector = TopScoreDocCollector.create(numHits(), false);
+    } else if (clnName.equalsIgnoreCase("topScoreDocOrderedNoTotalHits") == true) {
+      // lets disjunctions skip over documents that cannot compete
+      collector = TopScoreDocCollector.create(numHits(), null, true, false);
     } else if (clnName.length() > 0){
       collector = Class.forName(clnName).asSubclass(Collector.class).newInstance();
 
@@ -0,0 +1,120 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Iterates over the postings of a term by decreasing impact. Postings come in
+ * buckets: call {@link #nextImpact()} to move to the next bucket, then
+ * {@link #nextDoc()} to go through its documents, which are sorted by
+ * increasing doc ID within a bucket. Unlike a
+ * {@link org.apache.lucene.index.DocsEnum}, doc IDs are not increasing across
+ * buckets.
+ * @see ImpactTermsEnum#impacts
+ * @lucene.experimental
+ */
+public final class ImpactDocsEnum {
+
+  private final IndexInput startIn;
+  private final IndexInput in;
+  private Bits liveDocs;
+  private int bucketsLeft;
+  private int docsLeft;
+  private int maxFreq;
+  private int accum;
+  private int doc = -1;
+  private int freq;
+
+  ImpactDocsEnum(IndexInput startIn) {
+    this.startIn = startIn;
+    this.in = startIn.clone();
+  }
+
+  boolean canReuse(IndexInput impactsIn) {
+    return startIn == impactsIn;
+  }
+
+  void reset(long pointer, Bits liveDocs) throws IOException {
+    in.seek(pointer);
+    this.liveDocs = liveDocs;
+    bucketsLeft = in.readVInt();
+    docsLeft = 0;
+    maxFreq = 0;
+    doc = -1;
+  }
+
+  /**
+   * Moves to the next bucket of postings and returns false if there are no
+   * buckets left. Buckets come by decreasing {@link #maxFreq()}.
+   */
+  public boolean nextImpact() throws IOException {
+    // skip what is left of the current bucket
+    while (docsLeft > 0) {
+      in.readVInt();
+      in.readVInt();
+      docsLeft--;
+    }
+    if (bucketsLeft == 0) {
+      doc = DocIdSetIterator.NO_MORE_DOCS;
+      return false;
+    }
+    bucketsLeft--;
+    maxFreq = in.readVInt();
+    docsLeft = in.readVInt();
+    accum = 0;
+    doc = -1;
+    return true;
+  }
+
+  /** Returns the largest frequency of the documents of the current bucket,
+   *  including deleted ones. */
+  public int maxFreq() {
+    return maxFreq;
+  }
+
+  /**
+   * Returns the next live document of the current bucket, or
+   * {@link DocIdSetIterator#NO_MORE_DOCS} once the bucket is exhausted.
+   */
+  public int nextDoc() throws IOException {
+    while (docsLeft > 0) {
+      docsLeft--;
+      accum += in.readVInt();
+      freq = in.readVInt();
+      if (liveDocs == null || liveDocs.get(accum)) {
+        return doc = accum;
+      }
+    }
+    return doc = DocIdSetIterator.NO_MORE_DOCS;
+  }
+
+  /** Returns the current document. */
+  public int docID() {
+    return doc;
+  }
+
+  /** Returns the term frequency in the current document. */
+  public int freq() {
+    return freq;
+  }
+}
@@ -0,0 +1,227 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FieldsConsumer;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+/**
+ * Writes the postings through the delegate format, then writes the impact
+ * lists of the frequent terms to the imp file.
+ * @see ImpactPostingsFormat
+ */
+final class ImpactFieldsConsumer extends FieldsConsumer {
+
+  /** Number of buckets that {@link #bucket(int)} may return. */
+  static final int NUM_BUCKETS = bucket(Integer.MAX_VALUE) + 1;
+
+  private final PostingsFormat delegatePostingsFormat;
+  private final FieldsConsumer delegateFieldsConsumer;
+  private final int minDocFreq;
+  private final SegmentWriteState state;
+
+  // postings of the current term
+  private int[] docs = new int[16];
+  private int[] freqs = new int[16];
+  private int[] buckets = new int[16];
+  private final int[] bucketCounts = new int[NUM_BUCKETS];
+  private final int[] bucketMaxFreqs = new int[NUM_BUCKETS];
+  private final int[] bucketStarts = new int[NUM_BUCKETS];
+  private int[] sortedDocs = new int[16];
+  private int[] sortedFreqs = new int[16];
+
+  ImpactFieldsConsumer(PostingsFormat delegatePostingsFormat, int minDocFreq, SegmentWriteState state) throws IOException {
+    this.delegatePostingsFormat = delegatePostingsFormat;
+    this.delegateFieldsConsumer = delegatePostingsFormat.fieldsConsumer(state);
+    this.minDocFreq = minDocFreq;
+    this.state = state;
+  }
+
+  /**
+   * Quantizes a term frequency: frequencies below 8 get a bucket each, and
+   * larger ones share a bucket with the frequencies that have the same 3 most
+   * significant bits. Buckets grow with frequencies.
+   */
+  static int bucket(int freq) {
+    assert freq > 0 : freq;
+    if (freq < 8) {
+      return freq;
+    }
+    final int shift = 29 - Integer.numberOfLeadingZeros(freq);
+    return (shift << 2) + (freq >>> shift);
+  }
+
+  @Override
+  public void write(Fields fields) throws IOException {
+    // the delegate must write first: it may have opened files already
+    delegateFieldsConsumer.write(fields);
+
+    final String fileName = IndexFileNames.segmentFileName(state.segmentInfo.name, state.segmentSuffix, ImpactPostingsFormat.IMPACT_EXTENSION);
+    final List<FieldInfo> indexedFields = new ArrayList<FieldInfo>();
+    final List<List<BytesRef>> indexedTerms = new ArrayList<List<BytesRef>>();
+    final List<List<Long>> indexedPointers = new ArrayList<List<Long>>();
+    IndexOutput out = state.directory.createOutput(fileName, state.context);
+    boolean success = false;
+    try {
+      CodecUtil.writeHeader(out, ImpactPostingsFormat.IMPACT_CODEC_NAME, ImpactPostingsFormat.IMPACT_CODEC_VERSION);
+      // remember the name of the postings format we delegate to
+      out.writeString(delegatePostingsFormat.getName());
+
+      for (String field : fields) {
+        final FieldInfo fieldInfo = state.fieldInfos.fieldInfo(field);
+        final Terms terms = fields.terms(field);
+        if (terms == null || fieldInfo.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS) < 0) {
+          // without freqs all postings have the same impact
+          continue;
+        }
+        final List<BytesRef> termList = new ArrayList<BytesRef>();
+        final List<Long> pointerList = new ArrayList<Long>();
+        final TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docsEnum = null;
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+          // docFreq is not available while flushing: count the docs instead
+          docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_FREQS);
+          final long pointer = out.getFilePointer();
+          if (writeTerm(docsEnum, out)) {
+            termList.add(BytesRef.deepCopyOf(term));
+            pointerList.add(pointer);
+          }
+        }
+        if (!termList.isEmpty()) {
+          indexedFields.add(fieldInfo);
+          indexedTerms.add(termList);
+          indexedPointers.add(pointerList);
+        }
+      }
+
+      final long indexStart = out.getFilePointer();
+      out.writeVInt(indexedFields.size());
+      for (int i = 0; i < indexedFields.size(); i++) {
+        out.writeVInt(indexedFields.get(i).number);
+        final List<BytesRef> termList = indexedTerms.get(i);
+        final List<Long> pointerList = indexedPointers.get(i);
+        out.writeVInt(termList.size());
+        long lastPointer = 0;
+        for (int j = 0; j < termList.size(); j++) {
+          final BytesRef term = termList.get(j);
+          out.writeVInt(term.length);
+          out.writeBytes(term.bytes, term.offset, term.length);
+          out.writeVLong(pointerList.get(j) - lastPointer);
+          lastPointer = pointerList.get(j);
+        }
+      }
+      out.writeLong(indexStart);
+      success = true;
+    } finally {
+      if (success) {
+        IOUtils.close(out);
+      } else {
+        IOUtils.closeWhileHandlingException(out);
+      }
+    }
+  }
+
+  /** Writes the impact list of the term that <code>docsEnum</code> iterates
+   *  over, and returns false if it has less than <code>minDocFreq</code>
+   *  docs. */
+  private boolean writeTerm(DocsEnum docsEnum, IndexOutput out) throws IOException {
+    int numDocs = 0;
+    for (int doc = docsEnum.nextDoc(); doc != DocsEnum.NO_MORE_DOCS; doc = docsEnum.nextDoc()) {
+      if (numDocs == docs.length) {
+        docs = ArrayUtil.grow(docs, numDocs + 1);
+        freqs = ArrayUtil.grow(freqs, docs.length);
+        buckets = ArrayUtil.grow(buckets, docs.length);
+      }
+      final int freq = docsEnum.freq();
+      final int bucket = bucket(freq);
+      docs[numDocs] = doc;
+      freqs[numDocs] = freq;
+      buckets[numDocs] = bucket;
+      bucketCounts[bucket]++;
+      bucketMaxFreqs[bucket] = Math.max(bucketMaxFreqs[bucket], freq);
+      numDocs++;
+    }
+    if (numDocs < minDocFreq) {
+      for (int i = 0; i < numDocs; i++) {
+        bucketCounts[buckets[i]] = 0;
+        bucketMaxFreqs[buckets[i]] = 0;
+      }
+      return false;
+    }
+
+    // counting sort by decreasing bucket, stable so that docs stay in order
+    // within a bucket
+    int numBuckets = 0;
+    int start = 0;
+    for (int bucket = NUM_BUCKETS - 1; bucket >= 0; bucket--) {
+      bucketStarts[bucket] = start;
+      if (bucketCounts[bucket] > 0) {
+        start += bucketCounts[bucket];
+        numBuckets++;
+      }
+    }
+    if (sortedDocs.length < numDocs) {
+      sortedDocs = new int[docs.length];
+      sortedFreqs = new int[docs.length];
+    }
+    for (int i = 0; i < numDocs; i++) {
+      final int slot = bucketStarts[buckets[i]]++;
+      sortedDocs[slot] = docs[i];
+      sortedFreqs[slot] = freqs[i];
+    }
+
+    out.writeVInt(numBuckets);
+    int upto = 0;
+    for (int bucket = NUM_BUCKETS - 1; bucket >= 0; bucket--) {
+      final int count = bucketCounts[bucket];
+      if (count == 0) {
+        continue;
+      }
+      out.writeVInt(bucketMaxFreqs[bucket]);
+      out.writeVInt(count);
+      int lastDoc = 0;
+      for (int end = upto + count; upto < end; upto++) {
+        out.writeVInt(sortedDocs[upto] - lastDoc);
+        out.writeVInt(sortedFreqs[upto]);
+        lastDoc = sortedDocs[upto];
+      }
+      bucketCounts[bucket] = 0;
+      bucketMaxFreqs[bucket] = 0;
+    }
+    assert upto == numDocs;
+    return true;
+  }
+}
@@ -0,0 +1,193 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FilterAtomicReader.FilterTerms;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Reads the postings through the delegate format, and loads the index of
+ * the impact lists in memory.
+ * @see ImpactPostingsFormat
+ */
+final class ImpactFieldsProducer extends FieldsProducer {
+
+  private final FieldsProducer delegateFieldsProducer;
+  private final IndexInput impactsIn;
+  private final Map<String,ImpactIndex> indexes = new HashMap<String,ImpactIndex>();
+
+  ImpactFieldsProducer(SegmentReadState state) throws IOException {
+    final String fileName = IndexFileNames.segmentFileName(state.segmentInfo.name, state.segmentSuffix, ImpactPostingsFormat.IMPACT_EXTENSION);
+    IndexInput in = null;
+    FieldsProducer delegate = null;
+    boolean success = false;
+    try {
+      in = state.directory.openInput(fileName, state.context);
+      CodecUtil.checkHeader(in, ImpactPostingsFormat.IMPACT_CODEC_NAME,
+          ImpactPostingsFormat.IMPACT_CODEC_VERSION, ImpactPostingsFormat.IMPACT_CODEC_VERSION);
+      delegate = PostingsFormat.forName(in.readString()).fieldsProducer(state);
+
+      in.seek(in.length() - 8);
+      in.seek(in.readLong());
+      final int numFields = in.readVInt();
+      for (int i = 0; i < numFields; i++) {
+        final FieldInfo fieldInfo = state.fieldInfos.fieldInfo(in.readVInt());
+        indexes.put(fieldInfo.name, new ImpactIndex(in));
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(in, delegate);
+      }
+    }
+    this.impactsIn = in;
+    this.delegateFieldsProducer = delegate;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return delegateFieldsProducer.iterator();
+  }
+
+  @Override
+  public Terms terms(String field) throws IOException {
+    final Terms terms = delegateFieldsProducer.terms(field);
+    final ImpactIndex index = indexes.get(field);
+    if (terms == null || index == null) {
+      return terms;
+    }
+    return new ImpactTerms(terms, index);
+  }
+
+  @Override
+  public int size() {
+    return delegateFieldsProducer.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOUtils.close(impactsIn, delegateFieldsProducer);
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    long sizeInBytes = delegateFieldsProducer.ramBytesUsed();
+    for (Map.Entry<String,ImpactIndex> entry : indexes.entrySet()) {
+      sizeInBytes += entry.getKey().length() * RamUsageEstimator.NUM_BYTES_CHAR;
+      sizeInBytes += entry.getValue().ramBytesUsed();
+    }
+    return sizeInBytes;
+  }
+
+  /** The terms of a field that have an impact list, in sorted order, and the
+   *  start pointers of their impact lists. */
+  static final class ImpactIndex {
+    private final byte[] termBytes;
+    private final int[] termStarts; // one more than the number of terms
+    private final long[] pointers;
+
+    ImpactIndex(IndexInput in) throws IOException {
+      final int numTerms = in.readVInt();
+      termStarts = new int[numTerms + 1];
+      pointers = new long[numTerms];
+      byte[] bytes = new byte[16];
+      int upto = 0;
+      long pointer = 0;
+      for (int i = 0; i < numTerms; i++) {
+        final int length = in.readVInt();
+        if (upto + length > bytes.length) {
+          final byte[] newBytes = new byte[Math.max(upto + length, bytes.length << 1)];
+          System.arraycopy(bytes, 0, newBytes, 0, upto);
+          bytes = newBytes;
+        }
+        in.readBytes(bytes, upto, length);
+        termStarts[i] = upto;
+        upto += length;
+        pointer += in.readVLong();
+        pointers[i] = pointer;
+      }
+      termStarts[numTerms] = upto;
+      termBytes = new byte[upto];
+      System.arraycopy(bytes, 0, termBytes, 0, upto);
+    }
+
+    /** Returns the start pointer of the impact list of <code>term</code>, or
+     *  -1 if it has none. */
+    long pointer(BytesRef term) {
+      final BytesRef scratch = new BytesRef(termBytes);
+      int lo = 0;
+      int hi = pointers.length - 1;
+      while (lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        scratch.offset = termStarts[mid];
+        scratch.length = termStarts[mid + 1] - termStarts[mid];
+        final int cmp = scratch.compareTo(term);
+        if (cmp < 0) {
+          lo = mid + 1;
+        } else if (cmp > 0) {
+          hi = mid - 1;
+        } else {
+          return pointers[mid];
+        }
+      }
+      return -1;
+    }
+
+    long ramBytesUsed() {
+      return RamUsageEstimator.sizeOf(termBytes) + RamUsageEstimator.sizeOf(termStarts) + RamUsageEstimator.sizeOf(pointers);
+    }
+  }
+
+  final class ImpactTerms extends FilterTerms {
+    private final ImpactIndex index;
+
+    ImpactTerms(Terms in, ImpactIndex index) {
+      super(in);
+      this.index = index;
+    }
+
+    @Override
+    public TermsEnum iterator(TermsEnum reuse) throws IOException {
+      if (reuse instanceof ImpactTermsEnum) {
+        final ImpactTermsEnum impactReuse = (ImpactTermsEnum) reuse;
+        final TermsEnum delegate = in.iterator(impactReuse.delegate());
+        if (delegate == impactReuse.delegate() && impactReuse.index == index) {
+          return impactReuse;
+        }
+        return new ImpactTermsEnum(delegate, index, impactsIn);
+      }
+      return new ImpactTermsEnum(in.iterator(reuse), index, impactsIn);
+    }
+  }
+}
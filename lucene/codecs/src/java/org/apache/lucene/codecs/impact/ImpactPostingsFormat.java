@@ -0,0 +1,129 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FieldsConsumer;
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.store.DataOutput;
+
+/**
+ * <p>
+ * A {@link PostingsFormat} that additionally stores the postings of frequent
+ * terms sorted by impact, so that top-k queries over static content can stop
+ * before they went through all postings, see {@link ImpactTermQuery}. A
+ * choice of delegate PostingsFormat records the regular, doc-ordered,
+ * postings so that all other queries work as usual.
+ * </p>
+ * <p>
+ * The impact of a posting is its term frequency, quantized into buckets:
+ * frequencies below 8 get a bucket each, larger ones are bucketed on their 3
+ * most significant bits. Terms that have at least <code>minDocFreq</code>
+ * documents get an impact list in a ".imp" file, whose buckets come by
+ * decreasing frequency and record the maximum frequency of their documents.
+ * Norms are not part of the impact because they are written independently of
+ * the postings; queries bound their effect with
+ * {@link org.apache.lucene.search.similarities.Similarity.SimScorer#maxScore(float)}
+ * instead. Fields that omit term frequencies get no impact lists.
+ * </p>
+ * <p>
+ * Use it for some fields only by returning it from
+ * {@link org.apache.lucene.codecs.lucene46.Lucene46Codec#getPostingsFormatForField(String)}.
+ * </p>
+ * <p>
+ * The format of the imp file is as follows:
+ * </p>
+ * <ul>
+ * <li>Impacts (.imp) --&gt; Header, DelegatePostingsFormatName,
+ * TermImpacts<sup>NumImpactTerms</sup>, Index, IndexStart</li>
+ * <li>TermImpacts --&gt; NumBuckets, Bucket<sup>NumBuckets</sup></li>
+ * <li>Bucket --&gt; MaxFreq, NumDocs, &lt;DocDelta, Freq&gt;<sup>NumDocs</sup></li>
+ * <li>Index --&gt; NumFields, &lt;FieldNumber, NumTerms,
+ * &lt;TermLength, TermBytes, TermImpactsDelta&gt;<sup>NumTerms</sup>&gt;<sup>NumFields</sup></li>
+ * <li>Header --&gt; {@link CodecUtil#writeHeader CodecHeader}</li>
+ * <li>DelegatePostingsFormatName --&gt; {@link DataOutput#writeString(String)
+ * String} The name of a ServiceProvider registered {@link PostingsFormat}</li>
+ * <li>NumBuckets, MaxFreq, NumDocs, DocDelta, Freq, NumFields, FieldNumber,
+ * NumTerms, TermLength --&gt; {@link DataOutput#writeVInt VInt}</li>
+ * <li>TermImpactsDelta --&gt; {@link DataOutput#writeVLong VLong}</li>
+ * <li>IndexStart --&gt; {@link DataOutput#writeLong Uint64}</li>
+ * </ul>
+ * <p>
+ * Docs are sorted by increasing doc ID within a bucket and DocDelta is the
+ * difference with the previous doc of the same bucket. TermImpactsDelta is the
+ * difference between the start pointers of consecutive TermImpacts of a field.
+ * </p>
+ * @lucene.experimental
+ */
+public final class ImpactPostingsFormat extends PostingsFormat {
+
+  public static final String IMPACT_CODEC_NAME = "Impact";
+  public static final int IMPACT_CODEC_VERSION = 1;
+
+  /** Extension of impacts file */
+  static final String IMPACT_EXTENSION = "imp";
+
+  /** Default minimum document frequency of terms that get an impact list */
+  public static final int DEFAULT_MIN_DOC_FREQ = 128;
+
+  private final PostingsFormat delegatePostingsFormat;
+  private final int minDocFreq;
+
+  /**
+   * Creates impact lists for the terms of at least <code>minDocFreq</code>
+   * documents, and delegates all other postings data to
+   * <code>delegatePostingsFormat</code>.
+   */
+  public ImpactPostingsFormat(PostingsFormat delegatePostingsFormat, int minDocFreq) {
+    super(IMPACT_CODEC_NAME);
+    if (minDocFreq < 1) {
+      throw new IllegalArgumentException("minDocFreq must be >= 1 (got " + minDocFreq + ")");
+    }
+    this.delegatePostingsFormat = delegatePostingsFormat;
+    this.minDocFreq = minDocFreq;
+  }
+
+  /**
+   * Creates impact lists for the terms of at least {@link #DEFAULT_MIN_DOC_FREQ}
+   * documents on top of {@link Lucene41PostingsFormat}.
+   */
+  public ImpactPostingsFormat() {
+    this(new Lucene41PostingsFormat(), DEFAULT_MIN_DOC_FREQ);
+  }
+
+  @Override
+  public FieldsConsumer fieldsConsumer(SegmentWriteState state) throws IOException {
+    return new ImpactFieldsConsumer(delegatePostingsFormat, minDocFreq, state);
+  }
+
+  @Override
+  public FieldsProducer fieldsProducer(SegmentReadState state) throws IOException {
+    return new ImpactFieldsProducer(state);
+  }
+
+  @Override
+  public String toString() {
+    return "ImpactPostingsFormat(" + delegatePostingsFormat + ",minDocFreq=" + minDocFreq + ")";
+  }
+}
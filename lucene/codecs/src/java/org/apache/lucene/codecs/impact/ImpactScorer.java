@@ -0,0 +1,104 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+
+/**
+ * Scores the documents of a term in impact order, see
+ * {@link ImpactTermQuery}. Like BooleanScorer, this scorer can only be used
+ * as a top scorer: documents come out of order, so it only supports
+ * {@link #score(Collector)}.
+ */
+final class ImpactScorer extends Scorer {
+  private final ImpactDocsEnum impacts;
+  private final Similarity.SimScorer docScorer;
+  private final long cost;
+  private int doc = -1;
+  private int freq;
+
+  ImpactScorer(Weight weight, ImpactDocsEnum impacts, Similarity.SimScorer docScorer, long cost) {
+    super(weight);
+    this.impacts = impacts;
+    this.docScorer = docScorer;
+    this.cost = cost;
+  }
+
+  @Override
+  public void score(Collector collector) throws IOException {
+    collector.setScorer(this);
+    final ImpactTopDocsCollector topDocs = collector instanceof ImpactTopDocsCollector ? (ImpactTopDocsCollector) collector : null;
+    while (impacts.nextImpact()) {
+      // buckets come by decreasing freq, so if no document of this bucket can
+      // compete, no document of the next buckets can either
+      if (topDocs != null && docScorer.maxScore(impacts.maxFreq()) < topDocs.minCompetitiveScore()) {
+        break;
+      }
+      while ((doc = impacts.nextDoc()) != NO_MORE_DOCS) {
+        freq = impacts.freq();
+        collector.collect(doc);
+      }
+    }
+    doc = NO_MORE_DOCS;
+  }
+
+  @Override
+  public boolean score(Collector collector, int max, int firstDocID) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public float score() {
+    return docScorer.score(doc, freq);
+  }
+
+  @Override
+  public int freq() {
+    return freq;
+  }
+
+  @Override
+  public int docID() {
+    return doc;
+  }
+
+  @Override
+  public int nextDoc() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int advance(int target) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long cost() {
+    return cost;
+  }
+
+  @Override
+  public String toString() {
+    return "ImpactScorer(" + weight + ")";
+  }
+}
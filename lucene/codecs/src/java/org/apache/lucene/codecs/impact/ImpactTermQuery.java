@@ -0,0 +1,169 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.ToStringUtils;
+
+/**
+ * A {@link TermQuery} that goes through the postings of its term by
+ * decreasing impact when the field uses {@link ImpactPostingsFormat}, the
+ * term has an impact list and documents may be scored out of order. Combined
+ * with an {@link ImpactTopDocsCollector}, it stops as soon as no remaining
+ * document can make it into the top hits. Scores are the same as those of
+ * {@link TermQuery}.
+ * <p>
+ * Stopping early needs a {@link Similarity} that bounds scores, such as
+ * {@link org.apache.lucene.search.similarities.BM25Similarity}. With other
+ * similarities, or in segments that have no impact list for the term, this
+ * query goes through all postings like a {@link TermQuery}.
+ * @lucene.experimental
+ */
+public class ImpactTermQuery extends Query {
+  private final Term term;
+
+  final class ImpactWeight extends Weight {
+    private final Weight termWeight;
+    private final Similarity similarity;
+    private final Similarity.SimWeight stats;
+    private final TermContext termStates;
+
+    ImpactWeight(IndexSearcher searcher, TermContext termStates) throws IOException {
+      this.termStates = termStates;
+      final TermQuery termQuery = new TermQuery(term, termStates);
+      termQuery.setBoost(getBoost());
+      this.termWeight = termQuery.createWeight(searcher);
+      this.similarity = searcher.getSimilarity();
+      // the same stats as those of the term weight, so that scores are equal
+      this.stats = similarity.computeWeight(
+          getBoost(),
+          searcher.collectionStatistics(term.field()),
+          searcher.termStatistics(term, termStates));
+    }
+
+    @Override
+    public String toString() { return "weight(" + ImpactTermQuery.this + ")"; }
+
+    @Override
+    public Query getQuery() { return ImpactTermQuery.this; }
+
+    @Override
+    public float getValueForNormalization() throws IOException {
+      return termWeight.getValueForNormalization();
+    }
+
+    @Override
+    public void normalize(float queryNorm, float topLevelBoost) {
+      termWeight.normalize(queryNorm, topLevelBoost);
+      stats.normalize(queryNorm, topLevelBoost);
+    }
+
+    @Override
+    public Scorer scorer(AtomicReaderContext context, boolean scoreDocsInOrder,
+        boolean topScorer, Bits acceptDocs) throws IOException {
+      if (!scoreDocsInOrder && topScorer) {
+        final TermState state = termStates.get(context.ord);
+        final Terms terms = state == null ? null : context.reader().terms(term.field());
+        if (terms != null) {
+          final TermsEnum termsEnum = terms.iterator(null);
+          if (termsEnum instanceof ImpactTermsEnum) {
+            termsEnum.seekExact(term.bytes(), state);
+            final ImpactDocsEnum impacts = ((ImpactTermsEnum) termsEnum).impacts(acceptDocs, null);
+            if (impacts != null) {
+              return new ImpactScorer(this, impacts, similarity.simScorer(stats, context), termsEnum.docFreq());
+            }
+          }
+        }
+      }
+      return termWeight.scorer(context, scoreDocsInOrder, topScorer, acceptDocs);
+    }
+
+    @Override
+    public boolean scoresDocsOutOfOrder() {
+      return true;
+    }
+
+    @Override
+    public Explanation explain(AtomicReaderContext context, int doc) throws IOException {
+      return termWeight.explain(context, doc);
+    }
+  }
+
+  /** Constructs a query for the term <code>t</code>. */
+  public ImpactTermQuery(Term t) {
+    term = t;
+  }
+
+  /** Returns the term of this query. */
+  public Term getTerm() { return term; }
+
+  @Override
+  public Weight createWeight(IndexSearcher searcher) throws IOException {
+    return new ImpactWeight(searcher, TermContext.build(searcher.getTopReaderContext(), term));
+  }
+
+  @Override
+  public void extractTerms(Set<Term> terms) {
+    terms.add(getTerm());
+  }
+
+  /** Prints a user-readable version of this query. */
+  @Override
+  public String toString(String field) {
+    StringBuilder buffer = new StringBuilder();
+    if (!term.field().equals(field)) {
+      buffer.append(term.field());
+      buffer.append(":");
+    }
+    buffer.append(term.text());
+    buffer.append(ToStringUtils.boost(getBoost()));
+    return buffer.toString();
+  }
+
+  /** Returns true iff <code>o</code> is equal to this. */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ImpactTermQuery))
+      return false;
+    ImpactTermQuery other = (ImpactTermQuery)o;
+    return (this.getBoost() == other.getBoost())
+      && this.term.equals(other.term);
+  }
+
+  /** Returns a hash code value for this object.*/
+  @Override
+  public int hashCode() {
+    return Float.floatToIntBits(getBoost()) ^ term.hashCode() ^ 0x1F3A5C7E;
+  }
+}
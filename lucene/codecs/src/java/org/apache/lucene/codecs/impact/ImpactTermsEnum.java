@@ -0,0 +1,89 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.codecs.impact.ImpactFieldsProducer.ImpactIndex;
+import org.apache.lucene.index.FilterAtomicReader.FilterTermsEnum;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The {@link TermsEnum} of the fields that have impact lists. On top of the
+ * usual doc-ordered postings, it gives access to the impact-ordered postings
+ * of the current term through {@link #impacts(Bits, ImpactDocsEnum)}.
+ * @see ImpactPostingsFormat
+ * @lucene.experimental
+ */
+public final class ImpactTermsEnum extends FilterTermsEnum {
+
+  final ImpactIndex index;
+  private final IndexInput impactsIn;
+
+  ImpactTermsEnum(TermsEnum in, ImpactIndex index, IndexInput impactsIn) {
+    super(in);
+    this.index = index;
+    this.impactsIn = impactsIn;
+  }
+
+  TermsEnum delegate() {
+    return in;
+  }
+
+  /**
+   * Returns the postings of the current term sorted by decreasing impact, or
+   * null if the term has too few documents to have an impact list.
+   *
+   * @param liveDocs unset bits are documents that should not be returned
+   * @param reuse pass a prior ImpactDocsEnum for possible reuse
+   */
+  public ImpactDocsEnum impacts(Bits liveDocs, ImpactDocsEnum reuse) throws IOException {
+    final long pointer = index.pointer(term());
+    if (pointer == -1) {
+      return null;
+    }
+    ImpactDocsEnum impacts = reuse;
+    if (impacts == null || !impacts.canReuse(impactsIn)) {
+      impacts = new ImpactDocsEnum(impactsIn);
+    }
+    impacts.reset(pointer, liveDocs);
+    return impacts;
+  }
+
+  // FilterTermsEnum falls back to the slower default implementations of
+  // these:
+
+  @Override
+  public boolean seekExact(BytesRef text) throws IOException {
+    return in.seekExact(text);
+  }
+
+  @Override
+  public void seekExact(BytesRef term, TermState state) throws IOException {
+    in.seekExact(term, state);
+  }
+
+  @Override
+  public TermState termState() throws IOException {
+    return in.termState();
+  }
+}
@@ -0,0 +1,134 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * Collects the top hits by score, like an out-of-order
+ * {@link org.apache.lucene.search.TopScoreDocCollector}, but lets
+ * {@link ImpactTermQuery} stop as soon as the remaining documents cannot
+ * compete anymore. The hits are the same, but {@link TopDocs#totalHits} is
+ * then only a lower bound of the number of matching documents.
+ * @lucene.experimental
+ */
+public class ImpactTopDocsCollector extends TopDocsCollector<ScoreDoc> {
+
+  private static final class ScoreDocQueue extends PriorityQueue<ScoreDoc> {
+    ScoreDocQueue(int size) {
+      super(size, true);
+    }
+
+    @Override
+    protected ScoreDoc getSentinelObject() {
+      return new ScoreDoc(Integer.MAX_VALUE, Float.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    protected final boolean lessThan(ScoreDoc hitA, ScoreDoc hitB) {
+      if (hitA.score == hitB.score)
+        return hitA.doc > hitB.doc;
+      else
+        return hitA.score < hitB.score;
+    }
+  }
+
+  private ScoreDoc pqTop;
+  private int docBase = 0;
+  private Scorer scorer;
+
+  /** Creates a collector of the top <code>numHits</code> hits. */
+  public ImpactTopDocsCollector(int numHits) {
+    super(new ScoreDocQueue(numHits));
+    if (numHits <= 0) {
+      throw new IllegalArgumentException("numHits must be > 0; please use TotalHitCountCollector if you just need the total hit count");
+    }
+    // the queue is pre-populated with sentinels
+    pqTop = pq.top();
+  }
+
+  /** Returns the score that a document must exceed (or equal, with a smaller
+   *  doc ID) in order to be collected, or {@link Float#NEGATIVE_INFINITY}
+   *  while the queue is not full yet. */
+  float minCompetitiveScore() {
+    return pqTop.score;
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    final float score = scorer.score();
+
+    // This collector cannot handle NaN
+    assert !Float.isNaN(score);
+
+    totalHits++;
+    if (score < pqTop.score) {
+      // Doesn't compete w/ bottom entry in queue
+      return;
+    }
+    doc += docBase;
+    if (score == pqTop.score && doc > pqTop.doc) {
+      // Break tie in score by doc ID:
+      return;
+    }
+    pqTop.doc = doc;
+    pqTop.score = score;
+    pqTop = pq.updateTop();
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) {
+    this.scorer = scorer;
+  }
+
+  @Override
+  public void setNextReader(AtomicReaderContext context) {
+    docBase = context.docBase;
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return true;
+  }
+
+  @Override
+  protected TopDocs newTopDocs(ScoreDoc[] results, int start) {
+    if (results == null) {
+      return EMPTY_TOPDOCS;
+    }
+
+    // maxScore is the score of the first result if start == 0, otherwise pop
+    // everything else until the largest element is extracted
+    float maxScore = Float.NaN;
+    if (start == 0) {
+      maxScore = results[0].score;
+    } else {
+      for (int i = pq.size(); i > 1; i--) { pq.pop(); }
+      maxScore = pq.pop().score;
+    }
+
+    return new TopDocs(totalHits, results, maxScore);
+  }
+}
@@ -0,0 +1,213 @@
+package org.apache.lucene.codecs.impact;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat;
+import org.apache.lucene.codecs.lucene46.Lucene46Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+
+public class TestImpactTermQuery extends LuceneTestCase {
+
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+
+  private void buildIndex(String[] docs, int minDocFreq, boolean deletes) throws Exception {
+    dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    final PostingsFormat impacts = new ImpactPostingsFormat(new Lucene41PostingsFormat(), minDocFreq);
+    // impact lists for the body field only
+    iwc.setCodec(new Lucene46Codec() {
+      @Override
+      public PostingsFormat getPostingsFormatForField(String field) {
+        return "body".equals(field) ? impacts : super.getPostingsFormatForField(field);
+      }
+    });
+    iwc.setSimilarity(new BM25Similarity());
+    // keep docs in order
+    iwc.setMergePolicy(newLogMergePolicy());
+    IndexWriter w = new IndexWriter(dir, iwc);
+    for (int i = 0; i < docs.length; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", "" + i, Field.Store.NO));
+      doc.add(newTextField("body", docs[i], Field.Store.NO));
+      w.addDocument(doc);
+      if (random().nextInt(100) == 0) {
+        w.commit();
+      }
+    }
+    if (deletes) {
+      for (int i = 0; i < docs.length; i += 7) {
+        w.deleteDocuments(new Term("id", "" + i));
+      }
+    }
+    if (random().nextBoolean()) {
+      w.forceMerge(1);
+    }
+    w.close();
+    reader = DirectoryReader.open(dir);
+    // don't wrap the reader: impact lists would be hidden
+    searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity());
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    reader.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  private String[] randomDocs() {
+    final String[] docs = new String[atLeast(500)];
+    for (int i = 0; i < docs.length; i++) {
+      StringBuilder sb = new StringBuilder();
+      // a is frequent with skewed freqs, b is frequent with low freqs, c is rare
+      final int freqA = random().nextInt(3) == 0 ? 0 : 1 + (int) Math.pow(30, random().nextDouble());
+      for (int j = 0; j < freqA; j++) {
+        sb.append("a ");
+      }
+      for (int j = random().nextInt(3); j > 0; j--) {
+        sb.append("b ");
+      }
+      if (random().nextInt(50) == 0) {
+        sb.append("c ");
+      }
+      for (int j = random().nextInt(10); j >= 0; j--) {
+        sb.append("z ");
+      }
+      docs[i] = sb.toString();
+    }
+    return docs;
+  }
+
+  public void testSameTopHits() throws Exception {
+    buildIndex(randomDocs(), 1 + random().nextInt(100), random().nextBoolean());
+    for (String text : new String[] {"a", "b", "c", "d"}) {
+      final Term term = new Term("body", text);
+      final int numHits = 1 + random().nextInt(20);
+      TopDocs expected = searcher.search(new TermQuery(term), numHits);
+      ImpactTopDocsCollector collector = new ImpactTopDocsCollector(numHits);
+      searcher.search(new ImpactTermQuery(term), collector);
+      TopDocs actual = collector.topDocs();
+      assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+      for (int i = 0; i < expected.scoreDocs.length; i++) {
+        assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+        assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+      }
+      assertTrue(actual.totalHits <= expected.totalHits);
+
+      // other collectors see all hits
+      TopDocs all = searcher.search(new ImpactTermQuery(term), numHits);
+      assertEquals(expected.totalHits, all.totalHits);
+      for (int i = 0; i < expected.scoreDocs.length; i++) {
+        assertEquals(expected.scoreDocs[i].doc, all.scoreDocs[i].doc);
+        assertEquals(expected.scoreDocs[i].score, all.scoreDocs[i].score, 0f);
+      }
+    }
+  }
+
+  public void testImpacts() throws Exception {
+    final int minDocFreq = 1 + random().nextInt(100);
+    buildIndex(randomDocs(), minDocFreq, random().nextBoolean());
+    for (AtomicReaderContext context : reader.leaves()) {
+      final Terms terms = context.reader().terms("body");
+      final TermsEnum termsEnum = terms.iterator(null);
+      // segments where no term has minDocFreq docs have no impact lists
+      final ImpactTermsEnum impactTermsEnum = termsEnum instanceof ImpactTermsEnum ? (ImpactTermsEnum) termsEnum : null;
+      ImpactDocsEnum impacts = null;
+      DocsEnum docsEnum = null;
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        final ImpactDocsEnum reuse = impacts;
+        impacts = impactTermsEnum == null ? null : impactTermsEnum.impacts(context.reader().getLiveDocs(), reuse);
+        if (impacts == null) {
+          impacts = reuse;
+          assertTrue(termsEnum.docFreq() < minDocFreq);
+          continue;
+        }
+        final Map<Integer,Integer> freqs = new HashMap<Integer,Integer>();
+        int lastMaxFreq = Integer.MAX_VALUE;
+        while (impacts.nextImpact()) {
+          assertTrue(impacts.maxFreq() < lastMaxFreq);
+          lastMaxFreq = impacts.maxFreq();
+          int lastDoc = -1;
+          for (int doc = impacts.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = impacts.nextDoc()) {
+            assertTrue(doc > lastDoc);
+            lastDoc = doc;
+            assertTrue(impacts.freq() <= impacts.maxFreq());
+            assertNull(freqs.put(doc, impacts.freq()));
+          }
+        }
+        docsEnum = termsEnum.docs(context.reader().getLiveDocs(), docsEnum);
+        int count = 0;
+        for (int doc = docsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docsEnum.nextDoc()) {
+          assertEquals(Integer.valueOf(docsEnum.freq()), freqs.get(doc));
+          count++;
+        }
+        assertEquals(count, freqs.size());
+      }
+    }
+  }
+
+  public void testEarlyTermination() throws Exception {
+    final String[] docs = new String[1000];
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = "a z z z z z z z z z";
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      sb.append("a ");
+    }
+    final int top = random().nextInt(docs.length);
+    docs[top] = sb.toString();
+    buildIndex(docs, 1, false);
+
+    ImpactTopDocsCollector collector = new ImpactTopDocsCollector(1);
+    searcher.search(new ImpactTermQuery(new Term("body", "a")), collector);
+    TopDocs topDocs = collector.topDocs();
+    assertEquals(1, topDocs.scoreDocs.length);
+    assertEquals(top, topDocs.scoreDocs[0].doc);
+    // the docs of freq 1 cannot compete with the doc of freq 50, in any segment
+    // that was searched after the one that has it
+    assertTrue(topDocs.totalHits < docs.length);
+  }
+}
@@ -0,0 +1,168 @@
+package org.apache.lucene.codecs;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Blocked Bloom filter over the terms of a field, written to the terms
+ * dictionary by {@link BlockTreeTermsWriter} and probed by
+ * {@link BlockTreeTermsReader} before an exact seek walks the terms index.
+ * <p>
+ * The filter is an array of 64-byte blocks, one cache line each, aligned on
+ * 64 bytes in the terms file. A term hashes to a single block and sets
+ * {@link #NUM_PROBES} bits in it, so that a lookup touches one cache line
+ * at most. The number of blocks is derived from the number of terms of the
+ * field, for {@link #BITS_PER_TERM} bits per term, which gives about 1%
+ * false positives.
+ */
+final class BlockTreeTermsFilter {
+
+  /** Number of bits of the filter per term of the field. */
+  static final int BITS_PER_TERM = 10;
+
+  /** Number of bits set per term in its block. */
+  static final int NUM_PROBES = 6;
+
+  static final int BLOCK_BYTES = 64;
+  static final int BLOCK_BITS = BLOCK_BYTES * 8;
+  static final int BLOCK_LONGS = BLOCK_BITS / 64;
+
+  private static final int SEED = 0x3C074A61;
+
+  /** File pointer of the first block. */
+  final long startFP;
+  /** Number of blocks. */
+  final int numBlocks;
+
+  BlockTreeTermsFilter(long startFP, int numBlocks) {
+    assert startFP % BLOCK_BYTES == 0 : startFP;
+    assert numBlocks > 0 : numBlocks;
+    this.startFP = startFP;
+    this.numBlocks = numBlocks;
+  }
+
+  /** Returns false if <code>term</code> is certainly not in the field, and
+   *  true if it may be. <code>in</code> is a clone of the terms file, which
+   *  this method seeks. */
+  boolean mayContain(BytesRef term, IndexInput in) throws IOException {
+    final int hash = hash(term);
+    final long blockFP = startFP + (long) block(hash, numBlocks) * BLOCK_BYTES;
+    final int probes = probes(hash);
+    int bit = probes & (BLOCK_BITS - 1);
+    final int step = probes >>> 23 | 1;
+    for (int i = 0; i < NUM_PROBES; i++) {
+      in.seek(blockFP + ((bit >>> 6) << 3));
+      if ((in.readLong() & (1L << bit)) == 0) {
+        return false;
+      }
+      bit = (bit + step) & (BLOCK_BITS - 1);
+    }
+    return true;
+  }
+
+  /** Returns the number of blocks of the filter of a field that has
+   *  <code>numTerms</code> terms. */
+  static int numBlocks(long numTerms) {
+    assert numTerms > 0;
+    final long numBits = numTerms * BITS_PER_TERM;
+    return (int) Math.min(Integer.MAX_VALUE, (numBits + BLOCK_BITS - 1) / BLOCK_BITS);
+  }
+
+  /** Writes the filter of the given term hashes to <code>out</code>, aligned
+   *  on {@link #BLOCK_BYTES} bytes, and returns its start file pointer. */
+  static long write(int[] hashes, int numHashes, int numBlocks, IndexOutput out) throws IOException {
+    final long[] bits = new long[numBlocks * BLOCK_LONGS];
+    for (int i = 0; i < numHashes; i++) {
+      final int hash = hashes[i];
+      final int offset = block(hash, numBlocks) * BLOCK_LONGS;
+      final int probes = probes(hash);
+      int bit = probes & (BLOCK_BITS - 1);
+      final int step = probes >>> 23 | 1;
+      for (int j = 0; j < NUM_PROBES; j++) {
+        bits[offset + (bit >>> 6)] |= 1L << bit;
+        bit = (bit + step) & (BLOCK_BITS - 1);
+      }
+    }
+    while (out.getFilePointer() % BLOCK_BYTES != 0) {
+      out.writeByte((byte) 0);
+    }
+    final long startFP = out.getFilePointer();
+    for (long word : bits) {
+      out.writeLong(word);
+    }
+    return startFP;
+  }
+
+  /** Maps a hash to a block, with a multiplication rather than a modulo so
+   *  that the number of blocks needs not be a power of two. */
+  private static int block(int hash, int numBlocks) {
+    return (int) (((hash & 0xFFFFFFFFL) * numBlocks) >>> 32);
+  }
+
+  /** Derives the positions of the bits in the block from the hash: the low
+   *  bits give the first position, and the high bits an odd step, so that
+   *  the {@link #NUM_PROBES} positions are distinct. */
+  private static int probes(int hash) {
+    // the block only depends on the high bits of hash: remix
+    hash *= 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  /** Murmur3 (x86, 32 bits) hash of a term. */
+  static int hash(BytesRef term) {
+    final byte[] bytes = term.bytes;
+    final int end = term.offset + (term.length & ~3);
+    int h = SEED;
+    for (int i = term.offset; i < end; i += 4) {
+      int k = (bytes[i] & 0xFF) | (bytes[i+1] & 0xFF) << 8 | (bytes[i+2] & 0xFF) << 16 | bytes[i+3] << 24;
+      k *= 0xCC9E2D51;
+      k = Integer.rotateLeft(k, 15);
+      k *= 0x1B873593;
+      h ^= k;
+      h = Integer.rotateLeft(h, 13);
+      h = h * 5 + 0xE6546B64;
+    }
+    int k = 0;
+    switch (term.length & 3) {
+      case 3:
+        k = (bytes[end+2] & 0xFF) << 16;
+        // fall through
+      case 2:
+        k |= (bytes[end+1] & 0xFF) << 8;
+        // fall through
+      case 1:
+        k |= bytes[end] & 0xFF;
+        k *= 0xCC9E2D51;
+        k = Integer.rotateLeft(k, 15);
+        k *= 0x1B873593;
+        h ^= k;
+    }
+    h ^= term.length;
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
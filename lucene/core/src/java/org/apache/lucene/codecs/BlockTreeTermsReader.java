@@ -158,6 +158,11 @@ public class BlockTreeTermsReader extends FieldsProducer {
         final long sumDocFreq = in.readVLong();
         final int docCount = in.readVInt();
         final int longsSize = version >= BlockTreeTermsWriter.TERMS_VERSION_META_ARRAY ? in.readVInt() : 0;
+        final int numFilterBlocks = version >= BlockTreeTermsWriter.TERMS_VERSION_TERM_FILTER ? in.readVInt() : 0;
+        if (numFilterBlocks < 0) {
+          throw new CorruptIndexException("invalid numFilterBlocks: " + numFilterBlocks + " (resource=" + in + ")");
+        }
+        final BlockTreeTermsFilter termFilter = numFilterBlocks == 0 ? null : new BlockTreeTermsFilter(in.readVLong(), numFilterBlocks);
         if (docCount < 0 || docCount > info.getDocCount()) { // #docs with field must be <= #docs
           throw new CorruptIndexException("invalid docCount: " + docCount + " maxDoc: " + info.getDocCount() + " (resource=" + in + ")");
         }
@@ -168,7 +173,7 @@ public class BlockTreeTermsReader extends FieldsProducer {
           throw new CorruptIndexException("invalid sumTotalTermFreq: " + sumTotalTermFreq + " sumDocFreq: " + sumDocFreq + " (resource=" + in + ")");
         }
         final long indexStartFP = indexIn.readVLong();
-        FieldReader previous = fields.put(fieldInfo.name, new FieldReader(fieldInfo, numTerms, rootCode, sumTotalTermFreq, sumDocFreq, docCount, indexStartFP, longsSize, indexIn));
+        FieldReader previous = fields.put(fieldInfo.name, new FieldReader(fieldInfo, numTerms, rootCode, sumTotalTermFreq, sumDocFreq, docCount, indexStartFP, longsSize, termFilter, indexIn));
         if (previous != null) {
           throw new CorruptIndexException("duplicate field: " + fieldInfo.name + " (resource=" + in + ")");
         }
@@ -449,11 +454,12 @@ public class BlockTreeTermsReader extends FieldsProducer {
     final long rootBlockFP;
     final BytesRef rootCode;
     final int longsSize;
+    final BlockTreeTermsFilter termFilter;
 
     private final FST<BytesRef> index;
     //private boolean DEBUG;
 
-    FieldReader(FieldInfo fieldInfo, long numTerms, BytesRef rootCode, long sumTotalTermFreq, long sumDocFreq, int docCount, long indexStartFP, int longsSize, IndexInput indexIn) throws IOException {
+    FieldReader(FieldInfo fieldInfo, long numTerms, BytesRef rootCode, long sumTotalTermFreq, long sumDocFreq, int docCount, long indexStartFP, int longsSize, BlockTreeTermsFilter termFilter, IndexInput indexIn) throws IOException {
       assert numTerms > 0;
       this.fieldInfo = fieldInfo;
       //DEBUG = BlockTreeTermsReader.DEBUG && fieldInfo.name.equals("id");
@@ -464,6 +470,7 @@ public class BlockTreeTermsReader extends FieldsProducer {
       this.indexStartFP = indexStartFP;
       this.rootCode = rootCode;
       this.longsSize = longsSize;
+      this.termFilter = termFilter;
       // if (DEBUG) {
       //   System.out.println("BTTR: seg=" + segment + " field=" + fieldInfo.name + " rootBlockCode=" + rootCode + " divisor=" + indexDivisor);
       // }
@@ -1516,6 +1523,16 @@ public class BlockTreeTermsReader extends FieldsProducer {
           throw new IllegalStateException("terms index was not loaded");
         }
 
+        if (termFilter != null) {
+          // Most lookups of a primary key miss: rule them out
+          // before walking the index, and leave the seek state
+          // untouched
+          initIndexInput();
+          if (!termFilter.mayContain(target, in)) {
+            return false;
+          }
+        }
+
         if (term.bytes.length <= target.length) {
           term.bytes = ArrayUtil.grow(term.bytes, 1+target.length);
         }
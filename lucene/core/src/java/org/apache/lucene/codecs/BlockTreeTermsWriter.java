@@ -108,19 +108,21 @@ import org.apache.lucene.util.packed.PackedInts;
  * and decoding the Postings Metadata and Term Metadata sections.</p>
  *
  * <ul>
- *    <li>TermsDict (.tim) --&gt; Header, <i>PostingsHeader</i>, NodeBlock<sup>NumBlocks</sup>,
+ *    <li>TermsDict (.tim) --&gt; Header, <i>PostingsHeader</i>, (NodeBlock<sup>NumBlocks</sup>, TermFilter?)<sup>NumFields</sup>,
  *                               FieldSummary, DirOffset</li>
  *    <li>NodeBlock --&gt; (OuterNode | InnerNode)</li>
  *    <li>OuterNode --&gt; EntryCount, SuffixLength, Byte<sup>SuffixLength</sup>, StatsLength, &lt; TermStats &gt;<sup>EntryCount</sup>, MetaLength, &lt;<i>TermMetadata</i>&gt;<sup>EntryCount</sup></li>
  *    <li>InnerNode --&gt; EntryCount, SuffixLength[,Sub?], Byte<sup>SuffixLength</sup>, StatsLength, &lt; TermStats ? &gt;<sup>EntryCount</sup>, MetaLength, &lt;<i>TermMetadata ? </i>&gt;<sup>EntryCount</sup></li>
  *    <li>TermStats --&gt; DocFreq, TotalTermFreq </li>
  *    <li>FieldSummary --&gt; NumFields, &lt;FieldNumber, NumTerms, RootCodeLength, Byte<sup>RootCodeLength</sup>,
- *                            SumTotalTermFreq?, SumDocFreq, DocCount&gt;<sup>NumFields</sup></li>
+ *                            SumTotalTermFreq?, SumDocFreq, DocCount, LongsSize, NumFilterBlocks, FilterStartFP?&gt;<sup>NumFields</sup></li>
+ *    <li>TermFilter --&gt; Padding, FilterBlock<sup>NumFilterBlocks</sup></li>
+ *    <li>FilterBlock --&gt; {@link DataOutput#writeLong Uint64}<sup>8</sup></li>
  *    <li>Header --&gt; {@link CodecUtil#writeHeader CodecHeader}</li>
  *    <li>DirOffset --&gt; {@link DataOutput#writeLong Uint64}</li>
  *    <li>EntryCount,SuffixLength,StatsLength,DocFreq,MetaLength,NumFields,
- *        FieldNumber,RootCodeLength,DocCount --&gt; {@link DataOutput#writeVInt VInt}</li>
- *    <li>TotalTermFreq,NumTerms,SumTotalTermFreq,SumDocFreq --&gt; 
+ *        FieldNumber,RootCodeLength,DocCount,LongsSize,NumFilterBlocks --&gt; {@link DataOutput#writeVInt VInt}</li>
+ *    <li>TotalTermFreq,NumTerms,SumTotalTermFreq,SumDocFreq,FilterStartFP --&gt; 
  *        {@link DataOutput#writeVLong VLong}</li>
  * </ul>
  * <p>Notes:</p>
@@ -137,6 +139,14 @@ import org.apache.lucene.util.packed.PackedInts;
  *    <li>SumDocFreq is the total number of postings, the number of term-document pairs across
  *        the entire field.</li>
  *    <li>DocCount is the number of documents that have at least one posting for this field.</li>
+ *    <li>LongsSize is the number of longs of term metadata that the postings implementation
+ *        writes per term.</li>
+ *    <li>TermFilter is a blocked Bloom filter of the terms of the field, only written when the
+ *        writer was created with term filters enabled. It is padded with zero bytes so that
+ *        each 64-byte FilterBlock starts on a 64-byte boundary, and it has
+ *        NumFilterBlocks blocks, about 10 bits per term. Each term sets 6 bits of a single
+ *        block. NumFilterBlocks is 0 if the field has no filter, and FilterStartFP points to
+ *        the first block otherwise.</li>
  *    <li>PostingsHeader and TermMetadata are plugged into by the specific postings implementation:
  *        these contain arbitrary per-file data (such as parameters or versioning information) 
  *        and per-term data (such as pointers to inverted files).</li>
@@ -212,8 +222,11 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
   /** Meta data as array */
   public static final int TERMS_VERSION_META_ARRAY = 2;
 
+  /** Optional per-field term filters */
+  public static final int TERMS_VERSION_TERM_FILTER = 3;
+
   /** Current terms format. */
-  public static final int TERMS_VERSION_CURRENT = TERMS_VERSION_META_ARRAY;
+  public static final int TERMS_VERSION_CURRENT = TERMS_VERSION_TERM_FILTER;
 
   /** Extension of terms index file */
   static final String TERMS_INDEX_EXTENSION = "tip";
@@ -228,14 +241,18 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
   /** Meta data as array */
   public static final int TERMS_INDEX_VERSION_META_ARRAY = 2;
 
+  /** Optional per-field term filters */
+  public static final int TERMS_INDEX_VERSION_TERM_FILTER = 3;
+
   /** Current index format. */
-  public static final int TERMS_INDEX_VERSION_CURRENT = TERMS_INDEX_VERSION_META_ARRAY;
+  public static final int TERMS_INDEX_VERSION_CURRENT = TERMS_INDEX_VERSION_TERM_FILTER;
 
   private final IndexOutput out;
   private final IndexOutput indexOut;
   final int maxDoc;
   final int minItemsInBlock;
   final int maxItemsInBlock;
+  final boolean writeTermFilters;
 
   final PostingsWriterBase postingsWriter;
   final FieldInfos fieldInfos;
@@ -249,8 +266,10 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
     public final long sumDocFreq;
     public final int docCount;
     private final int longsSize;
+    private final long filterStartFP;
+    private final int numFilterBlocks;
 
-    public FieldMetaData(FieldInfo fieldInfo, BytesRef rootCode, long numTerms, long indexStartFP, long sumTotalTermFreq, long sumDocFreq, int docCount, int longsSize) {
+    public FieldMetaData(FieldInfo fieldInfo, BytesRef rootCode, long numTerms, long indexStartFP, long sumTotalTermFreq, long sumDocFreq, int docCount, int longsSize, long filterStartFP, int numFilterBlocks) {
       assert numTerms > 0;
       this.fieldInfo = fieldInfo;
       assert rootCode != null: "field=" + fieldInfo.name + " numTerms=" + numTerms;
@@ -261,6 +280,8 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
       this.sumDocFreq = sumDocFreq;
       this.docCount = docCount;
       this.longsSize = longsSize;
+      this.filterStartFP = filterStartFP;
+      this.numFilterBlocks = numFilterBlocks;
     }
   }
 
@@ -277,6 +298,27 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
                               int minItemsInBlock,
                               int maxItemsInBlock)
     throws IOException
+  {
+    this(state, postingsWriter, minItemsInBlock, maxItemsInBlock, false);
+  }
+
+  /** Create a new writer, like {@link
+   *  #BlockTreeTermsWriter(SegmentWriteState,PostingsWriterBase,int,int)}.
+   *  If {@code writeTermFilters} is true, a Bloom filter of
+   *  the terms of each field is also written, sized from
+   *  the number of terms of the field, so that {@link
+   *  TermsEnum#seekExact(BytesRef)} can return false for
+   *  most missing terms without going through the terms
+   *  index.  This is worth it for primary key fields, which
+   *  are looked up in every segment on updates, but hit in
+   *  one segment at most. */
+  public BlockTreeTermsWriter(
+                              SegmentWriteState state,
+                              PostingsWriterBase postingsWriter,
+                              int minItemsInBlock,
+                              int maxItemsInBlock,
+                              boolean writeTermFilters)
+    throws IOException
   {
     if (minItemsInBlock <= 1) {
       throw new IllegalArgumentException("minItemsInBlock must be >= 2; got " + minItemsInBlock);
@@ -301,6 +343,7 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
       fieldInfos = state.fieldInfos;
       this.minItemsInBlock = minItemsInBlock;
       this.maxItemsInBlock = maxItemsInBlock;
+      this.writeTermFilters = writeTermFilters;
       writeHeader(out);
 
       //DEBUG = state.segmentName.equals("_4a");
@@ -532,6 +575,9 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
     long sumDocFreq;
     long indexStartFP;
 
+    // Hashes of the terms, for the term filter:
+    private int[] termHashes;
+
     // Used only to partition terms into the block tree; we
     // don't pull an FST from this builder:
     private final NoOutputs noOutputs;
@@ -1051,6 +1097,7 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
                                          true, 15);
 
       this.longsSize = postingsWriter.setField(fieldInfo);
+      termHashes = writeTermFilters ? new int[16] : null;
     }
     
     private final IntsRef scratchIntsRef = new IntsRef();
@@ -1068,6 +1115,12 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
 
         PendingTerm term = new PendingTerm(BytesRef.deepCopyOf(text), state);
         pending.add(term);
+        if (termHashes != null) {
+          if (numTerms == termHashes.length) {
+            termHashes = ArrayUtil.grow(termHashes, (int) numTerms + 1);
+          }
+          termHashes[(int) numTerms] = BlockTreeTermsFilter.hash(text);
+        }
         numTerms++;
       }
     }
@@ -1096,6 +1149,15 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
         //   w.close();
         // }
 
+        // Write the term filter after the blocks of the field
+        long filterStartFP = 0;
+        int numFilterBlocks = 0;
+        if (termHashes != null) {
+          numFilterBlocks = BlockTreeTermsFilter.numBlocks(numTerms);
+          filterStartFP = BlockTreeTermsFilter.write(termHashes, (int) numTerms, numFilterBlocks, out);
+          termHashes = null;
+        }
+
         fields.add(new FieldMetaData(fieldInfo,
                                      ((PendingBlock) pending.get(0)).index.getEmptyOutput(),
                                      numTerms,
@@ -1103,7 +1165,9 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
                                      sumTotalTermFreq,
                                      sumDocFreq,
                                      docsSeen.cardinality(),
-                                     longsSize));
+                                     longsSize,
+                                     filterStartFP,
+                                     numFilterBlocks));
       } else {
         assert sumTotalTermFreq == 0 || fieldInfo.getIndexOptions() == IndexOptions.DOCS_ONLY && sumTotalTermFreq == -1;
         assert sumDocFreq == 0;
@@ -1142,6 +1206,12 @@ public class BlockTreeTermsWriter extends FieldsConsumer implements Closeable {
         if (TERMS_VERSION_CURRENT >= TERMS_VERSION_META_ARRAY) {
           out.writeVInt(field.longsSize);
         }
+        if (TERMS_VERSION_CURRENT >= TERMS_VERSION_TERM_FILTER) {
+          out.writeVInt(field.numFilterBlocks);
+          if (field.numFilterBlocks > 0) {
+            out.writeVLong(field.filterStartFP);
+          }
+        }
         indexOut.writeVLong(field.indexStartFP);
       }
       writeTrailer(out, dirStart);
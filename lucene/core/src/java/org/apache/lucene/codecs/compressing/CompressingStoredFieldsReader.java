@@ -90,6 +90,10 @@ public final class CompressingStoredFieldsReader extends StoredFieldsReader {
   private final int numDocs;
   private boolean closed;
 
+  // utf-8 bytes of the string field being visited
+  private final BytesRef spare = new BytesRef();
+  private byte[] spareBytes = BytesRef.EMPTY_BYTES;
+
   // used by clone
   private CompressingStoredFieldsReader(CompressingStoredFieldsReader reader) {
     this.version = reader.version;
@@ -172,7 +176,12 @@ public final class CompressingStoredFieldsReader extends StoredFieldsReader {
     }
   }
 
-  private static void readField(DataInput in, StoredFieldVisitor visitor, FieldInfo info, int bits) throws IOException {
+  /**
+   * Reads a field and passes it to the visitor. If <code>in</code> reads the
+   * decompressed document from <code>document</code>, strings are passed as
+   * slices of it, otherwise they are copied to {@link #spare}.
+   */
+  private void readField(DataInput in, BytesRef document, StoredFieldVisitor visitor, FieldInfo info, int bits) throws IOException {
     switch (bits & TYPE_MASK) {
       case BYTE_ARR:
         int length = in.readVInt();
@@ -182,9 +191,19 @@ public final class CompressingStoredFieldsReader extends StoredFieldsReader {
         break;
       case STRING:
         length = in.readVInt();
-        data = new byte[length];
-        in.readBytes(data, 0, length);
-        visitor.stringField(info, new String(data, IOUtils.CHARSET_UTF_8));
+        if (document != null) {
+          final ByteArrayDataInput bytesInput = (ByteArrayDataInput) in;
+          spare.bytes = document.bytes;
+          spare.offset = bytesInput.getPosition();
+          spare.length = length;
+          bytesInput.skipBytes(length);
+        } else {
+          spare.bytes = spareBytes = ArrayUtil.grow(spareBytes, length);
+          spare.offset = 0;
+          spare.length = length;
+          in.readBytes(spareBytes, 0, length);
+        }
+        visitor.stringField(info, spare);
         break;
       case NUMERIC_INT:
         visitor.intField(info, in.readInt());
@@ -289,6 +308,8 @@ public final class CompressingStoredFieldsReader extends StoredFieldsReader {
     }
 
     final DataInput documentInput;
+    // the decompressed document, when it could be decompressed at once
+    BytesRef document = null;
     if (version >= VERSION_BIG_CHUNKS && totalLength >= 2 * chunkSize) {
       assert chunkSize > 0;
       assert offset < chunkSize;
@@ -336,6 +357,7 @@ public final class CompressingStoredFieldsReader extends StoredFieldsReader {
       decompressor.decompress(fieldsStream, totalLength, offset, length, bytes);
       assert bytes.length == length;
       documentInput = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+      document = bytes;
     }
 
     for (int fieldIDX = 0; fieldIDX < numStoredFields; fieldIDX++) {
@@ -348,7 +370,7 @@ public final class CompressingStoredFieldsReader extends StoredFieldsReader {
 
       switch(visitor.needsField(fieldInfo)) {
         case YES:
-          readField(documentInput, visitor, fieldInfo, bits);
+          readField(documentInput, document, visitor, fieldInfo, bits);
           break;
         case NO:
           skipField(documentInput, bits);
@@ -203,6 +203,62 @@ final class ForUtil {
     decoder.decode(encoded, 0, decoded, 0, iters);
   }
 
+  /**
+   * Read the next block of doc deltas and turn it into absolute doc IDs, so
+   * that <code>docs[i]</code> is <code>base</code> plus the sum of the first
+   * <code>i+1</code> deltas.
+   * <p>
+   * Unpacking goes through the decoder of the block's bit width, and the
+   * prefix sum runs right after it over the same, still cached, array. Blocks
+   * whose deltas are all equal (such as runs of consecutive docs) are filled
+   * without any prefix sum at all.
+   *
+   * @param in        the input to use to read data
+   * @param encoded   a buffer that can be used to store encoded data
+   * @param docs      where to write the doc IDs
+   * @param base      the doc ID that the first delta is relative to
+   * @throws IOException If there is a low-level I/O error
+   */
+  void readDocBlock(IndexInput in, byte[] encoded, int[] docs, int base) throws IOException {
+    final int numBits = in.readByte();
+    assert numBits <= 32 : numBits;
+
+    if (numBits == ALL_VALUES_EQUAL) {
+      final int delta = in.readVInt();
+      // no dependency between iterations
+      for (int i = 0; i < BLOCK_SIZE; ++i) {
+        docs[i] = base + (i + 1) * delta;
+      }
+      return;
+    }
+
+    final int encodedSize = encodedSizes[numBits];
+    in.readBytes(encoded, 0, encodedSize);
+
+    final PackedInts.Decoder decoder = decoders[numBits];
+    final int iters = iterations[numBits];
+    assert iters * decoder.byteValueCount() >= BLOCK_SIZE;
+
+    decoder.decode(encoded, 0, docs, 0, iters);
+    prefixSum(docs, base);
+  }
+
+  /** Adds <code>base</code> and all previous values to each of the first {@link Lucene41PostingsFormat#BLOCK_SIZE} values. */
+  private static void prefixSum(int[] values, int base) {
+    // BLOCK_SIZE is a multiple of 4: unroll to cut loop overhead
+    int acc = base;
+    for (int i = 0; i < BLOCK_SIZE; i += 4) {
+      final int v0 = acc + values[i];
+      final int v1 = v0 + values[i + 1];
+      final int v2 = v1 + values[i + 2];
+      acc = v2 + values[i + 3];
+      values[i] = v0;
+      values[i + 1] = v1;
+      values[i + 2] = v2;
+      values[i + 3] = acc;
+    }
+  }
+
   /**
    * Skip the next block of data.
    *
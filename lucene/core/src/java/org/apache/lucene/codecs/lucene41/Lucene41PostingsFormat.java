@@ -199,10 +199,10 @@ import org.apache.lucene.util.packed.PackedInts;
  *   <li>SkipData --&gt; &lt;&lt;SkipLevelLength, SkipLevel&gt;
  *       <sup>NumSkipLevels-1</sup>, SkipLevel&gt;, SkipDatum?</li>
  *   <li>SkipLevel --&gt; &lt;SkipDatum&gt; <sup>TrimmedDocFreq/(PackedBlockSize^(Level + 1))</sup></li>
- *   <li>SkipDatum --&gt; DocSkip, DocFPSkip, &lt;PosFPSkip, PosBlockOffset, PayLength?, 
+ *   <li>SkipDatum --&gt; DocSkip, DocFPSkip, BlockMaxFreq?, &lt;PosFPSkip, PosBlockOffset, PayLength?, 
  *                        PayFPSkip?&gt;?, SkipChildLevelPointer?</li>
  *   <li>PackedDocDeltaBlock, PackedFreqBlock --&gt; {@link PackedInts PackedInts}</li>
- *   <li>DocDelta, Freq, DocSkip, DocFPSkip, PosFPSkip, PosBlockOffset, PayByteUpto, PayFPSkip 
+ *   <li>DocDelta, Freq, DocSkip, DocFPSkip, BlockMaxFreq, PosFPSkip, PosBlockOffset, PayByteUpto, PayFPSkip 
  *       --&gt; 
  *   {@link DataOutput#writeVInt VInt}</li>
  *   <li>SkipChildLevelPointer --&gt; {@link DataOutput#writeVLong VLong}</li>
@@ -254,6 +254,10 @@ import org.apache.lucene.util.packed.PackedInts;
  *       PackedBlockSize+1<sup>th</sup>, 2*PackedBlockSize+1<sup>th</sup> ... , in DocFile. 
  *       The file offsets are relative to the start of current term's TermFreqs. 
  *       On disk it is also stored as the difference from previous SkipDatum in the sequence.</li>
+ *   <li>BlockMaxFreq records the maximum frequency of the documents in the packed block that ends 
+ *       at DocSkip. It is only stored on the lowest skip level, and only when frequencies are not 
+ *       omitted. Scorers use it to compute an upper bound of the score of a block without decoding 
+ *       it. Segments written before this field was added do not contain it.</li>
  *   <li>Since positions and payloads are also block encoded, the skip should skip to related block first,
  *       then fetch the values according to in-block offset. PosFPSkip and PayFPSkip record the file 
  *       offsets of related block in .pos and .pay, respectively. While PosBlockOffset indicates
@@ -375,6 +379,7 @@ public final class Lucene41PostingsFormat extends PostingsFormat {
 
   private final int minTermBlockSize;
   private final int maxTermBlockSize;
+  private final boolean writeTermFilters;
 
   /**
    * Fixed packed block size, number of integers encoded in 
@@ -394,11 +399,23 @@ public final class Lucene41PostingsFormat extends PostingsFormat {
    *  maxBlockSize} passed to block terms dictionary.
    *  @see BlockTreeTermsWriter#BlockTreeTermsWriter(SegmentWriteState,PostingsWriterBase,int,int) */
   public Lucene41PostingsFormat(int minTermBlockSize, int maxTermBlockSize) {
+    this(minTermBlockSize, maxTermBlockSize, false);
+  }
+
+  /** Creates {@code Lucene41PostingsFormat} with custom
+   *  values for {@code minBlockSize} and {@code
+   *  maxBlockSize}, that also writes a term filter per
+   *  field if {@code writeTermFilters} is true.  Term
+   *  filters make exact seeks of missing terms cheaper, and
+   *  are meant for primary key fields.
+   *  @see BlockTreeTermsWriter#BlockTreeTermsWriter(SegmentWriteState,PostingsWriterBase,int,int,boolean) */
+  public Lucene41PostingsFormat(int minTermBlockSize, int maxTermBlockSize, boolean writeTermFilters) {
     super("Lucene41");
     this.minTermBlockSize = minTermBlockSize;
     assert minTermBlockSize > 1;
     this.maxTermBlockSize = maxTermBlockSize;
     assert minTermBlockSize <= maxTermBlockSize;
+    this.writeTermFilters = writeTermFilters;
   }
 
   @Override
@@ -415,7 +432,8 @@ public final class Lucene41PostingsFormat extends PostingsFormat {
       FieldsConsumer ret = new BlockTreeTermsWriter(state, 
                                                     postingsWriter,
                                                     minTermBlockSize, 
-                                                    maxTermBlockSize);
+                                                    maxTermBlockSize,
+                                                    writeTermFilters);
       success = true;
       return ret;
     } finally {
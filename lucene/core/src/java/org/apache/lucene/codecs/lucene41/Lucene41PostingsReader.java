@@ -28,6 +28,7 @@ import java.util.Arrays;
 import org.apache.lucene.codecs.BlockTermState;
 import org.apache.lucene.codecs.CodecUtil;
 import org.apache.lucene.codecs.PostingsReaderBase;
+import org.apache.lucene.index.BlockMaxDocsEnum;
 import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.FieldInfo;
@@ -116,13 +117,15 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
 
   /**
    * Read values that have been written using variable-length encoding instead of bit-packing.
+   * Doc deltas are turned into absolute doc IDs, the first one being relative to <code>base</code>.
    */
   static void readVIntBlock(IndexInput docIn, int[] docBuffer,
-      int[] freqBuffer, int num, boolean indexHasFreq) throws IOException {
+      int[] freqBuffer, int num, boolean indexHasFreq, int base) throws IOException {
     if (indexHasFreq) {
       for(int i=0;i<num;i++) {
         final int code = docIn.readVInt();
-        docBuffer[i] = code >>> 1;
+        base += code >>> 1;
+        docBuffer[i] = base;
         if ((code & 1) != 0) {
           freqBuffer[i] = 1;
         } else {
@@ -131,7 +134,8 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
       }
     } else {
       for(int i=0;i<num;i++) {
-        docBuffer[i] = docIn.readVInt();
+        base += docIn.readVInt();
+        docBuffer[i] = base;
       }
     }
   }
@@ -266,10 +270,10 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     }
   }
 
-  final class BlockDocsEnum extends DocsEnum {
+  final class BlockDocsEnum extends BlockMaxDocsEnum {
     private final byte[] encoded;
     
-    private final int[] docDeltaBuffer = new int[MAX_DATA_SIZE];
+    private final int[] docBuffer = new int[MAX_DATA_SIZE];   // doc IDs of the current block
     private final int[] freqBuffer = new int[MAX_DATA_SIZE];
 
     private int docBufferUpto;
@@ -289,7 +293,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     private long totalTermFreq;                       // sum of freqs in this posting list (or docFreq when omitted)
     private int docUpto;                              // how many docs we've read
     private int doc;                                  // doc we last read
-    private int accum;                                // accumulator for doc deltas
+    private int accum;                                // doc we last decoded, deleted or not
     private int freq;                                 // freq we last read
 
     // Where this term's postings start in the .doc file:
@@ -304,6 +308,10 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     // target docID is not larger than this
     private int nextSkipDoc;
 
+    // last doc and max freq of the block located by advanceShallow
+    private int blockEnd;
+    private int blockMaxFreq;
+
     private Bits liveDocs;
     
     private boolean needsFreq; // true if the caller actually needs frequencies
@@ -354,6 +362,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
       nextSkipDoc = BLOCK_SIZE - 1; // we won't skip if target is found in first block
       docBufferUpto = BLOCK_SIZE;
       skipped = false;
+      blockEnd = -1;
       return this;
     }
     
@@ -375,7 +384,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         // if (DEBUG) {
         //   System.out.println("    fill doc block from fp=" + docIn.getFilePointer());
         // }
-        forUtil.readBlock(docIn, encoded, docDeltaBuffer);
+        forUtil.readDocBlock(docIn, encoded, docBuffer, accum);
 
         if (indexHasFreq) {
           // if (DEBUG) {
@@ -388,14 +397,14 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           }
         }
       } else if (docFreq == 1) {
-        docDeltaBuffer[0] = singletonDocID;
+        docBuffer[0] = singletonDocID;
         freqBuffer[0] = (int) totalTermFreq;
       } else {
         // Read vInts:
         // if (DEBUG) {
         //   System.out.println("    fill last vInt block from fp=" + docIn.getFilePointer());
         // }
-        readVIntBlock(docIn, docDeltaBuffer, freqBuffer, left, indexHasFreq);
+        readVIntBlock(docIn, docBuffer, freqBuffer, left, indexHasFreq, accum);
       }
       docBufferUpto = 0;
     }
@@ -421,9 +430,9 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         }
 
         // if (DEBUG) {
-        //   System.out.println("    accum=" + accum + " docDeltaBuffer[" + docBufferUpto + "]=" + docDeltaBuffer[docBufferUpto]);
+        //   System.out.println("    accum=" + accum + " docBuffer[" + docBufferUpto + "]=" + docBuffer[docBufferUpto]);
         // }
-        accum += docDeltaBuffer[docBufferUpto];
+        accum = docBuffer[docBufferUpto];
         docUpto++;
 
         if (liveDocs == null || liveDocs.get(accum)) {
@@ -457,23 +466,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         //   System.out.println("load skipper");
         // }
 
-        if (skipper == null) {
-          // Lazy init: first time this enum has ever been used for skipping
-          skipper = new Lucene41SkipReader(docIn.clone(),
-                                        Lucene41PostingsWriter.maxSkipLevels,
-                                        BLOCK_SIZE,
-                                        indexHasPos,
-                                        indexHasOffsets,
-                                        indexHasPayloads);
-        }
-
-        if (!skipped) {
-          assert skipOffset != -1;
-          // This is the first time this enum has skipped
-          // since reset() was called; load the skip data:
-          skipper.init(docTermStartFP+skipOffset, docTermStartFP, 0, 0, docFreq);
-          skipped = true;
-        }
+        initSkipper();
 
         // always plus one to fix the result, since skip position in Lucene41SkipReader 
         // is a little different from MultiLevelSkipListReader
@@ -509,7 +502,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         // if (DEBUG) {
         //   System.out.println("  scan doc=" + accum + " docBufferUpto=" + docBufferUpto);
         // }
-        accum += docDeltaBuffer[docBufferUpto];
+        accum = docBuffer[docBufferUpto];
         docUpto++;
 
         if (accum >= target) {
@@ -537,6 +530,68 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
       }
     }
     
+    private void initSkipper() {
+      if (skipper == null) {
+        // Lazy init: first time this enum has ever been used for skipping
+        skipper = new Lucene41SkipReader(docIn.clone(),
+                                      Lucene41PostingsWriter.maxSkipLevels,
+                                      BLOCK_SIZE,
+                                      indexHasFreq && version >= Lucene41PostingsWriter.VERSION_BLOCK_MAX,
+                                      indexHasPos,
+                                      indexHasOffsets,
+                                      indexHasPayloads);
+      }
+
+      if (!skipped) {
+        assert skipOffset != -1;
+        // This is the first time this enum has skipped
+        // since reset() was called; load the skip data:
+        skipper.init(docTermStartFP+skipOffset, docTermStartFP, 0, 0, docFreq);
+        skipped = true;
+      }
+    }
+
+    @Override
+    public int maxFreq() {
+      if (!indexHasFreq) {
+        return 1;
+      }
+      // every doc has freq >= 1, so no doc can have more than this:
+      return (int) Math.min(Integer.MAX_VALUE, totalTermFreq - docFreq + 1);
+    }
+
+    @Override
+    public int advanceShallow(int target) throws IOException {
+      assert target >= doc;
+      if (target <= blockEnd) {
+        // the block that contains target is already located
+        return blockEnd;
+      }
+      if (docFreq <= BLOCK_SIZE || !indexHasFreq || version < Lucene41PostingsWriter.VERSION_BLOCK_MAX) {
+        // a single block, or no per-block freqs recorded: fall back to the bound of the term
+        blockMaxFreq = maxFreq();
+        return blockEnd = NO_MORE_DOCS;
+      }
+      initSkipper();
+      // the first block always ends after doc 0, so never ask the skipper for it:
+      skipper.skipTo(Math.max(target, 1));
+      final int nextSkipMaxFreq = skipper.getNextSkipMaxFreq();
+      if (nextSkipMaxFreq == -1) {
+        // we are in the last block, which has no skip entry
+        blockMaxFreq = maxFreq();
+        blockEnd = NO_MORE_DOCS;
+      } else {
+        blockMaxFreq = nextSkipMaxFreq;
+        blockEnd = skipper.getNextSkipDoc();
+      }
+      return blockEnd;
+    }
+
+    @Override
+    public int blockMaxFreq() {
+      return blockMaxFreq;
+    }
+
     @Override
     public long cost() {
       return docFreq;
@@ -548,7 +603,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     
     private final byte[] encoded;
 
-    private final int[] docDeltaBuffer = new int[MAX_DATA_SIZE];
+    private final int[] docBuffer = new int[MAX_DATA_SIZE];   // doc IDs of the current block
     private final int[] freqBuffer = new int[MAX_DATA_SIZE];
     private final int[] posDeltaBuffer = new int[MAX_DATA_SIZE];
 
@@ -570,7 +625,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     private long totalTermFreq;                       // number of positions in this posting list
     private int docUpto;                              // how many docs we've read
     private int doc;                                  // doc we last read
-    private int accum;                                // accumulator for doc deltas
+    private int accum;                                // doc we last decoded, deleted or not
     private int freq;                                 // freq we last read
     private int position;                             // current position
 
@@ -678,20 +733,20 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         // if (DEBUG) {
         //   System.out.println("    fill doc block from fp=" + docIn.getFilePointer());
         // }
-        forUtil.readBlock(docIn, encoded, docDeltaBuffer);
+        forUtil.readDocBlock(docIn, encoded, docBuffer, accum);
         // if (DEBUG) {
         //   System.out.println("    fill freq block from fp=" + docIn.getFilePointer());
         // }
         forUtil.readBlock(docIn, encoded, freqBuffer);
       } else if (docFreq == 1) {
-        docDeltaBuffer[0] = singletonDocID;
+        docBuffer[0] = singletonDocID;
         freqBuffer[0] = (int) totalTermFreq;
       } else {
         // Read vInts:
         // if (DEBUG) {
         //   System.out.println("    fill last vInt doc block from fp=" + docIn.getFilePointer());
         // }
-        readVIntBlock(docIn, docDeltaBuffer, freqBuffer, left, true);
+        readVIntBlock(docIn, docBuffer, freqBuffer, left, true, accum);
       }
       docBufferUpto = 0;
     }
@@ -750,9 +805,9 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           refillDocs();
         }
         // if (DEBUG) {
-        //   System.out.println("    accum=" + accum + " docDeltaBuffer[" + docBufferUpto + "]=" + docDeltaBuffer[docBufferUpto]);
+        //   System.out.println("    accum=" + accum + " docBuffer[" + docBufferUpto + "]=" + docBuffer[docBufferUpto]);
         // }
-        accum += docDeltaBuffer[docBufferUpto];
+        accum = docBuffer[docBufferUpto];
         freq = freqBuffer[docBufferUpto];
         posPendingCount += freq;
         docBufferUpto++;
@@ -791,6 +846,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           skipper = new Lucene41SkipReader(docIn.clone(),
                                         Lucene41PostingsWriter.maxSkipLevels,
                                         BLOCK_SIZE,
+                                        version >= Lucene41PostingsWriter.VERSION_BLOCK_MAX,
                                         true,
                                         indexHasOffsets,
                                         indexHasPayloads);
@@ -840,7 +896,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         // if (DEBUG) {
         //   System.out.println("  scan doc=" + accum + " docBufferUpto=" + docBufferUpto);
         // }
-        accum += docDeltaBuffer[docBufferUpto];
+        accum = docBuffer[docBufferUpto];
         freq = freqBuffer[docBufferUpto];
         posPendingCount += freq;
         docBufferUpto++;
@@ -964,7 +1020,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     
     private final byte[] encoded;
 
-    private final int[] docDeltaBuffer = new int[MAX_DATA_SIZE];
+    private final int[] docBuffer = new int[MAX_DATA_SIZE];   // doc IDs of the current block
     private final int[] freqBuffer = new int[MAX_DATA_SIZE];
     private final int[] posDeltaBuffer = new int[MAX_DATA_SIZE];
 
@@ -1000,7 +1056,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
     private long totalTermFreq;                       // number of positions in this posting list
     private int docUpto;                              // how many docs we've read
     private int doc;                                  // doc we last read
-    private int accum;                                // accumulator for doc deltas
+    private int accum;                                // doc we last decoded, deleted or not
     private int freq;                                 // freq we last read
     private int position;                             // current position
 
@@ -1139,19 +1195,19 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         // if (DEBUG) {
         //   System.out.println("    fill doc block from fp=" + docIn.getFilePointer());
         // }
-        forUtil.readBlock(docIn, encoded, docDeltaBuffer);
+        forUtil.readDocBlock(docIn, encoded, docBuffer, accum);
         // if (DEBUG) {
         //   System.out.println("    fill freq block from fp=" + docIn.getFilePointer());
         // }
         forUtil.readBlock(docIn, encoded, freqBuffer);
       } else if (docFreq == 1) {
-        docDeltaBuffer[0] = singletonDocID;
+        docBuffer[0] = singletonDocID;
         freqBuffer[0] = (int) totalTermFreq;
       } else {
         // if (DEBUG) {
         //   System.out.println("    fill last vInt doc block from fp=" + docIn.getFilePointer());
         // }
-        readVIntBlock(docIn, docDeltaBuffer, freqBuffer, left, true);
+        readVIntBlock(docIn, docBuffer, freqBuffer, left, true, accum);
       }
       docBufferUpto = 0;
     }
@@ -1268,9 +1324,9 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           refillDocs();
         }
         // if (DEBUG) {
-        //   System.out.println("    accum=" + accum + " docDeltaBuffer[" + docBufferUpto + "]=" + docDeltaBuffer[docBufferUpto]);
+        //   System.out.println("    accum=" + accum + " docBuffer[" + docBufferUpto + "]=" + docBuffer[docBufferUpto]);
         // }
-        accum += docDeltaBuffer[docBufferUpto];
+        accum = docBuffer[docBufferUpto];
         freq = freqBuffer[docBufferUpto];
         posPendingCount += freq;
         docBufferUpto++;
@@ -1313,6 +1369,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
           skipper = new Lucene41SkipReader(docIn.clone(),
                                         Lucene41PostingsWriter.maxSkipLevels,
                                         BLOCK_SIZE,
+                                        version >= Lucene41PostingsWriter.VERSION_BLOCK_MAX,
                                         true,
                                         indexHasOffsets,
                                         indexHasPayloads);
@@ -1363,7 +1420,7 @@ public final class Lucene41PostingsReader extends PostingsReaderBase {
         // if (DEBUG) {
         //   System.out.println("  scan doc=" + accum + " docBufferUpto=" + docBufferUpto);
         // }
-        accum += docDeltaBuffer[docBufferUpto];
+        accum = docBuffer[docBufferUpto];
         freq = freqBuffer[docBufferUpto];
         posPendingCount += freq;
         docBufferUpto++;
@@ -64,7 +64,8 @@ public final class Lucene41PostingsWriter extends PushPostingsWriterBase {
   // Increment version to change it
   final static int VERSION_START = 0;
   final static int VERSION_META_ARRAY = 1;
-  final static int VERSION_CURRENT = VERSION_META_ARRAY;
+  final static int VERSION_BLOCK_MAX = 2;
+  final static int VERSION_CURRENT = VERSION_BLOCK_MAX;
 
   final IndexOutput docOut;
   final IndexOutput posOut;
@@ -92,6 +93,7 @@ public final class Lucene41PostingsWriter extends PushPostingsWriterBase {
   private int payloadByteUpto;
 
   private int lastBlockDocID;
+  private int lastBlockMaxFreq;
   private long lastBlockPosFP;
   private long lastBlockPayFP;
   private int lastBlockPosBufferUpto;
@@ -232,7 +234,7 @@ public final class Lucene41PostingsWriter extends PushPostingsWriterBase {
   @Override
   public int setField(FieldInfo fieldInfo) {
     super.setField(fieldInfo);
-    skipWriter.setField(writePositions, writeOffsets, writePayloads);
+    skipWriter.setField(writeFreqs, writePositions, writeOffsets, writePayloads);
     lastState = emptyState;
     if (writePositions) {
       if (writePayloads || writeOffsets) {
@@ -274,7 +276,7 @@ public final class Lucene41PostingsWriter extends PushPostingsWriterBase {
       // if (DEBUG) {
       //   System.out.println("  bufferSkip at writeBlock: lastDocID=" + lastBlockDocID + " docCount=" + (docCount-1));
       // }
-      skipWriter.bufferSkip(lastBlockDocID, docCount, lastBlockPosFP, lastBlockPayFP, lastBlockPosBufferUpto, lastBlockPayloadByteUpto);
+      skipWriter.bufferSkip(lastBlockDocID, lastBlockMaxFreq, docCount, lastBlockPosFP, lastBlockPayFP, lastBlockPosBufferUpto, lastBlockPayloadByteUpto);
     }
 
     final int docDelta = docID - lastDocID;
@@ -372,6 +374,13 @@ public final class Lucene41PostingsWriter extends PushPostingsWriterBase {
     // write them to skip file.
     if (docBufferUpto == BLOCK_SIZE) {
       lastBlockDocID = lastDocID;
+      if (writeFreqs) {
+        int maxFreq = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+          maxFreq = Math.max(maxFreq, freqBuffer[i]);
+        }
+        lastBlockMaxFreq = maxFreq;
+      }
       if (posOut != null) {
         if (payOut != null) {
           lastBlockPayFP = payOut.getFilePointer();
@@ -54,7 +54,10 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
   // private boolean DEBUG = Lucene41PostingsReader.DEBUG;
   private final int blockSize;
 
+  private final boolean hasMaxFreq;
+
   private long docPointer[];
+  private int maxFreq;
   private long posPointer[];
   private long payPointer[];
   private int posBufferUpto[];
@@ -66,9 +69,10 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
   private long lastDocPointer;
   private int lastPosBufferUpto;
 
-  public Lucene41SkipReader(IndexInput skipStream, int maxSkipLevels, int blockSize, boolean hasPos, boolean hasOffsets, boolean hasPayloads) {
+  public Lucene41SkipReader(IndexInput skipStream, int maxSkipLevels, int blockSize, boolean hasMaxFreq, boolean hasPos, boolean hasOffsets, boolean hasPayloads) {
     super(skipStream, maxSkipLevels, blockSize, 8);
     this.blockSize = blockSize;
+    this.hasMaxFreq = hasMaxFreq;
     docPointer = new long[maxSkipLevels];
     if (hasPos) {
       posPointer = new long[maxSkipLevels];
@@ -144,6 +148,12 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
     return skipDoc[0];
   }
 
+  /** Returns the maximum freq of the docs in the block that ends at 
+   *  {@link #getNextSkipDoc()}, or -1 if it was not recorded. */
+  public int getNextSkipMaxFreq() {
+    return hasMaxFreq && skipDoc[0] != Integer.MAX_VALUE ? maxFreq : -1;
+  }
+
   @Override
   protected void seekChild(int level) throws IOException {
     super.seekChild(level);
@@ -200,6 +210,10 @@ final class Lucene41SkipReader extends MultiLevelSkipListReader {
     //   System.out.println("  docFP=" + docPointer[level]);
     // }
 
+    if (level == 0 && hasMaxFreq) {
+      maxFreq = skipStream.readVInt();
+    }
+
     if (posPointer != null) {
       posPointer[level] += skipStream.readVInt();
       // if (DEBUG) {
@@ -41,6 +41,8 @@ import org.apache.lucene.codecs.MultiLevelSkipListWriter;
  * 2. its related file points(position, payload), 
  * 3. related numbers or uptos(position, payload).
  * 4. start offset.
+ * 5. the maximum freq of the docs in the former block (level 0 only, 
+ *    and only if the field indexes freqs).
  *
  */
 final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
@@ -62,6 +64,8 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
   private long curPayPointer;
   private int curPosBufferUpto;
   private int curPayloadByteUpto;
+  private int curMaxFreq;
+  private boolean fieldHasFreqs;
   private boolean fieldHasPositions;
   private boolean fieldHasOffsets;
   private boolean fieldHasPayloads;
@@ -83,7 +87,8 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
     }
   }
 
-  public void setField(boolean fieldHasPositions, boolean fieldHasOffsets, boolean fieldHasPayloads) {
+  public void setField(boolean fieldHasFreqs, boolean fieldHasPositions, boolean fieldHasOffsets, boolean fieldHasPayloads) {
+    this.fieldHasFreqs = fieldHasFreqs;
     this.fieldHasPositions = fieldHasPositions;
     this.fieldHasOffsets = fieldHasOffsets;
     this.fieldHasPayloads = fieldHasPayloads;
@@ -108,8 +113,9 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
   /**
    * Sets the values for the current skip data. 
    */
-  public void bufferSkip(int doc, int numDocs, long posFP, long payFP, int posBufferUpto, int payloadByteUpto) throws IOException {
+  public void bufferSkip(int doc, int maxFreq, int numDocs, long posFP, long payFP, int posBufferUpto, int payloadByteUpto) throws IOException {
     this.curDoc = doc;
+    this.curMaxFreq = maxFreq;
     this.curDocPointer = docOut.getFilePointer();
     this.curPosPointer = posFP;
     this.curPayPointer = payFP;
@@ -130,6 +136,10 @@ final class Lucene41SkipWriter extends MultiLevelSkipListWriter {
     skipBuffer.writeVInt((int) (curDocPointer - lastSkipDocPointer[level]));
     lastSkipDocPointer[level] = curDocPointer;
 
+    if (level == 0 && fieldHasFreqs) {
+      skipBuffer.writeVInt(curMaxFreq);
+    }
+
     if (fieldHasPositions) {
       // if (DEBUG) {
       //   System.out.println("  curPosPointer=" + curPosPointer + " curPosBufferUpto=" + curPosBufferUpto);
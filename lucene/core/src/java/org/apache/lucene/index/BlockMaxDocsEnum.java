@@ -0,0 +1,64 @@
+package org.apache.lucene.index;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+/**
+ * A {@link DocsEnum} that can report upper bounds of the term frequency
+ * for blocks of documents without decoding them. This allows scorers
+ * to skip over blocks that cannot produce competitive hits.
+ * <p>
+ * Blocks are located with {@link #advanceShallow(int)}, which moves
+ * the block cursor but leaves the position of the enum (as returned by
+ * {@link #docID()}) untouched.
+ *
+ * @lucene.experimental
+ */
+public abstract class BlockMaxDocsEnum extends DocsEnum {
+
+  /** Sole constructor. (For invocation by subclass
+   *  constructors, typically implicit.) */
+  protected BlockMaxDocsEnum() {
+  }
+
+  /**
+   * Returns an upper bound of the term frequency of any document
+   * in this enum.
+   */
+  public abstract int maxFreq();
+
+  /**
+   * Locates the block that contains <code>target</code> and returns
+   * the last document of that block, or {@link #NO_MORE_DOCS} if
+   * this is the last block or the block boundaries are not known.
+   * <p>
+   * <code>target</code> must be greater than or equal to the
+   * current {@link #docID()}, and must not be less than the
+   * target of a previous call to this method. After calling this
+   * method, {@link #advance(int)} must not be called with a target
+   * less than <code>target</code>.
+   */
+  public abstract int advanceShallow(int target) throws IOException;
+
+  /**
+   * Returns an upper bound of the term frequency of the documents
+   * in the block located by the last call to {@link #advanceShallow(int)}.
+   */
+  public abstract int blockMaxFreq();
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.util.BytesRef;
 
 /**
  * Expert: provides a low-level means of accessing the stored field
@@ -57,6 +58,18 @@ public abstract class StoredFieldVisitor {
   public void stringField(FieldInfo fieldInfo, String value) throws IOException {
   }
 
+  /** Process a string field given as its UTF-8 bytes. Stored fields readers
+   * that have the UTF-8 bytes at hand call this instead of
+   * {@link #stringField(FieldInfo, String)}, so that visitors which only need
+   * the bytes can avoid decoding them. The default implementation decodes
+   * the bytes and calls {@link #stringField(FieldInfo, String)}.
+   * @param value the UTF-8 bytes of the value; only valid until this method
+   *        returns, since readers may reuse the underlying array.
+   */
+  public void stringField(FieldInfo fieldInfo, BytesRef value) throws IOException {
+    stringField(fieldInfo, value.utf8ToString());
+  }
+
   /** Process a int numeric field. */
   public void intField(FieldInfo fieldInfo, int value) throws IOException {
   }
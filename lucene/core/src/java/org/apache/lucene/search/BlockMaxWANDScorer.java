@@ -0,0 +1,257 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A Scorer for pure disjunctions of term queries that implements the
+ * block-max WAND algorithm described in "Faster Top-k Document Retrieval
+ * Using Block-Max Indexes" (Ding and Suel, SIGIR 2011).
+ * <p>
+ * When it is used to collect the top hits into a {@link TopScoreDocCollector}
+ * that does not need the total hit count, a document is only scored if the
+ * sum of the upper bounds of the postings blocks it may appear in can beat
+ * the worst hit of the priority queue. Blocks that cannot compete are
+ * skipped without being decoded. In all other cases this scorer behaves
+ * exactly like {@link DisjunctionSumScorer}.
+ */
+final class BlockMaxWANDScorer extends Scorer {
+
+  /** Relative slack applied to upper bounds, so that rounding errors in
+   *  the sums never cause a competitive document to be skipped. */
+  private static final double SLACK = 1e-5;
+
+  /** A sub-scorer along with its current doc and upper bound. */
+  private static final class Cursor {
+    final TermScorer scorer;
+    final float maxScore;
+    int doc = -1;
+
+    Cursor(TermScorer scorer) {
+      this.scorer = scorer;
+      this.maxScore = scorer.maxScore();
+    }
+  }
+
+  private final TermScorer[] subScorers;
+  private final float[] coord;
+  private final float maxCoord;
+  private final DisjunctionSumScorer disjunction;
+
+  // state of the current hit when skipping over non-competitive documents
+  private boolean skipping;
+  private int doc = -1;
+  private float score;
+  private int nrMatchers;
+
+  /**
+   * Returns true if the given optional scorers can be scored with
+   * block-max WAND, ie. they are all term scorers with known upper
+   * bounds and the coordination factors are never negative.
+   */
+  static boolean canScore(List<Scorer> scorers, float[] coord) {
+    for (Scorer scorer : scorers) {
+      if (!(scorer instanceof TermScorer)) {
+        return false;
+      }
+      final TermScorer termScorer = (TermScorer) scorer;
+      if (!termScorer.hasBlockMax() || Float.isInfinite(termScorer.maxScore())) {
+        return false;
+      }
+    }
+    for (float c : coord) {
+      if (!(c >= 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  BlockMaxWANDScorer(Weight weight, TermScorer[] subScorers, float[] coord) throws IOException {
+    super(weight);
+    this.subScorers = subScorers;
+    this.coord = coord;
+    float maxCoord = 0;
+    for (float c : coord) {
+      maxCoord = Math.max(maxCoord, c);
+    }
+    this.maxCoord = maxCoord;
+    // DisjunctionSumScorer reorders the array it is given
+    this.disjunction = new DisjunctionSumScorer(weight, subScorers.clone(), coord);
+  }
+
+  @Override
+  public void score(Collector collector) throws IOException {
+    if (collector instanceof TopScoreDocCollector && ((TopScoreDocCollector) collector).canSkipNonCompetitiveHits()) {
+      scoreTopHits((TopScoreDocCollector) collector);
+    } else {
+      super.score(collector);
+    }
+  }
+
+  private void scoreTopHits(TopScoreDocCollector collector) throws IOException {
+    assert docID() == -1; // not started
+    skipping = true;
+    collector.setScorer(this);
+
+    final Cursor[] cursors = new Cursor[subScorers.length];
+    for (int i = 0; i < cursors.length; i++) {
+      cursors[i] = new Cursor(subScorers[i]);
+      cursors[i].doc = subScorers[i].nextDoc();
+    }
+    int numCursors = sortCursors(cursors, cursors.length);
+
+    while (numCursors > 0) {
+      final float minCompetitiveScore = collector.minCompetitiveScore();
+
+      // find the pivot: the first cursor such that a document that
+      // matches it and all previous cursors could be competitive
+      int pivot = -1;
+      double upperBound = 0;
+      for (int i = 0; i < numCursors; i++) {
+        upperBound += cursors[i].maxScore;
+        if (competitive(upperBound, minCompetitiveScore)) {
+          pivot = i;
+          break;
+        }
+      }
+      if (pivot == -1) {
+        // no remaining document can compete
+        break;
+      }
+      final int pivotDoc = cursors[pivot].doc;
+      while (pivot + 1 < numCursors && cursors[pivot + 1].doc == pivotDoc) {
+        pivot++;
+      }
+
+      // refine the upper bound with the maximum scores of the blocks
+      // that contain the pivot doc
+      double blockUpperBound = 0;
+      int minBlockEnd = NO_MORE_DOCS;
+      for (int i = 0; i <= pivot; i++) {
+        final TermScorer scorer = cursors[i].scorer;
+        minBlockEnd = Math.min(minBlockEnd, scorer.advanceShallow(pivotDoc));
+        blockUpperBound += scorer.blockMaxScore();
+      }
+
+      if (competitive(blockUpperBound, minCompetitiveScore)) {
+        if (cursors[0].doc == pivotDoc) {
+          // all cursors up to the pivot are positioned on the pivot doc
+          double sum = 0;
+          for (int i = 0; i <= pivot; i++) {
+            sum += cursors[i].scorer.score();
+          }
+          doc = pivotDoc;
+          nrMatchers = pivot + 1;
+          score = (float) sum * coord[nrMatchers];
+          collector.collect(doc);
+          for (int i = 0; i <= pivot; i++) {
+            cursors[i].doc = cursors[i].scorer.nextDoc();
+          }
+        } else {
+          // move the lagging cursors to the pivot doc
+          for (int i = 0; cursors[i].doc < pivotDoc; i++) {
+            cursors[i].doc = cursors[i].scorer.advance(pivotDoc);
+          }
+        }
+      } else {
+        // no document can compete until one of the current blocks ends,
+        // or until a cursor past the pivot contributes to the score
+        int target = minBlockEnd == NO_MORE_DOCS ? NO_MORE_DOCS : minBlockEnd + 1;
+        if (pivot + 1 < numCursors) {
+          target = Math.min(target, cursors[pivot + 1].doc);
+        }
+        // only move the cursor that weighs most, others might be able to skip further later
+        int best = 0;
+        for (int i = 1; i <= pivot; i++) {
+          if (cursors[i].maxScore > cursors[best].maxScore) {
+            best = i;
+          }
+        }
+        cursors[best].doc = cursors[best].scorer.advance(target);
+      }
+
+      numCursors = sortCursors(cursors, numCursors);
+    }
+
+    doc = NO_MORE_DOCS;
+  }
+
+  private boolean competitive(double upperBound, float minCompetitiveScore) {
+    return upperBound * maxCoord * (1 + SLACK) > minCompetitiveScore;
+  }
+
+  /** Sorts the first <code>numCursors</code> cursors by doc and returns
+   *  the number of cursors that are not exhausted. */
+  private static int sortCursors(Cursor[] cursors, int numCursors) {
+    // insertion sort: only a few cursors move at a time
+    for (int i = 1; i < numCursors; i++) {
+      final Cursor cursor = cursors[i];
+      int j = i - 1;
+      while (j >= 0 && cursors[j].doc > cursor.doc) {
+        cursors[j + 1] = cursors[j];
+        j--;
+      }
+      cursors[j + 1] = cursor;
+    }
+    while (numCursors > 0 && cursors[numCursors - 1].doc == NO_MORE_DOCS) {
+      numCursors--;
+    }
+    return numCursors;
+  }
+
+  @Override
+  public int docID() {
+    return skipping ? doc : disjunction.docID();
+  }
+
+  @Override
+  public int nextDoc() throws IOException {
+    assert !skipping;
+    return disjunction.nextDoc();
+  }
+
+  @Override
+  public int advance(int target) throws IOException {
+    assert !skipping;
+    return disjunction.advance(target);
+  }
+
+  @Override
+  public float score() throws IOException {
+    return skipping ? score : disjunction.score();
+  }
+
+  @Override
+  public int freq() throws IOException {
+    return skipping ? nrMatchers : disjunction.freq();
+  }
+
+  @Override
+  public long cost() {
+    return disjunction.cost();
+  }
+
+  @Override
+  public Collection<ChildScorer> getChildren() {
+    return disjunction.getChildren();
+  }
+}
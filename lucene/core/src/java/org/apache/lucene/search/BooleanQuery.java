@@ -333,7 +333,8 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
       // TODO: (LUCENE-4872) in some cases BooleanScorer may be faster for minNrShouldMatch
       // but the same is even true of pure conjunctions...
       if (!scoreDocsInOrder && topScorer && required.size() == 0 && minNrShouldMatch <= 1) {
-        return new BooleanScorer(this, disableCoord, minNrShouldMatch, optional, prohibited, maxCoord);
+        final int windowSize = BooleanScorer.windowSize(optional, prohibited, context.reader().maxDoc());
+        return new BooleanScorer(this, disableCoord, minNrShouldMatch, optional, prohibited, maxCoord, windowSize);
       }
       
       if (required.size() == 0 && optional.size() == 0) {
@@ -358,6 +359,11 @@ public class BooleanQuery extends Query implements Iterable<BooleanClause> {
         for (int i = 0; i < coord.length; i++) {
           coord[i] = disableCoord ? 1.0f : coord(i, maxCoord);
         }
+        // a top-level disjunction of terms may skip non-competitive
+        // blocks if the collector does not need the total hit count
+        if (topScorer && BlockMaxWANDScorer.canScore(optional, coord)) {
+          return new BlockMaxWANDScorer(this, optional.toArray(new TermScorer[optional.size()]), coord);
+        }
         return new DisjunctionSumScorer(this, optional.toArray(new Scorer[optional.size()]), coord);
       }
       
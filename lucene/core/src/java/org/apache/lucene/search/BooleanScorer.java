@@ -19,6 +19,7 @@ package org.apache.lucene.search;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -56,7 +57,11 @@ import org.apache.lucene.search.BooleanQuery.BooleanWeight;
  * be evaluated first, then the optional terms can all skip
  * to the match and be added to the score. Thus the
  * conjunction can reduce the number of priority queue
- * updates for the optional terms. */
+ * updates for the optional terms.
+ *
+ * Note that the window is no longer always 2K docs: its size
+ * is picked per segment from the cost of the sub scorers,
+ * see windowSize. */
 
 final class BooleanScorer extends Scorer {
   
@@ -73,21 +78,20 @@ final class BooleanScorer extends Scorer {
     @Override
     public void collect(final int doc) throws IOException {
       final BucketTable table = bucketTable;
-      final int i = doc & BucketTable.MASK;
-      final Bucket bucket = table.buckets[i];
+      final int i = doc & table.mask;
       
-      if (bucket.doc != doc) {                    // invalid bucket
-        bucket.doc = doc;                         // set doc
-        bucket.score = scorer.score();            // initialize score
-        bucket.bits = mask;                       // initialize mask
-        bucket.coord = 1;                         // initialize coord
-
-        bucket.next = table.first;                // push onto valid list
-        table.first = bucket;
+      if (table.docs[i] != doc) {                 // invalid bucket
+        table.docs[i] = doc;                      // set doc
+        table.scores[i] = scorer.score();         // initialize score
+        table.bits[i] = mask;                     // initialize mask
+        table.coords[i] = 1;                      // initialize coord
+
+        table.next[i] = table.first;              // push onto valid list
+        table.first = i;
       } else {                                    // valid bucket
-        bucket.score += scorer.score();           // increment score
-        bucket.bits |= mask;                      // add bits in mask
-        bucket.coord++;                           // increment coord
+        table.scores[i] += scorer.score();        // increment score
+        table.bits[i] |= mask;                    // add bits in mask
+        table.coords[i]++;                        // increment coord
       }
     }
     
@@ -140,38 +144,77 @@ final class BooleanScorer extends Scorer {
 
   }
 
-  static final class Bucket {
-    int doc = -1;            // tells if bucket is valid
-    double score;             // incremental score
+  /**
+   * A simple hash table of document scores within a window of docs. Buckets
+   * are slots of parallel arrays rather than objects, so that a window is
+   * scored over a few dense arrays that stay in cache.
+   */
+  static final class BucketTable {
+    /** The window size of tables that are not sized by cost. */
+    public static final int DEFAULT_SIZE = 1 << 11;
+    static final int MIN_SIZE = 1 << 9;
+    static final int MAX_SIZE = 1 << 12;
+
+    final int size;
+    final int mask;
+
+    final int[] docs;                             // tells if bucket is valid
+    final double[] scores;                        // incremental score
     // TODO: break out bool anyProhibited, int
     // numRequiredMatched; then we can remove 32 limit on
     // required clauses
-    int bits;                // used for bool constraints
-    int coord;               // count of terms in score
-    Bucket next;             // next valid bucket
-  }
-  
-  /** A simple hash table of document scores within a range. */
-  static final class BucketTable {
-    public static final int SIZE = 1 << 11;
-    public static final int MASK = SIZE - 1;
-
-    final Bucket[] buckets = new Bucket[SIZE];
-    Bucket first = null;                          // head of valid list
-  
-    public BucketTable() {
-      // Pre-fill to save the lazy init when collecting
-      // each sub:
-      for(int idx=0;idx<SIZE;idx++) {
-        buckets[idx] = new Bucket();
-      }
+    final int[] bits;                             // used for bool constraints
+    final int[] coords;                           // count of terms in score
+    final int[] next;                             // next valid bucket
+    int first = -1;                               // head of valid list, -1 if empty
+
+    /** @param size the window size, a power of 2 */
+    public BucketTable(int size) {
+      assert Integer.bitCount(size) == 1 : size;
+      this.size = size;
+      mask = size - 1;
+      docs = new int[size];
+      scores = new double[size];
+      bits = new int[size];
+      coords = new int[size];
+      next = new int[size];
+      Arrays.fill(docs, -1);
     }
 
     public Collector newCollector(int mask) {
       return new BooleanScorerCollector(mask, this);
     }
 
-    public int size() { return SIZE; }
+    public int size() { return size; }
+  }
+
+  /**
+   * Returns the window size for the given sub scorers of a segment with
+   * <code>maxDoc</code> documents. Sparse clauses get larger windows, so that
+   * the cost of going over all sub scorers once per window is spread over
+   * enough postings, while dense clauses get smaller windows that keep the
+   * bucket table in cache. Windows are never much larger than the segment.
+   */
+  static int windowSize(List<Scorer> optionalScorers, List<Scorer> prohibitedScorers, int maxDoc) {
+    long cost = 0;
+    int numScorers = 0;
+    for (List<Scorer> scorers : Arrays.asList(optionalScorers, prohibitedScorers)) {
+      if (scorers != null) {
+        for (Scorer scorer : scorers) {
+          cost += scorer.cost();
+          numScorers++;
+        }
+      }
+    }
+    // postings expected per doc of a window
+    final double density = (double) cost / Math.max(1, maxDoc);
+    // postings wanted per window: at least 64 per sub scorer
+    final double postings = 64.0 * Math.max(16, numScorers);
+    long size = density <= 0 ? BucketTable.MAX_SIZE : (long) Math.ceil(postings / density);
+    size = Math.min(size, Math.max(1, maxDoc));
+    size = Math.max(BucketTable.MIN_SIZE, Math.min(BucketTable.MAX_SIZE, size));
+    // round up to a power of 2
+    return Integer.highestOneBit((int) size - 1) << 1;
   }
 
   static final class SubScorer {
@@ -197,20 +240,26 @@ final class BooleanScorer extends Scorer {
   }
   
   private SubScorer scorers = null;
-  private BucketTable bucketTable = new BucketTable();
+  private final BucketTable bucketTable;
   private final float[] coordFactors;
   // TODO: re-enable this if BQ ever sends us required clauses
   //private int requiredMask = 0;
   private final int minNrShouldMatch;
   private int end;
-  private Bucket current;
+  private int current = -1;
   // Any time a prohibited clause matches we set bit 0:
   private static final int PROHIBITED_MASK = 1;
   
   BooleanScorer(BooleanWeight weight, boolean disableCoord, int minNrShouldMatch,
       List<Scorer> optionalScorers, List<Scorer> prohibitedScorers, int maxCoord) throws IOException {
+    this(weight, disableCoord, minNrShouldMatch, optionalScorers, prohibitedScorers, maxCoord, BucketTable.DEFAULT_SIZE);
+  }
+
+  BooleanScorer(BooleanWeight weight, boolean disableCoord, int minNrShouldMatch,
+      List<Scorer> optionalScorers, List<Scorer> prohibitedScorers, int maxCoord, int windowSize) throws IOException {
     super(weight);
     this.minNrShouldMatch = minNrShouldMatch;
+    this.bucketTable = new BucketTable(windowSize);
 
     if (optionalScorers != null && optionalScorers.size() > 0) {
       for (Scorer scorer : optionalScorers) {
@@ -240,22 +289,28 @@ final class BooleanScorer extends Scorer {
     // Make sure it's only BooleanScorer that calls us:
     assert firstDocID == -1;
     boolean more;
-    Bucket tmp;
+    int tmp;
     BucketScorer bs = new BucketScorer(weight);
+    final BucketTable table = bucketTable;
+    final int[] docs = table.docs;
+    final double[] scores = table.scores;
+    final int[] bits = table.bits;
+    final int[] coords = table.coords;
+    final int[] next = table.next;
 
     // The internal loop will set the score and doc before calling collect.
     collector.setScorer(bs);
     do {
-      bucketTable.first = null;
+      table.first = -1;
       
-      while (current != null) {         // more queued 
+      while (current != -1) {         // more queued 
 
         // check prohibited & required
-        if ((current.bits & PROHIBITED_MASK) == 0) {
+        if ((bits[current] & PROHIBITED_MASK) == 0) {
 
           // TODO: re-enable this if BQ ever sends us required
           // clauses
-          //&& (current.bits & requiredMask) == requiredMask) {
+          //&& (bits[current] & requiredMask) == requiredMask) {
           
           // NOTE: Lucene always passes max =
           // Integer.MAX_VALUE today, because we never embed
@@ -263,43 +318,44 @@ final class BooleanScorer extends Scorer {
           // that should work)... but in theory an outside
           // app could pass a different max so we must check
           // it:
-          if (current.doc >= max){
+          if (docs[current] >= max){
             tmp = current;
-            current = current.next;
-            tmp.next = bucketTable.first;
-            bucketTable.first = tmp;
+            current = next[current];
+            next[tmp] = table.first;
+            table.first = tmp;
             continue;
           }
           
-          if (current.coord >= minNrShouldMatch) {
-            bs.score = current.score * coordFactors[current.coord];
-            bs.doc = current.doc;
-            bs.freq = current.coord;
-            collector.collect(current.doc);
+          final int coord = coords[current];
+          if (coord >= minNrShouldMatch) {
+            bs.score = scores[current] * coordFactors[coord];
+            bs.doc = docs[current];
+            bs.freq = coord;
+            collector.collect(docs[current]);
           }
         }
         
-        current = current.next;         // pop the queue
+        current = next[current];         // pop the queue
       }
       
-      if (bucketTable.first != null){
-        current = bucketTable.first;
-        bucketTable.first = current.next;
+      if (table.first != -1){
+        current = table.first;
+        table.first = next[current];
         return true;
       }
 
       // refill the queue
       more = false;
-      end += BucketTable.SIZE;
+      end += table.size;
       for (SubScorer sub = scorers; sub != null; sub = sub.next) {
         int subScorerDocID = sub.scorer.docID();
         if (subScorerDocID != NO_MORE_DOCS) {
           more |= sub.scorer.score(sub.collector, end, subScorerDocID);
         }
       }
-      current = bucketTable.first;
+      current = table.first;
       
-    } while (current != null || more);
+    } while (current != -1 || more);
 
     return false;
   }
@@ -175,5 +175,38 @@ public abstract class Collector {
    * here.
    */
   public abstract boolean acceptsDocsOutOfOrder();
+
+  /**
+   * Return <code>true</code> if this collector implements
+   * {@link #collect(int[], float[], int)}, so that scorers may pass it
+   * whole batches of hits rather than calling {@link #collect(int)}
+   * once per hit. Scorers that do not score in batches keep calling
+   * {@link #collect(int)}, which must still be implemented.
+   * The default implementation returns <code>false</code>.
+   *
+   * @lucene.experimental
+   */
+  public boolean acceptsBatches() {
+    return false;
+  }
+
+  /**
+   * Called with a batch of matching documents, with their unbased
+   * document numbers in increasing order and their scores. Only
+   * called if {@link #acceptsBatches()} returns <code>true</code>, and
+   * the scorer passed to {@link #setScorer(Scorer)} may already be
+   * positioned past the batch.
+   * <p>
+   * The default implementation throws
+   * {@link UnsupportedOperationException}.
+   *
+   * @param docs the documents, only the first <code>count</code> are valid
+   * @param scores the scores of the documents
+   * @param count the number of documents in the batch
+   * @lucene.experimental
+   */
+  public void collect(int[] docs, float[] scores, int count) throws IOException {
+    throw new UnsupportedOperationException(getClass().getName() + " does not accept batches");
+  }
   
 }
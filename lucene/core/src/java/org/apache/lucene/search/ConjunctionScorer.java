@@ -100,6 +100,25 @@ class ConjunctionScorer extends Scorer {
     return lastDoc = doNext(lead.doc);
   }
 
+  @Override
+  public int nextDocs(int[] docs, float[] scores) throws IOException {
+    if (lastDoc == NO_MORE_DOCS) {
+      return 0;
+    }
+    int count = 0;
+    while (count < docs.length) {
+      lead.doc = lead.scorer.nextDoc();
+      final int doc = lastDoc = doNext(lead.doc);
+      if (doc == NO_MORE_DOCS) {
+        break;
+      }
+      docs[count] = doc;
+      scores[count] = score();
+      count++;
+    }
+    return count;
+  }
+
   @Override
   public float score() throws IOException {
     // TODO: sum into a double and cast to float if we ever send required clauses to BS1
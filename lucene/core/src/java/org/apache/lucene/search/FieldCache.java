@@ -17,6 +17,7 @@ package org.apache.lucene.search;
  * limitations under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 
@@ -568,4 +569,19 @@ public interface FieldCache {
 
   /** counterpart of {@link #setInfoStream(PrintStream)} */
   public PrintStream getInfoStream();
+
+  /**
+   * Expert: if non-null, the values of entries created from now on by
+   * {@link #getInts}, {@link #getLongs}, {@link #getFloats},
+   * {@link #getDoubles} and {@link #getTermsIndex} are written to
+   * temporary files in this directory and memory-mapped instead of
+   * being stored on the Java heap. This trades heap usage and garbage
+   * collection pauses for slightly slower lookups. Existing entries are
+   * not affected.
+   * @lucene.experimental
+   */
+  public void setOffHeapDirectory(File dir);
+
+  /** counterpart of {@link #setOffHeapDirectory(File)} */
+  public File getOffHeapDirectory();
 }
@@ -17,6 +17,7 @@ package org.apache.lucene.search;
  * limitations under the License.
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -49,7 +50,9 @@ import org.apache.lucene.util.packed.PackedInts;
 
 /**
  * Expert: The default cache implementation, storing all values in memory.
- * A WeakHashMap is used for storage.
+ * A WeakHashMap is used for storage. Numeric and terms index values can
+ * optionally be stored in memory-mapped files instead of the Java heap,
+ * see {@link #setOffHeapDirectory(File)}.
  *
  * @since   lucene 1.4
  */
@@ -490,7 +493,7 @@ class FieldCacheImpl implements FieldCache {
       if (values == null) {
         return new IntsFromArray(new PackedInts.NullReader(reader.maxDoc()), 0);
       }
-      return new IntsFromArray(values.writer.getMutable(), (int) values.minValue);
+      return new IntsFromArray(wrapper.freeze(values.writer.getMutable()), (int) values.minValue);
     }
   }
 
@@ -666,6 +669,10 @@ class FieldCacheImpl implements FieldCache {
       if (values == null) {
         values = new float[reader.maxDoc()];
       }
+      final MappedFieldCacheValues offHeapValues = wrapper.offHeapValues;
+      if (offHeapValues != null) {
+        return offHeapValues.spill(values);
+      }
       return new FloatsFromArray(values);
     }
   }
@@ -785,7 +792,7 @@ class FieldCacheImpl implements FieldCache {
       if (values == null) {
         return new LongsFromArray(new PackedInts.NullReader(reader.maxDoc()), 0L);
       }
-      return new LongsFromArray(values.writer.getMutable(), values.minValue);
+      return new LongsFromArray(wrapper.freeze(values.writer.getMutable()), values.minValue);
     }
   }
 
@@ -890,6 +897,10 @@ class FieldCacheImpl implements FieldCache {
       if (values == null) {
         values = new double[reader.maxDoc()];
       }
+      final MappedFieldCacheValues offHeapValues = wrapper.offHeapValues;
+      if (offHeapValues != null) {
+        return offHeapValues.spill(values);
+      }
       return new DoublesFromArray(values);
     }
   }
@@ -1038,7 +1049,12 @@ class FieldCacheImpl implements FieldCache {
       termOrdToBytesOffset.freeze();
 
       // maybe an int-only impl?
-      return new SortedDocValuesImpl(bytes.freeze(true), termOrdToBytesOffset, docToTermOrd.getMutable(), termOrd);
+      final SortedDocValues values = new SortedDocValuesImpl(bytes.freeze(true), termOrdToBytesOffset, docToTermOrd.getMutable(), termOrd);
+      final MappedFieldCacheValues offHeapValues = wrapper.offHeapValues;
+      if (offHeapValues != null) {
+        return offHeapValues.spill(values, maxDoc);
+      }
+      return values;
     }
   }
 
@@ -1226,6 +1242,29 @@ class FieldCacheImpl implements FieldCache {
     }
   }
 
+  /** Non-null if values should be stored off-heap. */
+  volatile MappedFieldCacheValues offHeapValues;
+
+  /** Returns the given uninverted values, possibly moved off-heap. */
+  PackedInts.Reader freeze(PackedInts.Reader values) throws IOException {
+    final MappedFieldCacheValues offHeapValues = this.offHeapValues;
+    if (offHeapValues != null) {
+      return offHeapValues.spill(values);
+    }
+    return values;
+  }
+
+  @Override
+  public void setOffHeapDirectory(File dir) {
+    offHeapValues = dir == null ? null : new MappedFieldCacheValues(dir);
+  }
+
+  @Override
+  public File getOffHeapDirectory() {
+    final MappedFieldCacheValues offHeapValues = this.offHeapValues;
+    return offHeapValues == null ? null : offHeapValues.getDirectory();
+  }
+
   private volatile PrintStream infoStream;
 
   public void setInfoStream(PrintStream stream) {
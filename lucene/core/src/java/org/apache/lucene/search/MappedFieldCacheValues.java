@@ -0,0 +1,420 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.FieldCache.Doubles;
+import org.apache.lucene.search.FieldCache.Floats;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CloseableThreadLocal;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.packed.PackedInts;
+
+/**
+ * Moves uninverted {@link FieldCache} values off the Java heap: values
+ * are written in packed form to a temporary file, which is then
+ * memory-mapped and read through absolute (thread-safe) gets.
+ * <p>
+ * The file is deleted as soon as it is mapped, so the disk space is
+ * reclaimed when the mapping is garbage collected, ie. after the cache
+ * entry has been purged on segment close. On platforms that cannot
+ * delete mapped files, the file is deleted on exit.
+ */
+final class MappedFieldCacheValues {
+
+  /** Default size of a mapped chunk: 1 GB. */
+  static final int DEFAULT_CHUNK_SHIFT = 30;
+
+  // so that a long can be read at any offset before the end of the data
+  private static final int PADDING = 8;
+
+  private final File dir;
+  private final int chunkShift;
+
+  MappedFieldCacheValues(File dir) {
+    this(dir, DEFAULT_CHUNK_SHIFT);
+  }
+
+  MappedFieldCacheValues(File dir, int chunkShift) {
+    if (chunkShift < 4 || chunkShift > DEFAULT_CHUNK_SHIFT) {
+      throw new IllegalArgumentException("chunkShift must be in [4, " + DEFAULT_CHUNK_SHIFT + "], got " + chunkShift);
+    }
+    this.dir = dir;
+    this.chunkShift = chunkShift;
+  }
+
+  /** Returns the directory temporary files are written to. */
+  File getDirectory() {
+    return dir;
+  }
+
+  /** Returns a reader that reads the same values as <code>values</code> from a mapped file. */
+  PackedInts.Reader spill(PackedInts.Reader values) throws IOException {
+    if (values.getBitsPerValue() == 0) {
+      // all values are 0, there is nothing to spill
+      return values;
+    }
+    final Output out = new Output();
+    boolean success = false;
+    try {
+      final long offset = out.writePacked(values, values.getBitsPerValue());
+      final MappedFile file = out.map();
+      success = true;
+      return new MappedPackedReader(file, offset, bitsPerValue(values.getBitsPerValue()), values.size());
+    } finally {
+      if (!success) {
+        out.abort();
+      }
+    }
+  }
+
+  /** Returns a {@link Floats} instance that reads the same values as <code>values</code> from a mapped file. */
+  Floats spill(final float[] values) throws IOException {
+    final PackedInts.Reader bits = spill(new ArrayReader(values.length, 32) {
+      @Override
+      public long get(int index) {
+        return Float.floatToRawIntBits(values[index]) & 0xFFFFFFFFL;
+      }
+    });
+    return new Floats() {
+      @Override
+      public float get(int docID) {
+        return Float.intBitsToFloat((int) bits.get(docID));
+      }
+    };
+  }
+
+  /** Returns a {@link Doubles} instance that reads the same values as <code>values</code> from a mapped file. */
+  Doubles spill(final double[] values) throws IOException {
+    final PackedInts.Reader bits = spill(new ArrayReader(values.length, 64) {
+      @Override
+      public long get(int index) {
+        return Double.doubleToRawLongBits(values[index]);
+      }
+    });
+    return new Doubles() {
+      @Override
+      public double get(int docID) {
+        return Double.longBitsToDouble(bits.get(docID));
+      }
+    };
+  }
+
+  /** Returns a {@link SortedDocValues} instance that has the same ords and
+   *  terms as <code>values</code> but reads them from a mapped file. */
+  SortedDocValues spill(final SortedDocValues values, int maxDoc) throws IOException {
+    final int numOrd = values.getValueCount();
+    final BytesRef term = new BytesRef();
+    final Output out = new Output();
+    boolean success = false;
+    try {
+      // -1 (missing) is stored as 0
+      final long ordsOffset = out.writePacked(new ArrayReader(maxDoc, PackedInts.bitsRequired(numOrd)) {
+        @Override
+        public long get(int index) {
+          return values.getOrd(index) + 1;
+        }
+      }, PackedInts.bitsRequired(numOrd));
+
+      final long bytesOffset = out.pointer;
+      long numBytes = 0;
+      for (int ord = 0; ord < numOrd; ord++) {
+        values.lookupOrd(ord, term);
+        out.writeBytes(term.bytes, term.offset, term.length);
+        numBytes += term.length;
+      }
+      out.writePadding();
+
+      // the start offset of every term, plus the end offset of the last one
+      final int offsetsBitsPerValue = Math.max(1, PackedInts.bitsRequired(numBytes));
+      final long offsetsOffset = out.writePacked(new ArrayReader(numOrd + 1, offsetsBitsPerValue) {
+        private int nextOrd = 0;
+        private long nextOffset = 0;
+
+        @Override
+        public long get(int ord) {
+          // values are read sequentially by writePacked
+          assert ord == nextOrd;
+          final long offset = nextOffset;
+          if (ord < numOrd) {
+            values.lookupOrd(ord, term);
+            nextOffset += term.length;
+          }
+          nextOrd++;
+          return offset;
+        }
+      }, offsetsBitsPerValue);
+
+      final MappedFile file = out.map();
+      success = true;
+      final PackedInts.Reader docToOrd = new MappedPackedReader(file, ordsOffset,
+          bitsPerValue(PackedInts.bitsRequired(numOrd)), maxDoc);
+      final PackedInts.Reader ordToOffset = new MappedPackedReader(file, offsetsOffset,
+          bitsPerValue(offsetsBitsPerValue), numOrd + 1);
+      return new MappedSortedDocValues(file, docToOrd, ordToOffset, bytesOffset, numOrd);
+    } finally {
+      if (!success) {
+        out.abort();
+      }
+    }
+  }
+
+  // values that would span 9 bytes are stored on 64 bits so that they
+  // can always be read with a single long
+  private static int bitsPerValue(int bitsPerValue) {
+    return bitsPerValue > 56 ? 64 : bitsPerValue;
+  }
+
+  /** Writes a temporary file and maps it. */
+  private final class Output {
+    final File file;
+    final OutputStreamDataOutput out;
+    long pointer;
+
+    Output() throws IOException {
+      file = File.createTempFile("fieldcache", ".bin", dir);
+      boolean success = false;
+      try {
+        out = new OutputStreamDataOutput(new BufferedOutputStream(new FileOutputStream(file)));
+        success = true;
+      } finally {
+        if (!success) {
+          file.delete();
+        }
+      }
+    }
+
+    /** Writes values in packed form and returns their start offset. */
+    long writePacked(PackedInts.Reader values, int bitsPerValue) throws IOException {
+      final long offset = pointer;
+      bitsPerValue = bitsPerValue(bitsPerValue);
+      final int valueCount = values.size();
+      final PackedInts.Writer writer = PackedInts.getWriterNoHeader(out, PackedInts.Format.PACKED,
+          valueCount, bitsPerValue, PackedInts.DEFAULT_BUFFER_SIZE);
+      for (int i = 0; i < valueCount; i++) {
+        writer.add(values.get(i));
+      }
+      writer.finish();
+      pointer += PackedInts.Format.PACKED.byteCount(PackedInts.VERSION_CURRENT, valueCount, bitsPerValue);
+      writePadding();
+      return offset;
+    }
+
+    void writeBytes(byte[] b, int offset, int length) throws IOException {
+      out.writeBytes(b, offset, length);
+      pointer += length;
+    }
+
+    void writePadding() throws IOException {
+      for (int i = 0; i < PADDING; i++) {
+        out.writeByte((byte) 0);
+      }
+      pointer += PADDING;
+    }
+
+    MappedFile map() throws IOException {
+      out.close();
+      final MappedFile mapped;
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        mapped = new MappedFile(raf.getChannel(), pointer, chunkShift);
+      } finally {
+        raf.close();
+      }
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+      return mapped;
+    }
+
+    void abort() {
+      IOUtils.closeWhileHandlingException(out);
+      file.delete();
+    }
+  }
+
+  /** A read-only file mapped in chunks of <code>1 &lt;&lt; chunkShift</code> bytes. */
+  static final class MappedFile {
+    private final ByteBuffer[] buffers;
+    private final int chunkShift;
+    private final long chunkMask;
+
+    MappedFile(FileChannel channel, long length, int chunkShift) throws IOException {
+      this.chunkShift = chunkShift;
+      this.chunkMask = (1L << chunkShift) - 1;
+      final int numChunks = (int) ((length + chunkMask) >>> chunkShift);
+      buffers = new ByteBuffer[numChunks];
+      for (int i = 0; i < numChunks; i++) {
+        final long start = (long) i << chunkShift;
+        // chunks overlap so that a long can be read at any offset of a chunk
+        final long end = Math.min(length, start + (1L << chunkShift) + PADDING);
+        buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      }
+    }
+
+    long getLong(long pos) {
+      return buffers[(int) (pos >>> chunkShift)].getLong((int) (pos & chunkMask));
+    }
+
+    void readBytes(long pos, byte[] b, int offset, int length) {
+      while (length > 0) {
+        final ByteBuffer buffer = buffers[(int) (pos >>> chunkShift)].duplicate();
+        final int chunkOffset = (int) (pos & chunkMask);
+        final int chunkLength = Math.min(length, (1 << chunkShift) - chunkOffset);
+        buffer.position(chunkOffset);
+        buffer.get(b, offset, chunkLength);
+        pos += chunkLength;
+        offset += chunkLength;
+        length -= chunkLength;
+      }
+    }
+  }
+
+  /** Base class for readers over values that are only read to be spilled. */
+  private static abstract class ArrayReader implements PackedInts.Reader {
+    private final int size;
+    private final int bitsPerValue;
+
+    ArrayReader(int size, int bitsPerValue) {
+      this.size = size;
+      this.bitsPerValue = bitsPerValue;
+    }
+
+    @Override
+    public int get(int index, long[] arr, int off, int len) {
+      final int gets = Math.min(size - index, len);
+      for (int i = 0; i < gets; i++) {
+        arr[off + i] = get(index + i);
+      }
+      return gets;
+    }
+
+    @Override
+    public int getBitsPerValue() {
+      return bitsPerValue;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return 0;
+    }
+
+    @Override
+    public Object getArray() {
+      return null;
+    }
+
+    @Override
+    public boolean hasArray() {
+      return false;
+    }
+  }
+
+  /** Reads packed values from a mapped file. */
+  static final class MappedPackedReader extends ArrayReader {
+    private final MappedFile file;
+    private final long offset;
+    private final int bitsPerValue;
+
+    MappedPackedReader(MappedFile file, long offset, int bitsPerValue, int size) {
+      super(size, bitsPerValue);
+      assert bitsPerValue <= 56 || bitsPerValue == 64 : bitsPerValue;
+      this.file = file;
+      this.offset = offset;
+      this.bitsPerValue = bitsPerValue;
+    }
+
+    @Override
+    public long get(int index) {
+      final long bitPos = (long) index * bitsPerValue;
+      // values are big endian, so the value is in the high-order bits of
+      // the long that starts at the first byte of the value
+      final long bits = file.getLong(offset + (bitPos >>> 3));
+      return (bits << (bitPos & 7)) >>> (64 - bitsPerValue);
+    }
+  }
+
+  /** A {@link SortedDocValues} whose ords and terms are read from a mapped file. */
+  static final class MappedSortedDocValues extends SortedDocValues {
+    private final MappedFile file;
+    private final PackedInts.Reader docToOrd;
+    private final PackedInts.Reader ordToOffset;
+    private final long bytesOffset;
+    private final int numOrd;
+    // last array that lookupOrd returned, per thread
+    private final CloseableThreadLocal<byte[]> lastBytes = new CloseableThreadLocal<byte[]>();
+
+    MappedSortedDocValues(MappedFile file, PackedInts.Reader docToOrd, PackedInts.Reader ordToOffset,
+        long bytesOffset, int numOrd) {
+      this.file = file;
+      this.docToOrd = docToOrd;
+      this.ordToOffset = ordToOffset;
+      this.bytesOffset = bytesOffset;
+      this.numOrd = numOrd;
+    }
+
+    @Override
+    public int getOrd(int docID) {
+      return (int) docToOrd.get(docID) - 1;
+    }
+
+    @Override
+    public void lookupOrd(int ord, BytesRef result) {
+      if (ord < 0) {
+        throw new IllegalArgumentException("ord must be >=0 (got ord=" + ord + ")");
+      }
+      final long start = ordToOffset.get(ord);
+      final int length = (int) (ordToOffset.get(ord + 1) - start);
+      // The caller's array may belong to another SortedDocValues, e.g. a
+      // PagedBytes block of a heap segment: only write into it if this
+      // instance returned it to this thread, otherwise use a new array
+      if (length > 0) {
+        final byte[] last = lastBytes.get();
+        if (last == null || result.bytes != last || last.length < length) {
+          result.bytes = new byte[ArrayUtil.oversize(length, 1)];
+          lastBytes.set(result.bytes);
+        }
+      } else {
+        result.bytes = BytesRef.EMPTY_BYTES;
+      }
+      result.offset = 0;
+      result.length = length;
+      file.readBytes(bytesOffset + start, result.bytes, 0, length);
+    }
+
+    @Override
+    public int getValueCount() {
+      return numOrd;
+    }
+  }
+}
@@ -60,10 +60,52 @@ public abstract class Scorer extends DocsEnum {
   public void score(Collector collector) throws IOException {
     assert docID() == -1; // not started
     collector.setScorer(this);
+    if (collector.acceptsBatches()) {
+      final int[] docs = new int[BATCH_SIZE];
+      final float[] scores = new float[BATCH_SIZE];
+      int count;
+      while ((count = nextDocs(docs, scores)) > 0) {
+        collector.collect(docs, scores, count);
+      }
+    } else {
+      int doc;
+      while ((doc = nextDoc()) != NO_MORE_DOCS) {
+        collector.collect(doc);
+      }
+    }
+  }
+
+  /** Number of documents that {@link #score(Collector)} passes at once to
+   *  collectors that {@link Collector#acceptsBatches() accept batches}. */
+  static final int BATCH_SIZE = 256;
+
+  /**
+   * Expert: Advances to the next matching documents, at most
+   * <code>docs.length</code> of them, and writes them in increasing order to
+   * <code>docs</code> and their scores to <code>scores</code>. Afterwards this
+   * scorer is positioned on the last document that was written, unless it
+   * ran out of documents before filling <code>docs</code>.
+   * <p>
+   * The default implementation calls {@link #nextDoc()} and {@link #score()}
+   * for each document. Scorers that can score a window of documents without
+   * going through these calls should override it.
+   *
+   * @return the number of documents written, 0 once there are no more
+   *         documents.
+   * @lucene.experimental
+   */
+  public int nextDocs(int[] docs, float[] scores) throws IOException {
+    if (docID() == NO_MORE_DOCS) {
+      return 0;
+    }
+    int count = 0;
     int doc;
-    while ((doc = nextDoc()) != NO_MORE_DOCS) {
-      collector.collect(doc);
+    while (count < docs.length && (doc = nextDoc()) != NO_MORE_DOCS) {
+      docs[count] = doc;
+      scores[count] = score();
+      count++;
     }
+    return count;
   }
 
   /**
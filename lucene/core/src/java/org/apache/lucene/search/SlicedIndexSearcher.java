@@ -0,0 +1,330 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+
+/**
+ * An {@link IndexSearcher} that parallelizes the search of a single query
+ * across ranges of document IDs.
+ * <p>
+ * Unlike {@link IndexSearcher#IndexSearcher(IndexReader, java.util.concurrent.ExecutorService)},
+ * which searches each segment in its own task, this searcher cuts the index
+ * into {@link DocRangeSlice slices} of roughly <code>docsPerSlice</code>
+ * documents, so that a single large segment is searched by several threads
+ * at once. Slices run on a {@link ForkJoinPool}, whose work stealing keeps
+ * all threads busy when some slices are more expensive than others. The top
+ * hits of the slices are merged with {@link TopDocs#merge}.
+ * <p>
+ * Only the methods that return {@link TopDocs} run in parallel. Searches
+ * that take a {@link Collector} are executed sequentially.
+ * <p>
+ * IndexSearcher will not shutdown the ForkJoinPool; you must do so,
+ * eventually, on your own.
+ *
+ * @lucene.experimental
+ */
+public class SlicedIndexSearcher extends IndexSearcher {
+
+  /** Default number of documents per slice. */
+  public static final int DEFAULT_DOCS_PER_SLICE = 250000;
+
+  private final ForkJoinPool pool;
+  private final DocRangeSlice[] docRangeSlices;
+
+  /**
+   * Creates a searcher with {@link #DEFAULT_DOCS_PER_SLICE} documents per
+   * slice and at most 4 slices per thread of the pool.
+   */
+  public SlicedIndexSearcher(IndexReader r, ForkJoinPool pool) {
+    this(r.getContext(), pool, DEFAULT_DOCS_PER_SLICE, 4 * pool.getParallelism());
+  }
+
+  /**
+   * Creates a searcher that splits the index in slices of
+   * <code>docsPerSlice</code> documents. If this would create more than
+   * <code>maxSlices</code> slices, slices are made larger instead.
+   */
+  public SlicedIndexSearcher(IndexReader r, ForkJoinPool pool, int docsPerSlice, int maxSlices) {
+    this(r.getContext(), pool, docsPerSlice, maxSlices);
+  }
+
+  /**
+   * Creates a searcher searching the provided top-level {@link IndexReaderContext}.
+   *
+   * @see #SlicedIndexSearcher(IndexReader, ForkJoinPool, int, int)
+   */
+  public SlicedIndexSearcher(IndexReaderContext context, ForkJoinPool pool, int docsPerSlice, int maxSlices) {
+    super(context);
+    if (pool == null) {
+      throw new NullPointerException("pool must not be null");
+    }
+    if (docsPerSlice <= 0) {
+      throw new IllegalArgumentException("docsPerSlice must be > 0, got " + docsPerSlice);
+    }
+    if (maxSlices <= 0) {
+      throw new IllegalArgumentException("maxSlices must be > 0, got " + maxSlices);
+    }
+    this.pool = pool;
+    this.docRangeSlices = docRangeSlices(leafContexts, docsPerSlice, maxSlices);
+  }
+
+  /**
+   * Expert: Splits the given leaves into at most <code>maxSlices</code>
+   * slices of about <code>docsPerSlice</code> documents each. Each
+   * {@link DocRangeSlice} is searched in a single thread. By default,
+   * slices have the same size, large segments are split across several
+   * slices and small segments are grouped together.
+   */
+  protected DocRangeSlice[] docRangeSlices(List<AtomicReaderContext> leaves, int docsPerSlice, int maxSlices) {
+    long totalDocs = 0;
+    for (AtomicReaderContext ctx : leaves) {
+      totalDocs += ctx.reader().maxDoc();
+    }
+    if (totalDocs == 0) {
+      return new DocRangeSlice[0];
+    }
+    final long numSlices = Math.min(maxSlices, (totalDocs + docsPerSlice - 1) / docsPerSlice);
+    final long sliceSize = (totalDocs + numSlices - 1) / numSlices;
+
+    final List<DocRangeSlice> slices = new ArrayList<DocRangeSlice>();
+    List<DocRange> ranges = new ArrayList<DocRange>();
+    long rangesSize = 0;
+    for (AtomicReaderContext ctx : leaves) {
+      final int maxDoc = ctx.reader().maxDoc();
+      int minDoc = 0;
+      while (minDoc < maxDoc) {
+        final int end = (int) Math.min(maxDoc, minDoc + sliceSize - rangesSize);
+        ranges.add(new DocRange(ctx, minDoc, end));
+        rangesSize += end - minDoc;
+        minDoc = end;
+        if (rangesSize == sliceSize) {
+          slices.add(new DocRangeSlice(ranges.toArray(new DocRange[ranges.size()])));
+          ranges = new ArrayList<DocRange>();
+          rangesSize = 0;
+        }
+      }
+    }
+    if (!ranges.isEmpty()) {
+      slices.add(new DocRangeSlice(ranges.toArray(new DocRange[ranges.size()])));
+    }
+    return slices.toArray(new DocRangeSlice[slices.size()]);
+  }
+
+  /** Returns the slices this searcher runs in parallel. */
+  public DocRangeSlice[] getDocRangeSlices() {
+    return docRangeSlices;
+  }
+
+  @Override
+  protected TopDocs search(Weight weight, final ScoreDoc after, int nDocs) throws IOException {
+    if (docRangeSlices.length <= 1) {
+      return super.search(weight, after, nDocs);
+    }
+    final int limit = reader.maxDoc();
+    if (after != null && after.doc >= limit) {
+      throw new IllegalArgumentException("after.doc exceeds the number of documents in that reader: after.doc="
+          + after.doc + " limit=" + limit);
+    }
+    final int numHits = Math.min(nDocs, limit);
+
+    final TopDocs[] sliceHits = new TopDocs[docRangeSlices.length];
+    final SliceTask[] tasks = new SliceTask[docRangeSlices.length];
+    for (int i = 0; i < tasks.length; i++) {
+      final int slice = i;
+      tasks[i] = new SliceTask(weight, docRangeSlices[i]) {
+        @Override
+        void search() throws IOException {
+          final TopScoreDocCollector collector = TopScoreDocCollector.create(numHits, after, true);
+          search(collector);
+          sliceHits[slice] = collector.topDocs();
+        }
+      };
+    }
+    execute(tasks);
+
+    final TopDocs topDocs = TopDocs.merge(null, numHits, sliceHits);
+    clearShardIndex(topDocs.scoreDocs);
+    topDocs.setMaxScore(maxScore(sliceHits));
+    return topDocs;
+  }
+
+  @Override
+  protected TopFieldDocs search(Weight weight, final FieldDoc after, int nDocs,
+                                final Sort sort, boolean fillFields,
+                                final boolean doDocScores, final boolean doMaxScore)
+      throws IOException {
+    if (docRangeSlices.length <= 1) {
+      return super.search(weight, after, nDocs, sort, fillFields, doDocScores, doMaxScore);
+    }
+    if (sort == null) throw new NullPointerException("Sort must not be null");
+    final int numHits = Math.min(nDocs, Math.max(1, reader.maxDoc()));
+
+    final TopDocs[] sliceHits = new TopDocs[docRangeSlices.length];
+    final SliceTask[] tasks = new SliceTask[docRangeSlices.length];
+    for (int i = 0; i < tasks.length; i++) {
+      final int slice = i;
+      tasks[i] = new SliceTask(weight, docRangeSlices[i]) {
+        @Override
+        void search() throws IOException {
+          // sort values are needed to merge the slices
+          final TopFieldCollector collector = TopFieldCollector.create(sort, numHits, after,
+              true, doDocScores, doMaxScore, true);
+          search(collector);
+          sliceHits[slice] = collector.topDocs();
+        }
+      };
+    }
+    execute(tasks);
+
+    final TopFieldDocs topDocs = (TopFieldDocs) TopDocs.merge(sort, numHits, sliceHits);
+    clearShardIndex(topDocs.scoreDocs);
+    topDocs.setMaxScore(maxScore(sliceHits));
+    if (!fillFields) {
+      for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+        ((FieldDoc) scoreDoc).fields = null;
+      }
+    }
+    return topDocs;
+  }
+
+  private void execute(final SliceTask[] tasks) {
+    pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        ForkJoinTask.invokeAll(tasks);
+      }
+    });
+  }
+
+  /** Returns the max score of the slices that have hits, like a single
+   *  collector would. */
+  private static float maxScore(TopDocs[] sliceHits) {
+    float maxScore = Float.NaN;
+    for (TopDocs hits : sliceHits) {
+      final float score = hits.getMaxScore();
+      if (!Float.isNaN(score)) {
+        maxScore = Float.isNaN(maxScore) ? score : Math.max(maxScore, score);
+      }
+    }
+    return maxScore;
+  }
+
+  /** Hits are returned as if they came from a single searcher. */
+  private static void clearShardIndex(ScoreDoc[] scoreDocs) {
+    for (ScoreDoc scoreDoc : scoreDocs) {
+      scoreDoc.shardIndex = -1;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SlicedIndexSearcher(" + reader + "; pool=" + pool + "; slices=" + docRangeSlices.length + ")";
+  }
+
+  /** Searches the ranges of a slice into a collector. */
+  private static abstract class SliceTask extends RecursiveAction {
+    private final Weight weight;
+    private final DocRangeSlice slice;
+
+    SliceTask(Weight weight, DocRangeSlice slice) {
+      this.weight = weight;
+      this.slice = slice;
+    }
+
+    abstract void search() throws IOException;
+
+    final void search(Collector collector) throws IOException {
+      for (DocRange range : slice.ranges) {
+        final AtomicReaderContext ctx = range.context;
+        try {
+          collector.setNextReader(ctx);
+        } catch (CollectionTerminatedException e) {
+          // there is no doc of interest in this reader context
+          // continue with the following range
+          continue;
+        }
+        // scorers are driven with advance/nextDoc, so they need to be in order
+        final Scorer scorer = weight.scorer(ctx, true, false, ctx.reader().getLiveDocs());
+        if (scorer != null) {
+          try {
+            final int firstDoc = scorer.advance(range.minDoc);
+            scorer.score(collector, range.maxDoc, firstDoc);
+          } catch (CollectionTerminatedException e) {
+            // collection was terminated prematurely
+            // continue with the following range
+          }
+        }
+      }
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        search();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * A range of document IDs of a leaf: from <code>minDoc</code> inclusive
+   * to <code>maxDoc</code> exclusive, both relative to the leaf.
+   *
+   * @lucene.experimental
+   */
+  public static class DocRange {
+    final AtomicReaderContext context;
+    final int minDoc;
+    final int maxDoc;
+
+    public DocRange(AtomicReaderContext context, int minDoc, int maxDoc) {
+      if (minDoc < 0 || minDoc >= maxDoc || maxDoc > context.reader().maxDoc()) {
+        throw new IllegalArgumentException("Invalid range [" + minDoc + ", " + maxDoc + ") for a leaf of maxDoc=" + context.reader().maxDoc());
+      }
+      this.context = context;
+      this.minDoc = minDoc;
+      this.maxDoc = maxDoc;
+    }
+  }
+
+  /**
+   * A class holding ranges of documents of the {@link IndexSearcher}s leaf
+   * contexts to be executed within a single thread. Ranges must be in
+   * increasing order of document IDs, and slices must not overlap.
+   *
+   * @lucene.experimental
+   */
+  public static class DocRangeSlice {
+    final DocRange[] ranges;
+
+    public DocRangeSlice(DocRange... ranges) {
+      this.ranges = ranges;
+    }
+  }
+}
@@ -19,6 +19,7 @@ package org.apache.lucene.search;
 
 import java.io.IOException;
 
+import org.apache.lucene.index.BlockMaxDocsEnum;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.search.similarities.Similarity;
 
@@ -26,7 +27,9 @@ import org.apache.lucene.search.similarities.Similarity;
  */
 final class TermScorer extends Scorer {
   private final DocsEnum docsEnum;
+  private final BlockMaxDocsEnum blockMaxDocsEnum; // null if the codec has no block max data
   private final Similarity.SimScorer docScorer;
+  private int[] freqs; // freqs of the window scored by nextDocs
   
   /**
    * Construct a <code>TermScorer</code>.
@@ -43,6 +46,7 @@ final class TermScorer extends Scorer {
     super(weight);
     this.docScorer = docScorer;
     this.docsEnum = td;
+    this.blockMaxDocsEnum = td instanceof BlockMaxDocsEnum ? (BlockMaxDocsEnum) td : null;
   }
 
   @Override
@@ -71,6 +75,28 @@ final class TermScorer extends Scorer {
     return docScorer.score(docsEnum.docID(), docsEnum.freq());  
   }
 
+  /** Reads the docs and freqs of the window first, and then scores them all in one go. */
+  @Override
+  public int nextDocs(int[] docs, float[] scores) throws IOException {
+    if (docsEnum.docID() == NO_MORE_DOCS) {
+      return 0;
+    }
+    if (freqs == null || freqs.length < docs.length) {
+      freqs = new int[docs.length];
+    }
+    int count = 0;
+    int doc;
+    while (count < docs.length && (doc = docsEnum.nextDoc()) != NO_MORE_DOCS) {
+      docs[count] = doc;
+      freqs[count] = docsEnum.freq();
+      count++;
+    }
+    for (int i = 0; i < count; i++) {
+      scores[i] = docScorer.score(docs[i], freqs[i]);
+    }
+    return count;
+  }
+
   /**
    * Advances to the first match beyond the current whose document number is
    * greater than or equal to a given target. <br>
@@ -90,6 +116,31 @@ final class TermScorer extends Scorer {
     return docsEnum.cost();
   }
 
+  /** Returns true if the postings of this scorer expose per-block
+   *  upper bounds, see {@link #advanceShallow(int)}. */
+  boolean hasBlockMax() {
+    return blockMaxDocsEnum != null;
+  }
+
+  /** Returns an upper bound of the score of any document of this scorer.
+   *  Only valid if {@link #hasBlockMax()} returns true. */
+  float maxScore() {
+    return docScorer.maxScore(blockMaxDocsEnum.maxFreq());
+  }
+
+  /** Locates the block of postings that contains <code>target</code>
+   *  and returns its last document, see {@link BlockMaxDocsEnum#advanceShallow(int)}.
+   *  Only valid if {@link #hasBlockMax()} returns true. */
+  int advanceShallow(int target) throws IOException {
+    return blockMaxDocsEnum.advanceShallow(target);
+  }
+
+  /** Returns an upper bound of the score of the documents in the block
+   *  located by the last call to {@link #advanceShallow(int)}. */
+  float blockMaxScore() {
+    return docScorer.maxScore(blockMaxDocsEnum.blockMaxFreq());
+  }
+
   /** Returns a string representation of this <code>TermScorer</code>. */
   @Override
   public String toString() { return "scorer(" + weight + ")"; }
@@ -61,6 +61,26 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
       pqTop.score = score;
       pqTop = pq.updateTop();
     }
+
+    @Override
+    public void collect(int[] docs, float[] scores, int count) {
+      totalHits += count;
+      float minScore = pqTop.score;
+      for (int i = 0; i < count; i++) {
+        final float score = scores[i];
+
+        // This collector cannot handle these scores:
+        assert score != Float.NEGATIVE_INFINITY;
+        assert !Float.isNaN(score);
+
+        if (score > minScore) {
+          pqTop.doc = docs[i] + docBase;
+          pqTop.score = score;
+          pqTop = pq.updateTop();
+          minScore = pqTop.score;
+        }
+      }
+    }
     
     @Override
     public boolean acceptsDocsOutOfOrder() {
@@ -107,6 +127,31 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
       pqTop = pq.updateTop();
     }
 
+    @Override
+    public void collect(int[] docs, float[] scores, int count) {
+      totalHits += count;
+      for (int i = 0; i < count; i++) {
+        final float score = scores[i];
+
+        // This collector cannot handle these scores:
+        assert score != Float.NEGATIVE_INFINITY;
+        assert !Float.isNaN(score);
+
+        if (score > after.score || (score == after.score && docs[i] <= afterDoc)) {
+          // hit was collected on a previous page
+          continue;
+        }
+        if (score <= pqTop.score) {
+          // see collect(int)
+          continue;
+        }
+        collectedHits++;
+        pqTop.doc = docs[i] + docBase;
+        pqTop.score = score;
+        pqTop = pq.updateTop();
+      }
+    }
+
     @Override
     public boolean acceptsDocsOutOfOrder() {
       return false;
@@ -156,6 +201,30 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
       pqTop.score = score;
       pqTop = pq.updateTop();
     }
+
+    @Override
+    public void collect(int[] docs, float[] scores, int count) {
+      totalHits += count;
+      for (int i = 0; i < count; i++) {
+        final float score = scores[i];
+
+        // This collector cannot handle NaN
+        assert !Float.isNaN(score);
+
+        if (score < pqTop.score) {
+          // Doesn't compete w/ bottom entry in queue
+          continue;
+        }
+        final int doc = docs[i] + docBase;
+        if (score == pqTop.score && doc > pqTop.doc) {
+          // Break tie in score by doc ID:
+          continue;
+        }
+        pqTop.doc = doc;
+        pqTop.score = score;
+        pqTop = pq.updateTop();
+      }
+    }
     
     @Override
     public boolean acceptsDocsOutOfOrder() {
@@ -201,6 +270,35 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
       pqTop.score = score;
       pqTop = pq.updateTop();
     }
+
+    @Override
+    public void collect(int[] docs, float[] scores, int count) {
+      totalHits += count;
+      for (int i = 0; i < count; i++) {
+        final float score = scores[i];
+
+        // This collector cannot handle NaN
+        assert !Float.isNaN(score);
+
+        if (score > after.score || (score == after.score && docs[i] <= afterDoc)) {
+          // hit was collected on a previous page
+          continue;
+        }
+        if (score < pqTop.score) {
+          // Doesn't compete w/ bottom entry in queue
+          continue;
+        }
+        final int doc = docs[i] + docBase;
+        if (score == pqTop.score && doc > pqTop.doc) {
+          // Break tie in score by doc ID:
+          continue;
+        }
+        collectedHits++;
+        pqTop.doc = doc;
+        pqTop.score = score;
+        pqTop = pq.updateTop();
+      }
+    }
     
     @Override
     public boolean acceptsDocsOutOfOrder() {
@@ -249,26 +347,52 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
    * objects.
    */
   public static TopScoreDocCollector create(int numHits, ScoreDoc after, boolean docsScoredInOrder) {
+    return create(numHits, after, docsScoredInOrder, true);
+  }
+
+  /**
+   * Creates a new {@link TopScoreDocCollector} given the number of hits to
+   * collect, the bottom of the previous page, whether documents are scored in order by the input
+   * {@link Scorer} to {@link #setScorer(Scorer)}, and whether the total number of
+   * hits must be counted.
+   *
+   * <p>If <code>trackTotalHits</code> is false and documents are scored in order,
+   * scorers are allowed to skip documents that cannot compete with the hits
+   * that have been collected so far, for instance disjunctions of term queries
+   * on postings that record block maximums. {@link TopDocs#totalHits} is then
+   * only a lower bound of the number of matching documents.
+   *
+   * <p><b>NOTE</b>: The instances returned by this method
+   * pre-allocate a full array of length
+   * <code>numHits</code>, and fill the array with sentinel
+   * objects.
+   *
+   * @lucene.experimental
+   */
+  public static TopScoreDocCollector create(int numHits, ScoreDoc after, boolean docsScoredInOrder, boolean trackTotalHits) {
     
     if (numHits <= 0) {
       throw new IllegalArgumentException("numHits must be > 0; please use TotalHitCountCollector if you just need the total hit count");
     }
     
+    final TopScoreDocCollector collector;
     if (docsScoredInOrder) {
-      return after == null 
+      collector = after == null 
         ? new InOrderTopScoreDocCollector(numHits) 
         : new InOrderPagingScoreDocCollector(after, numHits);
     } else {
-      return after == null
+      collector = after == null
         ? new OutOfOrderTopScoreDocCollector(numHits)
         : new OutOfOrderPagingScoreDocCollector(after, numHits);
     }
-    
+    collector.trackTotalHits = trackTotalHits;
+    return collector;
   }
   
   ScoreDoc pqTop;
   int docBase = 0;
   Scorer scorer;
+  boolean trackTotalHits = true;
     
   // prevents instantiation
   private TopScoreDocCollector(int numHits) {
@@ -308,4 +432,23 @@ public abstract class TopScoreDocCollector extends TopDocsCollector<ScoreDoc> {
   public void setScorer(Scorer scorer) throws IOException {
     this.scorer = scorer;
   }
+
+  /** All implementations also collect batches of hits, see {@link Collector#collect(int[], float[], int)}. */
+  @Override
+  public boolean acceptsBatches() {
+    return true;
+  }
+
+  /** Returns true if documents that cannot compete may be skipped, ie. the
+   *  total hit count was not requested and documents are collected in order. */
+  boolean canSkipNonCompetitiveHits() {
+    return !trackTotalHits && !acceptsDocsOutOfOrder();
+  }
+
+  /** Returns the score that a document must exceed in order to be
+   *  collected, or {@link Float#NEGATIVE_INFINITY} while the queue is
+   *  not full yet. Only meaningful for in-order collectors. */
+  float minCompetitiveScore() {
+    return pqTop.score;
+  }
 }
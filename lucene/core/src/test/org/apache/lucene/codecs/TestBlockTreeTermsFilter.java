@@ -0,0 +1,141 @@
+package org.apache.lucene.codecs;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat;
+import org.apache.lucene.codecs.lucene46.Lucene46Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+
+public class TestBlockTreeTermsFilter extends LuceneTestCase {
+
+  public void testNoFalseNegatives() throws Exception {
+    final int numTerms = atLeast(1000);
+    final Set<BytesRef> terms = new HashSet<BytesRef>();
+    while (terms.size() < numTerms) {
+      terms.add(new BytesRef(_TestUtil.randomUnicodeString(random())));
+    }
+    final int[] hashes = new int[numTerms];
+    int i = 0;
+    for (BytesRef term : terms) {
+      hashes[i++] = BlockTreeTermsFilter.hash(term);
+    }
+    final int numBlocks = BlockTreeTermsFilter.numBlocks(numTerms);
+
+    Directory dir = newDirectory();
+    IndexOutput out = dir.createOutput("filter", IOContext.DEFAULT);
+    // the filter must be aligned whatever comes before it
+    for (int j = random().nextInt(100); j > 0; j--) {
+      out.writeByte((byte) 42);
+    }
+    final long startFP = BlockTreeTermsFilter.write(hashes, numTerms, numBlocks, out);
+    out.close();
+    assertEquals(0, startFP % BlockTreeTermsFilter.BLOCK_BYTES);
+
+    final BlockTreeTermsFilter filter = new BlockTreeTermsFilter(startFP, numBlocks);
+    IndexInput in = dir.openInput("filter", IOContext.DEFAULT);
+    for (BytesRef term : terms) {
+      assertTrue(filter.mayContain(term, in));
+    }
+
+    // about 1% of false positives
+    int falsePositives = 0;
+    final int numMissing = 10000;
+    for (int j = 0; j < numMissing; j++) {
+      final BytesRef missing = new BytesRef("missing" + j);
+      if (!terms.contains(missing) && filter.mayContain(missing, in)) {
+        falsePositives++;
+      }
+    }
+    assertTrue("falsePositives=" + falsePositives, falsePositives < numMissing / 20);
+    in.close();
+    dir.close();
+  }
+
+  public void testSeekExact() throws Exception {
+    Directory dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    final PostingsFormat filtered = new Lucene41PostingsFormat(BlockTreeTermsWriter.DEFAULT_MIN_BLOCK_SIZE,
+        BlockTreeTermsWriter.DEFAULT_MAX_BLOCK_SIZE, true);
+    // term filters on the id field only
+    iwc.setCodec(new Lucene46Codec() {
+      @Override
+      public PostingsFormat getPostingsFormatForField(String field) {
+        return "id".equals(field) ? filtered : super.getPostingsFormatForField(field);
+      }
+    });
+    IndexWriter w = new IndexWriter(dir, iwc);
+    final int numDocs = atLeast(1000);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", "" + i, Field.Store.NO));
+      doc.add(newStringField("body", "" + i, Field.Store.NO));
+      w.addDocument(doc);
+      if (random().nextInt(100) == 0) {
+        w.commit();
+      }
+    }
+    if (random().nextBoolean()) {
+      w.forceMerge(1);
+    }
+    w.close();
+
+    DirectoryReader reader = DirectoryReader.open(dir);
+    for (AtomicReaderContext context : reader.leaves()) {
+      final Terms idTerms = context.reader().terms("id");
+      assertTrue(idTerms instanceof BlockTreeTermsReader.FieldReader);
+      final BlockTreeTermsFilter filter = ((BlockTreeTermsReader.FieldReader) idTerms).termFilter;
+      assertNotNull(filter);
+      assertEquals(BlockTreeTermsFilter.numBlocks(idTerms.size()), filter.numBlocks);
+      assertNull(((BlockTreeTermsReader.FieldReader) context.reader().terms("body")).termFilter);
+
+      final TermsEnum idEnum = idTerms.iterator(null);
+      final TermsEnum bodyEnum = context.reader().terms("body").iterator(null);
+      // seek in random order, to mix hits and misses with the reused
+      // seek state of the enum
+      for (int i = 0; i < 2 * numDocs; i++) {
+        final BytesRef id = new BytesRef("" + random().nextInt(2 * numDocs));
+        final boolean found = bodyEnum.seekExact(id);
+        assertEquals(found, idEnum.seekExact(id));
+        if (found) {
+          assertEquals(id, idEnum.term());
+          assertEquals(bodyEnum.docFreq(), idEnum.docFreq());
+        }
+      }
+    }
+    reader.close();
+    dir.close();
+  }
+}
@@ -18,6 +18,8 @@ package org.apache.lucene.codecs.compressing;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.lucene.analysis.MockAnalyzer;
 import org.apache.lucene.codecs.Codec;
@@ -26,10 +28,16 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.BaseStoredFieldsFormatTestCase;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.StoredFieldVisitor;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util._TestUtil;
 import org.junit.Test;
 
 import com.carrotsearch.randomizedtesting.annotations.Repeat;
@@ -43,6 +51,57 @@ public class TestCompressingStoredFieldsFormat extends BaseStoredFieldsFormatTes
     return CompressingCodec.randomInstance(random());
   }
 
+  public void testUTF8StringFields() throws IOException {
+    Directory dir = newDirectory();
+    IndexWriterConfig iwConf = newIndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    iwConf.setCodec(CompressingCodec.randomInstance(random()));
+    RandomIndexWriter iw = new RandomIndexWriter(random(), dir, iwConf);
+    final int numDocs = atLeast(100);
+    final String[] values = new String[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      final Document doc = new Document();
+      // sometimes make documents larger than a chunk
+      values[i] = random().nextInt(20) == 0
+          ? _TestUtil.randomRealisticUnicodeString(random(), 1 << 15, 1 << 17)
+          : _TestUtil.randomRealisticUnicodeString(random());
+      doc.add(new StoredField("id", i));
+      doc.add(new StoredField("text", values[i]));
+      iw.addDocument(doc);
+    }
+    final DirectoryReader reader = iw.getReader();
+    iw.close();
+
+    for (int i = 0; i < reader.maxDoc(); i++) {
+      final List<String> strings = new ArrayList<String>();
+      final int[] id = new int[1];
+      reader.document(i, new StoredFieldVisitor() {
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+          return Status.YES;
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) {
+          id[0] = value;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+          fail("the UTF-8 bytes should have been passed");
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, BytesRef value) {
+          strings.add(value.utf8ToString());
+        }
+      });
+      assertEquals(1, strings.size());
+      assertEquals(values[id[0]], strings.get(0));
+    }
+    reader.close();
+    dir.close();
+  }
+
   @Test(expected=IllegalArgumentException.class)
   public void testDeletePartiallyWrittenFilesIfAbort() throws IOException {
     Directory dir = newDirectory();
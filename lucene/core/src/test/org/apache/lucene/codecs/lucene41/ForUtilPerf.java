@@ -0,0 +1,114 @@
+package org.apache.lucene.codecs.lucene41;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.apache.lucene.codecs.lucene41.ForUtil.MAX_DATA_SIZE;
+import static org.apache.lucene.codecs.lucene41.ForUtil.MAX_ENCODED_SIZE;
+import static org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat.BLOCK_SIZE;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.packed.PackedInts;
+
+/**
+ * Performance tester for {@link ForUtil}.
+ * For each bit width a doc delta can have, decodes a block of doc deltas over
+ * and over, either with {@link ForUtil#readBlock} followed by the prefix sum
+ * that the postings enums used to do one doc at a time, or with
+ * {@link ForUtil#readDocBlock}, and
+ * prints the nanoseconds per block. The first rounds only warm up the JIT;
+ * use -Xbatch for more predictable results.
+ */
+public class ForUtilPerf {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("ForUtilPerf <blocks> <rounds> [acceptableOverheadRatio]");
+      System.out.println("  blocks => number of blocks decoded per bit width and round");
+      System.out.println("  rounds => number of rounds, only the last one is printed");
+      return;
+    }
+    final int numBlocks = Integer.parseInt(args[0]);
+    final int rounds = Integer.parseInt(args[1]);
+    final float acceptableOverheadRatio = args.length > 2 ? Float.parseFloat(args[2]) : PackedInts.COMPACT;
+
+    final Random random = new Random(0);
+    final Directory dir = new RAMDirectory();
+    final byte[] encoded = new byte[MAX_ENCODED_SIZE];
+    final int[] docs = new int[MAX_DATA_SIZE];
+    final long[] readBlockNanos = new long[32];
+    final long[] readDocBlockNanos = new long[32];
+    long ret = 0;
+
+    // one file per bit width with a single block in it
+    for (int bpv = 1; bpv <= 31; ++bpv) {
+      IndexOutput out = dir.createOutput("block" + bpv, IOContext.DEFAULT);
+      ForUtil forUtil = new ForUtil(acceptableOverheadRatio, out);
+      final int[] deltas = new int[MAX_DATA_SIZE];
+      for (int i = 0; i < BLOCK_SIZE; ++i) {
+        deltas[i] = (int) (random.nextLong() & PackedInts.maxValue(bpv));
+      }
+      deltas[0] = (int) PackedInts.maxValue(bpv); // make sure the block needs bpv bits
+      forUtil.writeBlock(deltas, encoded, out);
+      out.close();
+    }
+
+    for (int round = 0; round < rounds; ++round) {
+      for (int bpv = 1; bpv <= 31; ++bpv) {
+        IndexInput in = dir.openInput("block" + bpv, IOContext.DEFAULT);
+        ForUtil forUtil = new ForUtil(in);
+        final long start = in.getFilePointer();
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < numBlocks; ++i) {
+          in.seek(start);
+          forUtil.readBlock(in, encoded, docs);
+          int doc = 0;
+          for (int j = 0; j < BLOCK_SIZE; ++j) {
+            doc += docs[j];
+          }
+          ret += doc;
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < numBlocks; ++i) {
+          in.seek(start);
+          forUtil.readDocBlock(in, encoded, docs, 0);
+          ret += docs[BLOCK_SIZE - 1];
+        }
+        long t2 = System.nanoTime();
+
+        readBlockNanos[bpv] = t1 - t0;
+        readDocBlockNanos[bpv] = t2 - t1;
+        in.close();
+      }
+    }
+
+    System.out.println("bpv\treadBlock+sum\treadDocBlock (ns/block)");
+    for (int bpv = 1; bpv <= 31; ++bpv) {
+      System.out.println(bpv + "\t" + readBlockNanos[bpv] / numBlocks + "\t" + readDocBlockNanos[bpv] / numBlocks);
+    }
+    System.out.println("ret=" + ret);
+    dir.close();
+  }
+}
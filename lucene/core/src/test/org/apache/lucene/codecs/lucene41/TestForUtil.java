@@ -91,4 +91,54 @@ public class TestForUtil extends LuceneTestCase {
     }
   }
 
+  public void testReadDocBlock() throws IOException {
+    final int iterations = RandomInts.randomIntBetween(random(), 1, 1000);
+    final float acceptableOverheadRatio = random().nextFloat();
+    final int[] deltas = new int[iterations * BLOCK_SIZE];
+    for (int i = 0; i < iterations; ++i) {
+      final int bpv = random().nextInt(8);
+      if (bpv == 0) {
+        final int delta = RandomInts.randomIntBetween(random(), 1, 100);
+        Arrays.fill(deltas, i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE, delta);
+      } else {
+        for (int j = 0; j < BLOCK_SIZE; ++j) {
+          deltas[i * BLOCK_SIZE + j] = RandomInts.randomIntBetween(random(),
+              1, (int) PackedInts.maxValue(bpv));
+        }
+      }
+    }
+
+    final Directory d = new RAMDirectory();
+    IndexOutput out = d.createOutput("test.bin", IOContext.DEFAULT);
+    ForUtil forUtil = new ForUtil(acceptableOverheadRatio, out);
+    for (int i = 0; i < iterations; ++i) {
+      forUtil.writeBlock(
+          Arrays.copyOfRange(deltas, i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE + MAX_DATA_SIZE),
+          new byte[MAX_ENCODED_SIZE], out);
+    }
+    out.close();
+
+    IndexInput in = d.openInput("test.bin", IOContext.READONCE);
+    forUtil = new ForUtil(in);
+    int doc = 0;
+    for (int i = 0; i < iterations; ++i) {
+      if (random().nextBoolean()) {
+        // pretend the skipper moved us to the end of this block
+        forUtil.skipBlock(in);
+        for (int j = 0; j < BLOCK_SIZE; ++j) {
+          doc += deltas[i * BLOCK_SIZE + j];
+        }
+        continue;
+      }
+      final int[] docs = new int[MAX_DATA_SIZE];
+      forUtil.readDocBlock(in, new byte[MAX_ENCODED_SIZE], docs, doc);
+      for (int j = 0; j < BLOCK_SIZE; ++j) {
+        doc += deltas[i * BLOCK_SIZE + j];
+        assertEquals(doc, docs[j]);
+      }
+    }
+    in.close();
+    d.close();
+  }
+
 }
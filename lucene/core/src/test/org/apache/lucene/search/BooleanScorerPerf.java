@@ -0,0 +1,150 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.CannedTokenStream;
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.analysis.Token;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanQuery.BooleanWeight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.LuceneTestCase;
+
+/**
+ * Performance tester for {@link BooleanScorer}.
+ * Indexes random docs over a vocabulary whose terms get rarer and rarer, then
+ * runs pure disjunctions of 2 up to 50 clauses through {@link BooleanScorer},
+ * once with the fixed window of {@link BooleanScorer.BucketTable#DEFAULT_SIZE}
+ * docs and once with the window picked by
+ * {@link BooleanScorer#windowSize}, and prints the milliseconds per query.
+ * The first rounds only warm up the JIT; use -Xbatch for more predictable
+ * results.
+ */
+public class BooleanScorerPerf {
+
+  private static final String FIELD = "body";
+  private static final int[] NUM_CLAUSES = new int[] {2, 5, 10, 20, 50};
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.out.println("BooleanScorerPerf <docs> <queries> <rounds>");
+      System.out.println("  docs    => number of docs to index");
+      System.out.println("  queries => number of queries per clause count and round");
+      System.out.println("  rounds  => number of rounds, only the last one is printed");
+      return;
+    }
+    final int numDocs = Integer.parseInt(args[0]);
+    final int numQueries = Integer.parseInt(args[1]);
+    final int rounds = Integer.parseInt(args[2]);
+
+    final Random random = new Random(0);
+    final int numTerms = 1000;
+    final Directory dir = new RAMDirectory();
+    final IndexWriterConfig iwc = new IndexWriterConfig(LuceneTestCase.TEST_VERSION_CURRENT, new MockAnalyzer(random));
+    final IndexWriter w = new IndexWriter(dir, iwc);
+    for (int i = 0; i < numDocs; i++) {
+      final Token[] tokens = new Token[10 + random.nextInt(40)];
+      for (int j = 0; j < tokens.length; j++) {
+        // term t shows up with a probability that is roughly 1/(t+1)
+        final int term = (int) Math.pow(numTerms, random.nextDouble()) - 1;
+        tokens[j] = new Token("t" + term, j, j + 1);
+      }
+      final Document doc = new Document();
+      // pre-analyzed, so that no analyzer needs a randomized test context
+      doc.add(new TextField(FIELD, new CannedTokenStream(tokens)));
+      w.addDocument(doc);
+    }
+    w.forceMerge(1);
+    w.close();
+    final DirectoryReader reader = DirectoryReader.open(dir);
+    final IndexSearcher searcher = new IndexSearcher(reader);
+
+    final TotalHitCountCollector collector = new TotalHitCountCollector() {
+      @Override
+      public boolean acceptsDocsOutOfOrder() {
+        return true;
+      }
+    };
+    final long[] fixedNanos = new long[NUM_CLAUSES.length];
+    final long[] adaptiveNanos = new long[NUM_CLAUSES.length];
+    final int[] adaptiveSizes = new int[NUM_CLAUSES.length];
+    long ret = 0;
+
+    for (int round = 0; round < rounds; ++round) {
+      for (int c = 0; c < NUM_CLAUSES.length; ++c) {
+        fixedNanos[c] = adaptiveNanos[c] = 0;
+        for (int q = 0; q < numQueries; ++q) {
+          final BooleanQuery query = new BooleanQuery();
+          for (int i = 0; i < NUM_CLAUSES[c]; i++) {
+            query.add(new TermQuery(new Term(FIELD, "t" + random.nextInt(numTerms))), BooleanClause.Occur.SHOULD);
+          }
+          final BooleanWeight weight = (BooleanWeight) searcher.createNormalizedWeight(query);
+          for (AtomicReaderContext context : reader.leaves()) {
+            BooleanScorer scorer = new BooleanScorer(weight, false, 1, subScorers(weight, context), null,
+                NUM_CLAUSES[c], BooleanScorer.BucketTable.DEFAULT_SIZE);
+            long t0 = System.nanoTime();
+            scorer.score(collector);
+            long t1 = System.nanoTime();
+            fixedNanos[c] += t1 - t0;
+
+            final List<Scorer> optional = subScorers(weight, context);
+            adaptiveSizes[c] = BooleanScorer.windowSize(optional, null, context.reader().maxDoc());
+            scorer = new BooleanScorer(weight, false, 1, optional, null, NUM_CLAUSES[c], adaptiveSizes[c]);
+            t0 = System.nanoTime();
+            scorer.score(collector);
+            t1 = System.nanoTime();
+            adaptiveNanos[c] += t1 - t0;
+          }
+        }
+        ret += collector.getTotalHits();
+      }
+    }
+
+    System.out.println("clauses\tfixed\tadaptive (ms/query)\tlast adaptive window");
+    for (int c = 0; c < NUM_CLAUSES.length; ++c) {
+      System.out.println(NUM_CLAUSES[c] + "\t" + String.format("%.3f", fixedNanos[c] / 1e6 / numQueries)
+          + "\t" + String.format("%.3f", adaptiveNanos[c] / 1e6 / numQueries) + "\t" + adaptiveSizes[c]);
+    }
+    System.out.println("ret=" + ret);
+    reader.close();
+    dir.close();
+  }
+
+  private static List<Scorer> subScorers(BooleanWeight weight, AtomicReaderContext context) throws IOException {
+    final List<Scorer> scorers = new ArrayList<Scorer>();
+    for (Weight w : weight.weights) {
+      final Scorer scorer = w.scorer(context, true, false, context.reader().getLiveDocs());
+      if (scorer != null) {
+        scorers.add(scorer);
+      }
+    }
+    return scorers;
+  }
+}
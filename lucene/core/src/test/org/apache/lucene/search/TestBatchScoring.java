@@ -0,0 +1,176 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+
+public class TestBatchScoring extends LuceneTestCase {
+
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = newDirectory();
+    RandomIndexWriter w = new RandomIndexWriter(random(), dir);
+    final int numDocs = atLeast(1000);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      StringBuilder sb = new StringBuilder();
+      for (String term : new String[] {"a", "b", "c"}) {
+        final int freq = random().nextInt(term.equals("a") ? 2 : 4);
+        for (int j = 0; j < freq; j++) {
+          sb.append(term).append(' ');
+        }
+      }
+      doc.add(newTextField("body", sb.toString(), Field.Store.NO));
+      w.addDocument(doc);
+    }
+    if (random().nextBoolean()) {
+      w.deleteDocuments(new Term("body", "c"));
+    }
+    reader = w.getReader();
+    w.close();
+    // the asserting searcher would hide the scorers under test
+    searcher = new IndexSearcher(reader);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    reader.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  /** Hides {@link Collector#acceptsBatches()} of the wrapped collector. */
+  private static class OneByOneCollector extends Collector {
+    final Collector in;
+
+    OneByOneCollector(Collector in) {
+      this.in = in;
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+      in.setScorer(scorer);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+      in.collect(doc);
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+      in.setNextReader(context);
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+      return in.acceptsDocsOutOfOrder();
+    }
+  }
+
+  private void assertSameHits(Query query, ScoreDoc after, boolean inOrder) throws IOException {
+    final int numHits = 1 + random().nextInt(50);
+    TopScoreDocCollector batches = TopScoreDocCollector.create(numHits, after, inOrder);
+    assertTrue(batches.acceptsBatches());
+    searcher.search(query, batches);
+    TopScoreDocCollector oneByOne = TopScoreDocCollector.create(numHits, after, inOrder);
+    searcher.search(query, new OneByOneCollector(oneByOne));
+
+    TopDocs expected = oneByOne.topDocs();
+    TopDocs actual = batches.topDocs();
+    assertEquals(expected.totalHits, actual.totalHits);
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+    }
+  }
+
+  private Query[] queries() {
+    BooleanQuery conjunction = new BooleanQuery();
+    conjunction.add(new TermQuery(new Term("body", "a")), Occur.MUST);
+    conjunction.add(new TermQuery(new Term("body", "b")), Occur.MUST);
+    BooleanQuery disjunction = new BooleanQuery();
+    disjunction.add(new TermQuery(new Term("body", "b")), Occur.SHOULD);
+    disjunction.add(new TermQuery(new Term("body", "c")), Occur.SHOULD);
+    return new Query[] {
+        new TermQuery(new Term("body", "b")),
+        conjunction,
+        disjunction,
+    };
+  }
+
+  public void testTopDocs() throws Exception {
+    for (Query query : queries()) {
+      assertSameHits(query, null, true);
+      assertSameHits(query, null, false);
+      TopDocs firstPage = searcher.search(query, 10);
+      if (firstPage.scoreDocs.length > 0) {
+        ScoreDoc after = firstPage.scoreDocs[firstPage.scoreDocs.length - 1];
+        assertSameHits(query, after, true);
+        assertSameHits(query, after, false);
+      }
+    }
+  }
+
+  public void testNextDocs() throws Exception {
+    for (Query query : queries()) {
+      Weight weight = searcher.createNormalizedWeight(query);
+      for (AtomicReaderContext context : reader.leaves()) {
+        Scorer expected = weight.scorer(context, true, false, context.reader().getLiveDocs());
+        Scorer actual = weight.scorer(context, true, false, context.reader().getLiveDocs());
+        if (expected == null) {
+          assertNull(actual);
+          continue;
+        }
+        final int[] docs = new int[1 + random().nextInt(20)];
+        final float[] scores = new float[docs.length];
+        int count;
+        while ((count = actual.nextDocs(docs, scores)) > 0) {
+          assertTrue(count <= docs.length);
+          for (int i = 0; i < count; i++) {
+            assertEquals(expected.nextDoc(), docs[i]);
+            assertEquals(expected.score(), scores[i], 0f);
+          }
+          if (count == docs.length) {
+            assertEquals(docs[count - 1], actual.docID());
+          }
+        }
+        assertEquals(DocIdSetIterator.NO_MORE_DOCS, expected.nextDoc());
+        assertEquals(DocIdSetIterator.NO_MORE_DOCS, actual.docID());
+        // exhausted scorers stay exhausted
+        assertEquals(0, actual.nextDocs(docs, scores));
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+
+public class TestBlockMaxWANDScorer extends LuceneTestCase {
+
+  private Directory dir;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+
+  private void buildIndex(String[] docs) throws Exception {
+    dir = newDirectory();
+    IndexWriterConfig iwc = newIndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()));
+    iwc.setCodec(_TestUtil.alwaysPostingsFormat(new Lucene41PostingsFormat()));
+    iwc.setSimilarity(new BM25Similarity());
+    // keep docs in order
+    iwc.setMergePolicy(newLogMergePolicy());
+    IndexWriter w = new IndexWriter(dir, iwc);
+    for (String text : docs) {
+      Document doc = new Document();
+      doc.add(newTextField("body", text, Field.Store.NO));
+      w.addDocument(doc);
+    }
+    w.forceMerge(1);
+    w.close();
+    reader = DirectoryReader.open(dir);
+    // don't wrap the reader or the scorers: block maximums would be hidden
+    searcher = new IndexSearcher(reader);
+    searcher.setSimilarity(new BM25Similarity());
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    reader.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  private TopDocs search(Query query, int numHits, boolean trackTotalHits) throws Exception {
+    TopScoreDocCollector collector = TopScoreDocCollector.create(numHits, null, true, trackTotalHits);
+    searcher.search(query, collector);
+    return collector.topDocs();
+  }
+
+  private void assertSameTopHits(Query query, int numHits) throws Exception {
+    TopDocs expected = search(query, numHits, true);
+    TopDocs actual = search(query, numHits, false);
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 1e-5f);
+    }
+    assertTrue(actual.totalHits <= expected.totalHits);
+  }
+
+  public void testSkipsNonCompetitiveBlocks() throws Exception {
+    final int numDocs = 2000;
+    String[] docs = new String[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      if (i % 100 == 0) {
+        docs[i] = "common rare rare rare rare";
+      } else {
+        docs[i] = "common filler filler filler filler filler filler filler filler filler";
+      }
+    }
+    buildIndex(docs);
+
+    BooleanQuery query = new BooleanQuery();
+    query.add(new TermQuery(new Term("body", "common")), Occur.SHOULD);
+    query.add(new TermQuery(new Term("body", "rare")), Occur.SHOULD);
+
+    TopDocs expected = search(query, 10, true);
+    TopDocs actual = search(query, 10, false);
+    assertEquals(numDocs, expected.totalHits);
+    // once the queue is full of docs that contain the rare term,
+    // blocks that only contain the common term are skipped
+    assertTrue("totalHits=" + actual.totalHits, actual.totalHits < numDocs);
+    assertEquals(10, actual.scoreDocs.length);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0f);
+      assertEquals(0, actual.scoreDocs[i].doc % 100);
+    }
+  }
+
+  public void testRandomQueries() throws Exception {
+    final String[] terms = new String[] { "a", "b", "c", "d", "e", "f", "g", "h" };
+    final int numDocs = atLeast(2000);
+    String[] docs = new String[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      StringBuilder sb = new StringBuilder();
+      final int length = _TestUtil.nextInt(random(), 1, 20);
+      for (int j = 0; j < length; j++) {
+        // skewed term distribution: early terms are much more frequent
+        final int term = Math.min(terms.length - 1, (int) Math.abs(random().nextGaussian() * 3));
+        sb.append(terms[term]).append(' ');
+      }
+      docs[i] = sb.toString();
+    }
+    buildIndex(docs);
+
+    final int iters = atLeast(50);
+    for (int iter = 0; iter < iters; iter++) {
+      BooleanQuery query = new BooleanQuery(random().nextBoolean());
+      final int numClauses = _TestUtil.nextInt(random(), 2, 5);
+      for (int i = 0; i < numClauses; i++) {
+        TermQuery tq = new TermQuery(new Term("body", terms[random().nextInt(terms.length)]));
+        if (random().nextBoolean()) {
+          tq.setBoost(1 + random().nextInt(5));
+        }
+        query.add(tq, Occur.SHOULD);
+      }
+      assertSameTopHits(query, _TestUtil.nextInt(random(), 1, 50));
+    }
+  }
+}
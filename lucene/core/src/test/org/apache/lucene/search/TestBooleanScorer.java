@@ -19,6 +19,7 @@ package org.apache.lucene.search;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.lucene.document.Document;
@@ -180,4 +181,130 @@ public class TestBooleanScorer extends LuceneTestCase
     r.close();
     d.close();
   }
+
+  private static Scorer costScorer(Weight weight, final long cost) {
+    return new Scorer(weight) {
+      @Override public float score() { return 0; }
+      @Override public int freq()  { return 0; }
+      @Override public int docID() { return -1; }
+      @Override public int nextDoc() { return NO_MORE_DOCS; }
+      @Override public int advance(int target) { return NO_MORE_DOCS; }
+      @Override public long cost() { return cost; }
+    };
+  }
+
+  public void testWindowSize() throws Exception {
+    Directory directory = newDirectory();
+    RandomIndexWriter writer = new RandomIndexWriter(random(), directory);
+    writer.commit();
+    IndexReader ir = writer.getReader();
+    writer.close();
+    IndexSearcher searcher = newSearcher(ir);
+    BooleanWeight weight = (BooleanWeight) new BooleanQuery().createWeight(searcher);
+
+    final int maxDoc = 1 << 20;
+    int previous = Integer.MAX_VALUE;
+    for (long cost = 1; cost <= maxDoc; cost *= 4) {
+      List<Scorer> scorers = new ArrayList<Scorer>();
+      for (int i = 0; i < 4; i++) {
+        scorers.add(costScorer(weight, cost));
+      }
+      final int windowSize = BooleanScorer.windowSize(scorers, null, maxDoc);
+      assertEquals(1, Integer.bitCount(windowSize));
+      assertTrue(windowSize >= BooleanScorer.BucketTable.MIN_SIZE);
+      assertTrue(windowSize <= BooleanScorer.BucketTable.MAX_SIZE);
+      // denser clauses never get larger windows
+      assertTrue(windowSize <= previous);
+      previous = windowSize;
+    }
+    assertEquals(BooleanScorer.BucketTable.MAX_SIZE, BooleanScorer.windowSize(
+        Arrays.asList(costScorer(weight, 1)), null, maxDoc));
+    List<Scorer> dense = new ArrayList<Scorer>();
+    for (int i = 0; i < 8; i++) {
+      dense.add(costScorer(weight, maxDoc));
+    }
+    assertEquals(BooleanScorer.BucketTable.MIN_SIZE, BooleanScorer.windowSize(
+        dense, Arrays.asList(costScorer(weight, maxDoc)), maxDoc));
+    // windows do not get much larger than small segments
+    assertEquals(512, BooleanScorer.windowSize(Arrays.asList(costScorer(weight, 1)), null, 300));
+
+    ir.close();
+    directory.close();
+  }
+
+  public void testRandomWindowSize() throws Exception {
+    Directory directory = newDirectory();
+    RandomIndexWriter writer = new RandomIndexWriter(random(), directory);
+    final int numDocs = atLeast(3000);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      StringBuilder sb = new StringBuilder();
+      for (int j = 0; j < 10; j++) {
+        if (random().nextInt(j + 2) == 0) {
+          sb.append(j).append(' ');
+        }
+      }
+      doc.add(newTextField(FIELD, sb.toString(), Field.Store.NO));
+      writer.addDocument(doc);
+    }
+    IndexReader ir = writer.getReader();
+    writer.close();
+    // the asserting searcher would hide the BooleanScorer under test
+    IndexSearcher searcher = new IndexSearcher(ir);
+
+    BooleanQuery query = new BooleanQuery();
+    for (int j = 0; j < 10; j++) {
+      query.add(new TermQuery(new Term(FIELD, "" + j)), random().nextInt(5) == 0 ? BooleanClause.Occur.MUST_NOT : BooleanClause.Occur.SHOULD);
+    }
+    query.add(new TermQuery(new Term(FIELD, "0")), BooleanClause.Occur.SHOULD);
+    BooleanWeight weight = (BooleanWeight) searcher.createNormalizedWeight(query);
+
+    for (AtomicReaderContext context : ir.leaves()) {
+      final Scorer expected = weight.scorer(context, true, false, context.reader().getLiveDocs());
+      if (expected == null) {
+        continue;
+      }
+      final List<Integer> expectedDocs = new ArrayList<Integer>();
+      while (expected.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+        expectedDocs.add(expected.docID());
+      }
+
+      final List<Scorer> optional = new ArrayList<Scorer>();
+      final List<Scorer> prohibited = new ArrayList<Scorer>();
+      for (int j = 0; j < query.clauses().size(); j++) {
+        final BooleanClause clause = query.clauses().get(j);
+        final Scorer scorer = weight.weights.get(j).scorer(context, true, false, context.reader().getLiveDocs());
+        if (scorer != null) {
+          (clause.isProhibited() ? prohibited : optional).add(scorer);
+        }
+      }
+      final int windowSize = 1 << (8 + random().nextInt(7));
+      final BooleanScorer bs = new BooleanScorer(weight, false, 1, optional, prohibited, query.clauses().size(), windowSize);
+      final List<Integer> actualDocs = new ArrayList<Integer>();
+      bs.score(new Collector() {
+        @Override
+        public void setScorer(Scorer scorer) {
+        }
+
+        @Override
+        public void collect(int doc) {
+          actualDocs.add(doc);
+        }
+
+        @Override
+        public void setNextReader(AtomicReaderContext context) {
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+          return true;
+        }
+      });
+      Collections.sort(actualDocs);
+      assertEquals("windowSize=" + windowSize, expectedDocs, actualDocs);
+    }
+
+    ir.close();
+    directory.close();
+  }
 }
@@ -0,0 +1,171 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FloatField;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+import org.apache.lucene.util.packed.PackedInts;
+
+public class TestMappedFieldCacheValues extends LuceneTestCase {
+
+  private File dir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = _TestUtil.getTempDir("fieldcache");
+    dir.mkdirs();
+  }
+
+  private MappedFieldCacheValues newValues() {
+    // small chunks so that values span chunk boundaries
+    return new MappedFieldCacheValues(dir, _TestUtil.nextInt(random(), 4, 10));
+  }
+
+  public void testPacked() throws Exception {
+    MappedFieldCacheValues mapped = newValues();
+    for (int bpv = 1; bpv <= 64; bpv++) {
+      final int valueCount = _TestUtil.nextInt(random(), 1, 1000);
+      PackedInts.Mutable expected = PackedInts.getMutable(valueCount, bpv, PackedInts.COMPACT);
+      for (int i = 0; i < valueCount; i++) {
+        expected.set(i, bpv == 64 ? random().nextLong() : _TestUtil.nextLong(random(), 0, PackedInts.maxValue(bpv)));
+      }
+      PackedInts.Reader actual = mapped.spill(expected);
+      assertEquals(valueCount, actual.size());
+      for (int i = 0; i < valueCount; i++) {
+        assertEquals("bpv=" + bpv + " i=" + i, expected.get(i), actual.get(i));
+      }
+    }
+  }
+
+  public void testFloatsAndDoubles() throws Exception {
+    MappedFieldCacheValues mapped = newValues();
+    final int valueCount = atLeast(100);
+    final float[] floats = new float[valueCount];
+    final double[] doubles = new double[valueCount];
+    for (int i = 0; i < valueCount; i++) {
+      floats[i] = Float.intBitsToFloat(random().nextInt());
+      doubles[i] = Double.longBitsToDouble(random().nextLong());
+    }
+    FieldCache.Floats mappedFloats = mapped.spill(floats);
+    FieldCache.Doubles mappedDoubles = mapped.spill(doubles);
+    for (int i = 0; i < valueCount; i++) {
+      assertEquals(Float.floatToRawIntBits(floats[i]), Float.floatToRawIntBits(mappedFloats.get(i)));
+      assertEquals(Double.doubleToRawLongBits(doubles[i]), Double.doubleToRawLongBits(mappedDoubles.get(i)));
+    }
+  }
+
+  public void testFieldCache() throws Exception {
+    Directory directory = newDirectory();
+    RandomIndexWriter writer = new RandomIndexWriter(random(), directory);
+    final int numDocs = atLeast(200);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(new IntField("int", random().nextInt(), Field.Store.NO));
+      doc.add(new LongField("long", random().nextLong(), Field.Store.NO));
+      doc.add(new FloatField("float", random().nextFloat(), Field.Store.NO));
+      doc.add(new DoubleField("double", random().nextDouble(), Field.Store.NO));
+      if (random().nextInt(5) != 0) {
+        doc.add(newStringField("string", _TestUtil.randomUnicodeString(random()), Field.Store.NO));
+      }
+      writer.addDocument(doc);
+    }
+    AtomicReader reader = SlowCompositeReaderWrapper.wrap(writer.getReader());
+    writer.close();
+
+    FieldCache cache = FieldCache.DEFAULT;
+    try {
+      FieldCache.Ints ints = cache.getInts(reader, "int", false);
+      FieldCache.Longs longs = cache.getLongs(reader, "long", false);
+      FieldCache.Floats floats = cache.getFloats(reader, "float", false);
+      FieldCache.Doubles doubles = cache.getDoubles(reader, "double", false);
+      SortedDocValues termsIndex = cache.getTermsIndex(reader, "string");
+      cache.purgeAllCaches();
+
+      cache.setOffHeapDirectory(dir);
+      assertEquals(dir, cache.getOffHeapDirectory());
+      FieldCache.Ints mappedInts = cache.getInts(reader, "int", false);
+      assertSame(mappedInts, cache.getInts(reader, "int", false));
+      FieldCache.Longs mappedLongs = cache.getLongs(reader, "long", false);
+      FieldCache.Floats mappedFloats = cache.getFloats(reader, "float", false);
+      FieldCache.Doubles mappedDoubles = cache.getDoubles(reader, "double", false);
+      SortedDocValues mappedTermsIndex = cache.getTermsIndex(reader, "string");
+      assertEquals(termsIndex.getValueCount(), mappedTermsIndex.getValueCount());
+
+      final BytesRef expected = new BytesRef();
+      final BytesRef actual = new BytesRef();
+      for (int i = 0; i < reader.maxDoc(); i++) {
+        assertEquals(ints.get(i), mappedInts.get(i));
+        assertEquals(longs.get(i), mappedLongs.get(i));
+        assertEquals(floats.get(i), mappedFloats.get(i), 0f);
+        assertEquals(doubles.get(i), mappedDoubles.get(i), 0d);
+        assertEquals(termsIndex.getOrd(i), mappedTermsIndex.getOrd(i));
+      }
+      for (int ord = 0; ord < termsIndex.getValueCount(); ord++) {
+        termsIndex.lookupOrd(ord, expected);
+        mappedTermsIndex.lookupOrd(ord, actual);
+        assertEquals(expected, actual);
+      }
+      // the array of a reused BytesRef is filled again rather than reallocated
+      if (termsIndex.getValueCount() > 0) {
+        mappedTermsIndex.lookupOrd(0, actual);
+        final byte[] bytes = actual.bytes;
+        for (int ord = 0; ord < termsIndex.getValueCount(); ord++) {
+          mappedTermsIndex.lookupOrd(ord, actual);
+          if (actual.length <= bytes.length) {
+            assertSame(bytes, actual.bytes);
+          }
+          termsIndex.lookupOrd(ord, expected);
+          assertEquals(expected, actual);
+        }
+        // but arrays that it did not return are never written to
+        final byte[] foreign = new byte[16];
+        final BytesRef scratch = new BytesRef(foreign);
+        mappedTermsIndex.lookupOrd(termsIndex.getValueCount() - 1, scratch);
+        assertNotSame(foreign, scratch.bytes);
+        assertTrue(Arrays.equals(new byte[16], foreign));
+      }
+      // lookupTerm relies on lookupOrd
+      for (int ord = 0; ord < termsIndex.getValueCount(); ord++) {
+        termsIndex.lookupOrd(ord, expected);
+        assertEquals(ord, mappedTermsIndex.lookupTerm(expected));
+      }
+    } finally {
+      cache.purgeAllCaches();
+      cache.setOffHeapDirectory(null);
+      reader.close();
+      directory.close();
+    }
+    assertNull(cache.getOffHeapDirectory());
+  }
+}
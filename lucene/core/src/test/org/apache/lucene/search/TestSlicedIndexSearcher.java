@@ -0,0 +1,161 @@
+package org.apache.lucene.search;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.RandomIndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.SlicedIndexSearcher.DocRange;
+import org.apache.lucene.search.SlicedIndexSearcher.DocRangeSlice;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+
+public class TestSlicedIndexSearcher extends LuceneTestCase {
+  private Directory dir;
+  private IndexReader reader;
+  private ForkJoinPool pool;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = newDirectory();
+    RandomIndexWriter iw = new RandomIndexWriter(random(), dir);
+    final int numDocs = atLeast(500);
+    for (int i = 0; i < numDocs; i++) {
+      Document doc = new Document();
+      doc.add(newStringField("id", Integer.toString(i), Field.Store.NO));
+      doc.add(newTextField("body", random().nextBoolean() ? "a b" : (random().nextBoolean() ? "a a c" : "b c c"), Field.Store.NO));
+      doc.add(new NumericDocValuesField("num", random().nextInt(20)));
+      iw.addDocument(doc);
+      if (rarely()) {
+        iw.deleteDocuments(new Term("id", Integer.toString(random().nextInt(i + 1))));
+      }
+    }
+    reader = iw.getReader();
+    iw.close();
+    pool = new ForkJoinPool(_TestUtil.nextInt(random(), 1, 4));
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    pool.shutdown();
+    pool.awaitTermination(1, TimeUnit.MINUTES);
+    reader.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  public void testSlices() throws Exception {
+    final int docsPerSlice = _TestUtil.nextInt(random(), 1, reader.maxDoc());
+    final int maxSlices = _TestUtil.nextInt(random(), 1, 10);
+    SlicedIndexSearcher searcher = new SlicedIndexSearcher(reader, pool, docsPerSlice, maxSlices);
+    DocRangeSlice[] slices = searcher.getDocRangeSlices();
+    assertTrue(slices.length >= 1);
+    assertTrue(slices.length <= maxSlices);
+    // slices must cover all docs, in order, exactly once
+    int expectedDoc = 0;
+    for (DocRangeSlice slice : slices) {
+      assertTrue(slice.ranges.length > 0);
+      for (DocRange range : slice.ranges) {
+        assertEquals(expectedDoc, range.context.docBase + range.minDoc);
+        expectedDoc = range.context.docBase + range.maxDoc;
+      }
+    }
+    assertEquals(reader.maxDoc(), expectedDoc);
+  }
+
+  public void testSameHits() throws Exception {
+    IndexSearcher expected = new IndexSearcher(reader);
+    SlicedIndexSearcher actual = new SlicedIndexSearcher(reader, pool,
+        _TestUtil.nextInt(random(), 1, 100), _TestUtil.nextInt(random(), 2, 20));
+
+    BooleanQuery bq = new BooleanQuery();
+    bq.add(new TermQuery(new Term("body", "a")), Occur.SHOULD);
+    bq.add(new TermQuery(new Term("body", "c")), Occur.SHOULD);
+    Query[] queries = new Query[] {
+        new MatchAllDocsQuery(),
+        new TermQuery(new Term("body", "c")),
+        bq
+    };
+    Sort[] sorts = new Sort[] {
+        new Sort(new SortField("num", SortField.Type.INT)),
+        new Sort(new SortField("num", SortField.Type.INT, true), SortField.FIELD_SCORE),
+        new Sort(SortField.FIELD_SCORE, new SortField("num", SortField.Type.INT))
+    };
+
+    for (Query query : queries) {
+      final int n = _TestUtil.nextInt(random(), 1, reader.maxDoc() + 10);
+      TopDocs hits = expected.search(query, n);
+      assertSameHits(hits, actual.search(query, n));
+      if (hits.scoreDocs.length > 0) {
+        ScoreDoc after = hits.scoreDocs[random().nextInt(hits.scoreDocs.length)];
+        assertSameHits(expected.searchAfter(after, query, n), actual.searchAfter(after, query, n));
+      }
+
+      for (Sort sort : sorts) {
+        final boolean doDocScores = random().nextBoolean();
+        final boolean doMaxScore = random().nextBoolean();
+        TopFieldDocs fieldHits = expected.search(query, null, n, sort, doDocScores, doMaxScore);
+        assertSameHits(fieldHits, actual.search(query, null, n, sort, doDocScores, doMaxScore));
+        if (fieldHits.scoreDocs.length > 0) {
+          FieldDoc after = (FieldDoc) fieldHits.scoreDocs[random().nextInt(fieldHits.scoreDocs.length)];
+          assertSameHits(expected.searchAfter(after, query, null, n, sort, doDocScores, doMaxScore),
+              actual.searchAfter(after, query, null, n, sort, doDocScores, doMaxScore));
+        }
+      }
+    }
+  }
+
+  private void assertSameHits(TopDocs expected, TopDocs actual) {
+    assertEquals(expected.totalHits, actual.totalHits);
+    assertEquals(expected.getMaxScore(), actual.getMaxScore(), 0f);
+    assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+    for (int i = 0; i < expected.scoreDocs.length; i++) {
+      final ScoreDoc e = expected.scoreDocs[i];
+      final ScoreDoc a = actual.scoreDocs[i];
+      assertEquals(e.doc, a.doc);
+      assertEquals(e.score, a.score, 0f);
+      assertEquals(e.shardIndex, a.shardIndex);
+    }
+  }
+
+  public void testDocRangeValidation() throws Exception {
+    AtomicReaderContext leaf = reader.leaves().get(0);
+    try {
+      new DocRange(leaf, 0, leaf.reader().maxDoc() + 1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // ok
+    }
+    try {
+      new DocRange(leaf, 3, 3);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // ok
+    }
+  }
+}
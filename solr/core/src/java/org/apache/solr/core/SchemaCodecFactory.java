@@ -2,7 +2,9 @@ package org.apache.solr.core;
 
 import org.apache.lucene.codecs.Codec;
 import org.apache.lucene.codecs.DocValuesFormat;
+import org.apache.lucene.codecs.BlockTreeTermsWriter;
 import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene41.Lucene41PostingsFormat;
 import org.apache.lucene.codecs.lucene46.Lucene46Codec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.schema.SchemaField;
@@ -29,11 +31,18 @@ import org.apache.solr.util.plugin.SolrCoreAware;
  * Per-field CodecFactory implementation, extends Lucene's 
  * and returns postings format implementations according to the 
  * schema configuration.
+ * <p>
+ * Unless its type configures a postings format, the uniqueKey field
+ * gets the default postings format with term filters, so that looking up
+ * a key in the segments that do not have it, as updates do, seldom needs
+ * to go through the terms index.
  * @lucene.experimental
  */
 public class SchemaCodecFactory extends CodecFactory implements SolrCoreAware {
   private Codec codec;
   private volatile SolrCore core;
+  private final PostingsFormat uniqueKeyPostingsFormat = new Lucene41PostingsFormat(
+      BlockTreeTermsWriter.DEFAULT_MIN_BLOCK_SIZE, BlockTreeTermsWriter.DEFAULT_MAX_BLOCK_SIZE, true);
   
   // TODO: we need to change how solr does this?
   // rather than a string like "Pulsing" you need to be able to pass parameters
@@ -62,6 +71,9 @@ public class SchemaCodecFactory extends CodecFactory implements SolrCoreAware {
         if (postingsFormatName != null) {
           return PostingsFormat.forName(postingsFormatName);
         }
+        if (fieldOrNull.equals(core.getLatestSchema().getUniqueKeyField())) {
+          return uniqueKeyPostingsFormat;
+        }
         return super.getPostingsFormatForField(field);
       }
       @Override
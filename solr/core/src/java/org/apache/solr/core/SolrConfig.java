@@ -157,6 +157,12 @@ public class SolrConfig extends Config {
     indexConfig = new SolrIndexConfig(this, "indexConfig", mainIndexConfig);
    
     booleanQueryMaxClauseCount = getInt("query/maxBooleanClauses", BooleanQuery.getMaxClauseCount());
+    fieldCacheStorage = get("query/fieldCache/@storage", "heap");
+    if (!"heap".equals(fieldCacheStorage) && !"mmap".equals(fieldCacheStorage)) {
+      throw new SolrException(ErrorCode.SERVER_ERROR,
+          "Invalid fieldCache storage: " + fieldCacheStorage + ", must be one of: heap, mmap");
+    }
+    fieldCacheDir = get("query/fieldCache/@dir", System.getProperty("java.io.tmpdir"));
     log.info("Using Lucene MatchVersion: " + luceneMatchVersion);
 
     // Warn about deprecated / discontinued parameters
@@ -178,6 +184,12 @@ public class SolrConfig extends Config {
 
     
     filterCacheConfig = CacheConfig.getConfig(this, "query/filterCache");
+    perSegmentFilterCache = filterCacheConfig != null && getBool("query/filterCache/@perSegment", false);
+    perSegmentFilterCacheMaxRamMB = getDouble("query/filterCache/@perSegmentMaxRamMB", 128);
+    if (perSegmentFilterCacheMaxRamMB <= 0) {
+      throw new SolrException(ErrorCode.SERVER_ERROR,
+          "Invalid filterCache perSegmentMaxRamMB: " + perSegmentFilterCacheMaxRamMB + ", must be > 0");
+    }
     queryResultCacheConfig = CacheConfig.getConfig(this, "query/queryResultCache");
     documentCacheConfig = CacheConfig.getConfig(this, "query/documentCache");
     CacheConfig conf = CacheConfig.getConfig(this, "query/fieldValueCache");
@@ -301,12 +313,18 @@ public class SolrConfig extends Config {
 
   /* The set of materialized parameters: */
   public final int booleanQueryMaxClauseCount;
+  // FieldCache storage: "heap" or "mmap"
+  public final String fieldCacheStorage;
+  public final String fieldCacheDir;
 // SolrIndexSearcher - nutch optimizer -- Disabled since 3.1
 //  public final boolean filtOptEnabled;
 //  public final int filtOptCacheSize;
 //  public final float filtOptThreshold;
   // SolrIndexSearcher - caches configurations
   public final CacheConfig filterCacheConfig ;
+  // cache filters per segment, across searchers, in addition to the filterCache
+  public final boolean perSegmentFilterCache;
+  public final double perSegmentFilterCacheMaxRamMB;
   public final CacheConfig queryResultCacheConfig;
   public final CacheConfig documentCacheConfig;
   public final CacheConfig fieldValueCacheConfig;
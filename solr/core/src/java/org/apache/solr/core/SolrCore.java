@@ -24,6 +24,7 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexDeletionPolicy;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
@@ -48,6 +49,7 @@ import org.apache.solr.handler.component.QueryComponent;
 import org.apache.solr.handler.component.RealTimeGetComponent;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.StatsComponent;
+import org.apache.solr.request.SegmentTermOrdsCache;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrRequestHandler;
 import org.apache.solr.response.BinaryResponseWriter;
@@ -68,6 +70,7 @@ import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.IndexSchemaFactory;
 import org.apache.solr.schema.SimilarityFactory;
 import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SegmentFilterCache;
 import org.apache.solr.search.SolrFieldCacheMBean;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.ValueSourceParser;
@@ -163,6 +166,8 @@ public final class SolrCore implements SolrInfoMBean {
   private DirectoryFactory directoryFactory;
   private IndexReaderFactory indexReaderFactory;
   private final Codec codec;
+  private final SegmentFilterCache segmentFilterCache;
+  private final SegmentTermOrdsCache segmentTermOrdsCache;
 
   public long getStartTime() { return startTime; }
 
@@ -179,6 +184,28 @@ public final class SolrCore implements SolrInfoMBean {
     }
   }
 
+  static String field_cache_storage = null;
+  // only change the FieldCache storage once for ALL cores, since the FieldCache is shared by the whole JVM
+  void fieldCacheStorage() {
+    synchronized(SolrCore.class) {
+      final String storage = "mmap".equals(solrConfig.fieldCacheStorage)
+          ? "mmap:" + solrConfig.fieldCacheDir : solrConfig.fieldCacheStorage;
+      if (field_cache_storage == null) {
+        field_cache_storage = storage;
+        if ("mmap".equals(solrConfig.fieldCacheStorage)) {
+          final File dir = new File(solrConfig.fieldCacheDir);
+          if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Could not create fieldCache directory: " + dir);
+          }
+          log.info("Memory-mapping FieldCache entries from " + dir);
+          FieldCache.DEFAULT.setOffHeapDirectory(dir);
+        }
+      } else if (!field_cache_storage.equals(storage)) {
+        log.warn("FieldCache storage=" + field_cache_storage + ", ignoring " + storage);
+      }
+    }
+  }
+
   
   /**
    * The SolrResourceLoader used to load all resources for this core.
@@ -646,6 +673,8 @@ public final class SolrCore implements SolrInfoMBean {
     this.updateProcessorChains = null;
     this.infoRegistry = null;
     this.codec = null;
+    this.segmentFilterCache = null;
+    this.segmentTermOrdsCache = null;
 
     solrCoreState = null;
   }
@@ -714,6 +743,15 @@ public final class SolrCore implements SolrInfoMBean {
 
     infoRegistry.put("fieldCache", new SolrFieldCacheMBean());
 
+    if (config.perSegmentFilterCache) {
+      segmentFilterCache = new SegmentFilterCache((long) (config.perSegmentFilterCacheMaxRamMB * 1024 * 1024));
+      infoRegistry.put("segmentFilterCache", segmentFilterCache);
+    } else {
+      segmentFilterCache = null;
+    }
+    segmentTermOrdsCache = new SegmentTermOrdsCache();
+    infoRegistry.put("segmentTermOrdsCache", segmentTermOrdsCache);
+
     if (schema==null) {
       schema = IndexSchemaFactory.buildIndexSchema(IndexSchema.DEFAULT_SCHEMA_FILE, config);
     }
@@ -729,6 +767,7 @@ public final class SolrCore implements SolrInfoMBean {
     this.maxWarmingSearchers = config.maxWarmingSearchers;
 
     booleanQueryMaxClauseCount();
+    fieldCacheStorage();
   
     final CountDownLatch latch = new CountDownLatch(1);
 
@@ -1039,6 +1078,13 @@ public final class SolrCore implements SolrInfoMBean {
     } catch (Throwable e) {
       SolrException.log(log,e);
     }
+
+    if (segmentFilterCache != null) {
+      segmentFilterCache.close();
+    }
+    if (segmentTermOrdsCache != null) {
+      segmentTermOrdsCache.close();
+    }
     
     if (coreStateClosed) {
       
@@ -1243,6 +1289,22 @@ public final class SolrCore implements SolrInfoMBean {
     return updateHandler;
   }
 
+  /**
+   * Returns the cache of filters per segment that is shared by all
+   * searchers of this core, or null if it is not enabled.
+   */
+  public SegmentFilterCache getSegmentFilterCache() {
+    return segmentFilterCache;
+  }
+
+  /**
+   * Returns the per segment un-inverted fields of facet.method=fcs, which
+   * are shared by all searchers of this core.
+   */
+  public SegmentTermOrdsCache getSegmentTermOrdsCache() {
+    return segmentTermOrdsCache;
+  }
+
   ////////////////////////////////////////////////////////////////////////////////
   // Searcher Control
   ////////////////////////////////////////////////////////////////////////////////
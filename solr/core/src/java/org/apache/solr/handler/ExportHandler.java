@@ -0,0 +1,678 @@
+package org.apache.solr.handler;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.PriorityQueue;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.schema.TrieField;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SolrReturnFields;
+
+/**
+ * Streams all documents that match a query, sorted by docValues fields.
+ * <p/>
+ * Unlike paging through results with the SearchHandler, no DocList is
+ * built and no stored fields are loaded: the sort values and the returned
+ * fields are read from the docValues of single valued string and trie
+ * fields. Documents are written by the response writer as they are sorted,
+ * and any writer that streams iterators, such as <code>json</code> and
+ * <code>javabin</code>, can be used.
+ * <p/>
+ * By default, documents are sorted <code>batchSize</code> at a time (an init
+ * argument, {@link #DEFAULT_BATCH_SIZE} by default): the matches are kept in
+ * a bit set per segment, one bit per document of the index, and each batch
+ * takes the top documents of those not returned yet with a bounded priority
+ * queue. The memory a request takes does not depend on the number of
+ * matches, but every batch scans all remaining matches.
+ * <p/>
+ * With <code>presort=true</code>, the matches of each segment are sorted
+ * once instead, and segments are merged as the response writer consumes
+ * documents. This is faster for large exports, but takes 4 bytes per
+ * matching document for the whole request, e.g. 800MB for 200M matches.
+ * <p/>
+ * Documents that have no value for a sort field sort like they do with
+ * the SearchHandler: according to the <code>sortMissingFirst</code> and
+ * <code>sortMissingLast</code> options of the field, and otherwise as 0
+ * for numeric fields and before all values for string fields.
+ * <p/>
+ * The <code>q</code> (defaults to all documents), <code>fq</code>,
+ * <code>sort</code> (required) and <code>fl</code> (required) parameters
+ * are supported. The response looks like that of a search:
+ * <code>{"response":{"numFound":N,"docs":[...]}}</code>.
+ *
+ * <pre class="prettyprint">
+ * &lt;requestHandler name="/export" class="solr.ExportHandler"&gt;
+ *   &lt;lst name="invariants"&gt;
+ *     &lt;str name="wt"&gt;json&lt;/str&gt;
+ *   &lt;/lst&gt;
+ * &lt;/requestHandler&gt;</pre>
+ */
+public class ExportHandler extends RequestHandlerBase {
+
+  /** The default number of documents that are sorted at a time. */
+  public static final int DEFAULT_BATCH_SIZE = 30000;
+
+  /** Request parameter to sort all matches of each segment at once. */
+  public static final String PRESORT = "presort";
+
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  @Override
+  public void init(NamedList args) {
+    super.init(args);
+    Object size = args == null ? null : args.get("batchSize");
+    if (size != null) {
+      batchSize = Integer.parseInt(size.toString());
+      if (batchSize < 1) {
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "batchSize must be > 0, got " + size);
+      }
+    }
+  }
+
+  @Override
+  public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp) throws Exception {
+    SolrParams params = req.getParams();
+    String sortSpec = params.get(CommonParams.SORT);
+    String fl = params.get(CommonParams.FL);
+    if (sortSpec == null || sortSpec.trim().length() == 0) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "export requires the sort parameter");
+    }
+    if (fl == null || fl.trim().length() == 0) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "export requires the fl parameter");
+    }
+
+    List<Query> queries = new ArrayList<Query>();
+    String q = params.get(CommonParams.Q);
+    if (q != null && q.trim().length() != 0) {
+      String defType = params.get(QueryParsing.DEFTYPE, QParserPlugin.DEFAULT_QTYPE);
+      Query query = QParser.getParser(q, defType, req).getQuery();
+      if (query != null) {
+        queries.add(query);
+      }
+    }
+    String[] fqs = params.getParams(CommonParams.FQ);
+    if (fqs != null) {
+      for (String fq : fqs) {
+        if (fq != null && fq.trim().length() != 0) {
+          Query filter = QParser.getParser(fq, null, req).getQuery();
+          if (filter != null) {
+            queries.add(filter);
+          }
+        }
+      }
+    }
+
+    SolrIndexSearcher searcher = req.getSearcher();
+    IndexSchema schema = req.getSchema();
+    Sort sort = QueryParsing.parseSort(sortSpec, req);
+    if (sort == null) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "export can not sort by score: " + sortSpec);
+    }
+    SortField[] sortFields = sort.getSort();
+    FieldReader[] sortReaders = new FieldReader[sortFields.length];
+    boolean[] reverse = new boolean[sortFields.length];
+    for (int i = 0; i < sortFields.length; i++) {
+      String name = sortFields[i].getField();
+      if (name == null) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "export can only sort by fields: " + sortSpec);
+      }
+      reverse[i] = sortFields[i].getReverse();
+      sortReaders[i] = getFieldReader(searcher, schema, name, reverse[i]);
+    }
+    String[] names = fl.trim().split("[,\\s]+");
+    FieldReader[] fieldReaders = new FieldReader[names.length];
+    for (int i = 0; i < names.length; i++) {
+      fieldReaders[i] = getFieldReader(searcher, schema, names[i], false);
+    }
+
+    if (queries.isEmpty()) {
+      queries.add(new MatchAllDocsQuery());
+    }
+    DocSet docs = searcher.getDocSet(queries);
+    NamedList<Object> response = new SimpleOrderedMap<Object>();
+    response.add("numFound", docs.size());
+    Iterator<SolrDocument> sorted;
+    if (params.getBool(PRESORT, false)) {
+      sorted = new PresortedDocIterator(searcher, docs, sortReaders, reverse, fieldReaders);
+    } else {
+      sorted = new BatchedDocIterator(searcher, docs, sortReaders, reverse, fieldReaders,
+          Math.max(1, Math.min(batchSize, docs.size())));
+    }
+    response.add("docs", sorted);
+    rsp.add("response", response);
+    rsp.setReturnFields(new SolrReturnFields(names, req));
+    rsp.setHttpCaching(false);
+  }
+
+  private static FieldReader getFieldReader(SolrIndexSearcher searcher, IndexSchema schema, String name,
+      boolean reverse) throws IOException {
+    SchemaField field = schema.getFieldOrNull(name);
+    if (field == null) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "undefined field: " + name);
+    }
+    if (!field.hasDocValues() || field.multiValued()) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+          "export requires single valued fields with docValues: " + name);
+    }
+    FieldType type = field.getType();
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    if (type instanceof TrieField) {
+      return new NumericFieldReader(name, missingSortValue(field, reverse, 0), ((TrieField) type).getType(), leaves);
+    } else if (type instanceof StrField) {
+      return new StringFieldReader(name, missingSortValue(field, reverse, -1), searcher.getAtomicReader(), leaves);
+    }
+    throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+        "export does not support fields of type " + type.getTypeName() + ": " + name);
+  }
+
+  /**
+   * Returns the sort value of the documents that have no value, like
+   * {@link TrieField#getSortField} and {@link FieldType#getStringSort} do
+   * for the SearchHandler.
+   */
+  private static long missingSortValue(SchemaField field, boolean reverse, long defaultValue) {
+    if (field.sortMissingLast()) {
+      return reverse ? Long.MIN_VALUE : Long.MAX_VALUE;
+    } else if (field.sortMissingFirst()) {
+      return reverse ? Long.MAX_VALUE : Long.MIN_VALUE;
+    }
+    return defaultValue;
+  }
+
+  /** Reads the docValues of a field in all segments of a searcher. */
+  static abstract class FieldReader {
+    final String name;
+    // sort value of the documents that have no value
+    final long missingValue;
+
+    FieldReader(String name, long missingValue) {
+      this.name = name;
+      this.missingValue = missingValue;
+    }
+
+    /** Returns a value of the document that sorts like the field. */
+    abstract long sortValue(int leaf, int doc);
+
+    /** Returns the value of the document, or null if it has none. */
+    abstract Object value(int leaf, int doc);
+  }
+
+  static final class NumericFieldReader extends FieldReader {
+    private final TrieField.TrieTypes type;
+    private final NumericDocValues[] values;
+    private final Bits[] docsWithField;
+
+    NumericFieldReader(String name, long missingValue, TrieField.TrieTypes type, List<AtomicReaderContext> leaves)
+        throws IOException {
+      super(name, missingValue);
+      this.type = type;
+      values = new NumericDocValues[leaves.size()];
+      docsWithField = new Bits[leaves.size()];
+      for (int i = 0; i < values.length; i++) {
+        AtomicReader reader = leaves.get(i).reader();
+        values[i] = reader.getNumericDocValues(name);
+        docsWithField[i] = reader.getDocsWithField(name);
+      }
+    }
+
+    private long get(int leaf, int doc) {
+      return values[leaf] == null ? 0 : values[leaf].get(doc);
+    }
+
+    private boolean exists(int leaf, int doc) {
+      return docsWithField[leaf] != null && docsWithField[leaf].get(doc);
+    }
+
+    @Override
+    long sortValue(int leaf, int doc) {
+      if (!exists(leaf, doc)) {
+        return missingValue;
+      }
+      long bits = get(leaf, doc);
+      switch (type) {
+        case FLOAT:
+          return NumericUtils.floatToSortableInt(Float.intBitsToFloat((int) bits));
+        case DOUBLE:
+          return NumericUtils.doubleToSortableLong(Double.longBitsToDouble(bits));
+        default:
+          return bits;
+      }
+    }
+
+    @Override
+    Object value(int leaf, int doc) {
+      if (!exists(leaf, doc)) {
+        return null;
+      }
+      long bits = get(leaf, doc);
+      switch (type) {
+        case INTEGER:
+          return (int) bits;
+        case LONG:
+          return bits;
+        case FLOAT:
+          return Float.intBitsToFloat((int) bits);
+        case DOUBLE:
+          return Double.longBitsToDouble(bits);
+        case DATE:
+          return new Date(bits);
+        default:
+          throw new AssertionError("Unknown type for trie field: " + type);
+      }
+    }
+  }
+
+  static final class StringFieldReader extends FieldReader {
+    private final SortedDocValues[] values;
+    // maps segment ords to ords of the whole index, null if there is a single segment
+    private final MultiDocValues.OrdinalMap ordinalMap;
+    private final BytesRef scratch = new BytesRef();
+
+    StringFieldReader(String name, long missingValue, AtomicReader topReader, List<AtomicReaderContext> leaves)
+        throws IOException {
+      super(name, missingValue);
+      SortedDocValues top = topReader.getSortedDocValues(name);
+      if (top instanceof MultiDocValues.MultiSortedDocValues) {
+        values = ((MultiDocValues.MultiSortedDocValues) top).values;
+        ordinalMap = ((MultiDocValues.MultiSortedDocValues) top).mapping;
+      } else {
+        values = new SortedDocValues[leaves.size()];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = leaves.get(i).reader().getSortedDocValues(name);
+        }
+        ordinalMap = null;
+      }
+    }
+
+    @Override
+    long sortValue(int leaf, int doc) {
+      if (values[leaf] == null) return missingValue;
+      int ord = values[leaf].getOrd(doc);
+      if (ord < 0) return missingValue;
+      if (ordinalMap == null) return ord;
+      return ordinalMap.getGlobalOrd(leaf, ord);
+    }
+
+    @Override
+    Object value(int leaf, int doc) {
+      if (values[leaf] == null) return null;
+      int ord = values[leaf].getOrd(doc);
+      if (ord < 0) return null;
+      values[leaf].lookupOrd(ord, scratch);
+      return scratch.utf8ToString();
+    }
+  }
+
+  static final class SortDoc {
+    int leaf;
+    int doc;
+    final long[] values;
+
+    SortDoc(int numSortFields) {
+      values = new long[numSortFields];
+    }
+  }
+
+  static final class SortQueue extends PriorityQueue<SortDoc> {
+    private final boolean[] reverse;
+    private final boolean lastOnTop;
+
+    SortQueue(int size, boolean[] reverse, boolean lastOnTop) {
+      super(size);
+      this.reverse = reverse;
+      this.lastOnTop = lastOnTop;
+    }
+
+    // the top of the queue is the document that sorts first, or last
+    @Override
+    protected boolean lessThan(SortDoc a, SortDoc b) {
+      int cmp = compare(a, b, reverse);
+      return lastOnTop ? cmp > 0 : cmp < 0;
+    }
+  }
+
+  static int compare(SortDoc a, SortDoc b, boolean[] reverse) {
+    for (int i = 0; i < reverse.length; i++) {
+      int cmp = a.values[i] < b.values[i] ? -1 : (a.values[i] == b.values[i] ? 0 : 1);
+      if (cmp != 0) {
+        return reverse[i] ? -cmp : cmp;
+      }
+    }
+    // ties are broken by index order
+    if (a.leaf != b.leaf) {
+      return a.leaf < b.leaf ? -1 : 1;
+    }
+    return a.doc < b.doc ? -1 : (a.doc == b.doc ? 0 : 1);
+  }
+
+  // calls the visitor with each match, by segment
+  private static void splitBySegment(SolrIndexSearcher searcher, DocSet docs, SegmentDocVisitor visitor) {
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    int leaf = 0;
+    for (DocIterator it = docs.iterator(); it.hasNext();) {
+      int doc = it.nextDoc();
+      while (doc >= leaves.get(leaf).docBase + leaves.get(leaf).reader().maxDoc()) {
+        leaf++;
+      }
+      visitor.visit(leaf, doc - leaves.get(leaf).docBase);
+    }
+  }
+
+  private interface SegmentDocVisitor {
+    void visit(int leaf, int doc);
+  }
+
+  private static SolrDocument toSolrDocument(SortDoc sortDoc, FieldReader[] fieldReaders) {
+    SolrDocument doc = new SolrDocument();
+    for (FieldReader reader : fieldReaders) {
+      Object value = reader.value(sortDoc.leaf, sortDoc.doc);
+      if (value != null) {
+        doc.addField(reader.name, value);
+      }
+    }
+    return doc;
+  }
+
+  /**
+   * Sorts the matching documents <code>batchSize</code> at a time: each
+   * batch holds the top documents of those that were not returned yet, and
+   * is found with a priority queue over all remaining matches.
+   */
+  static final class BatchedDocIterator implements Iterator<SolrDocument> {
+    private final FieldReader[] sortReaders;
+    private final FieldReader[] fieldReaders;
+    // the matching documents of each segment that were not returned yet
+    private final FixedBitSet[] remaining;
+    private final SortQueue queue;
+    private final SortDoc[] batch;
+    private int batchLength;
+    private int batchPos;
+    private int remainingCount;
+
+    BatchedDocIterator(SolrIndexSearcher searcher, DocSet docs, FieldReader[] sortReaders, boolean[] reverse,
+                       FieldReader[] fieldReaders, int batchSize) {
+      this.sortReaders = sortReaders;
+      this.fieldReaders = fieldReaders;
+      List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+      remaining = new FixedBitSet[leaves.size()];
+      for (int i = 0; i < remaining.length; i++) {
+        remaining[i] = new FixedBitSet(leaves.get(i).reader().maxDoc());
+      }
+      splitBySegment(searcher, docs, new SegmentDocVisitor() {
+        @Override
+        public void visit(int leaf, int doc) {
+          remaining[leaf].set(doc);
+        }
+      });
+      remainingCount = docs.size();
+      queue = new SortQueue(batchSize, reverse, true);
+      batch = new SortDoc[batchSize];
+    }
+
+    private void nextBatch() {
+      // entries of the previous batch have been returned and can be reused
+      int free = 0;
+      SortDoc scratch = batchLength > 0 ? batch[free++] : new SortDoc(sortReaders.length);
+      for (int leaf = 0; leaf < remaining.length; leaf++) {
+        FixedBitSet bits = remaining[leaf];
+        for (int doc = bits.nextSetBit(0); doc >= 0;
+             doc = doc + 1 >= bits.length() ? -1 : bits.nextSetBit(doc + 1)) {
+          scratch.leaf = leaf;
+          scratch.doc = doc;
+          for (int i = 0; i < sortReaders.length; i++) {
+            scratch.values[i] = sortReaders[i].sortValue(leaf, doc);
+          }
+          scratch = queue.insertWithOverflow(scratch);
+          if (scratch == null) {
+            scratch = free < batchLength ? batch[free++] : new SortDoc(sortReaders.length);
+          }
+        }
+      }
+      batchLength = queue.size();
+      for (int i = batchLength - 1; i >= 0; i--) {
+        SortDoc sortDoc = queue.pop();
+        remaining[sortDoc.leaf].clear(sortDoc.doc);
+        batch[i] = sortDoc;
+      }
+      remainingCount -= batchLength;
+      batchPos = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return batchPos < batchLength || remainingCount > 0;
+    }
+
+    @Override
+    public SolrDocument next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (batchPos == batchLength) {
+        nextBatch();
+      }
+      return toSolrDocument(batch[batchPos++], fieldReaders);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Sorts the matching documents of each segment once, and then merges the
+   * segments: a priority queue holds the next document of every segment.
+   */
+  static final class PresortedDocIterator implements Iterator<SolrDocument> {
+    private final FieldReader[] sortReaders;
+    private final FieldReader[] fieldReaders;
+    // the matching documents of each segment, in sort order
+    private final int[][] segmentDocs;
+    // the position of the next document of each segment
+    private final int[] segmentPos;
+    private final SortQueue queue;
+
+    PresortedDocIterator(SolrIndexSearcher searcher, DocSet docs, FieldReader[] sortReaders, boolean[] reverse,
+                         FieldReader[] fieldReaders) {
+      this.sortReaders = sortReaders;
+      this.fieldReaders = fieldReaders;
+      int numLeaves = searcher.getTopReaderContext().leaves().size();
+      segmentDocs = new int[numLeaves][];
+      segmentPos = new int[numLeaves];
+
+      // split the matches by segment
+      final int[] counts = new int[numLeaves];
+      splitBySegment(searcher, docs, new SegmentDocVisitor() {
+        @Override
+        public void visit(int leaf, int doc) {
+          counts[leaf]++;
+        }
+      });
+      for (int i = 0; i < segmentDocs.length; i++) {
+        segmentDocs[i] = new int[counts[i]];
+      }
+      splitBySegment(searcher, docs, new SegmentDocVisitor() {
+        @Override
+        public void visit(int leaf, int doc) {
+          segmentDocs[leaf][segmentPos[leaf]++] = doc;
+        }
+      });
+
+      int numSegments = 0;
+      for (int i = 0; i < segmentDocs.length; i++) {
+        new SegmentSorter(i, segmentDocs[i], reverse).sort(0, segmentDocs[i].length);
+        segmentPos[i] = 0;
+        if (segmentDocs[i].length > 0) {
+          numSegments++;
+        }
+      }
+      queue = new SortQueue(Math.max(1, numSegments), reverse, false);
+      for (int i = 0; i < segmentDocs.length; i++) {
+        if (segmentDocs[i].length > 0) {
+          SortDoc sortDoc = new SortDoc(sortReaders.length);
+          fill(sortDoc, i, segmentDocs[i][0]);
+          queue.add(sortDoc);
+        }
+      }
+    }
+
+    private void fill(SortDoc sortDoc, int leaf, int doc) {
+      sortDoc.leaf = leaf;
+      sortDoc.doc = doc;
+      for (int i = 0; i < sortReaders.length; i++) {
+        sortDoc.values[i] = sortReaders[i].sortValue(leaf, doc);
+      }
+    }
+
+    /** Sorts the matching documents of a segment. */
+    private final class SegmentSorter extends IntroSorter {
+      private final int leaf;
+      private final int[] docs;
+      private final boolean[] reverse;
+      private final long[] pivotValues;
+      private int pivotDoc;
+
+      SegmentSorter(int leaf, int[] docs, boolean[] reverse) {
+        this.leaf = leaf;
+        this.docs = docs;
+        this.reverse = reverse;
+        pivotValues = new long[sortReaders.length];
+      }
+
+      private int compare(long[] aValues, int a, int b) {
+        for (int i = 0; i < sortReaders.length; i++) {
+          long aValue = aValues == null ? sortReaders[i].sortValue(leaf, a) : aValues[i];
+          long bValue = sortReaders[i].sortValue(leaf, b);
+          int cmp = aValue < bValue ? -1 : (aValue == bValue ? 0 : 1);
+          if (cmp != 0) {
+            return reverse[i] ? -cmp : cmp;
+          }
+        }
+        return a < b ? -1 : (a == b ? 0 : 1);
+      }
+
+      @Override
+      protected int compare(int i, int j) {
+        return compare(null, docs[i], docs[j]);
+      }
+
+      @Override
+      protected void swap(int i, int j) {
+        int tmp = docs[i];
+        docs[i] = docs[j];
+        docs[j] = tmp;
+      }
+
+      @Override
+      protected void setPivot(int i) {
+        pivotDoc = docs[i];
+        for (int f = 0; f < sortReaders.length; f++) {
+          pivotValues[f] = sortReaders[f].sortValue(leaf, pivotDoc);
+        }
+      }
+
+      @Override
+      protected int comparePivot(int j) {
+        return compare(pivotValues, pivotDoc, docs[j]);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return queue.size() > 0;
+    }
+
+    @Override
+    public SolrDocument next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      SortDoc sortDoc = queue.top();
+      SolrDocument doc = toSolrDocument(sortDoc, fieldReaders);
+      // replace the document by the next one of its segment
+      int leaf = sortDoc.leaf;
+      if (++segmentPos[leaf] < segmentDocs[leaf].length) {
+        fill(sortDoc, leaf, segmentDocs[leaf][segmentPos[leaf]]);
+        queue.updateTop();
+      } else {
+        queue.pop();
+      }
+      return doc;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  //////////////////////// SolrInfoMBeans methods //////////////////////
+
+  @Override
+  public String getDescription() {
+    return "Streams all matching documents sorted by docValues fields";
+  }
+
+  @Override
+  public String getSource() {
+    return "$URL$";
+  }
+
+  @Override
+  public URL[] getDocs() {
+    return null;
+  }
+}
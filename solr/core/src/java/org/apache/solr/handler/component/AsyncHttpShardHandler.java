@@ -0,0 +1,234 @@
+package org.apache.solr.handler.component;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.http.client.HttpClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+/**
+ * The {@link ShardHandler} of an {@link AsyncHttpShardHandlerFactory}: the
+ * request to a shard is queued on the host of its first replica, moves on to
+ * the next replica if it fails or waits too long, and is put in the queue of
+ * completed requests when it is done.
+ * <p/>
+ * With hedging enabled, once the request to a replica has been running for
+ * its hedge delay, the request is also queued on the host of the next
+ * replica, at most once per shard request. The first successful response
+ * wins; the other request still runs to completion on its host, but its
+ * response is dropped.
+ */
+public class AsyncHttpShardHandler extends HttpShardHandler {
+
+  private static final Callable<ShardResponse> NOT_RUN = new Callable<ShardResponse>() {
+    @Override
+    public ShardResponse call() {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  private final AsyncHttpShardHandlerFactory factory;
+  private final BlockingQueue<Future<ShardResponse>> completed = new LinkedBlockingQueue<Future<ShardResponse>>();
+
+  public AsyncHttpShardHandler(AsyncHttpShardHandlerFactory factory, HttpClient httpClient) {
+    super(factory, httpClient);
+    this.factory = factory;
+  }
+
+  @Override
+  protected Future<ShardResponse> submitTask(ShardRequest sreq, String shard, ModifiableSolrParams params, List<String> urls) {
+    ShardFuture future = new ShardFuture(sreq, shard, params, urls);
+    if (urls.isEmpty()) {
+      // request() fails with the right error
+      future.complete(request(sreq, shard, params, urls));
+    } else {
+      future.start();
+    }
+    return future;
+  }
+
+  @Override
+  protected Future<ShardResponse> takeCompletedTask() throws InterruptedException {
+    return completed.take();
+  }
+
+  /** Whether the load balancer would try the next replica after this error. */
+  static boolean isRetriable(Throwable th) {
+    if (th instanceof SolrException) {
+      int code = ((SolrException) th).code();
+      return code == 404 || code == 403 || code == 503 || code == 500;
+    }
+    if (th instanceof SolrServerException) {
+      return ((SolrServerException) th).getRootCause() instanceof IOException;
+    }
+    return th instanceof IOException;
+  }
+
+  /**
+   * The response to a shard request, set by the first replica that answers,
+   * or by the last one to fail, and put in the queue of completed requests
+   * when set or cancelled.
+   */
+  private class ShardFuture extends FutureTask<ShardResponse> {
+    final ShardRequest sreq;
+    final String shard;
+    final ModifiableSolrParams params;
+    final List<String> urls;
+
+    // guarded by this
+    private int nextReplica = 0;
+    private int running = 0;
+    private boolean hedged = false;
+
+    ShardFuture(ShardRequest sreq, String shard, ModifiableSolrParams params, List<String> urls) {
+      super(NOT_RUN);
+      this.sreq = sreq;
+      this.shard = shard;
+      this.params = params;
+      this.urls = urls;
+    }
+
+    void start() {
+      synchronized (this) {
+        nextReplica = 1;
+        running = 1;
+      }
+      execute(0);
+    }
+
+    void complete(ShardResponse srsp) {
+      set(srsp);
+    }
+
+    synchronized boolean canHedge() {
+      return !hedged && nextReplica < urls.size();
+    }
+
+    /** Queues the request on the next replica as well, if it was not done before. */
+    void hedge() {
+      int replica;
+      synchronized (this) {
+        if (isDone() || !canHedge()) {
+          return;
+        }
+        hedged = true;
+        replica = nextReplica++;
+        running++;
+      }
+      execute(replica);
+    }
+
+    /**
+     * Moves a request that failed on a replica on to the next one, or
+     * completes it with the failure if it was the last attempt running.
+     */
+    void failed(ShardResponse srsp) {
+      int replica;
+      synchronized (this) {
+        if (nextReplica < urls.size()) {
+          replica = nextReplica++;
+        } else if (--running > 0) {
+          // the other attempt may still succeed
+          return;
+        } else {
+          replica = -1;
+        }
+      }
+      if (replica < 0) {
+        complete(srsp);
+      } else {
+        execute(replica);
+      }
+    }
+
+    private void execute(int replica) {
+      factory.execute(urls.get(replica), new Attempt(this, replica));
+    }
+
+    @Override
+    protected void done() {
+      completed.add(this);
+    }
+  }
+
+  /**
+   * Sends a shard request to one of its replicas, from a thread of the shard
+   * executor once the host of the replica has a free slot.
+   */
+  private class Attempt implements AsyncHttpShardHandlerFactory.HostTask {
+    private final ShardFuture future;
+    private final int replica;
+
+    Attempt(ShardFuture future, int replica) {
+      this.future = future;
+      this.replica = replica;
+    }
+
+    @Override
+    public void run() {
+      if (future.isDone()) {
+        // cancelled while it was queued, or answered by another replica
+        return;
+      }
+      final String url = future.urls.get(replica);
+      ScheduledFuture<?> hedge = null;
+      if (factory.isHedgingEnabled() && future.canHedge()) {
+        long delay = factory.getHedgeDelay(url);
+        if (delay >= 0) {
+          hedge = factory.schedule(new Runnable() {
+            @Override
+            public void run() {
+              future.hedge();
+            }
+          }, delay);
+        }
+      }
+      ShardResponse srsp;
+      try {
+        srsp = request(future.sreq, future.shard, future.params, Collections.singletonList(url));
+      } finally {
+        if (hedge != null) {
+          hedge.cancel(false);
+        }
+      }
+      if (srsp.getException() != null && isRetriable(srsp.getException())) {
+        future.failed(srsp);
+      } else {
+        future.complete(srsp);
+      }
+    }
+
+    @Override
+    public void abort(Exception reason) {
+      if (future.isDone()) {
+        return;
+      }
+      future.failed(failedRequest(future.sreq, future.shard, future.urls.get(replica), reason));
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package org.apache.solr.handler.component;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.PluginInfo;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+
+/**
+ * A {@link HttpShardHandlerFactory} whose shard handlers limit the number of
+ * requests in flight to each host.
+ * <p/>
+ * Requests are still sent with the blocking http client, so a request holds
+ * a thread of the shard executor while it is in flight. What this factory
+ * bounds is the number of such threads: at most <code>maxRequestsPerHost</code>
+ * (which defaults to <code>maxConnectionsPerHost</code>, as more requests
+ * would only wait for a connection) requests run at a time against a host,
+ * and the others wait in a queue of that host without taking a thread.
+ * <p/>
+ * The replicas of a shard are tried in order, each through the queue of its
+ * own host, rather than through the load balancer. A request that waits more
+ * than <code>maxQueueWait</code> milliseconds for its turn, or that fails,
+ * moves on to the next replica, or fails with a 503 after the last one. So
+ * that a host that stopped answering cannot hold its requests forever, the
+ * socket timeout defaults to {@link #DEFAULT_SO_TIMEOUT} milliseconds here.
+ * <p/>
+ * <code>hedgePercentile</code> is honored too: a hedge request is queued on
+ * the host of the next replica, see {@link AsyncHttpShardHandler}, so it
+ * takes a slot of that host rather than a thread of the hedge executor.
+ * <p/>
+ * Configured in solr.xml, or for a single search handler in solrconfig.xml:
+ * <pre class="prettyprint">
+ * &lt;shardHandlerFactory class="AsyncHttpShardHandlerFactory"&gt;
+ *   &lt;int name="maxRequestsPerHost"&gt;20&lt;/int&gt;
+ *   &lt;int name="maxQueueWait"&gt;5000&lt;/int&gt;
+ * &lt;/shardHandlerFactory&gt;
+ * </pre>
+ */
+public class AsyncHttpShardHandlerFactory extends HttpShardHandlerFactory {
+
+  // The maximum number of requests in flight to a single host
+  static final String INIT_MAX_REQUESTS_PER_HOST = "maxRequestsPerHost";
+  // The maximum time in ms that a request waits in the queue of a host
+  static final String INIT_MAX_QUEUE_WAIT = "maxQueueWait";
+
+  public static final int DEFAULT_SO_TIMEOUT = 60000;
+
+  int maxRequestsPerHost = maxConnectionsPerHost;
+  long maxQueueWait = 10000;
+
+  private final ConcurrentMap<String,HostQueue> hostQueues = new ConcurrentHashMap<String,HostQueue>();
+
+  // expires the requests that wait for too long, and sends hedge requests
+  private final ScheduledThreadPoolExecutor queueTimer =
+      new ScheduledThreadPoolExecutor(1, new DefaultSolrThreadFactory("shardQueueTimer"));
+
+  public AsyncHttpShardHandlerFactory() {
+    soTimeout = DEFAULT_SO_TIMEOUT;
+    queueTimer.setRemoveOnCancelPolicy(true);
+  }
+
+  @Override
+  public void init(PluginInfo info) {
+    super.init(info);
+    NamedList args = info.initArgs;
+    this.maxRequestsPerHost = getParameter(args, INIT_MAX_REQUESTS_PER_HOST, maxConnectionsPerHost);
+    if (maxRequestsPerHost <= 0) {
+      throw new IllegalArgumentException(INIT_MAX_REQUESTS_PER_HOST + " must be positive: " + maxRequestsPerHost);
+    }
+    this.maxQueueWait = getParameter(args, INIT_MAX_QUEUE_WAIT, (int) maxQueueWait);
+    if (maxQueueWait <= 0) {
+      throw new IllegalArgumentException(INIT_MAX_QUEUE_WAIT + " must be positive: " + maxQueueWait);
+    }
+  }
+
+  @Override
+  public ShardHandler getShardHandler(final HttpClient httpClient) {
+    return new AsyncHttpShardHandler(this, httpClient);
+  }
+
+  @Override
+  public void close() {
+    try {
+      ExecutorUtil.shutdownNowAndAwaitTermination(queueTimer);
+    } catch (Throwable e) {
+      SolrException.log(log, e);
+    }
+    super.close();
+  }
+
+  /**
+   * Runs a request to the given url on the shard executor, as soon as there
+   * are less than <code>maxRequestsPerHost</code> requests in flight to its
+   * host, or aborts it after <code>maxQueueWait</code> milliseconds.
+   */
+  void execute(String url, HostTask task) {
+    final String host = getHost(url);
+    HostQueue queue = hostQueues.get(host);
+    if (queue == null) {
+      HostQueue newQueue = new HostQueue(host, getThreadPoolExecutor(), queueTimer, maxRequestsPerHost, maxQueueWait);
+      queue = hostQueues.putIfAbsent(host, newQueue);
+      if (queue == null) queue = newQueue;
+    }
+    queue.execute(task);
+  }
+
+  /**
+   * Runs a task after the given delay in milliseconds on the timer of the
+   * host queues, or returns null if this factory is closed.
+   */
+  ScheduledFuture<?> schedule(Runnable task, long delay) {
+    try {
+      return queueTimer.schedule(task, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  // "http://host:port/solr/collection1" -> "host:port"
+  static String getHost(String url) {
+    int start = url.indexOf("://");
+    start = start < 0 ? 0 : start + 3;
+    int end = url.indexOf('/', start);
+    return end < 0 ? url.substring(start) : url.substring(start, end);
+  }
+
+  /**
+   * A request queued on a host.
+   */
+  interface HostTask extends Runnable {
+    /** Called instead of {@link #run} when the request cannot run on its host. */
+    void abort(Exception reason);
+  }
+
+  /**
+   * The requests to a host: at most <code>maxActive</code> of them are
+   * running on the executor, the others wait in a queue for at most
+   * <code>maxWait</code> milliseconds.
+   */
+  static class HostQueue {
+    private final String host;
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final int maxActive;
+    private final long maxWait;
+    private final Queue<Waiting> waiting = new ArrayDeque<Waiting>();
+    private int active;
+
+    HostQueue(String host, Executor executor, ScheduledExecutorService timer, int maxActive, long maxWait) {
+      this.host = host;
+      this.executor = executor;
+      this.timer = timer;
+      this.maxActive = maxActive;
+      this.maxWait = maxWait;
+    }
+
+    void execute(HostTask task) {
+      RejectedExecutionException rejected = null;
+      synchronized (this) {
+        if (active < maxActive) {
+          active++;
+        } else {
+          final Waiting w = new Waiting(task);
+          try {
+            w.expiry = timer.schedule(new Runnable() {
+              @Override
+              public void run() {
+                expire(w);
+              }
+            }, maxWait, TimeUnit.MILLISECONDS);
+            waiting.add(w);
+            return;
+          } catch (RejectedExecutionException e) {
+            // the factory is closed: abort out of the lock
+            rejected = e;
+          }
+        }
+      }
+      if (rejected != null) {
+        task.abort(rejected);
+        return;
+      }
+      start(task);
+    }
+
+    private void start(HostTask task) {
+      try {
+        executor.execute(wrap(task));
+      } catch (RejectedExecutionException e) {
+        // the executor is shut down: nobody would complete this request
+        task.abort(e);
+        done();
+      }
+    }
+
+    private Runnable wrap(final HostTask task) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            done();
+          }
+        }
+      };
+    }
+
+    // called when a task is done: runs the next waiting one instead
+    private void done() {
+      final Waiting next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          active--;
+          return;
+        }
+      }
+      if (next.expiry != null) {
+        next.expiry.cancel(false);
+      }
+      start(next.task);
+    }
+
+    private void expire(Waiting w) {
+      synchronized (this) {
+        if (!waiting.remove(w)) return;
+      }
+      w.task.abort(new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE,
+          "Request waited more than " + maxWait + " ms for one of the " + maxActive + " requests in flight to " + host));
+    }
+
+    synchronized int getActive() {
+      return active;
+    }
+
+    synchronized int getWaiting() {
+      return waiting.size();
+    }
+  }
+
+  private static final class Waiting {
+    final HostTask task;
+    ScheduledFuture<?> expiry;
+
+    Waiting(HostTask task) {
+      this.task = task;
+    }
+  }
+}
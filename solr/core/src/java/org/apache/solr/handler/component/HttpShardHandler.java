@@ -20,6 +20,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrResponse;
 import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.impl.LBHttpSolrServer;
 import org.apache.solr.client.solrj.request.QueryRequest;
@@ -42,6 +43,7 @@ import org.apache.solr.common.util.StrUtils;
 import org.apache.solr.core.CoreDescriptor;
 import org.apache.solr.request.SolrQueryRequest;
 
+import java.io.IOException;
 import java.net.ConnectException;
 import java.util.Collection;
 import java.util.HashMap;
@@ -52,7 +54,10 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class HttpShardHandler extends ShardHandler {
 
@@ -100,7 +105,7 @@ public class HttpShardHandler extends ShardHandler {
 
   // Not thread safe... don't use in Callable.
   // Don't modify the returned URL list.
-  private List<String> getURLs(String shard) {
+  protected List<String> getURLs(String shard) {
     List<String> urls = shardToURLs.get(shard);
     if (urls == null) {
       urls = httpShardHandlerFactory.makeURLList(shard);
@@ -114,73 +119,237 @@ public class HttpShardHandler extends ShardHandler {
   public void submit(final ShardRequest sreq, final String shard, final ModifiableSolrParams params) {
     // do this outside of the callable for thread safety reasons
     final List<String> urls = getURLs(shard);
+    pending.add( submitTask(sreq, shard, params, urls) );
+  }
 
-    Callable<ShardResponse> task = new Callable<ShardResponse>() {
-      @Override
-      public ShardResponse call() throws Exception {
+  /**
+   * Sends a request to a shard and waits for its response. Called by the
+   * threads of the shard executor; any error is returned as part of the
+   * response.
+   */
+  protected ShardResponse request(ShardRequest sreq, String shard, ModifiableSolrParams params, List<String> urls) {
+    ShardResponse srsp = new ShardResponse();
+    if (sreq.nodeName != null) {
+      srsp.setNodeName(sreq.nodeName);
+    }
+    srsp.setShardRequest(sreq);
+    srsp.setShard(shard);
+    SimpleSolrResponse ssr = new SimpleSolrResponse();
+    srsp.setSolrResponse(ssr);
+    long startTime = System.currentTimeMillis();
+
+    try {
+      params.remove(CommonParams.WT); // use default (currently javabin)
+      params.remove(CommonParams.VERSION);
+
+      // SolrRequest req = new QueryRequest(SolrRequest.METHOD.POST, "/select");
+      // use generic request to avoid extra processing of queries
+      QueryRequest req = new QueryRequest(params);
+      req.setMethod(SolrRequest.METHOD.POST);
+
+      // binary is the default, unless the request wants to read the responses itself
+      if (sreq.responseParser != null) {
+        req.setResponseParser(sreq.responseParser);
+      }
+
+      // if there are no shards available for a slice, urls.size()==0
+      if (urls.size()==0) {
+        // TODO: what's the right error code here? We should use the same thing when
+        // all of the servers for a shard are down.
+        throw new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "no servers hosting shard: " + shard);
+      }
+
+      if (urls.size() <= 1) {
+        String url = urls.get(0);
+        srsp.setShardAddress(url);
+        ssr.nl = timedRequest(req, url);
+      } else if (httpShardHandlerFactory.isHedgingEnabled()) {
+        hedgedRequest(req, urls, srsp, ssr);
+      } else {
+        LBHttpSolrServer.Rsp rsp = httpShardHandlerFactory.makeLoadBalancedRequest(req, urls);
+        ssr.nl = rsp.getResponse();
+        srsp.setShardAddress(rsp.getServer());
+        httpShardHandlerFactory.getReplicaLatencyStats().record(rsp.getServer(),
+            System.currentTimeMillis() - startTime);
+      }
+    }
+    catch( ConnectException cex ) {
+      srsp.setException(cex); //????
+    } catch (Throwable th) {
+      srsp.setException(th);
+      if (th instanceof SolrException) {
+        srsp.setResponseCode(((SolrException)th).code());
+      } else {
+        srsp.setResponseCode(-1);
+      }
+    }
+
+    ssr.elapsedTime = System.currentTimeMillis() - startTime;
+
+    return srsp;
+  }
+
+  /**
+   * Returns the response of a request to a shard that failed before it was
+   * sent to the given url.
+   */
+  protected ShardResponse failedRequest(ShardRequest sreq, String shard, String url, Exception e) {
+    ShardResponse srsp = new ShardResponse();
+    if (sreq.nodeName != null) {
+      srsp.setNodeName(sreq.nodeName);
+    }
+    srsp.setShardRequest(sreq);
+    srsp.setShard(shard);
+    srsp.setShardAddress(url);
+    srsp.setSolrResponse(new SimpleSolrResponse());
+    srsp.setException(e);
+    srsp.setResponseCode(e instanceof SolrException ? ((SolrException) e).code() : -1);
+    return srsp;
+  }
+
+  /**
+   * Sends a request to a single replica.
+   */
+  protected NamedList<Object> requestReplica(QueryRequest req, String url)
+      throws SolrServerException, IOException {
+    SolrServer server = new HttpSolrServer(url, httpClient);
+    try {
+      return server.request(req);
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  /**
+   * Sends a request to a single replica, and records how long it took to
+   * answer, or that it failed.
+   */
+  private NamedList<Object> timedRequest(QueryRequest req, String url)
+      throws SolrServerException, IOException {
+    long startTime = System.currentTimeMillis();
+    boolean success = false;
+    try {
+      NamedList<Object> nl = requestReplica(req, url);
+      success = true;
+      return nl;
+    } finally {
+      if (success) {
+        httpShardHandlerFactory.getReplicaLatencyStats().record(url, System.currentTimeMillis() - startTime);
+      } else {
+        httpShardHandlerFactory.getReplicaLatencyStats().recordFailure(url);
+      }
+    }
+  }
 
-        ShardResponse srsp = new ShardResponse();
-        if (sreq.nodeName != null) {
-          srsp.setNodeName(sreq.nodeName);
+  /**
+   * Sends a request to the first replica, and a hedge request to the second one
+   * if the first has not answered within its hedge delay (or has failed). The
+   * first successful response wins and the other request is cancelled; since
+   * the http call itself cannot be aborted, a cancelled request still runs
+   * until it completes or times out, but its response is dropped. If both
+   * requests fail, the remaining replicas are tried through the load balancer.
+   * The requests to the replicas run on their own executor, since this method
+   * runs on a thread of the shard executor, whose queue may be bounded. That
+   * executor has a limited number of threads: when they are all busy, the
+   * hedge request is not sent, or the whole request goes through the load
+   * balancer if even the first replica cannot be queried that way.
+   */
+  private void hedgedRequest(final QueryRequest req, List<String> urls, ShardResponse srsp,
+      SimpleSolrResponse ssr) throws Exception {
+    CompletionService<NamedList<Object>> attempts =
+        new ExecutorCompletionService<NamedList<Object>>(httpShardHandlerFactory.getHedgeExecutor());
+    Map<Future<NamedList<Object>>,String> inFlight = new HashMap<Future<NamedList<Object>>,String>(4);
+    try {
+      int next = 0;
+      if (!submitAttempt(attempts, inFlight, req, urls.get(next))) {
+        loadBalancedRequest(req, urls, srsp, ssr);
+        return;
+      }
+      next++;
+      long delay = httpShardHandlerFactory.getHedgeDelay(urls.get(0));
+      Future<NamedList<Object>> done = delay < 0 ? attempts.take() : attempts.poll(delay, TimeUnit.MILLISECONDS);
+      if (done == null) {
+        if (submitAttempt(attempts, inFlight, req, urls.get(next))) {
+          next++;
         }
-        srsp.setShardRequest(sreq);
-        srsp.setShard(shard);
-        SimpleSolrResponse ssr = new SimpleSolrResponse();
-        srsp.setSolrResponse(ssr);
-        long startTime = System.currentTimeMillis();
+        done = attempts.take();
+      }
 
+      Throwable failure;
+      while (true) {
+        String url = inFlight.remove(done);
         try {
-          params.remove(CommonParams.WT); // use default (currently javabin)
-          params.remove(CommonParams.VERSION);
-
-          // SolrRequest req = new QueryRequest(SolrRequest.METHOD.POST, "/select");
-          // use generic request to avoid extra processing of queries
-          QueryRequest req = new QueryRequest(params);
-          req.setMethod(SolrRequest.METHOD.POST);
-
-          // no need to set the response parser as binary is the default
-          // req.setResponseParser(new BinaryResponseParser());
-
-          // if there are no shards available for a slice, urls.size()==0
-          if (urls.size()==0) {
-            // TODO: what's the right error code here? We should use the same thing when
-            // all of the servers for a shard are down.
-            throw new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "no servers hosting shard: " + shard);
-          }
-
-          if (urls.size() <= 1) {
-            String url = urls.get(0);
-            srsp.setShardAddress(url);
-            SolrServer server = new HttpSolrServer(url, httpClient);
-            try {
-              ssr.nl = server.request(req);
-            } finally {
-              server.shutdown();
-            }
-          } else {
-            LBHttpSolrServer.Rsp rsp = httpShardHandlerFactory.makeLoadBalancedRequest(req, urls);
-            ssr.nl = rsp.getResponse();
-            srsp.setShardAddress(rsp.getServer());
-          }
+          ssr.nl = done.get();
+          srsp.setShardAddress(url);
+          return;
+        } catch (ExecutionException e) {
+          failure = e.getCause();
         }
-        catch( ConnectException cex ) {
-          srsp.setException(cex); //????
-        } catch (Throwable th) {
-          srsp.setException(th);
-          if (th instanceof SolrException) {
-            srsp.setResponseCode(((SolrException)th).code());
-          } else {
-            srsp.setResponseCode(-1);
-          }
+        if (inFlight.isEmpty()) {
+          // the first replica failed before the hedge request was sent
+          if (next >= 2 || !submitAttempt(attempts, inFlight, req, urls.get(next))) break;
+          next++;
+        }
+        done = attempts.take();
+      }
+
+      if (next < urls.size()) {
+        loadBalancedRequest(req, urls.subList(next, urls.size()), srsp, ssr);
+        return;
+      }
+      if (failure instanceof Exception) throw (Exception) failure;
+      throw (Error) failure;
+    } finally {
+      for (Future<NamedList<Object>> future : inFlight.keySet()) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  // returns false if the hedge executor has no thread left for the request
+  private boolean submitAttempt(CompletionService<NamedList<Object>> attempts,
+      Map<Future<NamedList<Object>>,String> inFlight, final QueryRequest req, final String url) {
+    Future<NamedList<Object>> future;
+    try {
+      future = attempts.submit(new Callable<NamedList<Object>>() {
+        @Override
+        public NamedList<Object> call() throws Exception {
+          return timedRequest(req, url);
         }
+      });
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+    inFlight.put(future, url);
+    return true;
+  }
 
-        ssr.elapsedTime = System.currentTimeMillis() - startTime;
+  private void loadBalancedRequest(QueryRequest req, List<String> urls, ShardResponse srsp,
+      SimpleSolrResponse ssr) throws SolrServerException, IOException {
+    LBHttpSolrServer.Rsp rsp = httpShardHandlerFactory.makeLoadBalancedRequest(req, urls);
+    ssr.nl = rsp.getResponse();
+    srsp.setShardAddress(rsp.getServer());
+  }
 
-        return srsp;
+  /**
+   * Schedules the request to a shard, whose replicas are at the given urls.
+   */
+  protected Future<ShardResponse> submitTask(final ShardRequest sreq, final String shard,
+      final ModifiableSolrParams params, final List<String> urls) {
+    Callable<ShardResponse> task = new Callable<ShardResponse>() {
+      @Override
+      public ShardResponse call() throws Exception {
+        return request(sreq, shard, params, urls);
       }
     };
+    return completionService.submit(task);
+  }
 
-    pending.add( completionService.submit(task) );
+  /**
+   * Waits for the next request to complete.
+   */
+  protected Future<ShardResponse> takeCompletedTask() throws InterruptedException {
+    return completionService.take();
   }
 
   /** returns a ShardResponse of the last response correlated with a ShardRequest.  This won't 
@@ -204,7 +373,7 @@ public class HttpShardHandler extends ShardHandler {
     
     while (pending.size() > 0) {
       try {
-        Future<ShardResponse> future = completionService.take();
+        Future<ShardResponse> future = takeCompletedTask();
         pending.remove(future);
         ShardResponse rsp = future.get();
         if (bailOnError && rsp.getException() != null) return rsp; // if exception, return immediately
@@ -62,6 +62,11 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
       new DefaultSolrThreadFactory("httpShardExecutor")
   );
 
+  // runs the requests to replicas that hedged requests are made of: they must
+  // not queue behind the shard requests waiting for them in commExecutor.
+  // Bounded, a hedged request falls back to the load balancer when it is full.
+  private ThreadPoolExecutor hedgeExecutor = newHedgeExecutor(DEFAULT_HEDGE_MAX_POOL_SIZE);
+
   private HttpClient defaultClient;
   private LBHttpSolrServer loadbalancer;
   //default values:
@@ -73,11 +78,16 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
   int keepAliveTime = 5;
   int queueSize = -1;
   boolean accessPolicy = false;
+  float hedgePercentile = 0f;
+  int hedgeMinDelay = 10;
+  int hedgeMaxPoolSize = DEFAULT_HEDGE_MAX_POOL_SIZE;
 
   private String scheme = "http://"; //current default values
 
   private final Random r = new Random();
 
+  private final ReplicaLatencyStats latencyStats = new ReplicaLatencyStats();
+
   // URL scheme to be used in distributed search.
   static final String INIT_URL_SCHEME = "urlScheme";
 
@@ -96,6 +106,18 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
   // Configure if the threadpool favours fairness over throughput
   static final String INIT_FAIRNESS_POLICY = "fairnessPolicy";
 
+  // The percentile of the recent latency of a replica after which a hedge request
+  // is sent to another replica of the same shard (0 to disable)
+  static final String INIT_HEDGE_PERCENTILE = "hedgePercentile";
+
+  // The minimum time in milliseconds to wait for a replica before sending a hedge request
+  static final String INIT_HEDGE_MIN_DELAY = "hedgeMinDelay";
+
+  // The maximum number of requests to single replicas that hedged requests run at a time
+  static final String INIT_HEDGE_MAX_POOL_SIZE = "hedgeMaxPoolSize";
+
+  static final int DEFAULT_HEDGE_MAX_POOL_SIZE = 64;
+
   /**
    * Get {@link ShardHandler} that uses the default http client.
    */
@@ -124,6 +146,12 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
     this.keepAliveTime = getParameter(args, MAX_THREAD_IDLE_TIME, keepAliveTime);
     this.queueSize = getParameter(args, INIT_SIZE_OF_QUEUE, queueSize);
     this.accessPolicy = getParameter(args, INIT_FAIRNESS_POLICY, accessPolicy);
+    this.hedgePercentile = getParameter(args, INIT_HEDGE_PERCENTILE, hedgePercentile);
+    this.hedgeMinDelay = getParameter(args, INIT_HEDGE_MIN_DELAY, hedgeMinDelay);
+    this.hedgeMaxPoolSize = getParameter(args, INIT_HEDGE_MAX_POOL_SIZE, hedgeMaxPoolSize);
+    if (hedgeMaxPoolSize <= 0) {
+      throw new IllegalArgumentException(INIT_HEDGE_MAX_POOL_SIZE + " must be positive: " + hedgeMaxPoolSize);
+    }
     
     // magic sysprop to make tests reproducible: set by SolrTestCaseJ4.
     String v = System.getProperty("tests.shardhandler.randomSeed");
@@ -142,6 +170,7 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
         blockingQueue,
         new DefaultSolrThreadFactory("httpShardExecutor")
     );
+    this.hedgeExecutor = newHedgeExecutor(hedgeMaxPoolSize);
 
     ModifiableSolrParams clientParams = new ModifiableSolrParams();
     clientParams.set(HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, maxConnectionsPerHost);
@@ -157,6 +186,25 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
     return this.commExecutor;
   }
 
+  /**
+   * Returns the executor of the requests to single replicas that a hedged
+   * shard request sends.
+   */
+  protected ThreadPoolExecutor getHedgeExecutor() {
+    return this.hedgeExecutor;
+  }
+
+  // rejects requests when all its threads are busy
+  private static ThreadPoolExecutor newHedgeExecutor(int maxPoolSize) {
+    return new ThreadPoolExecutor(
+        0,
+        maxPoolSize,
+        5, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(),
+        new DefaultSolrThreadFactory("httpShardHedgeExecutor")
+    );
+  }
+
   protected LBHttpSolrServer createLoadbalancer(HttpClient httpClient){
     try {
       return new LBHttpSolrServer(httpClient);
@@ -184,6 +232,11 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
     } catch (Throwable e) {
       SolrException.log(log, e);
     }
+    try {
+      ExecutorUtil.shutdownNowAndAwaitTermination(hedgeExecutor);
+    } catch (Throwable e) {
+      SolrException.log(log, e);
+    }
     
     try {
       if(defaultClient != null) {
@@ -233,12 +286,41 @@ public class HttpShardHandlerFactory extends ShardHandlerFactory implements org.
     // This prevents accidental synchronization where multiple shards could get in sync
     // and query the same replica at the same time.
     //
-    if (urls.size() > 1)
+    // Then put the faster of the first two replicas first, according to their
+    // recent latency, so that a slow replica gets fewer requests.
+    //
+    if (urls.size() > 1) {
       Collections.shuffle(urls, r);
+      latencyStats.orderReplicas(urls);
+    }
 
     return urls;
   }
 
+  /**
+   * Returns the histograms of the recent latency of the replicas queried through this factory.
+   */
+  public ReplicaLatencyStats getReplicaLatencyStats() {
+    return latencyStats;
+  }
+
+  /**
+   * Returns true if a request that a replica is slow to answer should be sent to another
+   * replica of the same shard as well.
+   */
+  public boolean isHedgingEnabled() {
+    return hedgePercentile > 0;
+  }
+
+  /**
+   * Returns how long to wait for a replica before sending a hedge request to another
+   * replica, or -1 if too little is known about the replica.
+   */
+  public long getHedgeDelay(String url) {
+    long latency = latencyStats.getLatency(url, hedgePercentile);
+    return latency < 0 ? -1 : Math.max(hedgeMinDelay, latency);
+  }
+
   /**
    * Creates a new completion service for use by a single set of distributed requests.
    */
@@ -47,11 +47,14 @@ import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.CursorMark;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.DocListAndSet;
 import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.MissingStringLastComparatorSource;
 import org.apache.solr.search.Grouping;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
@@ -89,6 +92,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -172,6 +176,19 @@ public class QueryComponent extends SearchComponent
     }
 
     boolean grouping = params.getBool(GroupParams.GROUP, false);
+
+    String cursorStr = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+    if (cursorStr != null) {
+      if (grouping) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Can not use " + CursorMarkParams.CURSOR_MARK_PARAM + " with grouping");
+      }
+      if (rb.getSortSpec().getOffset() != 0) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Can not use " + CursorMarkParams.CURSOR_MARK_PARAM + " with a 'start' other than 0");
+      }
+      CursorMark cursorMark = new CursorMark(req.getSchema(), rb.getSortSpec().getSort());
+      rb.setCursorMark(cursorMark.parseSerializedTotem(cursorStr));
+    }
+
     if (!grouping) {
       return;
     }
@@ -441,6 +458,10 @@ public class QueryComponent extends SearchComponent
     rsp.add("response", ctx);
     rsp.getToLog().add("hits", rb.getResults().docList.matches());
 
+    if (result.getNextCursorMark() != null) {
+      rsp.add(CursorMarkParams.CURSOR_MARK_NEXT, result.getNextCursorMark().getSerializedTotem());
+    }
+
     doFieldSortValues(rb, searcher);
     doPrefetch(rb);
   }
@@ -516,6 +537,9 @@ public class QueryComponent extends SearchComponent
           doc -= currentLeaf.docBase;  // adjust for what segment this is in
           comparator.copy(0, doc);
           Object val = comparator.value(0);
+          if (ft != null) {
+            val = ft.marshalSortValue(val);
+          }
 
           // Sortable float, double, int, long types all just use a string
           // comparator. For these, we need to put the type into a readable
@@ -716,6 +740,10 @@ public class QueryComponent extends SearchComponent
     }
 
     rb.rsp.add("response", rb._responseDocs);
+
+    if (rb.getNextCursorMark() != null) {
+      rb.rsp.add(CursorMarkParams.CURSOR_MARK_NEXT, rb.getNextCursorMark().getSerializedTotem());
+    }
   }
 
   private void createDistributedIdf(ResponseBuilder rb) {
@@ -761,6 +789,9 @@ public class QueryComponent extends SearchComponent
       sreq.params.set(CommonParams.FL, rb.req.getSchema().getUniqueKeyField().getName());      
     }
 
+    // only the unique keys and scores are merged, so don't build documents for them
+    sreq.responseParser = new ShardDocsResponseParser(rb.req.getSchema().getUniqueKeyField().getName());
+
     rb.addRequest(this, sreq);
   }
 
@@ -847,11 +878,18 @@ public class QueryComponent extends SearchComponent
 
         NamedList sortFieldValues = (NamedList)(srsp.getSolrResponse().getResponse().get("sort_values"));
 
-        // go through every doc in this response, construct a ShardDoc, and
-        // put it in the priority queue so it can be ordered.
-        for (int i=0; i<docs.size(); i++) {
-          SolrDocument doc = docs.get(i);
-          Object id = doc.getFieldValue(uniqueKeyField.getName());
+        // the ShardDocs were built while the response was read, unless it
+        // came through a shard handler that parses responses its own way
+        @SuppressWarnings("unchecked")
+        List<ShardDoc> shardDocs = (List<ShardDoc>) srsp.getSolrResponse().getResponse().get(ShardDocsResponseParser.SHARD_DOCS);
+        if (shardDocs == null) {
+          shardDocs = toShardDocs(docs, uniqueKeyField.getName());
+        }
+
+        // go through every doc in this response, and put it in the
+        // priority queue so it can be ordered.
+        for (ShardDoc shardDoc : shardDocs) {
+          Object id = shardDoc.id;
 
           String prevShard = uniqueDoc.put(id, srsp.getShard());
           if (prevShard != null) {
@@ -869,19 +907,7 @@ public class QueryComponent extends SearchComponent
             // }
           }
 
-          ShardDoc shardDoc = new ShardDoc();
-          shardDoc.id = id;
           shardDoc.shard = srsp.getShard();
-          shardDoc.orderInShard = i;
-          Object scoreObj = doc.getFieldValue("score");
-          if (scoreObj != null) {
-            if (scoreObj instanceof String) {
-              shardDoc.score = Float.parseFloat((String)scoreObj);
-            } else {
-              shardDoc.score = (Float)scoreObj;
-            }
-          }
-
           shardDoc.sortFieldValues = sortFieldValues;
 
           queue.insertWithOverflow(shardDoc);
@@ -895,14 +921,23 @@ public class QueryComponent extends SearchComponent
       resultSize = Math.max(0, resultSize);  // there may not be any docs in range
 
       Map<Object,ShardDoc> resultIds = new HashMap<Object,ShardDoc>();
+      ShardDoc lastDoc = null;
       for (int i=resultSize-1; i>=0; i--) {
         ShardDoc shardDoc = queue.pop();
         shardDoc.positionInResponse = i;
+        if (lastDoc == null) lastDoc = shardDoc;
         // Need the toString() for correlation with other lists that must
         // be strings (like keys in highlighting, explain, etc)
         resultIds.put(shardDoc.id.toString(), shardDoc);
       }
 
+      if (rb.getCursorMark() != null) {
+        // the shards only returned docs after the cursor, so the next one is
+        // made of the sort values of the last doc of the merged page
+        rb.setNextCursorMark(lastDoc == null ? rb.getCursorMark()
+            : rb.getCursorMark().createNext(getCursorSortValues(lastDoc, sortFields, rb.req.getSchema())));
+      }
+
       // Add hits for distributed requests
       // https://issues.apache.org/jira/browse/SOLR-3518
       rb.rsp.addToLog("hits", numFound);
@@ -924,6 +959,63 @@ public class QueryComponent extends SearchComponent
       }
   }
 
+  private static List<ShardDoc> toShardDocs(SolrDocumentList docs, String uniqueKeyName) {
+    List<ShardDoc> shardDocs = new ArrayList<ShardDoc>(docs.size());
+    for (int i=0; i<docs.size(); i++) {
+      SolrDocument doc = docs.get(i);
+      ShardDoc shardDoc = new ShardDoc();
+      shardDoc.id = doc.getFieldValue(uniqueKeyName);
+      shardDoc.orderInShard = i;
+      Object scoreObj = doc.getFieldValue("score");
+      if (scoreObj != null) {
+        if (scoreObj instanceof String) {
+          shardDoc.score = Float.parseFloat((String)scoreObj);
+        } else {
+          shardDoc.score = (Float)scoreObj;
+        }
+      }
+      shardDocs.add(shardDoc);
+    }
+    return shardDocs;
+  }
+
+  /**
+   * Converts the sort values a shard returned for a doc, which are in their
+   * external form (see {@link #doFieldSortValues}), back to the values the
+   * sort comparators use, as a {@link CursorMark} expects them.
+   */
+  private static Object[] getCursorSortValues(ShardDoc shardDoc, SortField[] sortFields, IndexSchema schema) {
+    Object[] values = new Object[sortFields.length];
+    int fieldNum = 0;
+    for (int i = 0; i < sortFields.length; i++) {
+      SortField sortField = sortFields[i];
+      SortField.Type type = sortField.getType();
+      if (type == SortField.Type.SCORE) {
+        values[i] = shardDoc.score;
+        continue;
+      }
+      if (type == SortField.Type.DOC) {
+        // shards return no sort values for docids (see doFieldSortValues),
+        // which do not merge across shards anyway: keep fieldNum in step
+        values[i] = null;
+        continue;
+      }
+      Object val = ((List) shardDoc.sortFieldValues.getVal(fieldNum++)).get(shardDoc.orderInShard);
+      if (val == null) {
+        // missing value
+      } else if (type == SortField.Type.STRING || type == SortField.Type.STRING_VAL
+          || sortField.getComparatorSource() instanceof MissingStringLastComparatorSource) {
+        // string sorts compare the indexed terms
+        val = schema.getFieldType(sortField.getField()).unmarshalSortValue(val);
+      } else if (val instanceof Date) {
+        // trie dates sort on their long value
+        val = ((Date) val).getTime();
+      }
+      values[i] = val;
+    }
+    return values;
+  }
+
   private void createRetrieveDocs(ResponseBuilder rb) {
 
     // TODO: in a system with nTiers > 2, we could be passed "ids" here
@@ -960,6 +1052,9 @@ public class QueryComponent extends SearchComponent
       // we already have the field sort values
       sreq.params.remove(ResponseBuilder.FIELD_SORT_VALUES);
 
+      // the ids are already known, and there is no sort to check the cursor against
+      sreq.params.remove(CursorMarkParams.CURSOR_MARK_PARAM);
+
       if(!rb.rsp.getReturnFields().wantsField(uniqueField.getName())) {
         sreq.params.add(CommonParams.FL, uniqueField.getName());
       }
@@ -0,0 +1,140 @@
+package org.apache.solr.handler.component;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Histograms of the recent response times of shard replicas, keyed by url.
+ * <p/>
+ * Latencies are counted in buckets whose bounds grow exponentially, so that
+ * percentiles are known within 25%. Every {@link #DECAY_INTERVAL} samples the
+ * counts of a histogram are halved, so that it follows changes in the
+ * latency of its replica, like a GC pause or a merge.
+ */
+public class ReplicaLatencyStats {
+
+  /** The number of samples after which the counts of a histogram are halved. */
+  public static final int DECAY_INTERVAL = 1000;
+
+  /** The number of samples needed before a percentile is known. */
+  public static final int MIN_SAMPLES = 20;
+
+  private static final int NUM_BUCKETS = 64;
+  // upper bounds of the buckets in milliseconds: 1, 2, 3, 4, 5, 6, 8, 10, 13, ...
+  private static final long[] BUCKET_BOUNDS = new long[NUM_BUCKETS];
+  static {
+    double bound = 1;
+    long last = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      last = Math.max(last + 1, (long) bound);
+      BUCKET_BOUNDS[i] = last;
+      bound *= 1.25;
+    }
+  }
+
+  private final ConcurrentMap<String,Histogram> histograms = new ConcurrentHashMap<String,Histogram>();
+
+  /** Records the time it took a replica to answer a request. */
+  public void record(String url, long millis) {
+    Histogram histogram = histograms.get(url);
+    if (histogram == null) {
+      Histogram newHistogram = new Histogram();
+      histogram = histograms.putIfAbsent(url, newHistogram);
+      if (histogram == null) histogram = newHistogram;
+    }
+    histogram.add(millis);
+  }
+
+  /**
+   * Records that a request to a replica failed or timed out, as the largest
+   * latency, so that a failing replica does not keep ranking as a fast one.
+   */
+  public void recordFailure(String url) {
+    record(url, Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns the latency of a replica at a percentile (between 0 and 100) of
+   * its recent requests, or -1 if there have not been enough requests to it.
+   */
+  public long getLatency(String url, float percentile) {
+    Histogram histogram = histograms.get(url);
+    return histogram == null ? -1 : histogram.percentile(percentile);
+  }
+
+  /**
+   * Orders the first two of a shuffled list of replicas by their median
+   * latency, so that the slower of two randomly chosen replicas is only
+   * tried next. Unlike always picking the fastest replica, this does not
+   * send all the requests to the same one.
+   */
+  public void orderReplicas(List<String> urls) {
+    if (urls.size() < 2) return;
+    long first = getLatency(urls.get(0), 50);
+    long second = getLatency(urls.get(1), 50);
+    // replicas we know nothing about are tried first, to learn about them
+    if (first != -1 && second < first) {
+      Collections.swap(urls, 0, 1);
+    }
+  }
+
+  static int bucket(long millis) {
+    int i = Arrays.binarySearch(BUCKET_BOUNDS, millis);
+    if (i < 0) {
+      // the first bound greater than millis
+      i = -1 - i;
+    }
+    return Math.min(i, NUM_BUCKETS - 1);
+  }
+
+  private static final class Histogram {
+    private final long[] counts = new long[NUM_BUCKETS];
+    private long total;
+    private int sinceDecay;
+
+    synchronized void add(long millis) {
+      counts[bucket(millis)]++;
+      total++;
+      if (++sinceDecay >= DECAY_INTERVAL) {
+        sinceDecay = 0;
+        total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+          counts[i] >>= 1;
+          total += counts[i];
+        }
+      }
+    }
+
+    synchronized long percentile(float percentile) {
+      if (total < MIN_SAMPLES) return -1;
+      final double rank = total * (percentile / 100.0);
+      long count = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        count += counts[i];
+        if (count >= rank && count > 0) {
+          return BUCKET_BOUNDS[i];
+        }
+      }
+      return BUCKET_BOUNDS[NUM_BUCKETS - 1];
+    }
+  }
+}
@@ -30,6 +30,7 @@ import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.CursorMark;
 import org.apache.solr.search.DocListAndSet;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.SolrIndexSearcher;
@@ -72,6 +73,8 @@ public class ResponseBuilder
   private GroupingSpecification groupingSpec;
   //used for handling deep paging
   private ScoreDoc scoreDoc;
+  private CursorMark cursorMark;
+  private CursorMark nextCursorMark;
 
 
   private DocListAndSet results = null;
@@ -386,6 +389,7 @@ public class ResponseBuilder
             .setLen(getSortSpec().getCount())
             .setFlags(getFieldFlags())
             .setNeedDocSet(isNeedDocSet())
+            .setCursorMark(getCursorMark())
             .setScoreDoc(getScoreDoc()); //Issue 1726
     return cmd;
   }
@@ -416,4 +420,22 @@ public class ResponseBuilder
   {
     this.scoreDoc = scoreDoc;
   }
+
+  /** The cursor the requested page starts at, or null if the request does not use a cursor. */
+  public CursorMark getCursorMark() {
+    return cursorMark;
+  }
+
+  public void setCursorMark(CursorMark cursorMark) {
+    this.cursorMark = cursorMark;
+  }
+
+  /** The cursor the page after the merged results of a distributed request starts at. */
+  public CursorMark getNextCursorMark() {
+    return nextCursorMark;
+  }
+
+  public void setNextCursorMark(CursorMark nextCursorMark) {
+    this.nextCursorMark = nextCursorMark;
+  }
 }
@@ -0,0 +1,133 @@
+package org.apache.solr.handler.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.DataInputInputStream;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * Parses the response of a shard to a {@link ShardRequest#PURPOSE_GET_TOP_IDS}
+ * request without building a {@link SolrDocument} for each of its documents.
+ * <p>
+ * The documents of the main result are read as a stream: the unique key and
+ * score of each one are kept in a {@link ShardDoc} and the rest is dropped
+ * right away. The ShardDocs are added to the response under {@link #SHARD_DOCS},
+ * in the order of the shard, and the main result is returned as an empty
+ * {@link SolrDocumentList} that only carries numFound, start and maxScore.
+ * The shard and sort values of the ShardDocs are left for the merge to fill in.
+ * <p>
+ * This parser holds no state and may be used for many responses at once.
+ */
+class ShardDocsResponseParser extends BinaryResponseParser {
+  static final String SHARD_DOCS = "shardDocs";
+
+  private final String uniqueKeyName;
+
+  ShardDocsResponseParser(String uniqueKeyName) {
+    this.uniqueKeyName = uniqueKeyName;
+  }
+
+  @Override
+  public NamedList<Object> processResponse(InputStream body, String encoding) {
+    try {
+      ShardDocsCodec codec = new ShardDocsCodec();
+      @SuppressWarnings("unchecked")
+      NamedList<Object> rsp = (NamedList<Object>) codec.unmarshal(body);
+      if (codec.shardDocs != null) {
+        rsp.add(SHARD_DOCS, codec.shardDocs);
+      }
+      return rsp;
+    } catch (IOException e) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "parsing error", e);
+    }
+  }
+
+  private class ShardDocsCodec extends JavaBinCodec {
+    // how deep we are in the response, the main result is at depth 1
+    private int depth = 0;
+    List<ShardDoc> shardDocs;
+
+    @Override
+    public SimpleOrderedMap<Object> readOrderedMap(DataInputInputStream dis) throws IOException {
+      depth++;
+      try {
+        return super.readOrderedMap(dis);
+      } finally {
+        depth--;
+      }
+    }
+
+    @Override
+    public NamedList<Object> readNamedList(DataInputInputStream dis) throws IOException {
+      depth++;
+      try {
+        return super.readNamedList(dis);
+      } finally {
+        depth--;
+      }
+    }
+
+    @Override
+    public SolrDocumentList readSolrDocumentList(DataInputInputStream dis) throws IOException {
+      if (depth != 1 || shardDocs != null) {
+        return super.readSolrDocumentList(dis);
+      }
+      SolrDocumentList solrDocs = new SolrDocumentList();
+      List<?> list = (List<?>) readVal(dis);
+      solrDocs.setNumFound((Long) list.get(0));
+      solrDocs.setStart((Long) list.get(1));
+      solrDocs.setMaxScore((Float) list.get(2));
+
+      tagByte = dis.readByte();
+      if ((tagByte >>> 5) != (ARR >>> 5)) {
+        throw new RuntimeException("doclist must have an array");
+      }
+      int sz = readSize(dis);
+      shardDocs = new ArrayList<ShardDoc>(sz);
+      for (int i = 0; i < sz; i++) {
+        tagByte = dis.readByte();
+        if (tagByte != SOLRDOC) {
+          throw new RuntimeException("doclist must contain documents");
+        }
+        NamedList<?> fields = (NamedList<?>) readVal(dis);
+        ShardDoc shardDoc = new ShardDoc();
+        shardDoc.id = fields.get(uniqueKeyName);
+        shardDoc.orderInShard = i;
+        Object score = fields.get("score");
+        if (score instanceof String) {
+          shardDoc.score = Float.parseFloat((String) score);
+        } else if (score != null) {
+          shardDoc.score = (Float) score;
+        }
+        shardDocs.add(shardDoc);
+      }
+      return solrDocs;
+    }
+  }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.solr.handler.component;
 
+import org.apache.solr.client.solrj.ResponseParser;
 import org.apache.solr.common.params.ModifiableSolrParams;
 
 import java.util.ArrayList;
@@ -56,6 +57,10 @@ public class ShardRequest {
   /** may be null */
   public String nodeName;
 
+  /** parses the shard responses if not null, instead of the default binary
+   * parser. It is shared by the requests to all shards, so it must be thread safe */
+  public ResponseParser responseParser;
+
   // TODO: one could store a list of numbers to correlate where returned docs
   // go in the top-level response rather than looking up by id...
   // this would work well if we ever transitioned to using internal ids and
@@ -18,7 +18,13 @@ package org.apache.solr.request;
  */
 
 import java.io.IOException;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.MultiDocValues.MultiSortedDocValues;
@@ -33,6 +39,7 @@ import org.apache.lucene.search.Filter;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.CharsRef;
 import org.apache.lucene.util.UnicodeUtil;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.schema.FieldType;
@@ -46,19 +53,30 @@ import org.apache.solr.util.LongPriorityQueue;
  * <p>
  * This is basically a specialized case of the code in SimpleFacets.
  * Instead of working on a top-level reader view (binary-search per docid),
- * it collects per-segment, but maps ordinals to global ordinal space using
- * MultiDocValues' OrdinalMap.
+ * it collects per-segment into segment-local counts, which can be done for
+ * several segments in parallel. The counts of each segment are then mapped to
+ * global ordinal space using MultiDocValues' OrdinalMap, once per segment
+ * ordinal rather than once per document.
  * <p>
  * This means the ordinal map is created per-reopen: O(nterms), but this may
  * perform better than PerSegmentSingleValuedFaceting which has to merge O(nterms)
- * per query. Additionally it works for multi-valued fields.
+ * per query. Additionally it works for multi-valued fields, and for indexed
+ * fields without docvalues that are un-inverted per segment by {@link SegmentTermOrds}.
  */
 public class DocValuesFacets {
   private DocValuesFacets() {}
   
   public static NamedList<Integer> getCounts(SolrIndexSearcher searcher, DocSet docs, String fieldName, int offset, int limit, int mincount, boolean missing, String sort, String prefix) throws IOException {
+    return getCounts(searcher, docs, fieldName, offset, limit, mincount, missing, sort, prefix, SimpleFacets.directExecutor, 0);
+  }
+
+  /**
+   * Like {@link #getCounts(SolrIndexSearcher, DocSet, String, int, int, int, boolean, String, String)},
+   * but counts the segments on the given executor, running at most <code>threads</code>
+   * of them at once (no limit if <code>threads &lt;= 0</code>).
+   */
+  public static NamedList<Integer> getCounts(SolrIndexSearcher searcher, DocSet docs, String fieldName, int offset, int limit, int mincount, boolean missing, String sort, String prefix, Executor executor, int threads) throws IOException {
     SchemaField schemaField = searcher.getSchema().getField(fieldName);
-    FieldType ft = schemaField.getType();
     NamedList<Integer> res = new NamedList<Integer>();
 
     final SortedSetDocValues si; // for term lookups only
@@ -78,6 +96,24 @@ public class DocValuesFacets {
     if (si == null) {
       return finalize(res, searcher, schemaField, docs, -1, missing);
     }
+    return getCounts(searcher, docs, schemaField, si, ordinalMap, null, offset, limit, mincount, missing, sort, prefix, executor, threads);
+  }
+
+  /**
+   * Like {@link #getCounts(SolrIndexSearcher, DocSet, String, int, int, int, boolean, String, String, Executor, int)},
+   * but for an indexed field without docvalues, which is un-inverted per segment
+   * by {@link SegmentTermOrds}.
+   */
+  public static NamedList<Integer> getUnInvertedCounts(SolrIndexSearcher searcher, DocSet docs, String fieldName, int offset, int limit, int mincount, boolean missing, String sort, String prefix, Executor executor, int threads) throws IOException {
+    SchemaField schemaField = searcher.getSchema().getField(fieldName);
+    SegmentTermOrds.TopLevel uninverted = searcher.getCore().getSegmentTermOrdsCache().getTopLevel(searcher, fieldName);
+    return getCounts(searcher, docs, schemaField, uninverted.lookups(), uninverted.mapping, uninverted, offset, limit, mincount, missing, sort, prefix, executor, threads);
+  }
+
+  private static NamedList<Integer> getCounts(SolrIndexSearcher searcher, DocSet docs, SchemaField schemaField, SortedSetDocValues si, OrdinalMap ordinalMap, SegmentTermOrds.TopLevel uninverted, int offset, int limit, int mincount, boolean missing, String sort, String prefix, Executor executor, int threads) throws IOException {
+    FieldType ft = schemaField.getType();
+    NamedList<Integer> res = new NamedList<Integer>();
+
     if (si.getValueCount() >= Integer.MAX_VALUE) {
       throw new UnsupportedOperationException("Currently this faceting method is limited to " + Integer.MAX_VALUE + " unique terms");
     }
@@ -85,21 +121,25 @@ public class DocValuesFacets {
     final BytesRef br = new BytesRef();
 
     final BytesRef prefixRef;
+    final BytesRef prefixEndRef;
     if (prefix == null) {
       prefixRef = null;
+      prefixEndRef = null;
     } else if (prefix.length()==0) {
       prefix = null;
       prefixRef = null;
+      prefixEndRef = null;
     } else {
       prefixRef = new BytesRef(prefix);
+      prefixEndRef = new BytesRef(prefix);
+      prefixEndRef.append(UnicodeUtil.BIG_TERM);
     }
 
     int startTermIndex, endTermIndex;
     if (prefix!=null) {
       startTermIndex = (int) si.lookupTerm(prefixRef);
       if (startTermIndex<0) startTermIndex=-startTermIndex-1;
-      prefixRef.append(UnicodeUtil.BIG_TERM);
-      endTermIndex = (int) si.lookupTerm(prefixRef);
+      endTermIndex = (int) si.lookupTerm(prefixEndRef);
       assert endTermIndex < 0;
       endTermIndex = -endTermIndex-1;
     } else {
@@ -118,34 +158,40 @@ public class DocValuesFacets {
 
       Filter filter = docs.getTopFilter();
       List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+      CompletionService<SegCounts> completionService = new ExecutorCompletionService<SegCounts>(
+          leaves.size() > 1 ? executor : SimpleFacets.directExecutor);
+      // the segments that wait for a free thread
+      LinkedList<SegCounts> pending = new LinkedList<SegCounts>();
+      int available = threads <= 0 ? Integer.MAX_VALUE : threads;
       for (int subIndex = 0; subIndex < leaves.size(); subIndex++) {
-        AtomicReaderContext leaf = leaves.get(subIndex);
-        DocIdSet dis = filter.getDocIdSet(leaf, null); // solr docsets already exclude any deleted docs
-        DocIdSetIterator disi = null;
-        if (dis != null) {
-          disi = dis.iterator();
+        SegCounts seg = new SegCounts(leaves.get(subIndex), subIndex, schemaField, uninverted, filter, prefixRef, prefixEndRef);
+        if (--available >= 0) {
+          completionService.submit(seg);
+        } else {
+          pending.add(seg);
         }
-        if (disi != null) {
-          if (schemaField.multiValued()) {
-            SortedSetDocValues sub = leaf.reader().getSortedSetDocValues(fieldName);
-            if (sub == null) {
-              sub = SortedSetDocValues.EMPTY;
-            }
-            if (sub instanceof SingletonSortedSetDocValues) {
-              // some codecs may optimize SORTED_SET storage for single-valued fields
-              final SortedDocValues values = ((SingletonSortedSetDocValues) sub).getSortedDocValues();
-              accumSingle(counts, startTermIndex, values, disi, subIndex, ordinalMap);
-            } else {
-              accumMulti(counts, startTermIndex, sub, disi, subIndex, ordinalMap);
-            }
+      }
+
+      // add the counts of each segment as soon as it is done
+      for (int i = 0; i < leaves.size(); i++) {
+        SegCounts seg;
+        try {
+          seg = completionService.take().get();
+          if (!pending.isEmpty()) {
+            completionService.submit(pending.removeFirst());
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
           } else {
-            SortedDocValues sub = leaf.reader().getSortedDocValues(fieldName);
-            if (sub == null) {
-              sub = SortedDocValues.EMPTY;
-            }
-            accumSingle(counts, startTermIndex, sub, disi, subIndex, ordinalMap);
+            throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Error in per-segment faceting on field: " + schemaField.getName(), cause);
           }
         }
+        seg.addTo(counts, startTermIndex, ordinalMap);
       }
 
       if (startTermIndex == -1) {
@@ -232,22 +278,134 @@ public class DocValuesFacets {
     return res;
   }
   
-  /** accumulates per-segment single-valued facet counts, mapping to global ordinal space */
+  /**
+   * The facet counts of one segment, in segment ordinal space. The
+   * counting runs in {@link #call()}, possibly on another thread.
+   */
+  static class SegCounts implements Callable<SegCounts> {
+    final AtomicReaderContext leaf;
+    final int subIndex;
+    final SchemaField schemaField;
+    final SegmentTermOrds.TopLevel uninverted;
+    final Filter filter;
+    final BytesRef prefixRef;
+    final BytesRef prefixEndRef;
+
+    int startTermIndex;
+    int[] counts;
+
+    SegCounts(AtomicReaderContext leaf, int subIndex, SchemaField schemaField, SegmentTermOrds.TopLevel uninverted, Filter filter, BytesRef prefixRef, BytesRef prefixEndRef) {
+      this.leaf = leaf;
+      this.subIndex = subIndex;
+      this.schemaField = schemaField;
+      this.uninverted = uninverted;
+      this.filter = filter;
+      this.prefixRef = prefixRef;
+      this.prefixEndRef = prefixEndRef;
+    }
+
+    @Override
+    public SegCounts call() throws IOException {
+      DocIdSet dis = filter.getDocIdSet(leaf, null); // solr docsets already exclude any deleted docs
+      DocIdSetIterator disi = null;
+      if (dis != null) {
+        disi = dis.iterator();
+      }
+      if (disi == null) {
+        return this;
+      }
+      // the doc values are fetched here since their instances are per thread
+      String fieldName = schemaField.getName();
+      if (uninverted != null) {
+        SortedSetDocValues sub = uninverted.segment(subIndex);
+        if (initCounts(sub)) {
+          accumMulti(counts, startTermIndex, sub, disi);
+        }
+      } else if (schemaField.multiValued()) {
+        SortedSetDocValues sub = leaf.reader().getSortedSetDocValues(fieldName);
+        if (sub == null) {
+          sub = SortedSetDocValues.EMPTY;
+        }
+        if (sub instanceof SingletonSortedSetDocValues) {
+          // some codecs may optimize SORTED_SET storage for single-valued fields
+          final SortedDocValues values = ((SingletonSortedSetDocValues) sub).getSortedDocValues();
+          if (initCounts(sub)) {
+            accumSingle(counts, startTermIndex, values, disi);
+          }
+        } else {
+          if (initCounts(sub)) {
+            accumMulti(counts, startTermIndex, sub, disi);
+          }
+        }
+      } else {
+        SortedDocValues sub = leaf.reader().getSortedDocValues(fieldName);
+        if (sub == null) {
+          sub = SortedDocValues.EMPTY;
+        }
+        if (initCounts(new SingletonSortedSetDocValues(sub))) {
+          accumSingle(counts, startTermIndex, sub, disi);
+        }
+      }
+      return this;
+    }
+
+    // sizes the counts for the segment ords in the prefix range
+    private boolean initCounts(SortedSetDocValues values) {
+      int endTermIndex;
+      if (prefixRef != null) {
+        startTermIndex = (int) values.lookupTerm(prefixRef);
+        if (startTermIndex<0) startTermIndex=-startTermIndex-1;
+        endTermIndex = (int) -values.lookupTerm(prefixEndRef)-1;
+      } else {
+        startTermIndex = -1;
+        endTermIndex = (int) values.getValueCount();
+      }
+      if (endTermIndex <= startTermIndex) {
+        return false;
+      }
+      counts = new int[endTermIndex - startTermIndex];
+      return true;
+    }
+
+    /** adds the counts to the global counts, mapping each segment ordinal once */
+    void addTo(int[] globalCounts, int globalStartTermIndex, OrdinalMap map) {
+      if (counts == null) {
+        return;
+      }
+      int i = 0;
+      if (startTermIndex == -1) {
+        // missing count
+        if (globalStartTermIndex == -1) {
+          globalCounts[0] += counts[0];
+        }
+        i = 1;
+      }
+      for (; i < counts.length; i++) {
+        int c = counts[i];
+        if (c == 0) continue;
+        int term = startTermIndex + i;
+        if (map != null) {
+          term = (int) map.getGlobalOrd(subIndex, term);
+        }
+        int arrIdx = term-globalStartTermIndex;
+        if (arrIdx>=0 && arrIdx<globalCounts.length) globalCounts[arrIdx] += c;
+      }
+    }
+  }
+
+  /** accumulates per-segment single-valued facet counts, in segment ordinal space */
   // specialized since the single-valued case is different
-  static void accumSingle(int counts[], int startTermIndex, SortedDocValues si, DocIdSetIterator disi, int subIndex, OrdinalMap map) throws IOException {
+  static void accumSingle(int counts[], int startTermIndex, SortedDocValues si, DocIdSetIterator disi) throws IOException {
     int doc;
     while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
       int term = si.getOrd(doc);
-      if (map != null && term >= 0) {
-        term = (int) map.getGlobalOrd(subIndex, term);
-      }
       int arrIdx = term-startTermIndex;
       if (arrIdx>=0 && arrIdx<counts.length) counts[arrIdx]++;
     }
   }
   
-  /** accumulates per-segment multi-valued facet counts, mapping to global ordinal space */
-  static void accumMulti(int counts[], int startTermIndex, SortedSetDocValues si, DocIdSetIterator disi, int subIndex, OrdinalMap map) throws IOException {
+  /** accumulates per-segment multi-valued facet counts, in segment ordinal space */
+  static void accumMulti(int counts[], int startTermIndex, SortedSetDocValues si, DocIdSetIterator disi) throws IOException {
     int doc;
     while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
       si.setDocument(doc);
@@ -261,9 +419,6 @@ public class DocValuesFacets {
       }
       
       do {
-        if (map != null) {
-          term = (int) map.getGlobalOrd(subIndex, term);
-        }
         int arrIdx = term-startTermIndex;
         if (arrIdx>=0 && arrIdx<counts.length) counts[arrIdx]++;
       } while ((term = (int) si.nextOrd()) >= 0);
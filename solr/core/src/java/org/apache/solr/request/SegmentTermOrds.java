@@ -0,0 +1,339 @@
+package org.apache.solr.request;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.List;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocTermOrds;
+import org.apache.lucene.index.MultiDocValues.OrdinalMap;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.SolrException;
+
+/**
+ * An un-inverted field of a single segment, whose term number lists are kept
+ * off the java heap.
+ * <p>
+ * The field is un-inverted just like {@link UnInvertedField} does for the
+ * whole index, but per segment and without "big terms", and the resulting
+ * <code>index</code> and <code>tnums</code> arrays are then copied into
+ * direct buffers. Only the term index (every 128th term) stays on the heap.
+ * <p>
+ * Instances are cached per segment core by the {@link SegmentTermOrdsCache}
+ * of a core, so a new searcher only un-inverts the segments that are new to
+ * it, and a segment that just got deletions is not un-inverted again
+ * (deleted documents are filtered by the faceted DocSet). {@link TopLevel}
+ * maps the segment ordinals of a searcher to global ones for
+ * {@link DocValuesFacets}.
+ */
+public class SegmentTermOrds extends DocTermOrds {
+  private static final int TNUM_OFFSET = 2;
+
+  // not final: cleared by free()
+  private ByteBuffer offHeapIndexBuffer;
+  private IntBuffer offHeapIndex;
+  private ByteBuffer[] offHeapTnums;
+  private final long offHeapBytes;
+
+  /** un-inverts the field of the given segment, taking no deletions into account */
+  SegmentTermOrds(AtomicReader reader, String field, BytesRef termPrefix) throws IOException {
+    super(field, Integer.MAX_VALUE, DEFAULT_INDEX_INTERVAL_BITS);
+    try {
+      uninvert(reader, null, termPrefix);
+    } catch (IllegalStateException ise) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, ise.getMessage());
+    }
+    // the enum holds on to the segment
+    docsEnum = null;
+
+    long bytes = 0;
+    if (index == null) {
+      offHeapIndex = null;
+      offHeapTnums = null;
+    } else {
+      offHeapIndexBuffer = ByteBuffer.allocateDirect(index.length * 4);
+      offHeapIndex = offHeapIndexBuffer.asIntBuffer();
+      offHeapIndex.put(index);
+      bytes += offHeapIndexBuffer.capacity();
+      offHeapTnums = new ByteBuffer[tnums.length];
+      for (int i = 0; i < tnums.length; i++) {
+        if (tnums[i] != null) {
+          offHeapTnums[i] = ByteBuffer.allocateDirect(tnums[i].length);
+          offHeapTnums[i].put(tnums[i]);
+          bytes += tnums[i].length;
+        }
+      }
+      index = null;
+      tnums = null;
+    }
+    offHeapBytes = bytes;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return offHeapBytes == 0;
+  }
+
+  /** The number of bytes of the term number lists, which are not on the java heap. */
+  public long offHeapBytes() {
+    return offHeapBytes;
+  }
+
+  /**
+   * Releases the direct buffers without waiting for a GC, once no reader of
+   * the segment is open anymore. Using this instance afterwards fails.
+   */
+  void free() {
+    if (offHeapIndexBuffer == null) return;
+    free(offHeapIndexBuffer);
+    for (ByteBuffer buffer : offHeapTnums) {
+      if (buffer != null) free(buffer);
+    }
+    offHeapIndexBuffer = null;
+    offHeapIndex = null;
+    offHeapTnums = null;
+  }
+
+  // the same hack as MMapDirectory uses to unmap its buffers
+  private static void free(final ByteBuffer buffer) {
+    try {
+      AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
+        @Override
+        public Void run() throws Exception {
+          final Method getCleanerMethod = buffer.getClass().getMethod("cleaner");
+          getCleanerMethod.setAccessible(true);
+          final Object cleaner = getCleanerMethod.invoke(buffer);
+          if (cleaner != null) {
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+          }
+          return null;
+        }
+      });
+    } catch (PrivilegedActionException e) {
+      // not supported by this JVM: the buffer is released when it is garbage collected
+    } catch (RuntimeException e) {
+      // e.g. inaccessible with java modules: same as above
+    }
+  }
+
+  @Override
+  public SortedSetDocValues iterator(AtomicReader reader) throws IOException {
+    if (isEmpty()) {
+      return SortedSetDocValues.EMPTY;
+    } else {
+      return new Iterator(reader);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{field=" + field
+        + ",offHeapBytes=" + offHeapBytes
+        + ",heapBytes=" + ramUsedInBytes()
+        + ",nTerms=" + numTermsInField
+        + ",termInstances=" + termInstances
+        + "}";
+  }
+
+  /** Reads the term number lists from the direct buffers, see {@link DocTermOrds#iterator} */
+  private class Iterator extends SortedSetDocValues {
+    final AtomicReader reader;
+    final TermsEnum te;  // used internally for lookupOrd() and lookupTerm()
+    final int buffer[] = new int[5];
+    int bufferUpto;
+    int bufferLength;
+
+    private int tnum;
+    private int upto;
+    private ByteBuffer arr;
+
+    Iterator(AtomicReader reader) throws IOException {
+      this.reader = reader;
+      this.te = termsEnum();
+    }
+
+    @Override
+    public long nextOrd() {
+      while (bufferUpto == bufferLength) {
+        if (bufferLength < buffer.length) {
+          return NO_MORE_ORDS;
+        } else {
+          bufferLength = read(buffer);
+          bufferUpto = 0;
+        }
+      }
+      return buffer[bufferUpto++];
+    }
+
+    int read(int[] buffer) {
+      int bufferUpto = 0;
+      if (arr == null) {
+        // code is inlined into upto
+        int code = upto;
+        int delta = 0;
+        for (;;) {
+          delta = (delta << 7) | (code & 0x7f);
+          if ((code & 0x80)==0) {
+            if (delta==0) break;
+            tnum += delta - TNUM_OFFSET;
+            buffer[bufferUpto++] = ordBase+tnum;
+            delta = 0;
+          }
+          code >>>= 8;
+        }
+      } else {
+        // code is a pointer, absolute gets keep the buffer safe to share
+        for(;;) {
+          int delta = 0;
+          for(;;) {
+            byte b = arr.get(upto++);
+            delta = (delta << 7) | (b & 0x7f);
+            if ((b & 0x80) == 0) break;
+          }
+          if (delta == 0) break;
+          tnum += delta - TNUM_OFFSET;
+          buffer[bufferUpto++] = ordBase+tnum;
+          if (bufferUpto == buffer.length) {
+            break;
+          }
+        }
+      }
+      return bufferUpto;
+    }
+
+    @Override
+    public void setDocument(int docID) {
+      tnum = 0;
+      final int code = offHeapIndex.get(docID);
+      if ((code & 0xff)==1) {
+        // a pointer
+        upto = code>>>8;
+        int whichArray = (docID >>> 16) & 0xff;
+        arr = offHeapTnums[whichArray];
+      } else {
+        arr = null;
+        upto = code;
+      }
+      bufferUpto = 0;
+      bufferLength = read(buffer);
+    }
+
+    @Override
+    public void lookupOrd(long ord, BytesRef result) {
+      BytesRef ref = null;
+      try {
+        ref = SegmentTermOrds.this.lookupTerm(te, (int) ord);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      result.bytes = ref.bytes;
+      result.offset = ref.offset;
+      result.length = ref.length;
+    }
+
+    @Override
+    public long getValueCount() {
+      return numTerms();
+    }
+
+    @Override
+    public long lookupTerm(BytesRef key) {
+      try {
+        if (te.seekCeil(key) == TermsEnum.SeekStatus.FOUND) {
+          return te.ord();
+        } else {
+          return -te.ord()-1;
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public TermsEnum termsEnum() {
+      try {
+        return getOrdTermsEnum(reader);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * The un-inverted segments of a field for a searcher, and the map of their
+   * ordinals to the global ones.
+   */
+  public static class TopLevel {
+    final List<AtomicReaderContext> leaves;
+    final SegmentTermOrds[] segments;
+    final OrdinalMap mapping;
+
+    TopLevel(List<AtomicReaderContext> leaves, SegmentTermOrds[] segments, OrdinalMap mapping) {
+      this.leaves = leaves;
+      this.segments = segments;
+      this.mapping = mapping;
+    }
+
+    /** The ords of a segment, for use by the calling thread only */
+    SortedSetDocValues segment(int subIndex) throws IOException {
+      return segments[subIndex].iterator(leaves.get(subIndex).reader());
+    }
+
+    /**
+     * Term lookups in global ordinal space, for use by the calling thread
+     * only. The returned values have no documents.
+     */
+    SortedSetDocValues lookups() throws IOException {
+      final SortedSetDocValues[] subs = new SortedSetDocValues[segments.length];
+      for (int i = 0; i < subs.length; i++) {
+        subs[i] = segment(i);
+      }
+      return new SortedSetDocValues() {
+        @Override
+        public long nextOrd() {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setDocument(int docID) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void lookupOrd(long ord, BytesRef result) {
+          subs[mapping.getFirstSegmentNumber(ord)].lookupOrd(mapping.getFirstSegmentOrd(ord), result);
+        }
+
+        @Override
+        public long getValueCount() {
+          return mapping.getValueCount();
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package org.apache.solr.request;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues.OrdinalMap;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrInfoMBean;
+import org.apache.solr.schema.TrieField;
+import org.apache.solr.search.SolrCacheBase;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * The {@link SegmentTermOrds} of a core, shared by all its searchers.
+ * <p/>
+ * Un-inverted fields are keyed on the core cache key of their segment, and
+ * their direct buffers are released as soon as the segment is closed, or
+ * when the core is closed, rather than whenever they get garbage collected.
+ * The {@link SegmentTermOrds.TopLevel} of a searcher is kept until its
+ * reader is closed. Both the heap and the off-heap bytes are reported in
+ * the statistics.
+ */
+public class SegmentTermOrdsCache implements SolrInfoMBean {
+
+  // segment core cache key -> field -> un-inverted field
+  private final Map<Object,Map<String,Entry>> segmentCache = new HashMap<Object,Map<String,Entry>>();
+
+  // top-level reader -> field -> ordinal map
+  private final Map<Object,Map<String,SegmentTermOrds.TopLevel>> topLevelCache = new HashMap<Object,Map<String,SegmentTermOrds.TopLevel>>();
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong inserts = new AtomicLong();
+
+  private final SegmentReader.CoreClosedListener purgeSegment = new SegmentReader.CoreClosedListener() {
+    @Override
+    public void onClose(Object ownerCoreCacheKey) {
+      final Map<String,Entry> fields;
+      synchronized (segmentCache) {
+        fields = segmentCache.remove(ownerCoreCacheKey);
+      }
+      if (fields != null) {
+        free(fields);
+      }
+    }
+  };
+
+  private final IndexReader.ReaderClosedListener purgeReader = new IndexReader.ReaderClosedListener() {
+    @Override
+    public void onClose(IndexReader reader) {
+      synchronized (topLevelCache) {
+        topLevelCache.remove(reader.getCoreCacheKey());
+      }
+    }
+  };
+
+  /** A cache slot, so that only one thread un-inverts a field of a segment */
+  private static class Entry {
+    volatile SegmentTermOrds ords;
+  }
+
+  /**
+   * Returns the un-inverted field of a segment, un-inverting it if no reader
+   * of the segment core did so before.
+   */
+  public SegmentTermOrds get(AtomicReader reader, String field, BytesRef termPrefix) throws IOException {
+    Object key = reader.getCoreCacheKey();
+    Entry entry;
+    synchronized (segmentCache) {
+      Map<String,Entry> fields = segmentCache.get(key);
+      if (fields == null) {
+        fields = new HashMap<String,Entry>();
+        segmentCache.put(key, fields);
+        if (reader instanceof SegmentReader) {
+          ((SegmentReader) reader).addCoreClosedListener(purgeSegment);
+        }
+      }
+      entry = fields.get(field);
+      if (entry == null) {
+        entry = new Entry();
+        fields.put(field, entry);
+      }
+    }
+    lookups.incrementAndGet();
+    synchronized (entry) {
+      if (entry.ords == null) {
+        long start = System.currentTimeMillis();
+        entry.ords = new SegmentTermOrds(reader, field, termPrefix);
+        inserts.incrementAndGet();
+        SolrCore.log.info("UnInverted segment " + reader + " in "
+            + (System.currentTimeMillis() - start) + "ms " + entry.ords);
+      } else {
+        hits.incrementAndGet();
+      }
+      return entry.ords;
+    }
+  }
+
+  /**
+   * Returns the un-inverted segments of a field for a searcher, un-inverting
+   * only the segments that were not un-inverted before.
+   */
+  public SegmentTermOrds.TopLevel getTopLevel(SolrIndexSearcher searcher, String field) throws IOException {
+    IndexReader topReader = searcher.getIndexReader();
+    Object key = topReader.getCoreCacheKey();
+    synchronized (topLevelCache) {
+      Map<String,SegmentTermOrds.TopLevel> fields = topLevelCache.get(key);
+      SegmentTermOrds.TopLevel topLevel = fields == null ? null : fields.get(field);
+      if (topLevel != null) {
+        return topLevel;
+      }
+    }
+
+    String prefix = TrieField.getMainValuePrefix(searcher.getSchema().getFieldType(field));
+    BytesRef termPrefix = prefix == null ? null : new BytesRef(prefix);
+    List<AtomicReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    SegmentTermOrds[] segments = new SegmentTermOrds[leaves.size()];
+    TermsEnum[] termsEnums = new TermsEnum[leaves.size()];
+    for (int i = 0; i < segments.length; i++) {
+      AtomicReader reader = leaves.get(i).reader();
+      segments[i] = get(reader, field, termPrefix);
+      termsEnums[i] = segments[i].iterator(reader).termsEnum();
+    }
+    SegmentTermOrds.TopLevel topLevel = new SegmentTermOrds.TopLevel(leaves, segments, new OrdinalMap(key, termsEnums));
+
+    synchronized (topLevelCache) {
+      Map<String,SegmentTermOrds.TopLevel> fields = topLevelCache.get(key);
+      if (fields == null) {
+        fields = new HashMap<String,SegmentTermOrds.TopLevel>();
+        topLevelCache.put(key, fields);
+        topReader.addReaderClosedListener(purgeReader);
+      }
+      if (!fields.containsKey(field)) {
+        fields.put(field, topLevel);
+      }
+      return fields.get(field);
+    }
+  }
+
+  private static void free(Map<String,Entry> fields) {
+    for (Entry entry : fields.values()) {
+      synchronized (entry) {
+        if (entry.ords != null) {
+          entry.ords.free();
+          entry.ords = null;
+        }
+      }
+    }
+  }
+
+  /** The number of un-inverted fields of all segments */
+  public int size() {
+    int size = 0;
+    synchronized (segmentCache) {
+      for (Map<String,Entry> fields : segmentCache.values()) {
+        size += fields.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Releases all un-inverted fields, once no searcher of the core is open
+   * anymore.
+   */
+  public void close() {
+    synchronized (topLevelCache) {
+      topLevelCache.clear();
+    }
+    synchronized (segmentCache) {
+      for (Map<String,Entry> fields : segmentCache.values()) {
+        free(fields);
+      }
+      segmentCache.clear();
+    }
+  }
+
+  //////////////////////// SolrInfoMBeans methods //////////////////////
+
+  @Override
+  public String getName() {
+    return SegmentTermOrdsCache.class.getName();
+  }
+
+  @Override
+  public String getVersion() {
+    return SolrCore.version;
+  }
+
+  @Override
+  public String getDescription() {
+    return "Per segment un-inverted fields for facet.method=fcs";
+  }
+
+  @Override
+  public Category getCategory() {
+    return Category.CACHE;
+  }
+
+  @Override
+  public String getSource() {
+    return "$URL$";
+  }
+
+  @Override
+  public URL[] getDocs() {
+    return null;
+  }
+
+  @Override
+  public NamedList getStatistics() {
+    NamedList<Object> lst = new SimpleOrderedMap<Object>();
+    long lookups = this.lookups.get();
+    long hits = this.hits.get();
+    int size = 0;
+    int segments;
+    long offHeapBytes = 0;
+    long heapBytes = 0;
+    synchronized (segmentCache) {
+      segments = segmentCache.size();
+      for (Map<String,Entry> fields : segmentCache.values()) {
+        for (Entry entry : fields.values()) {
+          // don't wait for an entry that is being un-inverted
+          SegmentTermOrds ords = entry.ords;
+          if (ords != null) {
+            size++;
+            offHeapBytes += ords.offHeapBytes();
+            heapBytes += ords.ramUsedInBytes();
+          }
+        }
+      }
+    }
+    int topLevel = 0;
+    synchronized (topLevelCache) {
+      for (Map<String,SegmentTermOrds.TopLevel> fields : topLevelCache.values()) {
+        topLevel += fields.size();
+      }
+    }
+    lst.add("lookups", lookups);
+    lst.add("hits", hits);
+    lst.add("hitratio", SolrCacheBase.calcHitRatio(lookups, hits));
+    lst.add("inserts", inserts.get());
+    lst.add("size", size);
+    lst.add("segments", segments);
+    lst.add("topLevelSize", topLevel);
+    lst.add("offHeapBytes", offHeapBytes);
+    lst.add("heapBytes", heapBytes);
+    return lst;
+  }
+
+  @Override
+  public String toString() {
+    return getDescription() + getStatistics();
+  }
+}
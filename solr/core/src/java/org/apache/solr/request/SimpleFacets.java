@@ -404,8 +404,8 @@ public class SimpleFacets {
       method = FacetMethod.FC;
     }
 
-    if (method == FacetMethod.FCS && multiToken) {
-      // only fc knows how to deal with multi-token fields
+    if (method == FacetMethod.FCS && multiToken && sf.hasDocValues()) {
+      // only fc knows how to deal with multi-valued docvalues
       method = FacetMethod.FC;
     }
     
@@ -424,13 +424,16 @@ public class SimpleFacets {
           counts = getFacetTermEnumCounts(searcher, base, field, offset, limit, mincount,missing,sort,prefix);
           break;
         case FCS:
-          assert !multiToken;
           if (ft.getNumericType() != null && !sf.multiValued()) {
             // force numeric faceting
             if (prefix != null && !prefix.isEmpty()) {
               throw new SolrException(ErrorCode.BAD_REQUEST, FacetParams.FACET_PREFIX + " is not supported on numeric types");
             }
             counts = NumericFacets.getCounts(searcher, base, field, offset, limit, mincount, missing, sort);
+          } else if (multiToken) {
+            // un-inverted per segment, so that a new searcher only un-inverts its new segments
+            Executor executor = threads == 0 ? directExecutor : facetExecutor;
+            counts = DocValuesFacets.getUnInvertedCounts(searcher, base, field, offset,limit, mincount, missing, sort, prefix, executor, threads);
           } else {
             PerSegmentSingleValuedFaceting ps = new PerSegmentSingleValuedFaceting(searcher, base, field, offset,limit, mincount, missing, sort, prefix);
             Executor executor = threads == 0 ? directExecutor : facetExecutor;
@@ -440,7 +443,8 @@ public class SimpleFacets {
           break;
         case FC:
           if (sf.hasDocValues()) {
-            counts = DocValuesFacets.getCounts(searcher, base, field, offset,limit, mincount, missing, sort, prefix);
+            Executor executor = threads == 0 ? directExecutor : facetExecutor;
+            counts = DocValuesFacets.getCounts(searcher, base, field, offset,limit, mincount, missing, sort, prefix, executor, threads);
           } else if (multiToken || TrieField.getMainValuePrefix(ft) != null) {
             UnInvertedField uif = UnInvertedField.getUnInvertedField(field, searcher);
             counts = uif.getCounts(searcher, base, offset, limit, mincount,missing,sort,prefix);
@@ -19,9 +19,14 @@ package org.apache.solr.response;
 import java.io.*;
 import java.util.*;
 
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.StorableField;
 import org.apache.lucene.index.StoredDocument;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.solr.client.solrj.impl.BinaryResponseParser;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.params.CommonParams;
@@ -42,9 +47,12 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
   private static final Logger LOG = LoggerFactory.getLogger(BinaryResponseWriter.class);
   public static final Set<Class> KNOWN_TYPES = new HashSet<Class>();
 
+  private boolean streamStoredFields = true;
+
   @Override
   public void write(OutputStream out, SolrQueryRequest req, SolrQueryResponse response) throws IOException {
     Resolver resolver = new Resolver(req, response.getReturnFields());
+    resolver.streamStoredFields = streamStoredFields;
     Boolean omitHeader = req.getParams().getBool(CommonParams.OMIT_HEADER);
     if (omitHeader != null && omitHeader) response.getValues().remove("responseHeader");
     JavaBinCodec codec = new JavaBinCodec(resolver);
@@ -63,7 +71,12 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
 
   @Override
   public void init(NamedList args) {
-    /* NOOP */
+    if (args != null) {
+      Object stream = args.get("streamStoredFields");
+      if (stream != null) {
+        streamStoredFields = Boolean.parseBoolean(stream.toString());
+      }
+    }
   }
 
   public static class Resolver implements JavaBinCodec.ObjectResolver {
@@ -76,6 +89,10 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
     // rather than the String from FieldType.toExternal()
     boolean useFieldObjects = true;
 
+    // write documents without transformers straight from the stored fields,
+    // rather than through a StoredDocument and a SolrDocument
+    boolean streamStoredFields = true;
+
     public Resolver(SolrQueryRequest req, ReturnFields returnFields) {
       solrQueryRequest = req;
       this.returnFields = returnFields;
@@ -141,9 +158,18 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
       }
       
       Set<String> fnames = returnFields.getLuceneFieldNames();
+      StoredDocWriter docWriter = null;
+      if (streamStoredFields && transformer == null) {
+        docWriter = new StoredDocWriter();
+      }
       context.iterator = ids.iterator();
       for (int i = 0; i < sz; i++) {
         int id = context.iterator.nextDoc();
+        if (docWriter != null) {
+          searcher.doc(id, docWriter);
+          docWriter.write(codec);
+          continue;
+        }
         StoredDocument doc = searcher.doc(id, fnames);
         SolrDocument sdoc = getDoc(doc);
         if( transformer != null ) {
@@ -204,6 +230,168 @@ public class BinaryResponseWriter implements BinaryQueryResponseWriter {
       return solrDoc;
     }
     
+    /**
+     * Visits the stored fields of a document and writes them as a
+     * {@link SolrDocument}, the same way {@link #getDoc} and
+     * {@link JavaBinCodec#writeSolrDocument} would. Values of string fields
+     * whose external value is the stored value are copied as UTF-8 from the
+     * stored fields reader to the output, without being decoded to Strings.
+     * Other values go through {@link #getValue}.
+     * <p>
+     * Documents read this way are not added to the document cache.
+     */
+    class StoredDocWriter extends StoredFieldVisitor {
+      // the values of the current document in the order they were visited
+      private String[] names = new String[16];
+      private Object[] values = new Object[16];
+      // values that are UTF-8 slices of utf8 have a length >= 0
+      private int[] starts = new int[16];
+      private int[] lengths = new int[16];
+      private int size;
+      private byte[] utf8 = new byte[1024];
+      private int utf8Length;
+      // the number of values per field, in the order the fields were first seen
+      private final Map<String,Integer> counts = new LinkedHashMap<String,Integer>();
+      // builds the fields that are not written as UTF-8
+      private DocumentStoredFieldVisitor fields;
+
+      @Override
+      public Status needsField(FieldInfo fieldInfo) {
+        return returnFields.wantsField(fieldInfo.name) ? Status.YES : Status.NO;
+      }
+
+      @Override
+      public void stringField(FieldInfo fieldInfo, BytesRef value) throws IOException {
+        if (isUTF8(fieldInfo.name)) {
+          int slot = newSlot(fieldInfo.name);
+          if (utf8Length + value.length > utf8.length) {
+            utf8 = ArrayUtil.grow(utf8, utf8Length + value.length);
+          }
+          System.arraycopy(value.bytes, value.offset, utf8, utf8Length, value.length);
+          starts[slot] = utf8Length;
+          lengths[slot] = value.length;
+          utf8Length += value.length;
+        } else {
+          getFields().stringField(fieldInfo, value.utf8ToString());
+          addLastField();
+        }
+      }
+
+      @Override
+      public void stringField(FieldInfo fieldInfo, String value) throws IOException {
+        if (isUTF8(fieldInfo.name)) {
+          int slot = newSlot(fieldInfo.name);
+          values[slot] = value;
+        } else {
+          getFields().stringField(fieldInfo, value);
+          addLastField();
+        }
+      }
+
+      @Override
+      public void binaryField(FieldInfo fieldInfo, byte[] value) throws IOException {
+        getFields().binaryField(fieldInfo, value);
+        addLastField();
+      }
+
+      @Override
+      public void intField(FieldInfo fieldInfo, int value) {
+        getFields().intField(fieldInfo, value);
+        addLastField();
+      }
+
+      @Override
+      public void longField(FieldInfo fieldInfo, long value) {
+        getFields().longField(fieldInfo, value);
+        addLastField();
+      }
+
+      @Override
+      public void floatField(FieldInfo fieldInfo, float value) {
+        getFields().floatField(fieldInfo, value);
+        addLastField();
+      }
+
+      @Override
+      public void doubleField(FieldInfo fieldInfo, double value) {
+        getFields().doubleField(fieldInfo, value);
+        addLastField();
+      }
+
+      /** Writes the visited document and gets ready for the next one */
+      void write(JavaBinCodec codec) throws IOException {
+        codec.writeTag(JavaBinCodec.SOLRDOC);
+        codec.writeTag(JavaBinCodec.ORDERED_MAP, counts.size());
+        for (Map.Entry<String,Integer> entry : counts.entrySet()) {
+          String name = entry.getKey();
+          int count = entry.getValue();
+          codec.writeExternString(name);
+          SchemaField sf = schema.getFieldOrNull(name);
+          if (count > 1 || (sf != null && sf.multiValued())) {
+            codec.writeTag(JavaBinCodec.ARR, count);
+          }
+          for (int i = 0, found = 0; found < count; i++) {
+            if (name.equals(names[i])) {
+              if (lengths[i] >= 0) {
+                codec.writeUTF8Str(utf8, starts[i], lengths[i]);
+              } else {
+                codec.writeVal(values[i]);
+              }
+              found++;
+            }
+          }
+        }
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        utf8Length = 0;
+        counts.clear();
+        fields = null;
+      }
+
+      // whether values of this field are the stored strings
+      private boolean isUTF8(String name) {
+        SchemaField sf = schema.getFieldOrNull(name);
+        if (sf == null) return true;
+        Class<?> type = sf.getType().getClass();
+        return type == StrField.class || type == TextField.class;
+      }
+
+      private int newSlot(String name) {
+        if (size == names.length) {
+          int newSize = ArrayUtil.oversize(size + 1, RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+          names = Arrays.copyOf(names, newSize);
+          values = Arrays.copyOf(values, newSize);
+          starts = Arrays.copyOf(starts, newSize);
+          lengths = Arrays.copyOf(lengths, newSize);
+        }
+        Integer count = counts.get(name);
+        counts.put(name, count == null ? 1 : count + 1);
+        names[size] = name;
+        lengths[size] = -1;
+        return size++;
+      }
+
+      private DocumentStoredFieldVisitor getFields() {
+        if (fields == null) {
+          fields = new DocumentStoredFieldVisitor();
+        }
+        return fields;
+      }
+
+      private void addLastField() {
+        List<StorableField> visited = fields.getDocument().getFields();
+        StorableField f = visited.get(visited.size() - 1);
+        try {
+          Object val = getValue(schema.getFieldOrNull(f.name()), f);
+          int slot = newSlot(f.name());
+          values[slot] = val;
+        } catch (Exception e) {
+          // same as getDoc: log it and leave the value out
+          LOG.warn("Error reading field " + f.name() + " from document", e);
+        }
+      }
+    }
+
     public Object getValue(SchemaField sf, StorableField f) throws Exception {
       FieldType ft = null;
       if(sf != null) ft =sf.getType();
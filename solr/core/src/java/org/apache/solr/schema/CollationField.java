@@ -193,6 +193,34 @@ public class CollationField extends FieldType {
     return getStringSort(field, top);
   }
 
+  /**
+   * Collation keys are not UTF-8, so they are returned by shards with one
+   * char per byte, which keeps their order as strings.
+   */
+  @Override
+  public Object marshalSortValue(Object value) {
+    if (!(value instanceof BytesRef)) {
+      return value;
+    }
+    final BytesRef key = (BytesRef) value;
+    final char[] chars = new char[key.length];
+    for (int i = 0; i < key.length; i++) {
+      chars[i] = (char) (key.bytes[key.offset + i] & 0xFF);
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public BytesRef unmarshalSortValue(Object value) {
+    final String chars = value.toString();
+    final BytesRef key = new BytesRef(chars.length());
+    for (int i = 0; i < chars.length(); i++) {
+      key.bytes[i] = (byte) chars.charAt(i);
+    }
+    key.length = chars.length();
+    return key;
+  }
+
   @Override
   public Analyzer getAnalyzer() {
     return analyzer;
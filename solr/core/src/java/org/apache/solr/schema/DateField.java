@@ -287,6 +287,14 @@ public class DateField extends PrimitiveFieldType implements DateValueFieldType
     return formatExternal(d);
   }
 
+  @Override
+  public BytesRef unmarshalSortValue(Object value) {
+    if (value instanceof Date) {
+      value = toExternal((Date) value);
+    }
+    return super.unmarshalSortValue(value);
+  }
+
   /**
    * Thread safe method that can be used by subclasses to parse a Date
    * that is already in the internal representation
@@ -397,6 +397,28 @@ public abstract class FieldType extends FieldProperties {
     UnicodeUtil.UTF16toUTF8(internal, 0, internal.length(), result);
   }
 
+  /**
+   * Converts a sort value of a field of this type, as the sort comparator
+   * returns it, before a shard returns it with its results.  By default the
+   * value is unchanged, and sort values in their indexed form are returned
+   * in their readable form.
+   * @see #unmarshalSortValue
+   */
+  public Object marshalSortValue(Object value) {
+    return value;
+  }
+
+  /**
+   * Converts back a sort value that a shard returned for a field of this
+   * type with a string sort into the indexed form the sort comparator uses.
+   * @see #marshalSortValue
+   */
+  public BytesRef unmarshalSortValue(Object value) {
+    final BytesRef result = new BytesRef();
+    readableToIndexed(value.toString(), result);
+    return result;
+  }
+
   public void setIsExplicitQueryAnalyzer(boolean isExplicitQueryAnalyzer) {
     this.isExplicitQueryAnalyzer = isExplicitQueryAnalyzer;
   }
@@ -0,0 +1,205 @@
+package org.apache.solr.search;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.util.Base64;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+
+/**
+ * The position of a cursor in the results of a sorted query: the sort
+ * values of the last document of the previous page.
+ * <p/>
+ * The documents of the next page are collected as the ones sorting after
+ * these values (see {@link org.apache.lucene.search.TopFieldCollector#create(Sort, int, FieldDoc, boolean, boolean, boolean, boolean)}),
+ * so fetching a page costs the same regardless of how deep it is, unlike
+ * <code>start</code> based paging. Because the uniqueKey field must be part
+ * of the sort, the position does not depend on internal document ids and
+ * stays valid across searchers and shards.
+ * <p/>
+ * Clients see a cursor as an opaque totem: {@link CursorMarkParams#CURSOR_MARK_START}
+ * for the first page, or the Base64 encoded javabin list of the sort values.
+ *
+ * @see CursorMarkParams
+ */
+public final class CursorMark {
+
+  private final Sort sort;
+  // null for the first page
+  private final List<Object> values;
+
+  /**
+   * Creates a cursor on the first page of a sort.
+   *
+   * @throws SolrException if the sort cannot be used with a cursor
+   */
+  public CursorMark(IndexSchema schema, Sort sort) {
+    final SchemaField uniqueKey = schema.getUniqueKeyField();
+    if (uniqueKey == null) {
+      throw new SolrException(ErrorCode.BAD_REQUEST, "Cursor functionality is not available unless the IndexSchema defines a uniqueKey field");
+    }
+    boolean hasUniqueKey = false;
+    if (sort != null) {
+      for (SortField sortField : sort.getSort()) {
+        if (uniqueKey.getName().equals(sortField.getField())) {
+          hasUniqueKey = true;
+        }
+      }
+    }
+    if (!hasUniqueKey) {
+      throw new SolrException(ErrorCode.BAD_REQUEST,
+          "Cursor functionality requires a sort containing a uniqueKey field tie breaker");
+    }
+    this.sort = sort;
+    this.values = null;
+  }
+
+  private CursorMark(Sort sort, List<Object> values) {
+    this.sort = sort;
+    this.values = values;
+  }
+
+  /**
+   * Returns a cursor on the same sort, positioned at the given totem.
+   *
+   * @throws SolrException if the totem is not valid for the sort of this cursor
+   */
+  @SuppressWarnings("unchecked")
+  public CursorMark parseSerializedTotem(String totem) {
+    if (CursorMarkParams.CURSOR_MARK_START.equals(totem)) {
+      return new CursorMark(sort, null);
+    }
+    final List<Object> parsed;
+    try {
+      parsed = (List<Object>) new JavaBinCodec().unmarshal(new ByteArrayInputStream(Base64.base64ToByteArray(totem)));
+    } catch (Exception e) {
+      throw new SolrException(ErrorCode.BAD_REQUEST, "Unable to parse '" + CursorMarkParams.CURSOR_MARK_PARAM + "' using totem: " + totem, e);
+    }
+    final SortField[] sortFields = sort.getSort();
+    if (parsed.size() != sortFields.length) {
+      throw new SolrException(ErrorCode.BAD_REQUEST, CursorMarkParams.CURSOR_MARK_PARAM + " does not work with the sort '"
+          + sort + "': the totem has " + parsed.size() + " sort values, expected " + sortFields.length);
+    }
+    final List<Object> sortValues = new ArrayList<Object>(parsed.size());
+    for (int i = 0; i < sortFields.length; i++) {
+      Object value = parsed.get(i);
+      if (value instanceof byte[]) {
+        value = new BytesRef((byte[]) value);
+      }
+      if (!isValidSortValue(sortFields[i], value)) {
+        throw new SolrException(ErrorCode.BAD_REQUEST, CursorMarkParams.CURSOR_MARK_PARAM + " does not work with the sort '"
+            + sort + "': bad value for " + sortFields[i]);
+      }
+      sortValues.add(value);
+    }
+    return new CursorMark(sort, sortValues);
+  }
+
+  // the sort value must be of the type the comparator of the sort field expects
+  private static boolean isValidSortValue(SortField sortField, Object value) {
+    switch (sortField.getType()) {
+      case SCORE:
+      case FLOAT:
+        return value instanceof Float;
+      case INT:
+        return value instanceof Integer;
+      case LONG:
+        return value instanceof Long;
+      case DOUBLE:
+        return value instanceof Double;
+      case DOC:
+        return value instanceof Integer;
+      case STRING:
+      case STRING_VAL:
+        // missing values sort as null
+        return value == null || value instanceof BytesRef;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Returns a cursor on the same sort, positioned after a document with the
+   * given sort values, as found in {@link FieldDoc#fields}.
+   */
+  public CursorMark createNext(Object[] sortValues) {
+    assert sortValues.length == sort.getSort().length;
+    return new CursorMark(sort, Arrays.asList(sortValues));
+  }
+
+  /** Returns the sort of this cursor. */
+  public Sort getSort() {
+    return sort;
+  }
+
+  /** Returns the sort values of this cursor, or null if it is on the first page. */
+  public List<Object> getSortValues() {
+    return values;
+  }
+
+  /**
+   * Returns the document to search after for this cursor, or null if it is
+   * on the first page. Ties on all sort values can only happen on the
+   * document itself, since the sort contains the uniqueKey field, so the
+   * document id is ignored.
+   */
+  public FieldDoc getSearchAfterFieldDoc() {
+    if (values == null) return null;
+    return new FieldDoc(Integer.MAX_VALUE, Float.NaN, values.toArray());
+  }
+
+  /** Returns the totem clients use to refer to this cursor. */
+  public String getSerializedTotem() {
+    if (values == null) return CursorMarkParams.CURSOR_MARK_START;
+    final List<Object> marshalled = new ArrayList<Object>(values.size());
+    for (Object value : values) {
+      if (value instanceof BytesRef) {
+        final BytesRef bytes = (BytesRef) value;
+        value = Arrays.copyOfRange(bytes.bytes, bytes.offset, bytes.offset + bytes.length);
+      }
+      marshalled.add(value);
+    }
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+      new JavaBinCodec().marshal(marshalled, out);
+      final byte[] bytes = out.toByteArray();
+      return Base64.byteArrayToBase64(bytes, 0, bytes.length);
+    } catch (IOException e) {
+      throw new SolrException(ErrorCode.SERVER_ERROR, "Unable to format search after totem", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getSerializedTotem();
+  }
+}
@@ -54,8 +54,10 @@ public class FastLRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
   @Override
   public Object init(Map args, Object persistence, CacheRegenerator regenerator) {
     super.init(args, regenerator);
+    final long maxRamBytes = parseMaxRamBytes(args);
     String str = (String) args.get("size");
-    int limit = str == null ? 1024 : Integer.parseInt(str);
+    // with a RAM limit, the number of entries is only limited if configured
+    int limit = str == null ? (maxRamBytes == Long.MAX_VALUE ? 1024 : Integer.MAX_VALUE) : Integer.parseInt(str);
     int minLimit;
     str = (String) args.get("minSize");
     if (str == null) {
@@ -77,14 +79,17 @@ public class FastLRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
     acceptableLimit = Math.max(minLimit, acceptableLimit);
 
     str = (String) args.get("initialSize");
-    final int initialSize = str == null ? limit : Integer.parseInt(str);
+    final int initialSize = str == null ? (limit == Integer.MAX_VALUE ? 1024 : limit) : Integer.parseInt(str);
     str = (String) args.get("cleanupThread");
     boolean newThread = str == null ? false : Boolean.parseBoolean(str);
 
     str = (String) args.get("showItems");
     showItems = str == null ? 0 : Integer.parseInt(str);
-    description = generateDescription(limit, initialSize, minLimit, acceptableLimit, newThread);
-    cache = new ConcurrentLRUCache<K,V>(limit, minLimit, acceptableLimit, initialSize, newThread, false, null);
+    description = generateDescription(limit, initialSize, minLimit, acceptableLimit, newThread, maxRamBytes);
+    // like the number of entries, RAM usage is brought down to 90% of the limit
+    final long minRamBytes = maxRamBytes == Long.MAX_VALUE ? Long.MAX_VALUE : (long) (maxRamBytes * 0.9);
+    cache = new ConcurrentLRUCache<K,V>(limit, minLimit, acceptableLimit, maxRamBytes, minRamBytes,
+        initialSize, newThread, false, null);
     cache.setAlive(false);
 
     statsList = (List<ConcurrentLRUCache.Stats>) persistence;
@@ -104,9 +109,13 @@ public class FastLRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
   /**
    * @return Returns the description of this Cache.
    */
-  protected String generateDescription(int limit, int initialSize, int minLimit, int acceptableLimit, boolean newThread) {
+  protected String generateDescription(int limit, int initialSize, int minLimit, int acceptableLimit, boolean newThread,
+                                       long maxRamBytes) {
     String description = "Concurrent LRU Cache(maxSize=" + limit + ", initialSize=" + initialSize +
         ", minSize="+minLimit + ", acceptableSize="+acceptableLimit+", cleanupThread="+newThread;
+    if (maxRamBytes != Long.MAX_VALUE) {
+      description += ", maxRamMB=" + (maxRamBytes / 1024L / 1024L);
+    }
     if (isAutowarmingOn()) {
       description += ", " + getAutowarmDescription();
     }
@@ -121,7 +130,7 @@ public class FastLRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
 
   @Override
   public V put(K key, V value) {
-    return cache.put(key, value);
+    return cache.put(key, value, ramBytesUsed(key, value));
   }
 
   @Override
@@ -223,6 +232,7 @@ public class FastLRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
     lst.add("inserts", inserts);
     lst.add("evictions", evictions);
     lst.add("size", size);
+    lst.add("ramBytesUsed", stats.getCurrentRamBytesUsed());
 
     lst.add("warmupTime", warmupTime);
     lst.add("cumulative_lookups", clookups);
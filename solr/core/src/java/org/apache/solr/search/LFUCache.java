@@ -64,8 +64,10 @@ public class LFUCache<K, V> implements SolrCache<K, V> {
     state = State.CREATED;
     this.regenerator = regenerator;
     name = (String) args.get("name");
+    final long maxRamBytes = SolrCacheBase.parseMaxRamBytes(args);
     String str = (String) args.get("size");
-    int limit = str == null ? 1024 : Integer.parseInt(str);
+    // with a RAM limit, the number of entries is only limited if configured
+    int limit = str == null ? (maxRamBytes == Long.MAX_VALUE ? 1024 : Integer.MAX_VALUE) : Integer.parseInt(str);
     int minLimit;
     str = (String) args.get("minSize");
     if (str == null) {
@@ -87,7 +89,7 @@ public class LFUCache<K, V> implements SolrCache<K, V> {
     acceptableSize = Math.max(minLimit, acceptableSize);
 
     str = (String) args.get("initialSize");
-    final int initialSize = str == null ? limit : Integer.parseInt(str);
+    final int initialSize = str == null ? (limit == Integer.MAX_VALUE ? 1024 : limit) : Integer.parseInt(str);
     str = (String) args.get("autowarmCount");
     autowarmCount = str == null ? 0 : Integer.parseInt(str);
     str = (String) args.get("cleanupThread");
@@ -103,12 +105,18 @@ public class LFUCache<K, V> implements SolrCache<K, V> {
     description = "Concurrent LFU Cache(maxSize=" + limit + ", initialSize=" + initialSize +
         ", minSize=" + minLimit + ", acceptableSize=" + acceptableSize + ", cleanupThread=" + newThread +
         ", timeDecay=" + Boolean.toString(timeDecay);
+    if (maxRamBytes != Long.MAX_VALUE) {
+      description += ", maxRamMB=" + (maxRamBytes / 1024L / 1024L);
+    }
     if (autowarmCount > 0) {
       description += ", autowarmCount=" + autowarmCount + ", regenerator=" + regenerator;
     }
     description += ')';
 
-    cache = new ConcurrentLFUCache<K, V>(limit, minLimit, acceptableSize, initialSize, newThread, false, null, timeDecay);
+    // like the number of entries, RAM usage is brought down to 90% of the limit
+    final long minRamBytes = maxRamBytes == Long.MAX_VALUE ? Long.MAX_VALUE : (long) (maxRamBytes * 0.9);
+    cache = new ConcurrentLFUCache<K, V>(limit, minLimit, acceptableSize, maxRamBytes, minRamBytes,
+        initialSize, newThread, false, null, timeDecay);
     cache.setAlive(false);
 
     statsList = (List<ConcurrentLFUCache.Stats>) persistence;
@@ -138,7 +146,7 @@ public class LFUCache<K, V> implements SolrCache<K, V> {
 
   @Override
   public V put(K key, V value) {
-    return cache.put(key, value);
+    return cache.put(key, value, SolrCacheBase.ramBytesUsed(key, value));
   }
 
   @Override
@@ -256,6 +264,7 @@ public class LFUCache<K, V> implements SolrCache<K, V> {
     lst.add("inserts", inserts);
     lst.add("evictions", evictions);
     lst.add("size", size);
+    lst.add("ramBytesUsed", stats.getCurrentRamBytesUsed());
 
     lst.add("warmupTime", warmupTime);
     lst.add("timeDecay", timeDecay);
@@ -50,20 +50,24 @@ public class LRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
   private long hits;
   private long inserts;
   private long evictions;
+  private long ramBytesUsed;
 
   private long warmupTime = 0;
 
   private Map<K,V> map;
+  private long maxRamBytes;
   private String description="LRU Cache";
 
   @Override
   public Object init(Map args, Object persistence, CacheRegenerator regenerator) {
     super.init(args, regenerator);
+    maxRamBytes = parseMaxRamBytes(args);
     String str = (String)args.get("size");
-    final int limit = str==null ? 1024 : Integer.parseInt(str);
+    // with a RAM limit, the number of entries is only limited if configured
+    final int limit = str==null ? (maxRamBytes == Long.MAX_VALUE ? 1024 : Integer.MAX_VALUE) : Integer.parseInt(str);
     str = (String)args.get("initialSize");
     final int initialSize = Math.min(str==null ? 1024 : Integer.parseInt(str), limit);
-    description = generateDescription(limit, initialSize);
+    description = generateDescription(limit, initialSize, maxRamBytes);
 
     map = new LinkedHashMap<K,V>(initialSize, 0.75f, true) {
         @Override
@@ -74,6 +78,7 @@ public class LRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
             // only be called in the context of a higher level synchronized block.
             evictions++;
             stats.evictions.incrementAndGet();
+            ramBytesUsed -= ramBytesUsed(eldest.getKey(), eldest.getValue());
             return true;
           }
           return false;
@@ -94,8 +99,11 @@ public class LRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
    * 
    * @return Returns the description of this cache. 
    */
-  private String generateDescription(int limit, int initialSize) {
+  private String generateDescription(int limit, int initialSize, long maxRamBytes) {
     String description = "LRU Cache(maxSize=" + limit + ", initialSize=" + initialSize;
+    if (maxRamBytes != Long.MAX_VALUE) {
+      description += ", maxRamMB=" + (maxRamBytes / 1024L / 1024L);
+    }
     if (isAutowarmingOn()) {
       description += ", " + getAutowarmDescription();
     }
@@ -120,7 +128,23 @@ public class LRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
       // increment local inserts regardless of state???
       // it does make it more consistent with the current size...
       inserts++;
-      return map.put(key,value);
+      ramBytesUsed += ramBytesUsed(key, value);
+      V old = map.put(key,value);
+      if (old != null) {
+        ramBytesUsed -= ramBytesUsed(key, old);
+      }
+      if (ramBytesUsed > maxRamBytes) {
+        // evict the least recently used entries until we are below the limit
+        Iterator<Map.Entry<K,V>> iter = map.entrySet().iterator();
+        while (ramBytesUsed > maxRamBytes && iter.hasNext()) {
+          Map.Entry<K,V> entry = iter.next();
+          ramBytesUsed -= ramBytesUsed(entry.getKey(), entry.getValue());
+          iter.remove();
+          evictions++;
+          stats.evictions.incrementAndGet();
+        }
+      }
+      return old;
     }
   }
 
@@ -145,6 +169,7 @@ public class LRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
   public void clear() {
     synchronized(map) {
       map.clear();
+      ramBytesUsed = 0;
     }
   }
 
@@ -231,6 +256,7 @@ public class LRUCache<K,V> extends SolrCacheBase implements SolrCache<K,V> {
       lst.add("inserts", inserts);
       lst.add("evictions", evictions);
       lst.add("size", map.size());
+      lst.add("ramBytesUsed", ramBytesUsed);
     }
     lst.add("warmupTime", warmupTime);
     
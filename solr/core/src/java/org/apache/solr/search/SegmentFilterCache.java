@@ -0,0 +1,280 @@
+package org.apache.solr.search;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopTermsRewrite;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrInfoMBean;
+import org.apache.solr.util.ConcurrentLRUCache;
+
+/**
+ * A cache of the documents matching filter queries in each segment, which
+ * unlike the filterCache outlives the searchers it was populated by.
+ * <p/>
+ * Entries are keyed on the core cache key of a segment and the query, and
+ * hold the matching documents regardless of deletions, which are applied
+ * when the DocSet of a whole index is assembled. After a reopen, only the
+ * segments that are new to the index need to be searched, which makes
+ * filterCache misses and autowarming cheap with frequent (soft) commits.
+ * <p/>
+ * Only queries whose matches in a segment depend on nothing but that
+ * segment are cached, see {@link #isSegmentLocal(Query)}. Entries are
+ * removed when their segment is closed, or when the cache is over its
+ * RAM limit.
+ * <p/>
+ * Enabled with <code>&lt;filterCache perSegment="true" perSegmentMaxRamMB="128" .../&gt;</code>.
+ */
+public class SegmentFilterCache implements SolrInfoMBean {
+
+  private final ConcurrentLRUCache<SegmentKey,DocSet> cache;
+  private final long maxRamBytes;
+
+  // core cache keys of the segments we registered a close listener with
+  private final Set<Object> segments = Collections.newSetFromMap(new ConcurrentHashMap<Object,Boolean>());
+
+  private final SegmentReader.CoreClosedListener purgeSegment = new SegmentReader.CoreClosedListener() {
+    @Override
+    public void onClose(Object ownerCoreCacheKey) {
+      purge(ownerCoreCacheKey);
+    }
+  };
+
+  public SegmentFilterCache(long maxRamBytes) {
+    this.maxRamBytes = maxRamBytes;
+    // the number of entries is not limited, only the RAM they take
+    cache = new ConcurrentLRUCache<SegmentKey,DocSet>(Integer.MAX_VALUE, Integer.MAX_VALUE - 1, Integer.MAX_VALUE - 1,
+        maxRamBytes, (long) (maxRamBytes * 0.9), 1024, false, false, null);
+  }
+
+  /**
+   * Returns true if the documents a query matches in a segment only depend
+   * on that segment, and not on other segments, deletions or the top-level
+   * searcher, so that they can be cached across searchers.
+   */
+  public static boolean isSegmentLocal(Query query) {
+    if (query instanceof TermQuery || query instanceof PhraseQuery || query instanceof MultiPhraseQuery) {
+      return true;
+    } else if (query instanceof MultiTermQuery) {
+      // the top terms of the whole index, e.g. of a FuzzyQuery, may not be the top terms of a segment
+      return !(((MultiTermQuery) query).getRewriteMethod() instanceof TopTermsRewrite);
+    } else if (query instanceof BooleanQuery) {
+      BooleanClause[] clauses = ((BooleanQuery) query).getClauses();
+      if (clauses.length == 0) return false;
+      for (BooleanClause clause : clauses) {
+        if (!isSegmentLocal(clause.getQuery())) return false;
+      }
+      return true;
+    } else if (query instanceof DisjunctionMaxQuery) {
+      for (Query disjunct : ((DisjunctionMaxQuery) query).getDisjuncts()) {
+        if (!isSegmentLocal(disjunct)) return false;
+      }
+      return true;
+    } else if (query instanceof ConstantScoreQuery) {
+      // wrapped filters may hold top-level doc ids
+      Query wrapped = ((ConstantScoreQuery) query).getQuery();
+      return wrapped != null && isSegmentLocal(wrapped);
+    } else if (query instanceof WrappedQuery) {
+      return isSegmentLocal(((WrappedQuery) query).getWrappedQuery());
+    }
+    return false;
+  }
+
+  /**
+   * Returns the documents of the searcher that match a positive query,
+   * which must be {@link #isSegmentLocal(Query) segment local}. Matches in
+   * segments that are not cached yet are computed and cached.
+   */
+  public DocSet getDocSet(IndexSearcher searcher, Query query) throws IOException {
+    final int maxDoc = searcher.getIndexReader().maxDoc();
+    final DocSetCollector collector = new DocSetCollector(maxDoc >> 6, maxDoc);
+    Weight weight = null;
+    for (AtomicReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+      final AtomicReader reader = leaf.reader();
+      final boolean cacheable = reader instanceof SegmentReader;
+      final SegmentKey key = cacheable ? new SegmentKey(reader.getCoreCacheKey(), query) : null;
+      DocSet segmentDocs = cacheable ? cache.get(key) : null;
+      if (segmentDocs == null) {
+        if (weight == null) {
+          weight = searcher.createNormalizedWeight(query);
+        }
+        segmentDocs = getSegmentDocs(weight, leaf);
+        if (cacheable) {
+          put(key, (SegmentReader) reader, segmentDocs);
+        }
+      }
+
+      collector.setNextReader(leaf);
+      final Bits liveDocs = reader.getLiveDocs();
+      final DocIterator iter = segmentDocs.iterator();
+      while (iter.hasNext()) {
+        final int doc = iter.nextDoc();
+        if (liveDocs == null || liveDocs.get(doc)) {
+          collector.collect(doc);
+        }
+      }
+    }
+    return collector.getDocSet();
+  }
+
+  // the documents of a segment that match, including deleted ones
+  private static DocSet getSegmentDocs(Weight weight, AtomicReaderContext leaf) throws IOException {
+    final int maxDoc = leaf.reader().maxDoc();
+    final DocSetCollector collector = new DocSetCollector(maxDoc >> 6, maxDoc);
+    final Scorer scorer = weight.scorer(leaf, true, false, null);
+    if (scorer != null) {
+      int doc;
+      while ((doc = scorer.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        collector.collect(doc);
+      }
+    }
+    return collector.getDocSet();
+  }
+
+  private void put(SegmentKey key, SegmentReader reader, DocSet segmentDocs) {
+    if (segments.add(key.coreKey)) {
+      reader.addCoreClosedListener(purgeSegment);
+    }
+    cache.put(key, segmentDocs, SolrCacheBase.ramBytesUsed(key, segmentDocs));
+    if (!segments.contains(key.coreKey)) {
+      // the segment was closed concurrently
+      cache.remove(key);
+    }
+  }
+
+  private void purge(Object coreKey) {
+    segments.remove(coreKey);
+    for (Iterator<Object> it = cache.getMap().keySet().iterator(); it.hasNext();) {
+      SegmentKey key = (SegmentKey) it.next();
+      if (key.coreKey == coreKey) {
+        cache.remove(key);
+      }
+    }
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public void close() {
+    cache.destroy();
+    cache.clear();
+  }
+
+  private static final class SegmentKey {
+    final Object coreKey;
+    final Query query;
+    final int hash;
+
+    SegmentKey(Object coreKey, Query query) {
+      this.coreKey = coreKey;
+      this.query = query;
+      this.hash = 31 * System.identityHashCode(coreKey) + query.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SegmentKey)) return false;
+      SegmentKey other = (SegmentKey) obj;
+      return coreKey == other.coreKey && query.equals(other.query);
+    }
+  }
+
+  //////////////////////// SolrInfoMBeans methods //////////////////////
+
+  @Override
+  public String getName() {
+    return SegmentFilterCache.class.getName();
+  }
+
+  @Override
+  public String getVersion() {
+    return SolrCore.version;
+  }
+
+  @Override
+  public String getDescription() {
+    return "Per segment filter cache(maxRamMB=" + (maxRamBytes / 1024L / 1024L) + ")";
+  }
+
+  @Override
+  public Category getCategory() {
+    return Category.CACHE;
+  }
+
+  @Override
+  public String getSource() {
+    return "$URL$";
+  }
+
+  @Override
+  public URL[] getDocs() {
+    return null;
+  }
+
+  @Override
+  public NamedList getStatistics() {
+    NamedList<Object> lst = new SimpleOrderedMap<Object>();
+    ConcurrentLRUCache.Stats stats = cache.getStats();
+    long lookups = stats.getCumulativeLookups();
+    long hits = stats.getCumulativeHits();
+    lst.add("lookups", lookups);
+    lst.add("hits", hits);
+    lst.add("hitratio", SolrCacheBase.calcHitRatio(lookups, hits));
+    lst.add("inserts", stats.getCumulativePuts());
+    lst.add("evictions", stats.getCumulativeEvictions());
+    lst.add("size", stats.getCurrentSize());
+    lst.add("segments", segments.size());
+    lst.add("ramBytesUsed", stats.getCurrentRamBytesUsed());
+    return lst;
+  }
+
+  @Override
+  public String toString() {
+    return getDescription() + getStatistics();
+  }
+}
@@ -23,6 +23,7 @@ import java.math.RoundingMode;
 import java.net.URL;
 import java.util.Map;
  
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrInfoMBean.Category;
@@ -92,13 +93,64 @@ public abstract class SolrCacheBase {
    * Returns a "Hit Ratio" (ie: max of 1.00, not a percentage) suitable for 
    * display purposes.
    */
-  protected static float calcHitRatio(long lookups, long hits) {
+  public static float calcHitRatio(long lookups, long hits) {
     return (lookups == 0) ? 0.0f :
         BigDecimal.valueOf((double) hits / (double) lookups)
             .setScale(2, RoundingMode.HALF_EVEN)
             .floatValue();
   }
 
+  /** Estimated RAM usage of keys and values whose size is unknown. */
+  public static final long DEFAULT_RAM_BYTES_USED = 192;
+
+  /** Estimated RAM usage of the hash table entry that holds a key and a value. */
+  public static final long RAM_BYTES_PER_ENTRY = RamUsageEstimator.alignObjectSize(
+      RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 4 * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+      + 2 * RamUsageEstimator.NUM_BYTES_LONG);
+
+  /**
+   * Returns the estimated RAM usage of a cache entry in bytes.
+   * <p>
+   * {@link DocSet}s, including the {@link DocSlice}s that the
+   * queryResultCache holds, are accounted for with {@link DocSet#memSize()},
+   * and Strings with their length. Other keys and values, such as queries,
+   * are assumed to take {@link #DEFAULT_RAM_BYTES_USED} bytes.
+   */
+  public static long ramBytesUsed(Object key, Object value) {
+    return RAM_BYTES_PER_ENTRY + ramBytesUsed(key) + ramBytesUsed(value);
+  }
+
+  private static long ramBytesUsed(Object o) {
+    if (o == null) {
+      return 0;
+    } else if (o instanceof DocSet) {
+      return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + ((DocSet) o).memSize());
+    } else if (o instanceof String) {
+      return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.NUM_BYTES_INT
+          + RamUsageEstimator.NUM_BYTES_OBJECT_REF)
+          + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+          + (long) RamUsageEstimator.NUM_BYTES_CHAR * ((String) o).length());
+    } else {
+      return DEFAULT_RAM_BYTES_USED;
+    }
+  }
+
+  /**
+   * Parses the <code>maxRamMB</code> argument of a cache into a number of
+   * bytes, or returns {@link Long#MAX_VALUE} if it is not set.
+   */
+  protected static long parseMaxRamBytes(Map args) {
+    String str = (String) args.get("maxRamMB");
+    if (str == null) {
+      return Long.MAX_VALUE;
+    }
+    double maxRamMB = Double.parseDouble(str);
+    if (maxRamMB <= 0) {
+      throw new IllegalArgumentException("maxRamMB must be > 0, got " + str);
+    }
+    return (long) (maxRamMB * 1024 * 1024);
+  }
+
   public String getVersion() {
     return SolrCore.version;
   }
@@ -66,6 +66,7 @@ import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
@@ -146,6 +147,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
   private final SolrCache<QueryResultKey,DocList> queryResultCache;
   private final SolrCache<Integer,StoredDocument> documentCache;
   private final SolrCache<String,UnInvertedField> fieldValueCache;
+  // shared with other searchers of the core, used to compute filterCache entries
+  private final SegmentFilterCache segmentFilterCache;
 
   private final LuceneQueryOptimizer optimizer;
   
@@ -228,6 +231,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       if (fieldValueCache!=null) clist.add(fieldValueCache);
       filterCache= solrConfig.filterCacheConfig==null ? null : solrConfig.filterCacheConfig.newInstance();
       if (filterCache!=null) clist.add(filterCache);
+      segmentFilterCache = filterCache==null ? null : core.getSegmentFilterCache();
       queryResultCache = solrConfig.queryResultCacheConfig==null ? null : solrConfig.queryResultCacheConfig.newInstance();
       if (queryResultCache!=null) clist.add(queryResultCache);
       documentCache = solrConfig.documentCacheConfig==null ? null : solrConfig.documentCacheConfig.newInstance();
@@ -250,6 +254,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       cacheList = clist.toArray(new SolrCache[clist.size()]);
     } else {
       filterCache=null;
+      segmentFilterCache=null;
       queryResultCache=null;
       documentCache=null;
       fieldValueCache=null;
@@ -822,7 +827,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       }
     }
 
-    DocSet absAnswer = getDocSetNC(absQ, null);
+    DocSet absAnswer = getDocSetNCForCache(absQ);
     DocSet answer = positive ? absAnswer : getPositiveDocSet(matchAllDocsQuery).andNot(absAnswer);
 
     if (filterCache != null) {
@@ -840,7 +845,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       answer = filterCache.get(q);
       if (answer!=null) return answer;
     }
-    answer = getDocSetNC(q,null);
+    answer = getDocSetNCForCache(q);
     if (filterCache != null) filterCache.put(
         q,answer);
     return answer;
@@ -1132,6 +1137,14 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     return collector.getDocSet();
   }
 
+  // query must be positive, the DocSet is going to be put into the filterCache (if any)
+  private DocSet getDocSetNCForCache(Query query) throws IOException {
+    if (segmentFilterCache != null && SegmentFilterCache.isSegmentLocal(query)) {
+      return segmentFilterCache.getDocSet(this, query);
+    }
+    return getDocSetNC(query, null);
+  }
+
 
   /**
    * Returns the set of document ids matching both the query and the filter.
@@ -1164,7 +1177,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     if (filterCache != null) {
       first = filterCache.get(absQ);
       if (first==null) {
-        first = getDocSetNC(absQ,null);
+        first = getDocSetNCForCache(absQ);
         filterCache.put(absQ,first);
       }
       return positive ? first.intersection(filter) : filter.andNot(first);
@@ -1263,6 +1276,10 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         flags |= (NO_CHECK_QCACHE | NO_SET_QCACHE | NO_CHECK_FILTERCACHE);
       }
     }
+    if (cmd.getCursorMark() != null) {
+      // the page after a cursor is neither cached nor computed from the sorted filter
+      flags |= (NO_CHECK_QCACHE | NO_SET_QCACHE | NO_CHECK_FILTERCACHE);
+    }
 
 
     // we can try and look up the complete query in the cache.
@@ -1370,7 +1387,11 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       }
 
       superset = out.docList;
-      out.docList = superset.subset(cmd.getOffset(),cmd.getLen());
+      // the page after a cursor holds fewer docs than matches, but is
+      // exactly what was requested
+      if (cmd.getCursorMark() == null) {
+        out.docList = superset.subset(cmd.getOffset(),cmd.getLen());
+      }
     }
 
     // lastly, put the superset in the cache if the size is less than or equal
@@ -1470,6 +1491,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         qr.setPartialResults(true);
       }
 
+      populateNextCursorMark(qr, cmd, null);
       nDocsReturned=0;
       ids = new int[nDocsReturned];
       scores = new float[nDocsReturned];
@@ -1485,7 +1507,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         }
 
       } else {
-        topCollector = TopFieldCollector.create(weightSort(cmd.getSort()), len, false, needScores, needScores, true);
+        topCollector = createSortedCollector(cmd, len, needScores);
       }
       Collector collector = topCollector;
       if (terminateEarly) {
@@ -1520,6 +1542,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         ids[i] = scoreDoc.doc;
         if (scores != null) scores[i] = scoreDoc.score;
       }
+      populateNextCursorMark(qr, cmd, topDocs);
     }
 
     int sliceLen = Math.min(lastDocRequested,nDocsReturned);
@@ -1527,6 +1550,28 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     qr.setDocList(new DocSlice(0,sliceLen,ids,scores,totalHits,maxScore));
   }
 
+  private TopDocsCollector createSortedCollector(QueryCommand cmd, int len, boolean needScores) throws IOException {
+    final CursorMark cursorMark = cmd.getCursorMark();
+    if (cursorMark == null) {
+      return TopFieldCollector.create(weightSort(cmd.getSort()), len, false, needScores, needScores, true);
+    }
+    // fill in the sort values, the next cursor is made of those of the last document
+    return TopFieldCollector.create(weightSort(cmd.getSort()), len, cursorMark.getSearchAfterFieldDoc(),
+        true, needScores, needScores, true);
+  }
+
+  private static void populateNextCursorMark(QueryResult qr, QueryCommand cmd, TopDocs topDocs) {
+    final CursorMark cursorMark = cmd.getCursorMark();
+    if (cursorMark == null) return;
+    if (topDocs == null || topDocs.scoreDocs.length == 0) {
+      // nothing after this cursor (yet), the client gets the same one back
+      qr.setNextCursorMark(cursorMark);
+    } else {
+      final FieldDoc last = (FieldDoc) topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+      qr.setNextCursorMark(cursorMark.createNext(last.fields));
+    }
+  }
+
   // any DocSet returned is for the query only, without any filtering... that way it may
   // be cached if desired.
   private DocSet getDocListAndSetNC(QueryResult qr,QueryCommand cmd) throws IOException {
@@ -1606,6 +1651,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
 
       set = setCollector.getDocSet();
 
+      populateNextCursorMark(qr, cmd, null);
       nDocsReturned = 0;
       ids = new int[nDocsReturned];
       scores = new float[nDocsReturned];
@@ -1618,7 +1664,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
       if (cmd.getSort() == null) {
         topCollector = TopScoreDocCollector.create(len, true);
       } else {
-        topCollector = TopFieldCollector.create(weightSort(cmd.getSort()), len, false, needScores, needScores, true);
+        topCollector = createSortedCollector(cmd, len, needScores);
       }
 
       DocSetCollector setCollector = new DocSetDelegateCollector(maxDoc>>6, maxDoc, topCollector);
@@ -1660,6 +1706,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
         ids[i] = scoreDoc.doc;
         if (scores != null) scores[i] = scoreDoc.score;
       }
+      populateNextCursorMark(qr, cmd, topDocs);
     }
 
     int sliceLen = Math.min(lastDocRequested,nDocsReturned);
@@ -2160,6 +2207,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     private int supersetMaxDoc;
     private int flags;
     private long timeAllowed = -1;
+    private CursorMark cursorMark;
     //Issue 1726 start
     private ScoreDoc scoreDoc;
     
@@ -2273,6 +2321,13 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
     public QueryCommand setNeedDocSet(boolean needDocSet) {
       return needDocSet ? setFlags(GET_DOCSET) : clearFlags(GET_DOCSET);
     }
+
+    /** The cursor to return the documents after, or null to return the documents from offset on. */
+    public CursorMark getCursorMark() { return cursorMark; }
+    public QueryCommand setCursorMark(CursorMark cursorMark) {
+      this.cursorMark = cursorMark;
+      return this;
+    }
   }
 
 
@@ -2282,6 +2337,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
   public static class QueryResult {
     private boolean partialResults;
     private DocListAndSet docListAndSet;
+    private CursorMark nextCursorMark;
 
     public Object groupedResults;   // TODO: currently for testing
     
@@ -2306,6 +2362,10 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable,SolrIn
 
     public void setDocListAndSet( DocListAndSet listSet ) { docListAndSet = listSet; }
     public DocListAndSet getDocListAndSet() { return docListAndSet; }
+
+    /** The cursor the next page starts at, if the command had a cursor. */
+    public CursorMark getNextCursorMark() { return nextCursorMark; }
+    public void setNextCursorMark(CursorMark next) { this.nextCursorMark = next; }
   }
 
 }
@@ -80,6 +80,7 @@ public class HdfsUpdateLog extends UpdateLog {
     
     defaultSyncLevel = SyncLevel.getSyncLevel((String) info.initArgs
         .get("syncLevel"));
+    numVersionBuckets = getNumVersionBuckets(info);
     
   }
 
@@ -191,7 +192,7 @@ public class HdfsUpdateLog extends UpdateLog {
     }
     
     try {
-      versionInfo = new VersionInfo(this, 256);
+      versionInfo = new VersionInfo(this, numVersionBuckets);
     } catch (SolrException e) {
       log.error("Unable to use updateLog: " + e.getMessage(), e);
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
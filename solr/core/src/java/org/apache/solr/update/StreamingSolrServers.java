@@ -20,6 +20,7 @@ package org.apache.solr.update;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -30,6 +31,7 @@ import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
 import org.apache.solr.client.solrj.impl.BinaryResponseParser;
 import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrServer;
 import org.apache.solr.client.solrj.impl.HttpClientUtil;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.update.SolrCmdDistributor.Error;
@@ -39,6 +41,9 @@ import org.slf4j.LoggerFactory;
 public class StreamingSolrServers {
   public static Logger log = LoggerFactory.getLogger(StreamingSolrServers.class);
   
+  /** How long, in milliseconds, a stream to a replica waits for the next update before it is closed. */
+  static final int PIPELINE_POLL_TIME = 25;
+
   private static HttpClient httpClient;
   static {
     ModifiableSolrParams params = new ModifiableSolrParams();
@@ -50,6 +55,8 @@ public class StreamingSolrServers {
   
   private Map<String,ConcurrentUpdateSolrServer> solrServers = new HashMap<String,ConcurrentUpdateSolrServer>();
   private List<Error> errors = Collections.synchronizedList(new ArrayList<Error>());
+  // the requests streamed since the last blockUntilFinished(), to report the ones that failed
+  private final Map<UpdateRequest,SolrCmdDistributor.Req> pending = new IdentityHashMap<UpdateRequest,SolrCmdDistributor.Req>();
 
   private ExecutorService updateExecutor;
 
@@ -66,25 +73,42 @@ public class StreamingSolrServers {
   }
 
   public synchronized SolrServer getSolrServer(final SolrCmdDistributor.Req req) {
+    synchronized (pending) {
+      pending.put(req.uReq, req);
+    }
     String url = getFullUrl(req.node.getUrl());
     ConcurrentUpdateSolrServer server = solrServers.get(url);
     if (server == null) {
       server = new ConcurrentUpdateSolrServer(url, httpClient, 100, 1, updateExecutor) {
         @Override
-        public void handleError(Throwable ex) {
+        public void handleError(Throwable ex, List<UpdateRequest> requests) {
           log.error("error", ex);
-          Error error = new Error();
-          error.e = (Exception) ex;
-          if (ex instanceof SolrException) {
-            error.statusCode = ((SolrException) ex).code();
+          // report each request of the failed stream, so it is retried or recovered
+          for (UpdateRequest uReq : requests) {
+            SolrCmdDistributor.Req failed;
+            synchronized (pending) {
+              failed = pending.remove(uReq);
+            }
+            if (failed == null) {
+              continue;
+            }
+            Error error = new Error();
+            error.e = (Exception) ex;
+            if (ex instanceof SolrException) {
+              error.statusCode = ((SolrException) ex).code();
+            }
+            error.req = failed;
+            errors.add(error);
           }
-          error.req = req;
-          errors.add(error);
         }
       };
       server.setParser(new BinaryResponseParser());
       server.setRequestWriter(new BinaryRequestWriter());
-      server.setPollQueueTime(0);
+      // keep streaming to the replica while the leader is busy with the next update,
+      // instead of a new request per update; blockUntilFinished() does not wait for this
+      server.setPollQueueTime(PIPELINE_POLL_TIME);
+      // deletes go down the same stream, in order with the adds
+      server.setStreamDeletes(true);
       solrServers.put(url, server);
     }
 
@@ -95,6 +119,10 @@ public class StreamingSolrServers {
     for (ConcurrentUpdateSolrServer server : solrServers.values()) {
       server.blockUntilFinished();
     }
+    // the failed ones were reported by now
+    synchronized (pending) {
+      pending.clear();
+    }
   }
   
   public synchronized void shutdown() {
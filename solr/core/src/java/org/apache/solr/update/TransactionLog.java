@@ -22,9 +22,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -32,7 +34,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Constants;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.util.DataInputInputStream;
@@ -82,6 +86,20 @@ public class TransactionLog {
 
   long snapshot_size;
   int snapshot_numRecords;
+  int snapshot_indexSize;
+
+  LogIndex index;                     // the records written so far, if this log is indexed
+  private volatile boolean sealed;    // a commit ended the log, so it won't change any more
+  private volatile LogIndex sealedIndex;
+  private MappedByteBuffer mapped;    // guarded by "this"
+
+  // group commit: the thread that syncs the log to disk does it on behalf of all the
+  // threads that have flushed their records before it started
+  private final Object syncLock = new Object();
+  private long syncedSize;        // the log is durable up to here; guarded by syncLock
+  private boolean syncing;        // guarded by syncLock
+  private int rollbacks;          // guarded by syncLock
+  volatile long numSyncs;
   
   // write a BytesRef as a byte array
   JavaBinCodec.ObjectResolver resolver = new JavaBinCodec.ObjectResolver() {
@@ -228,6 +246,7 @@ public class TransactionLog {
     synchronized (this) {
       snapshot_size = fos.size();
       snapshot_numRecords = numRecords;
+      snapshot_indexSize = index == null ? 0 : index.size;
       return snapshot_size;
     }    
   }
@@ -242,6 +261,13 @@ public class TransactionLog {
       fos.setWritten(pos);
       assert fos.size() == pos;
       numRecords = snapshot_numRecords;
+      if (index != null) {
+        index.size = snapshot_indexSize;
+      }
+    }
+    synchronized (syncLock) {
+      syncedSize = Math.min(syncedSize, pos);
+      rollbacks++;
     }
   }
 
@@ -367,6 +393,7 @@ public class TransactionLog {
         out.writeAll(fos);
         endRecord(pos);
         // fos.flushBuffer();  // flush later
+        if (index != null) index.add(UpdateLog.ADD | flags, cmd.getVersion(), pos);
         return pos;
       }
 
@@ -397,6 +424,7 @@ public class TransactionLog {
         out.writeAll(fos);
         endRecord(pos);
         // fos.flushBuffer();  // flush later
+        if (index != null) index.add(UpdateLog.DELETE | flags, cmd.getVersion(), pos);
         return pos;
       }
 
@@ -423,6 +451,7 @@ public class TransactionLog {
         out.writeAll(fos);
         endRecord(pos);
         // fos.flushBuffer();  // flush later
+        if (index != null) index.add(UpdateLog.DELETE_BY_QUERY | flags, cmd.getVersion(), pos);
         return pos;
       }
       } catch (IOException e) {
@@ -443,9 +472,14 @@ public class TransactionLog {
           pos = fos.size();
         }
         codec.init(fos);
-        codec.writeTag(JavaBinCodec.ARR, 3);
+        codec.writeTag(JavaBinCodec.ARR, index == null ? 3 : 4);
         codec.writeInt(UpdateLog.COMMIT | flags);  // should just take one byte
         codec.writeLong(cmd.getVersion());
+        if (index != null) {
+          // readers that don't know about the index only look at the first two entries
+          byte[] indexBytes = index.toBytes();
+          codec.writeByteArray(indexBytes, 0, indexBytes.length);
+        }
         codec.writeStr(END_MESSAGE);  // ensure these bytes are (almost) last in the file
 
         endRecord(pos);
@@ -480,7 +514,8 @@ public class TransactionLog {
         ***/
       }
 
-      ChannelFastInputStream fis = new ChannelFastInputStream(channel, pos);
+      ByteBuffer buffer = getMappedBuffer();
+      FastInputStream fis = buffer != null ? new ByteBufferFastInputStream(buffer, pos) : new ChannelFastInputStream(channel, pos);
       LogCodec codec = new LogCodec(resolver);
       return codec.readVal(fis);
     } catch (IOException e) {
@@ -488,6 +523,56 @@ public class TransactionLog {
     }
   }
 
+  /** Starts recording an index of the records of this log, to be written when a commit ends the log. */
+  void enableIndex() {
+    synchronized (this) {
+      if (index == null && fos.size() == 0) {
+        index = new LogIndex();
+      }
+    }
+  }
+
+  /**
+   * Returns the index of a log that a commit ended, or null if the log is still
+   * being written or was not indexed.
+   */
+  public LogIndex getIndex() throws IOException {
+    if (!sealed) {
+      if (!endsWithCommit()) return null;
+      ReverseReader reader = getReverseReader();
+      try {
+        Object o = reader.next();
+        if (o instanceof List && ((List<?>) o).size() == 4) {
+          List<?> entry = (List<?>) o;
+          LogIndex commitIndex = LogIndex.fromBytes((byte[]) entry.get(2));
+          commitIndex.commitOperation = (Integer) entry.get(0);
+          sealedIndex = commitIndex;
+        }
+      } finally {
+        reader.close();
+      }
+      sealed = true;
+    }
+    return sealedIndex;
+  }
+
+  /**
+   * Returns a read-only mapping of an indexed log that a commit ended, or null if
+   * the log should be read through its channel.
+   */
+  private ByteBuffer getMappedBuffer() throws IOException {
+    // only map logs that can't change any more; mappings hold on to the file on windows
+    if (sealedIndex == null || channel == null || Constants.WINDOWS) return null;
+    synchronized (this) {
+      if (mapped == null) {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) return null;
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      return mapped;
+    }
+  }
+
   public void incref() {
     int result = refcount.incrementAndGet();
     if (result <= 1) {
@@ -515,15 +600,17 @@ public class TransactionLog {
   public void finish(UpdateLog.SyncLevel syncLevel) {
     if (syncLevel == UpdateLog.SyncLevel.NONE) return;
     try {
+      long size;
       synchronized (this) {
         fos.flushBuffer();
+        size = fos.size();
       }
 
       if (syncLevel == UpdateLog.SyncLevel.FSYNC) {
         // Since fsync is outside of synchronized block, we can end up with a partial
         // last record on power failure (which is OK, and does not represent an error...
         // we just need to be aware of it when reading).
-        raf.getFD().sync();
+        groupSync(size);
       }
 
     } catch (IOException e) {
@@ -531,6 +618,57 @@ public class TransactionLog {
     }
   }
 
+  /**
+   * Waits until the log is durable up to the given size. Only one thread syncs at
+   * a time: the others wait for it, and the next one to sync includes all the
+   * records flushed in the meantime, so that concurrent updates share a single
+   * fsync instead of each paying for their own.
+   */
+  private void groupSync(long size) throws IOException {
+    int generation;
+    synchronized (syncLock) {
+      while (syncing) {
+        if (syncedSize >= size) return;
+        try {
+          syncLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Interrupted waiting for tlog sync", e);
+        }
+      }
+      if (syncedSize >= size) return;
+      syncing = true;
+      generation = rollbacks;
+    }
+
+    boolean success = false;
+    long synced = 0;
+    try {
+      // pick up the records that other threads flushed while we waited
+      synchronized (this) {
+        fos.flushBuffer();
+        synced = fos.size();
+      }
+      sync();
+      numSyncs++;
+      success = true;
+    } finally {
+      synchronized (syncLock) {
+        syncing = false;
+        // a rollback in the meantime may have truncated what we synced
+        if (success && generation == rollbacks && synced > syncedSize) {
+          syncedSize = synced;
+        }
+        syncLock.notifyAll();
+      }
+    }
+  }
+
+  /** Forces the flushed records to disk. */
+  protected void sync() throws IOException {
+    raf.getFD().sync();
+  }
+
   protected void close() {
     try {
       if (debug) {
@@ -540,6 +678,7 @@ public class TransactionLog {
       synchronized (this) {
         fos.flush();
         fos.close();
+        mapped = null;
       }
 
       if (deleteOnClose) {
@@ -576,6 +715,84 @@ public class TransactionLog {
   }
 
 
+  /**
+   * The operation, version and position of every update in a log, in the order they
+   * were written. An indexed log writes it into the commit record that ends the log,
+   * so that the updates of the log can be listed without reading all its records.
+   */
+  public static class LogIndex {
+    private static final int ENTRY_BYTES = 4 + 8 + 8;
+
+    int size;
+    int[] operations = new int[16];
+    long[] versions = new long[16];
+    long[] positions = new long[16];
+    int commitOperation;
+
+    void add(int operation, long version, long position) {
+      if (size == operations.length) {
+        int newSize = ArrayUtil.oversize(size + 1, 8);
+        operations = Arrays.copyOf(operations, newSize);
+        versions = Arrays.copyOf(versions, newSize);
+        positions = Arrays.copyOf(positions, newSize);
+      }
+      operations[size] = operation;
+      versions[size] = version;
+      positions[size] = position;
+      size++;
+    }
+
+    /** The number of updates in the log. */
+    public int size() {
+      return size;
+    }
+
+    /** The operation and flags of the i-th update. */
+    public int getOperation(int i) {
+      return operations[i];
+    }
+
+    public long getVersion(int i) {
+      return versions[i];
+    }
+
+    /** The position of the i-th update in the log, as returned by the write methods. */
+    public long getPosition(int i) {
+      return positions[i];
+    }
+
+    /** The operation and flags of the commit that ended the log. */
+    public int getCommitOperation() {
+      return commitOperation;
+    }
+
+    byte[] toBytes() {
+      ByteBuffer buffer = ByteBuffer.allocate(size * ENTRY_BYTES);
+      for (int i = 0; i < size; i++) {
+        buffer.putInt(operations[i]);
+        buffer.putLong(versions[i]);
+        buffer.putLong(positions[i]);
+      }
+      return buffer.array();
+    }
+
+    static LogIndex fromBytes(byte[] bytes) {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int n = bytes.length / ENTRY_BYTES;
+      LogIndex index = new LogIndex();
+      index.size = n;
+      index.operations = new int[n];
+      index.versions = new long[n];
+      index.positions = new long[n];
+      for (int i = 0; i < n; i++) {
+        index.operations[i] = buffer.getInt();
+        index.versions[i] = buffer.getLong();
+        index.positions[i] = buffer.getLong();
+      }
+      return index;
+    }
+  }
+
   public class LogReader {
     private ChannelFastInputStream fis;
     private LogCodec codec = new LogCodec(resolver);
@@ -813,3 +1030,23 @@ class ChannelFastInputStream extends FastInputStream {
 }
 
 
+/** Reads from a memory mapped log, without a system call per buffer fill. */
+class ByteBufferFastInputStream extends FastInputStream {
+  private final ByteBuffer buffer;
+
+  public ByteBufferFastInputStream(ByteBuffer buffer, long position) {
+    super(null);
+    this.buffer = buffer.duplicate();
+    super.readFromStream = position;
+  }
+
+  @Override
+  public int readWrappedStream(byte[] target, int offset, int len) {
+    int remaining = buffer.limit() - (int) readFromStream;
+    if (remaining <= 0) return -1;
+    int n = Math.min(len, remaining);
+    buffer.position((int) readFromStream);
+    buffer.get(target, offset, n);
+    return n;
+  }
+}
@@ -172,6 +172,8 @@ public class UpdateLog implements PluginInfoInitialized {
   protected VersionInfo versionInfo;
 
   protected SyncLevel defaultSyncLevel = SyncLevel.FLUSH;
+  protected boolean indexLogs;
+  protected int numVersionBuckets = 65536;
 
   volatile UpdateHandler uhandler;    // a core reload can change this reference!
   protected volatile boolean cancelApplyBufferUpdate;
@@ -202,6 +204,19 @@ public class UpdateLog implements PluginInfoInitialized {
   public void init(PluginInfo info) {
     dataDir = (String)info.initArgs.get("dir");
     defaultSyncLevel = SyncLevel.getSyncLevel((String)info.initArgs.get("syncLevel"));
+    Object indexArg = info.initArgs.get("indexLogs");
+    indexLogs = indexArg != null && Boolean.parseBoolean(indexArg.toString());
+    numVersionBuckets = getNumVersionBuckets(info);
+  }
+
+  /** Reads the number of buckets that ids are hashed into to order their updates. */
+  protected int getNumVersionBuckets(PluginInfo info) {
+    Object buckets = info.initArgs.get("numVersionBuckets");
+    int n = buckets == null ? numVersionBuckets : Integer.parseInt(buckets.toString());
+    if (n <= 0) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "numVersionBuckets must be positive: " + n);
+    }
+    return n;
   }
 
   /* Note, when this is called, uhandler is not completely constructed.
@@ -261,7 +276,7 @@ public class UpdateLog implements PluginInfoInitialized {
     }
 
     try {
-      versionInfo = new VersionInfo(this, 256);
+      versionInfo = new VersionInfo(this, numVersionBuckets);
     } catch (SolrException e) {
       log.error("Unable to use updateLog: " + e.getMessage(), e);
       throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
@@ -819,6 +834,9 @@ public class UpdateLog implements PluginInfoInitialized {
     if (tlog == null) {
       String newLogName = String.format(Locale.ROOT, LOG_FILENAME_PATTERN, TLOG_NAME, id);
       tlog = new TransactionLog(new File(tlogDir, newLogName), globalStrings);
+      if (indexLogs) {
+        tlog.enableIndex();
+      }
     }
   }
 
@@ -939,6 +957,13 @@ public class UpdateLog implements PluginInfoInitialized {
 
         TransactionLog.ReverseReader reader = null;
         try {
+          TransactionLog.LogIndex index = oldLog.getIndex();
+          if (index != null) {
+            numUpdates = addIndexedUpdates(oldLog, index, updatesForLog, numUpdates);
+            updateList.add(updatesForLog);
+            continue;
+          }
+
           reader = oldLog.getReverseReader();
 
           while (numUpdates < numRecordsToKeep) {
@@ -1006,6 +1031,37 @@ public class UpdateLog implements PluginInfoInitialized {
 
     }
     
+    /** Same as reading the log backwards, but takes the updates from its index. */
+    private int addIndexedUpdates(TransactionLog oldLog, TransactionLog.LogIndex index,
+        List<Update> updatesForLog, int numUpdates) throws IOException {
+      // the commit that holds the index is the last record of the log
+      if (numUpdates >= numRecordsToKeep) return numUpdates;
+      if (latestOperation == 0) {
+        latestOperation = index.getCommitOperation();
+      }
+      numUpdates++;
+
+      for (int i = index.size() - 1; i >= 0 && numUpdates < numRecordsToKeep; i--) {
+        int oper = index.getOperation(i) & UpdateLog.OPERATION_MASK;
+        Update update = new Update();
+        update.log = oldLog;
+        update.pointer = index.getPosition(i);
+        update.version = index.getVersion(i);
+
+        updatesForLog.add(update);
+        updates.put(update.version, update);
+
+        if (oper == UpdateLog.DELETE_BY_QUERY) {
+          deleteByQueryList.add(update);
+        } else if (oper == UpdateLog.DELETE) {
+          List entry = (List) oldLog.lookup(update.pointer);
+          deleteList.add(new DeleteUpdate(update.version, (byte[]) entry.get(2)));
+        }
+        numUpdates++;
+      }
+      return numUpdates;
+    }
+
     public void close() {
       for (TransactionLog log : logList) {
         log.decref();
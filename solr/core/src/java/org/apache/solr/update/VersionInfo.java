@@ -19,6 +19,7 @@ package org.apache.solr.update;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -39,7 +40,10 @@ public class VersionInfo {
   private final VersionBucket[] buckets;
   private SchemaField versionField;
   private SchemaField idField;
-  final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+  // Updates only take the read lock of their own stripe, so that concurrent updates
+  // don't all contend on the same lock; blocking updates takes the write lock of
+  // every stripe.
+  private final ReadWriteLock[] locks;
 
   /**
    * Gets and returns the {@link #VERSION_FIELD} from the specified 
@@ -85,6 +89,10 @@ public class VersionInfo {
     for (int i=0; i<buckets.length; i++) {
       buckets[i] = new VersionBucket();
     }
+    locks = new ReadWriteLock[ BitUtil.nextHighestPowerOfTwo(Runtime.getRuntime().availableProcessors()) ];
+    for (int i=0; i<locks.length; i++) {
+      locks[i] = new ReentrantReadWriteLock(true);
+    }
   }
 
   public void reload() {
@@ -95,20 +103,29 @@ public class VersionInfo {
     return versionField;
   }
 
+  // a thread always unlocks the stripe it locked
+  private ReadWriteLock stripe() {
+    return locks[(int) Thread.currentThread().getId() & (locks.length - 1)];
+  }
+
   public void lockForUpdate() {
-    lock.readLock().lock();
+    stripe().readLock().lock();
   }
 
   public void unlockForUpdate() {
-    lock.readLock().unlock();
+    stripe().readLock().unlock();
   }
 
   public void blockUpdates() {
-    lock.writeLock().lock();
+    for (int i=0; i<locks.length; i++) {
+      locks[i].writeLock().lock();
+    }
   }
 
   public void unblockUpdates() {
-    lock.writeLock().unlock();
+    for (int i=locks.length-1; i>=0; i--) {
+      locks[i].writeLock().unlock();
+    }
   }
 
   /***
@@ -139,32 +156,31 @@ public class VersionInfo {
   // that times are somewhat synchronized in the cluster).
   // Good if we want to relax some constraints to scale down to where only one node may be
   // up at a time.  Possibly harder to detect missing messages (because versions are not contiguous.
-  long vclock;
-  long time;
-  private final Object clockSync = new Object();
+  // Every leader update gets a new clock, so this is lock-free.
+  private final AtomicLong vclock = new AtomicLong();
 
 
   public long getNewClock() {
-    synchronized (clockSync) {
-      time = System.currentTimeMillis();
-      long result = time << 20;
-      if (result <= vclock) {
-        result = vclock + 1;
+    long time = System.currentTimeMillis() << 20;
+    while (true) {
+      long last = vclock.get();
+      long result = time <= last ? last + 1 : time;
+      if (vclock.compareAndSet(last, result)) {
+        return result;
       }
-      vclock = result;
-      return vclock;
     }
   }
 
   public long getOldClock() {
-    synchronized (clockSync) {
-      return vclock;
-    }
+    return vclock.get();
   }
 
   public void updateClock(long clock) {
-    synchronized (clockSync) {
-      vclock = Math.max(vclock, clock);
+    while (true) {
+      long last = vclock.get();
+      if (clock <= last || vclock.compareAndSet(last, clock)) {
+        return;
+      }
     }
   }
 
@@ -533,12 +533,17 @@ public class DistributedUpdateProcessor extends UpdateRequestProcessor {
     // legit
 
     // TODO: we should do this in the background it would seem
+    Set<String> recoveryRequested = new HashSet<String>();
     for (final SolrCmdDistributor.Error error : errors) {
       if (error.req.node instanceof RetryNode) {
         // we don't try to force a leader to recover
         // when we cannot forward to it
         continue;
       }
+      if (!recoveryRequested.add(error.req.node.getUrl())) {
+        // each update of a failed stream is reported: ask a replica once
+        continue;
+      }
       // TODO: we should force their state to recovering ??
       // TODO: do retries??
       // TODO: what if its is already recovering? Right now recoveries queue up -
@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.ref.WeakReference;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeSet;
@@ -45,6 +46,7 @@ public class ConcurrentLFUCache<K, V> {
 
   private final ConcurrentHashMap<Object, CacheEntry<K, V>> map;
   private final int upperWaterMark, lowerWaterMark;
+  private final long ramUpperWaterMark, ramLowerWaterMark;
   private final ReentrantLock markAndSweepLock = new ReentrantLock(true);
   private boolean isCleaning = false;  // not volatile... piggybacked on other volatile vars
   private final boolean newThreadForCleanup;
@@ -59,9 +61,28 @@ public class ConcurrentLFUCache<K, V> {
   public ConcurrentLFUCache(int upperWaterMark, final int lowerWaterMark, int acceptableSize,
                             int initialSize, boolean runCleanupThread, boolean runNewThreadForCleanup,
                             EvictionListener<K, V> evictionListener, boolean timeDecay) {
+    this(upperWaterMark, lowerWaterMark, acceptableSize, Long.MAX_VALUE, Long.MAX_VALUE,
+        initialSize, runCleanupThread, runNewThreadForCleanup, evictionListener, timeDecay);
+  }
+
+  /**
+   * Creates a cache that is also bounded by the RAM usage of its entries,
+   * as given to {@link #put(Object, Object, long)}: once it exceeds
+   * <code>ramUpperWaterMark</code> bytes, least used entries are evicted
+   * until it is below <code>ramLowerWaterMark</code> bytes.
+   */
+  public ConcurrentLFUCache(int upperWaterMark, final int lowerWaterMark, int acceptableSize,
+                            long ramUpperWaterMark, long ramLowerWaterMark,
+                            int initialSize, boolean runCleanupThread, boolean runNewThreadForCleanup,
+                            EvictionListener<K, V> evictionListener, boolean timeDecay) {
     if (upperWaterMark < 1) throw new IllegalArgumentException("upperWaterMark must be > 0");
     if (lowerWaterMark >= upperWaterMark)
       throw new IllegalArgumentException("lowerWaterMark must be  < upperWaterMark");
+    if (ramUpperWaterMark < 1) throw new IllegalArgumentException("ramUpperWaterMark must be > 0");
+    if (ramLowerWaterMark > ramUpperWaterMark)
+      throw new IllegalArgumentException("ramLowerWaterMark must be  <= ramUpperWaterMark");
+    this.ramUpperWaterMark = ramUpperWaterMark;
+    this.ramLowerWaterMark = ramLowerWaterMark;
     map = new ConcurrentHashMap<Object, CacheEntry<K, V>>(initialSize);
     newThreadForCleanup = runNewThreadForCleanup;
     this.upperWaterMark = upperWaterMark;
@@ -101,20 +122,31 @@ public class ConcurrentLFUCache<K, V> {
     CacheEntry<K, V> cacheEntry = map.remove(key);
     if (cacheEntry != null) {
       stats.size.decrementAndGet();
+      stats.ramBytes.addAndGet(-cacheEntry.ramBytesUsed);
       return cacheEntry.value;
     }
     return null;
   }
 
   public V put(K key, V val) {
+    return put(key, val, 0);
+  }
+
+  /**
+   * Adds an entry that takes <code>ramBytesUsed</code> bytes of memory.
+   */
+  public V put(K key, V val, long ramBytesUsed) {
     if (val == null) return null;
-    CacheEntry<K, V> e = new CacheEntry<K, V>(key, val, stats.accessCounter.incrementAndGet());
+    CacheEntry<K, V> e = new CacheEntry<K, V>(key, val, stats.accessCounter.incrementAndGet(), ramBytesUsed);
     CacheEntry<K, V> oldCacheEntry = map.put(key, e);
     int currentSize;
+    long currentRamBytes;
     if (oldCacheEntry == null) {
       currentSize = stats.size.incrementAndGet();
+      currentRamBytes = stats.ramBytes.addAndGet(ramBytesUsed);
     } else {
       currentSize = stats.size.get();
+      currentRamBytes = stats.ramBytes.addAndGet(ramBytesUsed - oldCacheEntry.ramBytesUsed);
     }
     if (islive) {
       stats.putCounter.incrementAndGet();
@@ -132,7 +164,7 @@ public class ConcurrentLFUCache<K, V> {
     //
     // Thread safety note: isCleaning read is piggybacked (comes after) other volatile reads
     // in this method.
-    if (currentSize > upperWaterMark && !isCleaning) {
+    if ((currentSize > upperWaterMark || currentRamBytes > ramUpperWaterMark) && !isCleaning) {
       if (newThreadForCleanup) {
         new Thread() {
           @Override
@@ -159,6 +191,9 @@ public class ConcurrentLFUCache<K, V> {
    * <p/>
    * The second stage is more intensive and tries to bring down the cache size
    * to the 'lowerWaterMark' config parameter.
+   * <p/>
+   * Then, if the cache still takes more than 'ramUpperWaterMark' bytes, least
+   * used items are evicted until it is below 'ramLowerWaterMark'.
    */
   private void markAndSweep() {
     if (!markAndSweepLock.tryLock()) return;
@@ -169,35 +204,51 @@ public class ConcurrentLFUCache<K, V> {
 
       int sz = stats.size.get();
 
-      int wantToRemove = sz - lowerWaterMark;
+      if (sz > upperWaterMark) {
+        int wantToRemove = sz - lowerWaterMark;
 
-      TreeSet<CacheEntry> tree = new TreeSet<CacheEntry>();
+        TreeSet<CacheEntry> tree = new TreeSet<CacheEntry>();
 
-      for (CacheEntry<K, V> ce : map.values()) {
-        // set hitsCopy to avoid later Atomic reads
-        ce.hitsCopy = ce.hits.get();
-        ce.lastAccessedCopy = ce.lastAccessed;
-        if (timeDecay) {
-          ce.hits.set(ce.hitsCopy >>> 1);
-        }
+        for (CacheEntry<K, V> ce : map.values()) {
+          // set hitsCopy to avoid later Atomic reads
+          ce.hitsCopy = ce.hits.get();
+          ce.lastAccessedCopy = ce.lastAccessed;
+          if (timeDecay) {
+            ce.hits.set(ce.hitsCopy >>> 1);
+          }
 
-        if (tree.size() < wantToRemove) {
-          tree.add(ce);
-        } else {
-          // If the hits are not equal, we can remove before adding
-          // which is slightly faster
-          if (ce.hitsCopy < tree.first().hitsCopy) {
-            tree.remove(tree.first());
-            tree.add(ce);
-          } else if (ce.hitsCopy == tree.first().hitsCopy) {
+          if (tree.size() < wantToRemove) {
             tree.add(ce);
-            tree.remove(tree.first());
+          } else {
+            // If the hits are not equal, we can remove before adding
+            // which is slightly faster
+            if (ce.hitsCopy < tree.first().hitsCopy) {
+              tree.remove(tree.first());
+              tree.add(ce);
+            } else if (ce.hitsCopy == tree.first().hitsCopy) {
+              tree.add(ce);
+              tree.remove(tree.first());
+            }
           }
         }
+
+        for (CacheEntry<K, V> e : tree) {
+          evictEntry(e.key);
+        }
       }
 
-      for (CacheEntry<K, V> e : tree) {
-        evictEntry(e.key);
+      if (stats.ramBytes.get() > ramUpperWaterMark) {
+        // the least used entries come last
+        TreeSet<CacheEntry> tree = new TreeSet<CacheEntry>();
+        for (CacheEntry<K, V> ce : map.values()) {
+          ce.hitsCopy = ce.hits.get();
+          ce.lastAccessedCopy = ce.lastAccessed;
+          tree.add(ce);
+        }
+        Iterator<CacheEntry> it = tree.descendingIterator();
+        while (it.hasNext() && stats.ramBytes.get() > ramLowerWaterMark) {
+          evictEntry((K) it.next().key);
+        }
       }
     } finally {
       isCleaning = false;  // set before markAndSweep.unlock() for visibility
@@ -209,6 +260,7 @@ public class ConcurrentLFUCache<K, V> {
     CacheEntry<K, V> o = map.remove(key);
     if (o == null) return;
     stats.size.decrementAndGet();
+    stats.ramBytes.addAndGet(-o.ramBytesUsed);
     stats.evictionCounter.incrementAndGet();
     if (evictionListener != null) evictionListener.evictedEntry(o.key, o.value);
   }
@@ -305,8 +357,11 @@ public class ConcurrentLFUCache<K, V> {
     return stats.size.get();
   }
 
+  @SuppressWarnings("unchecked")
   public void clear() {
-    map.clear();
+    for (Object key : map.keySet()) {
+      remove((K) key);
+    }
   }
 
   public Map<Object, CacheEntry<K, V>> getMap() {
@@ -320,11 +375,13 @@ public class ConcurrentLFUCache<K, V> {
     long hitsCopy = 0;
     volatile long lastAccessed = 0;
     long lastAccessedCopy = 0;
+    final long ramBytesUsed;
 
-    public CacheEntry(K key, V value, long lastAccessed) {
+    public CacheEntry(K key, V value, long lastAccessed, long ramBytesUsed) {
       this.key = key;
       this.value = value;
       this.lastAccessed = lastAccessed;
+      this.ramBytesUsed = ramBytesUsed;
     }
 
     @Override
@@ -377,6 +434,7 @@ public class ConcurrentLFUCache<K, V> {
         nonLivePutCounter = new AtomicLong(0),
         missCounter = new AtomicLong();
     private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong ramBytes = new AtomicLong();
     private AtomicLong evictionCounter = new AtomicLong();
 
     public long getCumulativeLookups() {
@@ -399,6 +457,10 @@ public class ConcurrentLFUCache<K, V> {
       return size.get();
     }
 
+    public long getCurrentRamBytesUsed() {
+      return ramBytes.get();
+    }
+
     public long getCumulativeNonLivePuts() {
       return nonLivePutCounter.get();
     }
@@ -414,6 +476,7 @@ public class ConcurrentLFUCache<K, V> {
       missCounter.addAndGet(other.missCounter.get());
       evictionCounter.addAndGet(other.evictionCounter.get());
       size.set(Math.max(size.get(), other.size.get()));
+      ramBytes.set(Math.max(ramBytes.get(), other.ramBytes.get()));
     }
   }
 
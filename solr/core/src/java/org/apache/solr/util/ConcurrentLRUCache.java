@@ -48,6 +48,7 @@ public class ConcurrentLRUCache<K,V> {
 
   private final ConcurrentHashMap<Object, CacheEntry<K,V>> map;
   private final int upperWaterMark, lowerWaterMark;
+  private final long ramUpperWaterMark, ramLowerWaterMark;
   private final ReentrantLock markAndSweepLock = new ReentrantLock(true);
   private boolean isCleaning = false;  // not volatile... piggybacked on other volatile vars
   private final boolean newThreadForCleanup;
@@ -61,9 +62,28 @@ public class ConcurrentLRUCache<K,V> {
   public ConcurrentLRUCache(int upperWaterMark, final int lowerWaterMark, int acceptableWatermark,
                             int initialSize, boolean runCleanupThread, boolean runNewThreadForCleanup,
                             EvictionListener<K,V> evictionListener) {
+    this(upperWaterMark, lowerWaterMark, acceptableWatermark, Long.MAX_VALUE, Long.MAX_VALUE,
+        initialSize, runCleanupThread, runNewThreadForCleanup, evictionListener);
+  }
+
+  /**
+   * Creates a cache that is also bounded by the RAM usage of its entries,
+   * as given to {@link #put(Object, Object, long)}: once it exceeds
+   * <code>ramUpperWaterMark</code> bytes, least recently used entries are
+   * evicted until it is below <code>ramLowerWaterMark</code> bytes.
+   */
+  public ConcurrentLRUCache(int upperWaterMark, final int lowerWaterMark, int acceptableWatermark,
+                            long ramUpperWaterMark, long ramLowerWaterMark,
+                            int initialSize, boolean runCleanupThread, boolean runNewThreadForCleanup,
+                            EvictionListener<K,V> evictionListener) {
     if (upperWaterMark < 1) throw new IllegalArgumentException("upperWaterMark must be > 0");
     if (lowerWaterMark >= upperWaterMark)
       throw new IllegalArgumentException("lowerWaterMark must be  < upperWaterMark");
+    if (ramUpperWaterMark < 1) throw new IllegalArgumentException("ramUpperWaterMark must be > 0");
+    if (ramLowerWaterMark > ramUpperWaterMark)
+      throw new IllegalArgumentException("ramLowerWaterMark must be  <= ramUpperWaterMark");
+    this.ramUpperWaterMark = ramUpperWaterMark;
+    this.ramLowerWaterMark = ramLowerWaterMark;
     map = new ConcurrentHashMap<Object, CacheEntry<K,V>>(initialSize);
     newThreadForCleanup = runNewThreadForCleanup;
     this.upperWaterMark = upperWaterMark;
@@ -99,20 +119,31 @@ public class ConcurrentLRUCache<K,V> {
     CacheEntry<K,V> cacheEntry = map.remove(key);
     if (cacheEntry != null) {
       stats.size.decrementAndGet();
+      stats.ramBytes.addAndGet(-cacheEntry.ramBytesUsed);
       return cacheEntry.value;
     }
     return null;
   }
 
   public V put(K key, V val) {
+    return put(key, val, 0);
+  }
+
+  /**
+   * Adds an entry that takes <code>ramBytesUsed</code> bytes of memory.
+   */
+  public V put(K key, V val, long ramBytesUsed) {
     if (val == null) return null;
-    CacheEntry<K,V> e = new CacheEntry<K,V>(key, val, stats.accessCounter.incrementAndGet());
+    CacheEntry<K,V> e = new CacheEntry<K,V>(key, val, stats.accessCounter.incrementAndGet(), ramBytesUsed);
     CacheEntry<K,V> oldCacheEntry = map.put(key, e);
     int currentSize;
+    long currentRamBytes;
     if (oldCacheEntry == null) {
       currentSize = stats.size.incrementAndGet();
+      currentRamBytes = stats.ramBytes.addAndGet(ramBytesUsed);
     } else {
       currentSize = stats.size.get();
+      currentRamBytes = stats.ramBytes.addAndGet(ramBytesUsed - oldCacheEntry.ramBytesUsed);
     }
     if (islive) {
       stats.putCounter.incrementAndGet();
@@ -130,7 +161,7 @@ public class ConcurrentLRUCache<K,V> {
     //
     // Thread safety note: isCleaning read is piggybacked (comes after) other volatile reads
     // in this method.
-    if (currentSize > upperWaterMark && !isCleaning) {
+    if ((currentSize > upperWaterMark || currentRamBytes > ramUpperWaterMark) && !isCleaning) {
       if (newThreadForCleanup) {
         new Thread() {
           @Override
@@ -157,199 +188,228 @@ public class ConcurrentLRUCache<K,V> {
    * <p/>
    * The second stage is more intensive and tries to bring down the cache size
    * to the 'lowerWaterMark' config parameter.
+   * <p/>
+   * Then, if the cache still takes more than 'ramUpperWaterMark' bytes, least
+   * recently used items are evicted until it is below 'ramLowerWaterMark'.
    */
   private void markAndSweep() {
-    // if we want to keep at least 1000 entries, then timestamps of
-    // current through current-1000 are guaranteed not to be the oldest (but that does
-    // not mean there are 1000 entries in that group... it's acutally anywhere between
-    // 1 and 1000).
-    // Also, if we want to remove 500 entries, then
-    // oldestEntry through oldestEntry+500 are guaranteed to be
-    // removed (however many there are there).
-
     if (!markAndSweepLock.tryLock()) return;
     try {
       long oldestEntry = this.oldestEntry;
       isCleaning = true;
       this.oldestEntry = oldestEntry;     // volatile write to make isCleaning visible
 
-      long timeCurrent = stats.accessCounter.get();
-      int sz = stats.size.get();
+      if (stats.size.get() > upperWaterMark) {
+        markAndSweepByCacheSize();
+      }
+      if (stats.ramBytes.get() > ramUpperWaterMark) {
+        markAndSweepByRamSize();
+      }
+    } finally {
+      isCleaning = false;  // set before markAndSweep.unlock() for visibility
+      markAndSweepLock.unlock();
+    }
+  }
 
-      int numRemoved = 0;
-      int numKept = 0;
-      long newestEntry = timeCurrent;
-      long newNewestEntry = -1;
-      long newOldestEntry = Long.MAX_VALUE;
+  // must be called under markAndSweepLock
+  private void markAndSweepByRamSize() {
+    @SuppressWarnings("unchecked")
+    CacheEntry<K,V>[] entries = map.values().toArray(new CacheEntry[0]);
+    for (CacheEntry<K,V> ce : entries) {
+      ce.lastAccessedCopy = ce.lastAccessed;
+    }
+    // most recently used first
+    Arrays.sort(entries);
+    for (int i = entries.length - 1; i >= 0 && stats.ramBytes.get() > ramLowerWaterMark; i--) {
+      evictEntry(entries[i].key);
+    }
+  }
 
-      int wantToKeep = lowerWaterMark;
-      int wantToRemove = sz - lowerWaterMark;
+  // must be called under markAndSweepLock
+  private void markAndSweepByCacheSize() {
+    // if we want to keep at least 1000 entries, then timestamps of
+    // current through current-1000 are guaranteed not to be the oldest (but that does
+    // not mean there are 1000 entries in that group... it's acutally anywhere between
+    // 1 and 1000).
+    // Also, if we want to remove 500 entries, then
+    // oldestEntry through oldestEntry+500 are guaranteed to be
+    // removed (however many there are there).
+
+    long oldestEntry = this.oldestEntry;
+
+    long timeCurrent = stats.accessCounter.get();
+    int sz = stats.size.get();
+
+    int numRemoved = 0;
+    int numKept = 0;
+    long newestEntry = timeCurrent;
+    long newNewestEntry = -1;
+    long newOldestEntry = Long.MAX_VALUE;
+
+    int wantToKeep = lowerWaterMark;
+    int wantToRemove = sz - lowerWaterMark;
+
+    @SuppressWarnings("unchecked") // generic array's are anoying
+    CacheEntry<K,V>[] eset = new CacheEntry[sz];
+    int eSize = 0;
+
+    // System.out.println("newestEntry="+newestEntry + " oldestEntry="+oldestEntry);
+    // System.out.println("items removed:" + numRemoved + " numKept=" + numKept + " esetSz="+ eSize + " sz-numRemoved=" + (sz-numRemoved));
+
+    for (CacheEntry<K,V> ce : map.values()) {
+      // set lastAccessedCopy to avoid more volatile reads
+      ce.lastAccessedCopy = ce.lastAccessed;
+      long thisEntry = ce.lastAccessedCopy;
+
+      // since the wantToKeep group is likely to be bigger than wantToRemove, check it first
+      if (thisEntry > newestEntry - wantToKeep) {
+        // this entry is guaranteed not to be in the bottom
+        // group, so do nothing.
+        numKept++;
+        newOldestEntry = Math.min(thisEntry, newOldestEntry);
+      } else if (thisEntry < oldestEntry + wantToRemove) { // entry in bottom group?
+        // this entry is guaranteed to be in the bottom group
+        // so immediately remove it from the map.
+        evictEntry(ce.key);
+        numRemoved++;
+      } else {
+        // This entry *could* be in the bottom group.
+        // Collect these entries to avoid another full pass... this is wasted
+        // effort if enough entries are normally removed in this first pass.
+        // An alternate impl could make a full second pass.
+        if (eSize < eset.length-1) {
+          eset[eSize++] = ce;
+          newNewestEntry = Math.max(thisEntry, newNewestEntry);
+          newOldestEntry = Math.min(thisEntry, newOldestEntry);
+        }
+      }
+    }
 
-      @SuppressWarnings("unchecked") // generic array's are anoying
-      CacheEntry<K,V>[] eset = new CacheEntry[sz];
-      int eSize = 0;
+    // System.out.println("items removed:" + numRemoved + " numKept=" + numKept + " esetSz="+ eSize + " sz-numRemoved=" + (sz-numRemoved));
+    // TODO: allow this to be customized in the constructor?
+    int numPasses=1; // maximum number of linear passes over the data
 
-      // System.out.println("newestEntry="+newestEntry + " oldestEntry="+oldestEntry);
-      // System.out.println("items removed:" + numRemoved + " numKept=" + numKept + " esetSz="+ eSize + " sz-numRemoved=" + (sz-numRemoved));
+    // if we didn't remove enough entries, then make more passes
+    // over the values we collected, with updated min and max values.
+    while (sz - numRemoved > acceptableWaterMark && --numPasses>=0) {
 
-      for (CacheEntry<K,V> ce : map.values()) {
-        // set lastAccessedCopy to avoid more volatile reads
-        ce.lastAccessedCopy = ce.lastAccessed;
+      oldestEntry = newOldestEntry == Long.MAX_VALUE ? oldestEntry : newOldestEntry;
+      newOldestEntry = Long.MAX_VALUE;
+      newestEntry = newNewestEntry;
+      newNewestEntry = -1;
+      wantToKeep = lowerWaterMark - numKept;
+      wantToRemove = sz - lowerWaterMark - numRemoved;
+
+      // iterate backward to make it easy to remove items.
+      for (int i=eSize-1; i>=0; i--) {
+        CacheEntry<K,V> ce = eset[i];
         long thisEntry = ce.lastAccessedCopy;
 
-        // since the wantToKeep group is likely to be bigger than wantToRemove, check it first
         if (thisEntry > newestEntry - wantToKeep) {
           // this entry is guaranteed not to be in the bottom
-          // group, so do nothing.
+          // group, so do nothing but remove it from the eset.
           numKept++;
+          // remove the entry by moving the last element to it's position
+          eset[i] = eset[eSize-1];
+          eSize--;
+
           newOldestEntry = Math.min(thisEntry, newOldestEntry);
+          
         } else if (thisEntry < oldestEntry + wantToRemove) { // entry in bottom group?
+
           // this entry is guaranteed to be in the bottom group
           // so immediately remove it from the map.
           evictEntry(ce.key);
           numRemoved++;
+
+          // remove the entry by moving the last element to it's position
+          eset[i] = eset[eSize-1];
+          eSize--;
         } else {
-          // This entry *could* be in the bottom group.
-          // Collect these entries to avoid another full pass... this is wasted
-          // effort if enough entries are normally removed in this first pass.
-          // An alternate impl could make a full second pass.
-          if (eSize < eset.length-1) {
-            eset[eSize++] = ce;
-            newNewestEntry = Math.max(thisEntry, newNewestEntry);
-            newOldestEntry = Math.min(thisEntry, newOldestEntry);
-          }
+          // This entry *could* be in the bottom group, so keep it in the eset,
+          // and update the stats.
+          newNewestEntry = Math.max(thisEntry, newNewestEntry);
+          newOldestEntry = Math.min(thisEntry, newOldestEntry);
         }
       }
-
       // System.out.println("items removed:" + numRemoved + " numKept=" + numKept + " esetSz="+ eSize + " sz-numRemoved=" + (sz-numRemoved));
-      // TODO: allow this to be customized in the constructor?
-      int numPasses=1; // maximum number of linear passes over the data
-
-      // if we didn't remove enough entries, then make more passes
-      // over the values we collected, with updated min and max values.
-      while (sz - numRemoved > acceptableWaterMark && --numPasses>=0) {
-
-        oldestEntry = newOldestEntry == Long.MAX_VALUE ? oldestEntry : newOldestEntry;
-        newOldestEntry = Long.MAX_VALUE;
-        newestEntry = newNewestEntry;
-        newNewestEntry = -1;
-        wantToKeep = lowerWaterMark - numKept;
-        wantToRemove = sz - lowerWaterMark - numRemoved;
-
-        // iterate backward to make it easy to remove items.
-        for (int i=eSize-1; i>=0; i--) {
-          CacheEntry<K,V> ce = eset[i];
-          long thisEntry = ce.lastAccessedCopy;
-
-          if (thisEntry > newestEntry - wantToKeep) {
-            // this entry is guaranteed not to be in the bottom
-            // group, so do nothing but remove it from the eset.
-            numKept++;
-            // remove the entry by moving the last element to it's position
-            eset[i] = eset[eSize-1];
-            eSize--;
-
-            newOldestEntry = Math.min(thisEntry, newOldestEntry);
-            
-          } else if (thisEntry < oldestEntry + wantToRemove) { // entry in bottom group?
-
-            // this entry is guaranteed to be in the bottom group
-            // so immediately remove it from the map.
-            evictEntry(ce.key);
-            numRemoved++;
-
-            // remove the entry by moving the last element to it's position
-            eset[i] = eset[eSize-1];
-            eSize--;
-          } else {
-            // This entry *could* be in the bottom group, so keep it in the eset,
-            // and update the stats.
-            newNewestEntry = Math.max(thisEntry, newNewestEntry);
-            newOldestEntry = Math.min(thisEntry, newOldestEntry);
-          }
-        }
-        // System.out.println("items removed:" + numRemoved + " numKept=" + numKept + " esetSz="+ eSize + " sz-numRemoved=" + (sz-numRemoved));
-      }
+    }
 
 
 
-      // if we still didn't remove enough entries, then make another pass while
-      // inserting into a priority queue
-      if (sz - numRemoved > acceptableWaterMark) {
-
-        oldestEntry = newOldestEntry == Long.MAX_VALUE ? oldestEntry : newOldestEntry;
-        newOldestEntry = Long.MAX_VALUE;
-        newestEntry = newNewestEntry;
-        newNewestEntry = -1;
-        wantToKeep = lowerWaterMark - numKept;
-        wantToRemove = sz - lowerWaterMark - numRemoved;
-
-        PQueue<K,V> queue = new PQueue<K,V>(wantToRemove);
-
-        for (int i=eSize-1; i>=0; i--) {
-          CacheEntry<K,V> ce = eset[i];
-          long thisEntry = ce.lastAccessedCopy;
-
-          if (thisEntry > newestEntry - wantToKeep) {
-            // this entry is guaranteed not to be in the bottom
-            // group, so do nothing but remove it from the eset.
-            numKept++;
-            // removal not necessary on last pass.
-            // eset[i] = eset[eSize-1];
-            // eSize--;
-
-            newOldestEntry = Math.min(thisEntry, newOldestEntry);
-            
-          } else if (thisEntry < oldestEntry + wantToRemove) {  // entry in bottom group?
-            // this entry is guaranteed to be in the bottom group
-            // so immediately remove it.
-            evictEntry(ce.key);
-            numRemoved++;
-
-            // removal not necessary on last pass.
-            // eset[i] = eset[eSize-1];
-            // eSize--;
-          } else {
-            // This entry *could* be in the bottom group.
-            // add it to the priority queue
-
-            // everything in the priority queue will be removed, so keep track of
-            // the lowest value that ever comes back out of the queue.
-
-            // first reduce the size of the priority queue to account for
-            // the number of items we have already removed while executing
-            // this loop so far.
-            queue.myMaxSize = sz - lowerWaterMark - numRemoved;
-            while (queue.size() > queue.myMaxSize && queue.size() > 0) {
-              CacheEntry otherEntry = queue.pop();
-              newOldestEntry = Math.min(otherEntry.lastAccessedCopy, newOldestEntry);
-            }
-            if (queue.myMaxSize <= 0) break;
-
-            Object o = queue.myInsertWithOverflow(ce);
-            if (o != null) {
-              newOldestEntry = Math.min(((CacheEntry)o).lastAccessedCopy, newOldestEntry);
-            }
-          }
-        }
+    // if we still didn't remove enough entries, then make another pass while
+    // inserting into a priority queue
+    if (sz - numRemoved > acceptableWaterMark) {
+
+      oldestEntry = newOldestEntry == Long.MAX_VALUE ? oldestEntry : newOldestEntry;
+      newOldestEntry = Long.MAX_VALUE;
+      newestEntry = newNewestEntry;
+      newNewestEntry = -1;
+      wantToKeep = lowerWaterMark - numKept;
+      wantToRemove = sz - lowerWaterMark - numRemoved;
+
+      PQueue<K,V> queue = new PQueue<K,V>(wantToRemove);
+
+      for (int i=eSize-1; i>=0; i--) {
+        CacheEntry<K,V> ce = eset[i];
+        long thisEntry = ce.lastAccessedCopy;
 
-        // Now delete everything in the priority queue.
-        // avoid using pop() since order doesn't matter anymore
-        for (CacheEntry<K,V> ce : queue.getValues()) {
-          if (ce==null) continue;
+        if (thisEntry > newestEntry - wantToKeep) {
+          // this entry is guaranteed not to be in the bottom
+          // group, so do nothing but remove it from the eset.
+          numKept++;
+          // removal not necessary on last pass.
+          // eset[i] = eset[eSize-1];
+          // eSize--;
+
+          newOldestEntry = Math.min(thisEntry, newOldestEntry);
+          
+        } else if (thisEntry < oldestEntry + wantToRemove) {  // entry in bottom group?
+          // this entry is guaranteed to be in the bottom group
+          // so immediately remove it.
           evictEntry(ce.key);
           numRemoved++;
+
+          // removal not necessary on last pass.
+          // eset[i] = eset[eSize-1];
+          // eSize--;
+        } else {
+          // This entry *could* be in the bottom group.
+          // add it to the priority queue
+
+          // everything in the priority queue will be removed, so keep track of
+          // the lowest value that ever comes back out of the queue.
+
+          // first reduce the size of the priority queue to account for
+          // the number of items we have already removed while executing
+          // this loop so far.
+          queue.myMaxSize = sz - lowerWaterMark - numRemoved;
+          while (queue.size() > queue.myMaxSize && queue.size() > 0) {
+            CacheEntry otherEntry = queue.pop();
+            newOldestEntry = Math.min(otherEntry.lastAccessedCopy, newOldestEntry);
+          }
+          if (queue.myMaxSize <= 0) break;
+
+          Object o = queue.myInsertWithOverflow(ce);
+          if (o != null) {
+            newOldestEntry = Math.min(((CacheEntry)o).lastAccessedCopy, newOldestEntry);
+          }
         }
+      }
 
-        // System.out.println("items removed:" + numRemoved + " numKept=" + numKept + " initialQueueSize="+ wantToRemove + " finalQueueSize=" + queue.size() + " sz-numRemoved=" + (sz-numRemoved));
+      // Now delete everything in the priority queue.
+      // avoid using pop() since order doesn't matter anymore
+      for (CacheEntry<K,V> ce : queue.getValues()) {
+        if (ce==null) continue;
+        evictEntry(ce.key);
+        numRemoved++;
       }
 
-      oldestEntry = newOldestEntry == Long.MAX_VALUE ? oldestEntry : newOldestEntry;
-      this.oldestEntry = oldestEntry;
-    } finally {
-      isCleaning = false;  // set before markAndSweep.unlock() for visibility
-      markAndSweepLock.unlock();
+      // System.out.println("items removed:" + numRemoved + " numKept=" + numKept + " initialQueueSize="+ wantToRemove + " finalQueueSize=" + queue.size() + " sz-numRemoved=" + (sz-numRemoved));
     }
+
+    oldestEntry = newOldestEntry == Long.MAX_VALUE ? oldestEntry : newOldestEntry;
+    this.oldestEntry = oldestEntry;
   }
 
   private static class PQueue<K,V> extends PriorityQueue<CacheEntry<K,V>> {
@@ -395,6 +455,7 @@ public class ConcurrentLRUCache<K,V> {
     CacheEntry<K,V> o = map.remove(key);
     if (o == null) return;
     stats.size.decrementAndGet();
+    stats.ramBytes.addAndGet(-o.ramBytesUsed);
     stats.evictionCounter.incrementAndGet();
     if(evictionListener != null) evictionListener.evictedEntry(o.key,o.value);
   }
@@ -468,8 +529,11 @@ public class ConcurrentLRUCache<K,V> {
     return stats.size.get();
   }
 
+  @SuppressWarnings("unchecked")
   public void clear() {
-    map.clear();
+    for (Object key : map.keySet()) {
+      remove((K) key);
+    }
   }
 
   public Map<Object, CacheEntry<K,V>> getMap() {
@@ -481,12 +545,14 @@ public class ConcurrentLRUCache<K,V> {
     V value;
     volatile long lastAccessed = 0;
     long lastAccessedCopy = 0;
+    final long ramBytesUsed;
 
 
-    public CacheEntry(K key, V value, long lastAccessed) {
+    public CacheEntry(K key, V value, long lastAccessed, long ramBytesUsed) {
       this.key = key;
       this.value = value;
       this.lastAccessed = lastAccessed;
+      this.ramBytesUsed = ramBytesUsed;
     }
 
     public void setLastAccessed(long lastAccessed) {
@@ -537,6 +603,7 @@ public class ConcurrentLRUCache<K,V> {
             nonLivePutCounter = new AtomicLong(0),
             missCounter = new AtomicLong();
     private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong ramBytes = new AtomicLong();
     private AtomicLong evictionCounter = new AtomicLong();
 
     public long getCumulativeLookups() {
@@ -559,6 +626,10 @@ public class ConcurrentLRUCache<K,V> {
       return size.get();
     }
 
+    public long getCurrentRamBytesUsed() {
+      return ramBytes.get();
+    }
+
     public long getCumulativeNonLivePuts() {
       return nonLivePutCounter.get();
     }
@@ -574,6 +645,7 @@ public class ConcurrentLRUCache<K,V> {
       missCounter.addAndGet(other.missCounter.get());
       evictionCounter.addAndGet(other.evictionCounter.get());
       size.set(Math.max(size.get(), other.size.get()));
+      ramBytes.set(Math.max(ramBytes.get(), other.ramBytes.get()));
     }
   }
 
@@ -0,0 +1,731 @@
+package org.apache.solr.util;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache based upon ConcurrentHashMap that uses the W-TinyLFU
+ * admission and eviction policy, and that keeps the eviction policy off
+ * the path of reads and writes.
+ * <p/>
+ * Reads never lock: accessed entries are recorded in striped, lossy ring
+ * buffers. Writes only lock the hash map and append to a queue. Both
+ * buffers are replayed against the eviction policy in batches, under a
+ * non-blocking lock, by an executor that all caches share (or by the
+ * calling thread if the cache was created without background
+ * maintenance). A write only does maintenance work itself if the executor
+ * falls behind by more than a small fraction of the maximum size, so that
+ * the size of the cache stays bounded.
+ * <p/>
+ * The policy is W-TinyLFU ("TinyLFU: A Highly Efficient Cache Admission
+ * Policy", Einziger, Friedman and Manes): new entries go into a small LRU
+ * window. Entries that leave the window are only admitted into the main
+ * segmented LRU if they have been accessed more often, according to an
+ * approximate frequency sketch, than the entry they would replace. This
+ * protects the cache from one-off entries, such as the filters of a
+ * request that is never repeated.
+ * <p/>
+ * Since the policy is applied asynchronously, the cache may transiently
+ * hold slightly more entries than its maximum size: up to 1/16th more, and
+ * no more than 1024 entries.
+ *
+ * @see org.apache.solr.util.ConcurrentLRUCache
+ */
+public class ConcurrentTinyLFUCache<K,V> {
+
+  // number of read buffers, a power of 2
+  private static final int NUM_READ_BUFFERS;
+  static {
+    int n = 1;
+    while (n < 4 * Runtime.getRuntime().availableProcessors() && n < 64) {
+      n <<= 1;
+    }
+    NUM_READ_BUFFERS = n;
+  }
+  private static final int READ_BUFFER_SIZE = 32; // power of 2
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+  // upper bound of maxPendingWrites
+  private static final int MAX_PENDING_WRITES = 1024;
+
+  // drain status: whether maintenance is needed, and whether it is running
+  // and new work came in since it started
+  private static final int IDLE = 0, REQUIRED = 1, PROCESSING_TO_IDLE = 2, PROCESSING_TO_REQUIRED = 3;
+
+  // shared by all caches: maintenance is cheap and runs in batches, so one
+  // thread is enough, and writers take over if it cannot keep up
+  private static final ThreadPoolExecutor maintenanceExecutor = new ThreadPoolExecutor(
+      1,
+      1,
+      10, TimeUnit.SECONDS, // terminate the idle thread after 10 sec
+      new LinkedBlockingQueue<Runnable>(),
+      new DefaultSolrThreadFactory("cacheMaintenanceExecutor"));
+  static {
+    maintenanceExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  // queue of a node
+  private static final byte NONE = 0, WINDOW = 1, PROBATION = 2, PROTECTED = 3;
+
+  private final ConcurrentHashMap<Object, Node<K,V>> map;
+  private final int maxSize;
+  private final int maxWindowSize;
+  private final int maxMainSize;
+  private final int maxProtectedSize;
+  // above this number of pending writes, writers do maintenance themselves
+  private final int maxPendingWrites;
+  private final Stats stats = new Stats();
+  private volatile boolean islive = true;
+
+  private final ReadBuffer<K,V>[] readBuffers;
+  private final Queue<Node<K,V>> writeBuffer = new ConcurrentLinkedQueue<Node<K,V>>();
+  private final AtomicInteger pendingWrites = new AtomicInteger();
+  private final AtomicInteger drainStatus = new AtomicInteger(IDLE);
+  private final Executor executor;
+  private final Runnable maintenanceTask = new Runnable() {
+    @Override
+    public void run() {
+      evictionLock.lock();
+      try {
+        maintenance();
+      } finally {
+        evictionLock.unlock();
+      }
+      // work that came in while draining
+      if (drainStatus.get() == REQUIRED) {
+        scheduleMaintenance();
+      }
+    }
+  };
+
+  // eviction policy, only accessed under evictionLock
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final FrequencySketch sketch;
+  private final AccessOrderQueue<K,V> window = new AccessOrderQueue<K,V>();
+  private final AccessOrderQueue<K,V> probation = new AccessOrderQueue<K,V>();
+  private final AccessOrderQueue<K,V> protectedQueue = new AccessOrderQueue<K,V>();
+  private int windowSize, mainSize, protectedSize;
+
+  /**
+   * Creates a new cache.
+   *
+   * @param maxSize the maximum number of entries
+   * @param initialSize the initial capacity of the hash map
+   * @param runMaintenanceThread whether to apply the eviction policy in a
+   *        background thread, shared by all caches, rather than in the
+   *        threads that use the cache
+   */
+  @SuppressWarnings("unchecked")
+  public ConcurrentTinyLFUCache(int maxSize, int initialSize, boolean runMaintenanceThread) {
+    if (maxSize < 1) throw new IllegalArgumentException("maxSize must be > 0");
+    map = new ConcurrentHashMap<Object, Node<K,V>>(initialSize);
+    this.maxSize = maxSize;
+    // 1% window, 20% probation and 80% protected for the main space
+    maxWindowSize = Math.max(1, maxSize / 100);
+    maxMainSize = maxSize - maxWindowSize;
+    maxProtectedSize = (int) (maxMainSize * 0.8);
+    maxPendingWrites = Math.max(1, Math.min(MAX_PENDING_WRITES, maxSize / 16));
+    sketch = new FrequencySketch(maxSize);
+    readBuffers = new ReadBuffer[NUM_READ_BUFFERS];
+    for (int i = 0; i < readBuffers.length; i++) {
+      readBuffers[i] = new ReadBuffer<K,V>();
+    }
+    executor = runMaintenanceThread ? maintenanceExecutor : null;
+  }
+
+  public void setAlive(boolean live) {
+    islive = live;
+  }
+
+  public V get(K key) {
+    // threads use their own read buffer and counters to avoid contention
+    int stripe = (int) Thread.currentThread().getId() & (NUM_READ_BUFFERS - 1);
+    Node<K,V> e = map.get(key);
+    if (e == null) {
+      if (islive) stats.missCounters[stripe].incrementAndGet();
+      return null;
+    }
+    if (islive) {
+      stats.hitCounters[stripe].incrementAndGet();
+      afterRead(e, stripe);
+    }
+    return e.value;
+  }
+
+  public V remove(K key) {
+    Node<K,V> e = map.remove(key);
+    if (e == null) return null;
+    stats.size.decrementAndGet();
+    e.retired = true;
+    afterWrite(e);
+    return e.value;
+  }
+
+  public V put(K key, V val) {
+    if (val == null) return null;
+    if (islive) {
+      stats.putCounter.incrementAndGet();
+    } else {
+      stats.nonLivePutCounter.incrementAndGet();
+    }
+    Node<K,V> e = new Node<K,V>(key, val);
+    for (;;) {
+      Node<K,V> prior = map.putIfAbsent(key, e);
+      if (prior == null) {
+        stats.size.incrementAndGet();
+        afterWrite(e);
+        return null;
+      }
+      // replace the node rather than its value: if the prior node is being
+      // evicted, the replacement fails and the new node is added instead
+      if (map.replace(key, prior, e)) {
+        prior.retired = true;
+        afterWrite(prior);
+        afterWrite(e);
+        return prior.value;
+      }
+    }
+  }
+
+  private void afterRead(Node<K,V> e, int stripe) {
+    if (readBuffers[stripe].offer(e) >= READ_BUFFER_DRAIN_THRESHOLD) {
+      scheduleMaintenance();
+    }
+  }
+
+  private void afterWrite(Node<K,V> e) {
+    writeBuffer.add(e);
+    if (pendingWrites.incrementAndGet() > maxPendingWrites) {
+      // the executor cannot keep up: do the work ourselves
+      evictionLock.lock();
+      try {
+        maintenance();
+      } finally {
+        evictionLock.unlock();
+      }
+      return;
+    }
+    for (;;) {
+      switch (drainStatus.get()) {
+        case PROCESSING_TO_IDLE:
+          // let the running maintenance know that it has more to do
+          if (drainStatus.compareAndSet(PROCESSING_TO_IDLE, PROCESSING_TO_REQUIRED)) {
+            return;
+          }
+          break;
+        case PROCESSING_TO_REQUIRED:
+          return;
+        default:
+          scheduleMaintenance();
+          return;
+      }
+    }
+  }
+
+  private void scheduleMaintenance() {
+    if (drainStatus.get() >= PROCESSING_TO_IDLE) {
+      // already running or submitted
+      return;
+    }
+    if (evictionLock.tryLock()) {
+      try {
+        if (executor == null || isDestroyed) {
+          maintenance();
+        } else if (drainStatus.get() < PROCESSING_TO_IDLE) {
+          drainStatus.set(PROCESSING_TO_IDLE);
+          executor.execute(maintenanceTask);
+        }
+      } catch (RejectedExecutionException e) {
+        maintenance();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Applies all pending reads and writes to the eviction policy, and
+   * evicts entries until the cache is back to its maximum size.
+   */
+  public void cleanUp() {
+    evictionLock.lock();
+    try {
+      maintenance();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  // must be called under evictionLock
+  private void maintenance() {
+    drainStatus.set(PROCESSING_TO_IDLE);
+    for (ReadBuffer<K,V> buffer : readBuffers) {
+      buffer.drainTo(this);
+    }
+    Node<K,V> e;
+    while ((e = writeBuffer.poll()) != null) {
+      pendingWrites.decrementAndGet();
+      if (e.retired) {
+        onRemove(e);
+      } else {
+        onAdd(e);
+      }
+    }
+    // new work came in while draining: the next read or write, or the
+    // maintenance task, schedules maintenance again
+    if (!drainStatus.compareAndSet(PROCESSING_TO_IDLE, IDLE)) {
+      drainStatus.set(REQUIRED);
+    }
+  }
+
+  private void onAdd(Node<K,V> e) {
+    if (e.queue != NONE) {
+      // already added
+      return;
+    }
+    sketch.increment(e.key);
+    e.queue = WINDOW;
+    window.add(e);
+    windowSize++;
+    while (windowSize > maxWindowSize) {
+      Node<K,V> candidate = window.poll();
+      windowSize--;
+      if (mainSize < maxMainSize) {
+        candidate.queue = PROBATION;
+        probation.add(candidate);
+        mainSize++;
+        continue;
+      }
+      Node<K,V> victim = probation.peek();
+      if (victim == null) {
+        victim = protectedQueue.peek();
+      }
+      if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        evict(victim);
+        candidate.queue = PROBATION;
+        probation.add(candidate);
+        mainSize++;
+      } else {
+        candidate.queue = NONE;
+        evictFromMap(candidate);
+      }
+    }
+  }
+
+  private void onRead(Node<K,V> e) {
+    if (e.retired) {
+      return;
+    }
+    sketch.increment(e.key);
+    switch (e.queue) {
+      case WINDOW:
+        window.moveToBack(e);
+        break;
+      case PROBATION:
+        probation.remove(e);
+        e.queue = PROTECTED;
+        protectedQueue.add(e);
+        protectedSize++;
+        // demote the least recently used protected entries
+        while (protectedSize > maxProtectedSize) {
+          Node<K,V> demoted = protectedQueue.poll();
+          protectedSize--;
+          demoted.queue = PROBATION;
+          probation.add(demoted);
+        }
+        break;
+      case PROTECTED:
+        protectedQueue.moveToBack(e);
+        break;
+      default:
+        // not added yet, or already evicted
+    }
+  }
+
+  private void onRemove(Node<K,V> e) {
+    unlink(e);
+  }
+
+  // removes an entry of the main space from the policy and the map
+  private void evict(Node<K,V> e) {
+    unlink(e);
+    evictFromMap(e);
+  }
+
+  private void evictFromMap(Node<K,V> e) {
+    if (map.remove(e.key, e)) {
+      e.retired = true;
+      stats.size.decrementAndGet();
+      stats.evictionCounter.incrementAndGet();
+    }
+  }
+
+  private void unlink(Node<K,V> e) {
+    switch (e.queue) {
+      case WINDOW:
+        window.remove(e);
+        windowSize--;
+        break;
+      case PROBATION:
+        probation.remove(e);
+        mainSize--;
+        break;
+      case PROTECTED:
+        protectedQueue.remove(e);
+        protectedSize--;
+        mainSize--;
+        break;
+      default:
+        // not in the policy
+    }
+    e.queue = NONE;
+  }
+
+  /**
+   * Returns up to <code>n</code> entries, the most valuable ones first:
+   * frequently used entries first, then recently added ones and then the
+   * ones that are the next candidates for eviction. Entries of the same
+   * group are sorted from the most to the least recently used.
+   */
+  public Map<K,V> getHottestItems(int n) {
+    Map<K,V> result = new LinkedHashMap<K,V>();
+    if (n <= 0)
+      return result;
+    evictionLock.lock();
+    try {
+      maintenance();
+      collect(protectedQueue, n, result);
+      collect(window, n, result);
+      collect(probation, n, result);
+    } finally {
+      evictionLock.unlock();
+    }
+    return result;
+  }
+
+  private static <K,V> void collect(AccessOrderQueue<K,V> queue, int n, Map<K,V> result) {
+    for (Node<K,V> e = queue.tail; e != null && result.size() < n; e = e.prev) {
+      if (!e.retired) {
+        result.put(e.key, e.value);
+      }
+    }
+  }
+
+  public int size() {
+    return stats.size.get();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public void clear() {
+    evictionLock.lock();
+    try {
+      maintenance();
+      for (Node<K,V> e : map.values()) {
+        if (map.remove(e.key, e)) {
+          e.retired = true;
+          stats.size.decrementAndGet();
+          unlink(e);
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /** An entry of the cache, also a node of the access order queues. */
+  private static final class Node<K,V> {
+    final K key;
+    final V value;
+    // set once the entry has been removed from the map
+    volatile boolean retired;
+    // only accessed under evictionLock
+    byte queue = NONE;
+    Node<K,V> prev, next;
+
+    Node(K key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public String toString() {
+      return "key: " + key + " value: " + value;
+    }
+  }
+
+  /** A doubly-linked list of nodes, from the least to the most recently used. */
+  private static final class AccessOrderQueue<K,V> {
+    Node<K,V> head, tail;
+
+    Node<K,V> peek() {
+      return head;
+    }
+
+    Node<K,V> poll() {
+      Node<K,V> e = head;
+      if (e != null) {
+        remove(e);
+      }
+      return e;
+    }
+
+    void add(Node<K,V> e) {
+      e.prev = tail;
+      e.next = null;
+      if (tail == null) {
+        head = e;
+      } else {
+        tail.next = e;
+      }
+      tail = e;
+    }
+
+    void remove(Node<K,V> e) {
+      if (e.prev == null) {
+        head = e.next;
+      } else {
+        e.prev.next = e.next;
+      }
+      if (e.next == null) {
+        tail = e.prev;
+      } else {
+        e.next.prev = e.prev;
+      }
+      e.prev = e.next = null;
+    }
+
+    void moveToBack(Node<K,V> e) {
+      if (e != tail) {
+        remove(e);
+        add(e);
+      }
+    }
+  }
+
+  /**
+   * A bounded ring buffer of accessed entries. Producers claim slots with
+   * a CAS, and drop the access when the buffer is full or contended: the
+   * policy only needs a sample of the accesses.
+   */
+  private static final class ReadBuffer<K,V> {
+    final AtomicLong writeCounter = new AtomicLong();
+    volatile long readCounter; // only written under evictionLock
+    final AtomicReferenceArray<Node<K,V>> buffer = new AtomicReferenceArray<Node<K,V>>(READ_BUFFER_SIZE);
+
+    /** Records an access and returns the number of pending accesses. */
+    int offer(Node<K,V> e) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      long size = tail - head;
+      if (size >= READ_BUFFER_SIZE) {
+        return (int) size;
+      }
+      if (writeCounter.compareAndSet(tail, tail + 1)) {
+        buffer.lazySet((int) tail & (READ_BUFFER_SIZE - 1), e);
+        return (int) size + 1;
+      }
+      return 0;
+    }
+
+    void drainTo(ConcurrentTinyLFUCache<K,V> cache) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      for (; head < tail; head++) {
+        int index = (int) head & (READ_BUFFER_SIZE - 1);
+        Node<K,V> e = buffer.get(index);
+        if (e == null) {
+          // the slot is claimed but not written yet
+          break;
+        }
+        buffer.lazySet(index, null);
+        cache.onRead(e);
+      }
+      readCounter = head;
+    }
+  }
+
+  /**
+   * A count-min sketch of the access frequencies of keys, with 4-bit
+   * counters that are halved periodically so that old accesses fade away.
+   */
+  static final class FrequencySketch {
+    private static final long[] SEEDS = new long[] {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maxSize) {
+      // one long, ie. 16 counters, per entry keeps collisions rare
+      int length = 1;
+      while (length < maxSize && length < (1 << 30)) {
+        length <<= 1;
+      }
+      table = new long[length];
+      tableMask = length - 1;
+      sampleSize = 10 * Math.max(1, maxSize);
+    }
+
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int shift = offsetOf(hash, i) << 2;
+        frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xfL));
+      }
+      return frequency;
+    }
+
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int shift = offsetOf(hash, i) << 2;
+        long mask = 0xfL << shift;
+        if ((table[index] & mask) != mask) {
+          table[index] += 1L << shift;
+          added = true;
+        }
+      }
+      if (added && ++additions == sampleSize) {
+        reset();
+      }
+    }
+
+    private void reset() {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions /= 2;
+    }
+
+    // the counter (among 16) of the i-th hash function
+    private static int offsetOf(int hash, int i) {
+      return ((hash >>> (i << 3)) & 3) + (i << 2);
+    }
+
+    private int indexOf(int hash, int i) {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return (int) h & tableMask;
+    }
+
+    private static int spread(int h) {
+      h = ((h >>> 16) ^ h) * 0x45d9f3b;
+      h = ((h >>> 16) ^ h) * 0x45d9f3b;
+      return (h >>> 16) ^ h;
+    }
+  }
+
+  private volatile boolean isDestroyed = false;
+
+  /** Stops scheduling maintenance on the shared executor: further
+   *  maintenance, if any, runs in the calling threads. */
+  public void destroy() {
+    isDestroyed = true;
+  }
+
+  public Stats getStats() {
+    return stats;
+  }
+
+
+  public static class Stats {
+    // hits and misses are striped like the read buffers
+    private final AtomicLong[] hitCounters = newCounters(),
+            missCounters = newCounters();
+    private final AtomicLong putCounter = new AtomicLong(0),
+            nonLivePutCounter = new AtomicLong(0);
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong evictionCounter = new AtomicLong();
+
+    private static AtomicLong[] newCounters() {
+      AtomicLong[] counters = new AtomicLong[NUM_READ_BUFFERS];
+      for (int i = 0; i < counters.length; i++) {
+        counters[i] = new AtomicLong();
+      }
+      return counters;
+    }
+
+    private static long sum(AtomicLong[] counters) {
+      long sum = 0;
+      for (AtomicLong counter : counters) {
+        sum += counter.get();
+      }
+      return sum;
+    }
+
+    public long getCumulativeLookups() {
+      return getCumulativeHits() + getCumulativeMisses();
+    }
+
+    public long getCumulativeHits() {
+      return sum(hitCounters);
+    }
+
+    public long getCumulativePuts() {
+      return putCounter.get();
+    }
+
+    public long getCumulativeEvictions() {
+      return evictionCounter.get();
+    }
+
+    public int getCurrentSize() {
+      return size.get();
+    }
+
+    public long getCumulativeNonLivePuts() {
+      return nonLivePutCounter.get();
+    }
+
+    public long getCumulativeMisses() {
+      return sum(missCounters);
+    }
+
+    public void add(Stats other) {
+      hitCounters[0].addAndGet(other.getCumulativeHits());
+      putCounter.addAndGet(other.putCounter.get());
+      nonLivePutCounter.addAndGet(other.nonLivePutCounter.get());
+      missCounters[0].addAndGet(other.getCumulativeMisses());
+      evictionCounter.addAndGet(other.evictionCounter.get());
+      size.set(Math.max(size.get(), other.size.get()));
+    }
+  }
+}
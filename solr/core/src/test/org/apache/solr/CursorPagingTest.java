@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.util._TestUtil;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.junit.BeforeClass;
+import org.noggit.ObjectBuilder;
+
+/**
+ * Tests paging through results with {@link CursorMarkParams#CURSOR_MARK_PARAM}
+ */
+public class CursorPagingTest extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    initCore("solrconfig.xml", "schema.xml");
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    assertU(delQ("*:*"));
+    assertU(commit());
+  }
+
+  public void testBadInputs() throws Exception {
+    assertU(adoc("id", "1", "str_s1", "a"));
+    assertU(commit());
+    ignoreException(CursorMarkParams.CURSOR_MARK_PARAM);
+    ignoreException("uniqueKey");
+    try {
+      assertQEx("no sort", req("q", "*:*", "cursorMark", "*"),
+          SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("no uniqueKey in sort", req("q", "*:*", "cursorMark", "*", "sort", "str_s1 asc"),
+          SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("start", req("q", "*:*", "cursorMark", "*", "sort", "id asc", "start", "1"),
+          SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("grouping", req("q", "*:*", "cursorMark", "*", "sort", "id asc", "group", "true",
+          "group.field", "str_s1"), SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("garbage", req("q", "*:*", "cursorMark", "not a totem", "sort", "id asc"),
+          SolrException.ErrorCode.BAD_REQUEST);
+
+      // a totem of a different sort
+      String next = nextCursorMark(query("q", "*:*", "rows", "1", "cursorMark", "*", "sort", "str_s1 asc, id asc"));
+      assertQEx("fewer sort fields", req("q", "*:*", "cursorMark", next, "sort", "id asc"),
+          SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("other sort field types", req("q", "*:*", "cursorMark", next, "sort", "float_f1 asc, id asc"),
+          SolrException.ErrorCode.BAD_REQUEST);
+    } finally {
+      resetExceptionIgnores();
+    }
+  }
+
+  public void testSimple() throws Exception {
+    assertU(adoc("id", "1", "str_s1", "c", "int_i1", "3"));
+    assertU(adoc("id", "2", "str_s1", "a", "int_i1", "1"));
+    assertU(adoc("id", "3", "str_s1", "b", "int_i1", "3"));
+    assertU(commit());
+    assertU(adoc("id", "4", "int_i1", "2"));
+    assertU(adoc("id", "5", "str_s1", "b", "int_i1", "3"));
+    assertU(adoc("id", "6", "str_s1", "e", "int_i1", "7"));
+    assertU(commit());
+
+    // missing strings sort last
+    assertPages("str_s1 asc, id desc", 4, new int[] {2, 5, 3, 1, 6, 4});
+    assertPages("int_i1 desc, id asc", 2, new int[] {6, 1, 3, 5, 4, 2});
+    assertPages("id asc", 10, new int[] {1, 2, 3, 4, 5, 6});
+
+    // filters and the total count apply to all pages
+    Map<String,Object> rsp = query("q", "*:*", "fq", "int_i1:3", "rows", "2", "sort", "id asc", "cursorMark", "*");
+    assertEquals(3L, getNumFound(rsp));
+    assertEquals(3L, getNumFound(query("q", "*:*", "fq", "int_i1:3", "rows", "2", "sort", "id asc",
+        "cursorMark", nextCursorMark(rsp))));
+
+    // docs added after the cursor show up on the next pages
+    rsp = query("q", "*:*", "rows", "3", "sort", "id asc", "cursorMark", "*");
+    assertU(adoc("id", "0"));
+    assertU(adoc("id", "7"));
+    assertU(commit());
+    rsp = query("q", "*:*", "rows", "3", "sort", "id asc", "cursorMark", nextCursorMark(rsp));
+    assertEquals(8L, getNumFound(rsp));
+    assertEquals(list(4, 5, 6), getIds(rsp));
+  }
+
+  public void testRandomSorts() throws Exception {
+    final int numDocs = atLeast(200);
+    for (int i = 0; i < numDocs; i++) {
+      List<String> fields = new ArrayList<String>();
+      fields.add("id");
+      fields.add(Integer.toString(i));
+      if (random().nextInt(10) != 0) {
+        fields.add("str_s1");
+        fields.add(_TestUtil.randomSimpleString(random(), 1, 3));
+      }
+      fields.add("int_i1");
+      fields.add(Integer.toString(random().nextInt(20)));
+      fields.add("float_f1");
+      fields.add(Float.toString(random().nextInt(10) / 4f));
+      fields.add("long_l1");
+      fields.add(Long.toString(random().nextLong()));
+      fields.add("date_dt1");
+      fields.add("2013-0" + (1 + random().nextInt(9)) + "-01T00:00:00Z");
+      fields.add("text_t");
+      fields.add(random().nextBoolean() ? "apple" : "apple pie");
+      assertU(adoc(fields.toArray(new String[fields.size()])));
+      if (random().nextInt(50) == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    final String[] sortFields = {"str_s1", "int_i1", "float_f1", "long_l1", "date_dt1", "score"};
+    for (int iter = 0; iter < 10; iter++) {
+      StringBuilder sort = new StringBuilder();
+      for (String field : sortFields) {
+        if (random().nextBoolean()) {
+          sort.append(field).append(random().nextBoolean() ? " asc, " : " desc, ");
+        }
+      }
+      sort.append("id ").append(random().nextBoolean() ? "asc" : "desc");
+      final int rows = 1 + random().nextInt(50);
+
+      // the cursor must walk the same docs as a single big page
+      Map<String,Object> all = query("q", "text_t:apple OR text_t:pie", "rows", Integer.toString(numDocs), "sort", sort.toString());
+      List<Object> expected = getIds(all);
+      List<Object> actual = walk(sort.toString(), rows, "q", "text_t:apple OR text_t:pie");
+      assertEquals(sort.toString(), expected, actual);
+      assertEquals(getNumFound(all), actual.size());
+    }
+  }
+
+  private void assertPages(String sort, int rows, int[] expected) throws Exception {
+    assertEquals(list(expected), walk(sort, rows, "q", "*:*"));
+  }
+
+  // pages through all docs and returns their ids, checking there are no dups
+  private List<Object> walk(String sort, int rows, String... params) throws Exception {
+    List<Object> ids = new ArrayList<Object>();
+    Set<Object> seen = new HashSet<Object>();
+    String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    while (true) {
+      List<String> p = new ArrayList<String>();
+      for (String param : params) p.add(param);
+      p.add("sort");
+      p.add(sort);
+      p.add("rows");
+      p.add(Integer.toString(rows));
+      p.add("fl");
+      p.add("id");
+      p.add(CursorMarkParams.CURSOR_MARK_PARAM);
+      p.add(cursorMark);
+      Map<String,Object> rsp = query(p.toArray(new String[p.size()]));
+      List<Object> page = getIds(rsp);
+      String next = nextCursorMark(rsp);
+      assertNotNull(next);
+      if (page.isEmpty()) {
+        // the cursor stays put once all docs have been returned
+        assertEquals(cursorMark, next);
+        return ids;
+      }
+      assertTrue(page.size() <= rows);
+      assertFalse("cursor did not move", cursorMark.equals(next));
+      for (Object id : page) {
+        assertTrue("duplicate doc: " + id, seen.add(id));
+      }
+      ids.addAll(page);
+      cursorMark = next;
+    }
+  }
+
+  private static List<Object> list(int... ids) {
+    List<Object> lst = new ArrayList<Object>();
+    for (int id : ids) lst.add((long) id);
+    return lst;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String,Object> query(String... params) throws Exception {
+    String[] withWt = new String[params.length + 2];
+    System.arraycopy(params, 0, withWt, 0, params.length);
+    withWt[params.length] = "wt";
+    withWt[params.length + 1] = "json";
+    return (Map<String,Object>) ObjectBuilder.fromJSON(h.query(req(withWt)));
+  }
+
+  private static String nextCursorMark(Map<String,Object> rsp) {
+    return (String) rsp.get(CursorMarkParams.CURSOR_MARK_NEXT);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static long getNumFound(Map<String,Object> rsp) {
+    return ((Number) ((Map<String,Object>) rsp.get("response")).get("numFound")).longValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> getIds(Map<String,Object> rsp) {
+    List<Object> ids = new ArrayList<Object>();
+    for (Map<String,Object> doc : (List<Map<String,Object>>) ((Map<String,Object>) rsp.get("response")).get("docs")) {
+      ids.add(doc.get("id"));
+    }
+    return ids;
+  }
+}
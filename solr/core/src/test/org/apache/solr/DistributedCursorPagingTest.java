@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.util.LuceneTestCase.Slow;
+import org.apache.lucene.util._TestUtil;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+/**
+ * Tests that paging with a cursor over several shards returns the same
+ * pages and cursors as over a single core.
+ */
+@Slow
+public class DistributedCursorPagingTest extends BaseDistributedSearchTestCase {
+
+  @Override
+  public void doTest() throws Exception {
+    del("*:*");
+    final int numDocs = atLeast(100);
+    for (int i = 0; i < numDocs; i++) {
+      List<Object> fields = new ArrayList<Object>();
+      fields.add(id);
+      fields.add(i);
+      if (random().nextInt(10) != 0) {
+        fields.add("str_s1");
+        fields.add(_TestUtil.randomSimpleString(random(), 1, 2));
+      }
+      fields.add("int_i1");
+      fields.add(random().nextInt(10));
+      fields.add("long_l1");
+      fields.add(random().nextLong());
+      fields.add("bool_b1");
+      fields.add(random().nextBoolean());
+      fields.add("date_tdt1");
+      fields.add("2013-0" + (1 + random().nextInt(9)) + "-01T00:00:00Z");
+      indexr(fields.toArray());
+      if (random().nextInt(30) == 0) {
+        commit();
+      }
+    }
+    commit();
+
+    walk("id asc", 7, numDocs);
+    walk("str_s1 asc, id desc", 10, numDocs);
+    walk("int_i1 desc, str_s1 desc, id asc", 1 + random().nextInt(20), numDocs);
+    walk("date_tdt1 asc, long_l1 desc, id asc", 1 + random().nextInt(20), numDocs);
+    walk("bool_b1 desc, id asc", 1 + random().nextInt(20), numDocs);
+  }
+
+  // pages through all docs both on the control core and over the shards
+  private void walk(String sort, int rows, int numDocs) throws Exception {
+    Set<Object> seen = new HashSet<Object>();
+    String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    while (true) {
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.set("q", "*:*");
+      params.set("sort", sort);
+      params.set("rows", rows);
+      params.set("fl", "id");
+      params.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+      QueryResponse controlRsp = controlClient.query(params);
+      setDistributedParams(params);
+      QueryResponse rsp = queryServer(params);
+
+      assertEquals(controlRsp.getResults().getNumFound(), rsp.getResults().getNumFound());
+      List<Object> ids = getIds(rsp);
+      assertEquals(sort, getIds(controlRsp), ids);
+      String next = (String) rsp.getResponse().get(CursorMarkParams.CURSOR_MARK_NEXT);
+      assertEquals(sort, controlRsp.getResponse().get(CursorMarkParams.CURSOR_MARK_NEXT), next);
+      if (ids.isEmpty()) {
+        assertEquals(cursorMark, next);
+        break;
+      }
+      for (Object docId : ids) {
+        assertTrue("duplicate doc: " + docId, seen.add(docId));
+      }
+      cursorMark = next;
+    }
+    assertEquals(numDocs, seen.size());
+  }
+
+  private static List<Object> getIds(QueryResponse rsp) {
+    List<Object> ids = new ArrayList<Object>();
+    for (SolrDocument doc : rsp.getResults()) {
+      ids.add(doc.getFieldValue("id"));
+    }
+    return ids;
+  }
+}
@@ -219,7 +219,8 @@ public class TestRandomDVFaceting extends SolrTestCaseJ4 {
       List<String> responses = new ArrayList<String>(methods.size());
       for (String method : methods) {
         if (method.equals("dv")) {
-          params.set("facet.field", "{!key="+facet_field+"}"+facet_field+"_dv");
+          // segments are counted in parallel unless threads=0
+          params.set("facet.field", "{!key="+facet_field+" threads="+(rand.nextInt(4)-1)+"}"+facet_field+"_dv");
           params.set("facet.method",(String) null);
         } else {
           params.set("facet.field", facet_field);
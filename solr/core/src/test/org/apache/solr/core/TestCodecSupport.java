@@ -46,6 +46,8 @@ public class TestCodecSupport extends SolrTestCaseJ4 {
     assertEquals("Lucene41", format.getPostingsFormatForField(schemaField.getName()).getName());
     schemaField = fields.get("string_f");
     assertEquals("Lucene41", format.getPostingsFormatForField(schemaField.getName()).getName());
+    // the uniqueKey gets its own instance, that writes term filters
+    assertNotSame(format.getPostingsFormatForField("string_standard_f"), format.getPostingsFormatForField(schemaField.getName()));
   }
 
   public void testDocValuesFormats() {
@@ -122,6 +122,8 @@ public class TestConfig extends SolrTestCaseJ4 {
     assertEquals("default ramBufferSizeMB", 100.0D, sic.ramBufferSizeMB, 0.0D);
     assertEquals("default LockType", SolrIndexConfig.LOCK_TYPE_NATIVE, sic.lockType);
     assertEquals("default useCompoundFile", false, sic.useCompoundFile);
+    assertEquals("default fieldCache storage", "heap", sc.fieldCacheStorage);
+    assertEquals("default perSegment filterCache", false, sc.perSegmentFilterCache);
 
     IndexSchema indexSchema = IndexSchemaFactory.buildIndexSchema("schema.xml", solrConfig);
     IndexWriterConfig iwc = sic.toIndexWriterConfig(indexSchema);
@@ -0,0 +1,239 @@
+package org.apache.solr.handler;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.lucene.util.LuceneTestCase.SuppressCodecs;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.BinaryResponseWriter;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.BeforeClass;
+import org.noggit.ObjectBuilder;
+
+@SuppressCodecs({"Lucene40", "Lucene41", "Lucene42"}) // old formats cannot represent missing values
+public class TestExportHandler extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeTests() throws Exception {
+    initCore("solrconfig-basic.xml", "schema-docValuesMissing.xml");
+    ExportHandler handler = new ExportHandler();
+    NamedList<Object> args = new NamedList<Object>();
+    // several batches per request
+    args.add("batchSize", "7");
+    handler.init(args);
+    h.getCore().registerRequestHandler("/export", handler);
+  }
+
+  private static class Doc {
+    final int id;
+    final int intdv;
+    final float floatdv;
+    final String stringdv;
+
+    Doc(int id, int intdv, float floatdv) {
+      this.id = id;
+      this.intdv = intdv;
+      this.floatdv = floatdv;
+      this.stringdv = String.format(Locale.ROOT, "s%05d", id);
+    }
+  }
+
+  private List<Doc> index() throws Exception {
+    assertU(delQ("*:*"));
+    assertU(commit());
+    List<Doc> docs = new ArrayList<Doc>();
+    final int numDocs = atLeast(100);
+    for (int i = 0; i < numDocs; i++) {
+      Doc doc = new Doc(i, random().nextInt(10) - 5, random().nextFloat() * 10 - 5);
+      docs.add(doc);
+      assertU(adoc("id", Integer.toString(i), "intdv", Integer.toString(doc.intdv),
+          "floatdv", Float.toString(doc.floatdv), "stringdv", doc.stringdv));
+      if (random().nextInt(20) == 0) {
+        // several segments
+        assertU(commit());
+      }
+    }
+    // deleted docs must not be exported
+    for (Iterator<Doc> it = docs.iterator(); it.hasNext();) {
+      Doc doc = it.next();
+      if (doc.id % 10 == 0) {
+        assertU(delI(Integer.toString(doc.id)));
+        it.remove();
+      }
+    }
+    assertU(commit());
+    return docs;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Map<String,Object>> exportJson(String... params) throws Exception {
+    // both ways of sorting must return the same documents
+    params = Arrays.copyOf(params, params.length + 2);
+    params[params.length - 2] = ExportHandler.PRESORT;
+    params[params.length - 1] = Boolean.toString(random().nextBoolean());
+    String response = h.query(req(params));
+    Map<String,Object> json = (Map<String,Object>) ObjectBuilder.fromJSON(response);
+    Map<String,Object> result = (Map<String,Object>) json.get("response");
+    List<Map<String,Object>> docs = (List<Map<String,Object>>) result.get("docs");
+    assertEquals(((Number) result.get("numFound")).intValue(), docs.size());
+    return docs;
+  }
+
+  public void testJson() throws Exception {
+    List<Doc> expected = index();
+
+    Collections.sort(expected, new Comparator<Doc>() {
+      @Override
+      public int compare(Doc a, Doc b) {
+        if (a.intdv != b.intdv) return a.intdv < b.intdv ? -1 : 1;
+        return b.stringdv.compareTo(a.stringdv);
+      }
+    });
+    List<Map<String,Object>> docs = exportJson("qt", "/export", "wt", "json", "q", "*:*",
+        "sort", "intdv asc, stringdv desc", "fl", "stringdv,intdv");
+    assertEquals(expected.size(), docs.size());
+    for (int i = 0; i < docs.size(); i++) {
+      assertEquals(expected.get(i).stringdv, docs.get(i).get("stringdv"));
+      assertEquals((long) expected.get(i).intdv, docs.get(i).get("intdv"));
+    }
+
+    Collections.sort(expected, new Comparator<Doc>() {
+      @Override
+      public int compare(Doc a, Doc b) {
+        return Float.compare(b.floatdv, a.floatdv);
+      }
+    });
+    docs = exportJson("qt", "/export", "wt", "json", "fq", "intdv:[-5 TO 0]",
+        "sort", "floatdv desc", "fl", "stringdv floatdv");
+    int j = 0;
+    for (Doc doc : expected) {
+      if (doc.intdv > 0) continue;
+      assertEquals(doc.stringdv, docs.get(j).get("stringdv"));
+      assertEquals(doc.floatdv, ((Number) docs.get(j).get("floatdv")).floatValue(), 0f);
+      j++;
+    }
+    assertEquals(j, docs.size());
+
+    docs = exportJson("qt", "/export", "wt", "json", "q", "stringdv:nomatch", "sort", "intdv asc", "fl", "intdv");
+    assertEquals(0, docs.size());
+  }
+
+  public void testJavabin() throws Exception {
+    List<Doc> expected = index();
+    Collections.sort(expected, new Comparator<Doc>() {
+      @Override
+      public int compare(Doc a, Doc b) {
+        return b.stringdv.compareTo(a.stringdv);
+      }
+    });
+
+    SolrQueryRequest req = req("qt", "/export", "wt", "javabin", "sort", "stringdv desc", "fl", "stringdv,floatdv",
+        ExportHandler.PRESORT, Boolean.toString(random().nextBoolean()));
+    SolrQueryResponse rsp = new SolrQueryResponse();
+    SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      h.getCore().execute(h.getCore().getRequestHandler("/export"), req, rsp);
+      new BinaryResponseWriter().write(out, req, rsp);
+    } finally {
+      req.close();
+      SolrRequestInfo.clearRequestInfo();
+    }
+
+    NamedList<?> result = (NamedList<?>) new JavaBinCodec().unmarshal(new ByteArrayInputStream(out.toByteArray()));
+    List<?> docs = (List<?>) ((NamedList<?>) result.get("response")).get("docs");
+    assertEquals(expected.size(), docs.size());
+    for (int i = 0; i < docs.size(); i++) {
+      SolrDocument doc = (SolrDocument) docs.get(i);
+      assertEquals(expected.get(i).stringdv, doc.getFieldValue("stringdv"));
+      assertEquals(expected.get(i).floatdv, doc.getFieldValue("floatdv"));
+    }
+  }
+
+  public void testMissingValues() throws Exception {
+    assertU(delQ("*:*"));
+    assertU(commit());
+    // the values of the docs are their keys, but docs 0 and 4 have no value
+    final int numDocs = 6;
+    for (int i = 0; i < numDocs; i++) {
+      if (i == 0 || i == 4) {
+        assertU(adoc("id", Integer.toString(i), "key_stringdv", Integer.toString(i)));
+      } else {
+        String v = Integer.toString(i);
+        String s = "s" + i;
+        assertU(adoc("id", v, "key_stringdv", v, "intdv", v, "intdv_missingfirst", v, "intdv_missinglast", v,
+            "stringdv", s, "stringdv_missingfirst", s, "stringdv_missinglast", s));
+      }
+      if (random().nextBoolean()) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    for (String type : new String[] {"intdv", "stringdv"}) {
+      // by default, missing values sort like 0 for numbers, and first for strings
+      assertExportOrder(type + " asc", type, "0", "4", "1", "2", "3", "5");
+      assertExportOrder(type + " desc", type, "5", "3", "2", "1", "0", "4");
+      assertExportOrder(type + "_missingfirst asc", type + "_missingfirst", "0", "4", "1", "2", "3", "5");
+      assertExportOrder(type + "_missingfirst desc", type + "_missingfirst", "0", "4", "5", "3", "2", "1");
+      assertExportOrder(type + "_missinglast asc", type + "_missinglast", "1", "2", "3", "5", "0", "4");
+      assertExportOrder(type + "_missinglast desc", type + "_missinglast", "5", "3", "2", "1", "0", "4");
+    }
+  }
+
+  private void assertExportOrder(String sort, String field, String... ids) throws Exception {
+    List<Map<String,Object>> docs = exportJson("qt", "/export", "wt", "json", "q", "*:*",
+        "sort", sort + ", key_stringdv asc", "fl", "key_stringdv," + field);
+    assertEquals(ids.length, docs.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(sort, ids[i], docs.get(i).get("key_stringdv"));
+    }
+  }
+
+  public void testErrors() throws Exception {
+    ignoreException("export");
+    ignoreException("undefined field");
+    try {
+      assertQEx("missing sort", req("qt", "/export", "fl", "intdv"), SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("missing fl", req("qt", "/export", "sort", "intdv asc"), SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("no docValues", req("qt", "/export", "sort", "id asc", "fl", "intdv"),
+          SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("score", req("qt", "/export", "sort", "score desc", "fl", "intdv"),
+          SolrException.ErrorCode.BAD_REQUEST);
+      assertQEx("undefined", req("qt", "/export", "sort", "intdv asc", "fl", "nosuchfield"),
+          SolrException.ErrorCode.BAD_REQUEST);
+    } finally {
+      resetExceptionIgnores();
+    }
+  }
+}
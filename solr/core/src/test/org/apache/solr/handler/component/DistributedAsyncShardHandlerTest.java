@@ -0,0 +1,181 @@
+package org.apache.solr.handler.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.solr.BaseDistributedSearchTestCase;
+import org.apache.solr.client.solrj.embedded.JettySolrRunner;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.servlet.SolrDispatchFilter;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Distributed search through an {@link AsyncHttpShardHandlerFactory}
+ */
+public class DistributedAsyncShardHandlerTest extends BaseDistributedSearchTestCase {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr.tests.shardHandlerFactory", AsyncHttpShardHandlerFactory.class.getName());
+  }
+
+  @AfterClass
+  public static void afterClass() throws Exception {
+    System.clearProperty("solr.tests.shardHandlerFactory");
+  }
+
+  @Override
+  public void doTest() throws Exception {
+    for (JettySolrRunner jetty : jettys) {
+      SolrDispatchFilter filter = (SolrDispatchFilter) jetty.getDispatchFilter().getFilter();
+      assertTrue(filter.getCores().getShardHandlerFactory() instanceof AsyncHttpShardHandlerFactory);
+    }
+
+    del("*:*");
+    for (int i = 0; i < 50; i++) {
+      indexr(id, i, "a_t", "the quick fox " + (i % 7 == 0 ? "jumped" : "slept"), "a_i1", i % 5);
+    }
+    commit();
+
+    handle.clear();
+    handle.put("QTime", SKIPVAL);
+    handle.put("timestamp", SKIPVAL);
+    handle.put("maxScore", SKIPVAL);
+    handle.put("_version_", SKIPVAL);
+
+    query("q", "*:*", "sort", "id asc");
+    query("q", "a_t:jumped", "fl", "id,a_i1", "sort", "a_i1 desc, id asc");
+    query("q", "*:*", "rows", 5, "sort", "a_i1 asc, id desc", "facet", "true", "facet.field", "a_i1");
+    query("q", "a_t:fox", "rows", 3, "sort", "id desc", "hl", "true", "hl.fl", "a_t");
+
+    // a replica that is down: the request moves on to the other one
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    StringBuilder withDeadReplica = new StringBuilder();
+    for (String shard : shardsArr) {
+      if (withDeadReplica.length() > 0) withDeadReplica.append(',');
+      withDeadReplica.append("127.0.0.1:1/solr|").append(shard);
+    }
+    params.set("shards", withDeadReplica.toString());
+    assertEquals(50, queryServer(params).getResults().getNumFound());
+
+    hostQueueLimitsRequests();
+    hostQueueBoundsWait();
+  }
+
+  private void hostQueueLimitsRequests() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool(new DefaultSolrThreadFactory("hostQueueTest"));
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new DefaultSolrThreadFactory("hostQueueTest"));
+    try {
+      final AsyncHttpShardHandlerFactory.HostQueue queue =
+          new AsyncHttpShardHandlerFactory.HostQueue("localhost:8983", executor, timer, 2, 30000);
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicInteger maxRunning = new AtomicInteger();
+      final int numTasks = 20;
+      final CountDownLatch done = new CountDownLatch(numTasks);
+      for (int i = 0; i < numTasks; i++) {
+        queue.execute(new Task() {
+          @Override
+          public void run() {
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+              maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+              Thread.sleep(5);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            done.countDown();
+          }
+        });
+      }
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      assertTrue("too many requests in flight: " + maxRunning.get(), maxRunning.get() <= 2);
+      assertEquals(0, queue.getWaiting());
+
+      assertEquals("localhost:8983", AsyncHttpShardHandlerFactory.getHost("http://localhost:8983/solr/collection1"));
+      assertEquals("localhost:8983", AsyncHttpShardHandlerFactory.getHost("localhost:8983"));
+    } finally {
+      executor.shutdown();
+      timer.shutdown();
+    }
+  }
+
+  private void hostQueueBoundsWait() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool(new DefaultSolrThreadFactory("hostQueueTest"));
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new DefaultSolrThreadFactory("hostQueueTest"));
+    try {
+      final AsyncHttpShardHandlerFactory.HostQueue queue =
+          new AsyncHttpShardHandlerFactory.HostQueue("localhost:8983", executor, timer, 1, 50);
+      // a host that does not answer
+      final CountDownLatch hung = new CountDownLatch(1);
+      queue.execute(new Task() {
+        @Override
+        public void run() {
+          try {
+            hung.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      final AtomicReference<Exception> aborted = new AtomicReference<Exception>();
+      final CountDownLatch done = new CountDownLatch(1);
+      queue.execute(new Task() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+
+        @Override
+        public void abort(Exception reason) {
+          aborted.set(reason);
+          done.countDown();
+        }
+      });
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      assertTrue(aborted.get() instanceof SolrException);
+      assertEquals(503, ((SolrException) aborted.get()).code());
+      assertEquals(0, queue.getWaiting());
+      assertEquals(1, queue.getActive());
+      hung.countDown();
+    } finally {
+      executor.shutdown();
+      timer.shutdown();
+    }
+  }
+
+  private static abstract class Task implements AsyncHttpShardHandlerFactory.HostTask {
+    @Override
+    public void abort(Exception reason) {
+      throw new AssertionError(reason);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package org.apache.solr.handler.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+public class ShardDocsResponseParserTest extends LuceneTestCase {
+
+  public void testShardDocs() throws Exception {
+    SolrDocumentList docs = new SolrDocumentList();
+    docs.setNumFound(42);
+    docs.setStart(0);
+    docs.setMaxScore(3.0f);
+    for (int i = 0; i < 3; i++) {
+      SolrDocument doc = new SolrDocument();
+      doc.addField("id", "doc" + i);
+      doc.addField("score", 3.0f - i);
+      docs.add(doc);
+    }
+    SolrDocument noScore = new SolrDocument();
+    noScore.addField("id", 7);
+    docs.add(noScore);
+
+    // a doc list that is not the main result is parsed as usual
+    SolrDocumentList other = new SolrDocumentList();
+    other.setNumFound(1);
+    other.add(noScore);
+    NamedList<Object> nested = new SimpleOrderedMap<Object>();
+    nested.add("other", other);
+
+    NamedList<Object> rsp = new SimpleOrderedMap<Object>();
+    rsp.add("responseHeader", new SimpleOrderedMap<Object>());
+    rsp.add("response", docs);
+    rsp.add("nested", nested);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new JavaBinCodec().marshal(rsp, out);
+    NamedList<Object> parsed = new ShardDocsResponseParser("id")
+        .processResponse(new ByteArrayInputStream(out.toByteArray()), null);
+
+    SolrDocumentList result = (SolrDocumentList) parsed.get("response");
+    assertEquals(42, result.getNumFound());
+    assertEquals(3.0f, result.getMaxScore(), 0f);
+    assertTrue(result.isEmpty());
+
+    @SuppressWarnings("unchecked")
+    List<ShardDoc> shardDocs = (List<ShardDoc>) parsed.get(ShardDocsResponseParser.SHARD_DOCS);
+    assertEquals(4, shardDocs.size());
+    for (int i = 0; i < 3; i++) {
+      ShardDoc shardDoc = shardDocs.get(i);
+      assertEquals("doc" + i, shardDoc.id);
+      assertEquals(i, shardDoc.orderInShard);
+      assertEquals(3.0f - i, shardDoc.score, 0f);
+    }
+    assertEquals(7, shardDocs.get(3).id);
+    assertNull(shardDocs.get(3).score);
+
+    SolrDocumentList parsedOther = (SolrDocumentList) ((NamedList<?>) parsed.get("nested")).get("other");
+    assertEquals(1, parsedOther.size());
+    assertEquals(7, parsedOther.get(0).getFieldValue("id"));
+  }
+}
@@ -0,0 +1,326 @@
+package org.apache.solr.handler.component;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.PluginInfo;
+
+/**
+ * Tests the latency histograms of {@link ReplicaLatencyStats} and the hedge
+ * requests that {@link HttpShardHandler} and {@link AsyncHttpShardHandler}
+ * send to a second replica.
+ */
+public class TestHedgedShardRequests extends SolrTestCaseJ4 {
+
+  public void testPercentiles() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    assertEquals(-1, stats.getLatency("http://a", 50));
+    for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES - 1; i++) {
+      stats.record("http://a", 10);
+    }
+    // not enough samples yet
+    assertEquals(-1, stats.getLatency("http://a", 50));
+
+    for (int i = 1; i <= 100; i++) {
+      stats.record("http://b", i);
+    }
+    assertWithin(50, stats.getLatency("http://b", 50));
+    assertWithin(95, stats.getLatency("http://b", 95));
+    assertWithin(100, stats.getLatency("http://b", 100));
+    assertTrue(stats.getLatency("http://b", 10) <= stats.getLatency("http://b", 90));
+  }
+
+  public void testDecay() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    for (int i = 0; i < ReplicaLatencyStats.DECAY_INTERVAL; i++) {
+      stats.record("http://a", 1000);
+    }
+    assertWithin(1000, stats.getLatency("http://a", 50));
+    // the replica got faster: old samples lose weight
+    for (int i = 0; i < 2 * ReplicaLatencyStats.DECAY_INTERVAL; i++) {
+      stats.record("http://a", 5);
+    }
+    assertWithin(5, stats.getLatency("http://a", 50));
+    assertWithin(1000, stats.getLatency("http://a", 100));
+  }
+
+  public void testOrderReplicas() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES; i++) {
+      stats.record("http://slow", 200);
+      stats.record("http://fast", 2);
+    }
+    List<String> urls = new ArrayList<String>(Arrays.asList("http://slow", "http://fast", "http://other"));
+    stats.orderReplicas(urls);
+    assertEquals(Arrays.asList("http://fast", "http://slow", "http://other"), urls);
+    stats.orderReplicas(urls);
+    assertEquals(Arrays.asList("http://fast", "http://slow", "http://other"), urls);
+
+    // unknown replicas are tried first
+    urls = new ArrayList<String>(Arrays.asList("http://fast", "http://unknown"));
+    stats.orderReplicas(urls);
+    assertEquals(Arrays.asList("http://unknown", "http://fast"), urls);
+  }
+
+  public void testBuckets() {
+    assertEquals(0, ReplicaLatencyStats.bucket(0));
+    assertEquals(0, ReplicaLatencyStats.bucket(1));
+    assertEquals(1, ReplicaLatencyStats.bucket(2));
+    int last = 0;
+    for (long millis = 0; millis < 100000; millis += 1 + millis / 10) {
+      int bucket = ReplicaLatencyStats.bucket(millis);
+      assertTrue(bucket >= last);
+      last = bucket;
+    }
+    assertEquals(ReplicaLatencyStats.bucket(Long.MAX_VALUE - 1), ReplicaLatencyStats.bucket(Long.MAX_VALUE));
+  }
+
+  public void testFailuresRankSlow() {
+    ReplicaLatencyStats stats = new ReplicaLatencyStats();
+    for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES; i++) {
+      stats.record("http://slow", 200);
+      stats.record("http://failing", 1);
+    }
+    for (int i = 0; i < 2 * ReplicaLatencyStats.MIN_SAMPLES; i++) {
+      stats.recordFailure("http://failing");
+    }
+    List<String> urls = new ArrayList<String>(Arrays.asList("http://failing", "http://slow"));
+    stats.orderReplicas(urls);
+    assertEquals(Arrays.asList("http://slow", "http://failing"), urls);
+  }
+
+  public void testHedgeRequest() throws Exception {
+    HttpShardHandlerFactory factory = newFactory(50f);
+    try {
+      // "slow" looks faster than "fast" so it is tried first, but will hang
+      ReplicaLatencyStats stats = factory.getReplicaLatencyStats();
+      for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES; i++) {
+        stats.record("http://slow", 1);
+        stats.record("http://fast", 100);
+      }
+      FakeShardHandler handler = new FakeShardHandler(factory);
+      ShardResponse rsp = request(handler, "slow|fast");
+      assertNull(rsp.getException());
+      assertEquals("http://fast", rsp.getShardAddress());
+      assertEquals("http://fast", rsp.getSolrResponse().getResponse().get("replica"));
+      // the request to the slow replica was cancelled
+      assertTrue(handler.interrupted.await(10, TimeUnit.SECONDS));
+      assertEquals(Arrays.asList("http://slow", "http://fast"), handler.requested);
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testNoHedgeWhenFast() throws Exception {
+    HttpShardHandlerFactory factory = newFactory(99f);
+    try {
+      ReplicaLatencyStats stats = factory.getReplicaLatencyStats();
+      for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES; i++) {
+        stats.record("http://fast", 1);
+        stats.record("http://slow", 100);
+      }
+      FakeShardHandler handler = new FakeShardHandler(factory);
+      ShardResponse rsp = request(handler, "fast|slow");
+      assertNull(rsp.getException());
+      assertEquals("http://fast", rsp.getShardAddress());
+      assertEquals(Arrays.asList("http://fast"), handler.requested);
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testHedgeOnFailure() throws Exception {
+    HttpShardHandlerFactory factory = newFactory(50f);
+    try {
+      // nothing is known about the replicas yet: no hedge, but a failure is retried
+      FakeShardHandler handler = new FakeShardHandler(factory);
+      ShardResponse rsp = request(handler, "broken|fast");
+      if (handler.requested.get(0).equals("http://broken")) {
+        assertEquals(Arrays.asList("http://broken", "http://fast"), handler.requested);
+      } else {
+        assertEquals(Arrays.asList("http://fast"), handler.requested);
+      }
+      assertNull(rsp.getException());
+      assertEquals("http://fast", rsp.getShardAddress());
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testHedgeWithBoundedQueue() throws Exception {
+    // a single thread runs the shard requests: the requests to the replicas
+    // must not wait for it
+    NamedList<Object> args = new NamedList<Object>();
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_PERCENTILE, 50f);
+    args.add(HttpShardHandlerFactory.INIT_SIZE_OF_QUEUE, 10);
+    HttpShardHandlerFactory factory = new HttpShardHandlerFactory();
+    factory.init(new PluginInfo("shardHandlerFactory", new HashMap<String,String>(), args, null));
+    try {
+      FakeShardHandler handler = new FakeShardHandler(factory);
+      ShardResponse rsp = request(handler, "fast1|fast2");
+      assertNull(rsp.getException());
+      assertEquals(1, handler.requested.size());
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testNoHedgeWhenPoolFull() throws Exception {
+    NamedList<Object> args = new NamedList<Object>();
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_PERCENTILE, 50f);
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_MIN_DELAY, 1);
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_MAX_POOL_SIZE, 1);
+    HttpShardHandlerFactory factory = new HttpShardHandlerFactory();
+    factory.init(new PluginInfo("shardHandlerFactory", new HashMap<String,String>(), args, null));
+    try {
+      ReplicaLatencyStats stats = factory.getReplicaLatencyStats();
+      for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES; i++) {
+        stats.record("http://delayed", 1);
+        stats.record("http://fast", 100);
+      }
+      // the request to "delayed" takes the only thread: the hedge request is not sent
+      FakeShardHandler handler = new FakeShardHandler(factory);
+      ShardResponse rsp = request(handler, "delayed|fast");
+      assertNull(rsp.getException());
+      assertEquals("http://delayed", rsp.getShardAddress());
+      assertEquals(Arrays.asList("http://delayed"), handler.requested);
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testAsyncHedgeRequest() throws Exception {
+    NamedList<Object> args = new NamedList<Object>();
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_PERCENTILE, 50f);
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_MIN_DELAY, 1);
+    AsyncHttpShardHandlerFactory factory = new AsyncHttpShardHandlerFactory();
+    factory.init(new PluginInfo("shardHandlerFactory", new HashMap<String,String>(), args, null));
+    try {
+      ReplicaLatencyStats stats = factory.getReplicaLatencyStats();
+      for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES; i++) {
+        stats.record("http://slow", 1);
+        stats.record("http://fast", 100);
+      }
+      FakeAsyncShardHandler handler = new FakeAsyncShardHandler(factory);
+      ShardResponse rsp = request(handler, "slow|fast");
+      assertNull(rsp.getException());
+      assertEquals("http://fast", rsp.getShardAddress());
+      assertEquals(Arrays.asList("http://slow", "http://fast"), handler.requested);
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testFailureRecorded() throws Exception {
+    HttpShardHandlerFactory factory = newFactory(50f);
+    try {
+      FakeShardHandler handler = new FakeShardHandler(factory);
+      for (int i = 0; i < ReplicaLatencyStats.MIN_SAMPLES; i++) {
+        request(handler, "broken");
+      }
+      assertEquals(factory.getReplicaLatencyStats().getLatency("http://broken", 0),
+          factory.getReplicaLatencyStats().getLatency("http://broken", 100));
+      assertTrue(factory.getReplicaLatencyStats().getLatency("http://broken", 50) > 1000000);
+    } finally {
+      factory.close();
+    }
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("expected about " + expected + " but got " + actual,
+        actual >= expected && actual <= expected * 1.25 + 1);
+  }
+
+  private static HttpShardHandlerFactory newFactory(float hedgePercentile) {
+    NamedList<Object> args = new NamedList<Object>();
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_PERCENTILE, hedgePercentile);
+    args.add(HttpShardHandlerFactory.INIT_HEDGE_MIN_DELAY, 1);
+    HttpShardHandlerFactory factory = new HttpShardHandlerFactory();
+    factory.init(new PluginInfo("shardHandlerFactory", new HashMap<String,String>(), args, null));
+    return factory;
+  }
+
+  private static ShardResponse request(ShardHandler handler, String shard) {
+    ShardRequest sreq = new ShardRequest();
+    sreq.actualShards = new String[] {shard};
+    handler.submit(sreq, shard, new ModifiableSolrParams());
+    return handler.takeCompletedIncludingErrors();
+  }
+
+  /** Answers without http: "slow" hangs, "broken" fails, anything else answers at once. */
+  private static class FakeShardHandler extends HttpShardHandler {
+    final List<String> requested = new ArrayList<String>();
+    final CountDownLatch interrupted = new CountDownLatch(1);
+
+    FakeShardHandler(HttpShardHandlerFactory factory) {
+      super(factory, (HttpClient) null);
+    }
+
+    @Override
+    protected NamedList<Object> requestReplica(QueryRequest req, String url) {
+      return answer(url, requested, interrupted);
+    }
+  }
+
+  /** Same as {@link FakeShardHandler}, through the host queues. */
+  private static class FakeAsyncShardHandler extends AsyncHttpShardHandler {
+    final List<String> requested = new ArrayList<String>();
+    final CountDownLatch interrupted = new CountDownLatch(1);
+
+    FakeAsyncShardHandler(AsyncHttpShardHandlerFactory factory) {
+      super(factory, (HttpClient) null);
+    }
+
+    @Override
+    protected NamedList<Object> requestReplica(QueryRequest req, String url) {
+      return answer(url, requested, interrupted);
+    }
+  }
+
+  // "delayed" answers after a while
+  private static NamedList<Object> answer(String url, List<String> requested, CountDownLatch interrupted) {
+    synchronized (requested) {
+      requested.add(url);
+    }
+    if (url.endsWith("slow") || url.endsWith("delayed")) {
+      try {
+        Thread.sleep(url.endsWith("slow") ? 30000 : 500);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      }
+    } else if (url.endsWith("broken")) {
+      throw new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "broken");
+    }
+    NamedList<Object> nl = new NamedList<Object>();
+    nl.add("replica", url);
+    return nl;
+  }
+}
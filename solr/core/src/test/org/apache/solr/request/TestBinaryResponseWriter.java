@@ -18,6 +18,7 @@ package org.apache.solr.request;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.UUID;
 
@@ -27,6 +28,7 @@ import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.response.BinaryQueryResponseWriter;
+import org.apache.solr.response.BinaryResponseWriter;
 import org.apache.solr.response.BinaryResponseWriter.Resolver;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.ReturnFields;
@@ -72,6 +74,71 @@ public class TestBinaryResponseWriter extends AbstractSolrTestCase {
     req.close();
   }
 
+  public void testStreamedStoredFields() throws Exception {
+    assertU(adoc("id", "201", "foo_s", "one", "foo_s", "tw\u00f6", "bar_s1", "\u65e5\u672c", "subject", "a subject",
+        "weight", "1.5", "bday", "2013-07-01T00:00:00Z", "foo_is", "3", "foo_is", "4", "bsto", "true", "foo_sS", "x"));
+    assertU(adoc("id", "202", "subject", "another subject", "foo_is", "5"));
+    // more values than fit the writer's initial buffers
+    String[] many = new String[80];
+    many[0] = "id";
+    many[1] = "203";
+    for (int i = 1; i < many.length / 2; i++) {
+      many[2 * i] = "f" + i + (i % 2 == 0 ? "_s" : "_i");
+      many[2 * i + 1] = Integer.toString(i);
+    }
+    assertU(adoc(many));
+    assertU(commit());
+
+    try {
+      assertStreamedStoredFields(many.length / 2);
+    } finally {
+      assertU(delQ("id:[201 TO 203]"));
+      assertU(commit());
+    }
+  }
+
+  private void assertStreamedStoredFields(int numManyFields) throws Exception {
+    BinaryResponseWriter unstreamed = new BinaryResponseWriter();
+    NamedList<Object> args = new NamedList<Object>();
+    args.add("streamStoredFields", "false");
+    unstreamed.init(args);
+    BinaryResponseWriter streamed = new BinaryResponseWriter();
+    streamed.init(new NamedList<Object>());
+
+    for (String fl : new String[] {"*", "id,foo_s,weight", "id,score", "foo_*"}) {
+      LocalSolrQueryRequest req = lrf.makeRequest("q", "id:[201 TO 203]", "sort", "id asc", "fl", fl);
+      try {
+        SolrQueryResponse rsp = h.queryAndResponse(req.getParams().get(CommonParams.QT), req);
+        // the first write reads the index, the later ones may hit the document cache
+        byte[] first = write(streamed, req, rsp);
+        byte[] expected = write(unstreamed, req, rsp);
+        byte[] cached = write(streamed, req, rsp);
+        assertTrue(fl, Arrays.equals(expected, first));
+        assertTrue(fl, Arrays.equals(expected, cached));
+
+        NamedList res = (NamedList) new JavaBinCodec().unmarshal(new ByteArrayInputStream(first));
+        SolrDocumentList docs = (SolrDocumentList) res.get("response");
+        assertEquals(3, docs.size());
+        if (fl.equals("*")) {
+          assertEquals(Arrays.asList("one", "tw\u00f6"), docs.get(0).getFieldValue("foo_s"));
+          assertEquals("\u65e5\u672c", docs.get(0).getFieldValue("bar_s1"));
+          assertEquals(1.5f, docs.get(0).getFieldValue("weight"));
+          assertEquals(Arrays.asList(5), docs.get(1).getFieldValue("foo_is"));
+          assertEquals(numManyFields, docs.get(2).size());
+          assertEquals(39, docs.get(2).getFieldValue("f39_i"));
+        }
+      } finally {
+        req.close();
+      }
+    }
+  }
+
+  private static byte[] write(BinaryResponseWriter writer, SolrQueryRequest req, SolrQueryResponse rsp) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    writer.write(baos, req, rsp);
+    return baos.toByteArray();
+  }
+
   public void testResolverSolrDocumentPartialFields() throws Exception {
     LocalSolrQueryRequest req = lrf.makeRequest("q", "*:*",
                                                 "fl", "id,xxx,ddd_s"); 
@@ -28,6 +28,7 @@ import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.util.RefCounted;
 import org.junit.After;
@@ -296,6 +297,37 @@ public class TestFaceting extends SolrTestCaseJ4 {
     }
   }
 
+  @Test
+  public void testSegmentTermOrdsCache() throws Exception {
+    SegmentTermOrdsCache cache = h.getCore().getSegmentTermOrdsCache();
+    assertU(adoc("id", "1", "f_ss", "a", "f_ss", "b"));
+    assertU(adoc("id", "2", "f_ss", "b", "f_ss", "c"));
+    assertU(commit());
+    assertQ(req("q", "*:*", FacetParams.FACET, "true", FacetParams.FACET_FIELD, "f_ss", FacetParams.FACET_METHOD, FacetParams.FACET_METHOD_fcs),
+        "//lst[@name='f_ss']/int[@name='b'][.='2']");
+    NamedList stats = cache.getStatistics();
+    assertEquals(1, stats.get("size"));
+    assertTrue(((Long) stats.get("offHeapBytes")) > 0);
+    long inserts = (Long) stats.get("inserts");
+
+    // the same segment is not un-inverted again for the new searcher
+    assertU(adoc("id", "3", "f_ss", "d"));
+    assertU(commit());
+    assertQ(req("q", "*:*", FacetParams.FACET, "true", FacetParams.FACET_FIELD, "f_ss", FacetParams.FACET_METHOD, FacetParams.FACET_METHOD_fcs),
+        "//lst[@name='f_ss']/int[@name='b'][.='2']",
+        "//lst[@name='f_ss']/int[@name='d'][.='1']");
+    stats = cache.getStatistics();
+    assertEquals(inserts + 1, stats.get("inserts"));
+    assertTrue(((Long) stats.get("hits")) > 0);
+
+    // the buffers of closed segments are released
+    clearIndex();
+    assertU(commit());
+    stats = cache.getStatistics();
+    assertEquals(0, stats.get("size"));
+    assertEquals(0L, stats.get("offHeapBytes"));
+  }
+
   @Test
   public void testFacetSortWithMinCount() {
     assertU(adoc("id", "1.0", "f_td", "-420.126"));
@@ -22,6 +22,7 @@ import org.apache.lucene.util.OpenBitSet;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.request.SolrQueryRequest;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -32,9 +33,15 @@ public class TestFiltering extends SolrTestCaseJ4 {
   @BeforeClass
   public static void beforeTests() throws Exception {
     System.setProperty("enable.update.log", "false"); // schema12 doesn't support _version_
+    System.setProperty("solr.tests.filterCache.perSegment", Boolean.toString(random().nextBoolean()));
     initCore("solrconfig.xml","schema12.xml");
   }
 
+  @AfterClass
+  public static void afterTests() throws Exception {
+    System.clearProperty("solr.tests.filterCache.perSegment");
+  }
+
 
   public void testCaching() throws Exception {
     clearIndex();
@@ -17,6 +17,7 @@ package org.apache.solr.search;
  * limitations under the License.
  */
 
+import org.apache.lucene.util.OpenBitSet;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.util.ConcurrentLFUCache;
@@ -25,6 +26,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -184,6 +186,31 @@ public class TestLFUCache extends SolrTestCaseJ4 {
     }
   }
 
+  @Test
+  public void testMaxRamSize() throws IOException {
+    LFUCache<Object, Object> cache = new LFUCache<Object, Object>();
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("maxRamMB", "1");
+    cache.init(params, null, new NoOpRegenerator());
+    cache.setState(SolrCache.State.LIVE);
+    // each set takes 128KB, so that only a few of them fit into 1MB
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, new BitDocSet(new OpenBitSet(1 << 20)));
+    }
+    NamedList<Serializable> nl = cache.getStatistics();
+    long ramBytesUsed = (Long) nl.get("ramBytesUsed");
+    assertTrue("ramBytesUsed=" + ramBytesUsed, ramBytesUsed <= 1024 * 1024);
+    assertTrue("ramBytesUsed=" + ramBytesUsed, ramBytesUsed > 512 * 1024);
+    assertTrue(cache.size() < 20);
+    assertEquals(20L - cache.size(), nl.get("evictions"));
+    assertNotNull(cache.get(19));
+    assertNull(cache.get(0));
+
+    cache.clear();
+    assertEquals(0L, cache.getStatistics().get("ramBytesUsed"));
+    cache.close();
+  }
+
   @Test
   public void testItemOrdering() {
     ConcurrentLFUCache<Integer, String> cache = new ConcurrentLFUCache<Integer, String>(100, 90);
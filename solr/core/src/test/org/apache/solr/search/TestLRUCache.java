@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.OpenBitSet;
 import org.apache.solr.common.util.NamedList;
 
 /**
@@ -121,4 +122,28 @@ public class TestLRUCache extends LuceneTestCase {
     assertEquals(null, lruCacheNew.get(50));
     lruCacheNew.close();
   }
+
+  public void testMaxRamSize() throws IOException {
+    LRUCache<Object, Object> cache = new LRUCache<Object, Object>();
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("maxRamMB", "1");
+    cache.init(params, null, new NoOpRegenerator());
+    cache.setState(SolrCache.State.LIVE);
+    // each set takes 128KB, so that only a few of them fit into 1MB
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, new BitDocSet(new OpenBitSet(1 << 20)));
+    }
+    NamedList<Serializable> nl = cache.getStatistics();
+    long ramBytesUsed = (Long) nl.get("ramBytesUsed");
+    assertTrue("ramBytesUsed=" + ramBytesUsed, ramBytesUsed <= 1024 * 1024);
+    assertTrue("ramBytesUsed=" + ramBytesUsed, ramBytesUsed > 512 * 1024);
+    assertTrue(cache.size() < 20);
+    assertEquals(20L - cache.size(), nl.get("evictions"));
+    assertNotNull(cache.get(19));
+    assertNull(cache.get(0));
+
+    cache.clear();
+    assertEquals(0L, cache.getStatistics().get("ramBytesUsed"));
+    cache.close();
+  }
 }
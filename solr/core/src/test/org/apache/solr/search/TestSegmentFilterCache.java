@@ -0,0 +1,153 @@
+package org.apache.solr.search;
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.analysis.MockAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+
+import java.io.IOException;
+
+public class TestSegmentFilterCache extends LuceneTestCase {
+
+  private static void addDocs(IndexWriter writer, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      Document doc = new Document();
+      doc.add(new StringField("id", Integer.toString(i), Field.Store.NO));
+      doc.add(new StringField("mod3", Integer.toString(i % 3), Field.Store.NO));
+      doc.add(new IntField("val", i, Field.Store.NO));
+      writer.addDocument(doc);
+    }
+    writer.commit();
+  }
+
+  private static void assertSameDocs(IndexSearcher searcher, Query query, DocSet actual) throws IOException {
+    DocSetCollector collector = new DocSetCollector(0, searcher.getIndexReader().maxDoc());
+    searcher.search(query, collector);
+    DocSet expected = collector.getDocSet();
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.size(), expected.intersectionSize(actual));
+  }
+
+  public void testReuseAcrossReopens() throws Exception {
+    Directory dir = newDirectory();
+    // no merges, so that segments survive reopens
+    IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random()))
+        .setMergePolicy(NoMergePolicy.COMPOUND_FILES));
+    addDocs(writer, 0, 100);
+    addDocs(writer, 100, 200);
+    SegmentFilterCache cache = new SegmentFilterCache(1024 * 1024);
+
+    DirectoryReader reader = DirectoryReader.open(dir);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    Query mod = new TermQuery(new Term("mod3", "1"));
+    Query range = NumericRangeQuery.newIntRange("val", 50, 150, true, false);
+    assertSameDocs(searcher, mod, cache.getDocSet(searcher, mod));
+    assertSameDocs(searcher, range, cache.getDocSet(searcher, range));
+    assertEquals(4, cache.size());
+    assertEquals(4L, cache.getStatistics().get("inserts"));
+    assertSameDocs(searcher, mod, cache.getDocSet(searcher, mod));
+    assertEquals(2L, cache.getStatistics().get("hits"));
+
+    // only the new segment is searched, deletions in the old ones are applied
+    addDocs(writer, 200, 300);
+    writer.deleteDocuments(new Term("id", "1"), new Term("id", "100"), new Term("id", "120"));
+    writer.commit();
+    DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+    assertNotNull(newReader);
+    reader.close();
+    reader = newReader;
+    searcher = new IndexSearcher(reader);
+    assertSameDocs(searcher, mod, cache.getDocSet(searcher, mod));
+    assertSameDocs(searcher, range, cache.getDocSet(searcher, range));
+    assertEquals(6L, cache.getStatistics().get("inserts"));
+    assertEquals(6, cache.size());
+
+    // closed segments are purged: the first one goes away once all its docs are deleted
+    writer.deleteDocuments(NumericRangeQuery.newIntRange("val", 0, 100, true, false));
+    writer.commit();
+    newReader = DirectoryReader.openIfChanged(reader);
+    assertNotNull(newReader);
+    reader.close();
+    reader = newReader;
+    assertEquals(4, cache.size());
+    searcher = new IndexSearcher(reader);
+    assertSameDocs(searcher, mod, cache.getDocSet(searcher, mod));
+    assertEquals(6L, cache.getStatistics().get("inserts"));
+
+    reader.close();
+    writer.close();
+    cache.close();
+    dir.close();
+  }
+
+  public void testRamLimit() throws Exception {
+    Directory dir = newDirectory();
+    IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(TEST_VERSION_CURRENT, new MockAnalyzer(random())));
+    addDocs(writer, 0, 1000);
+    DirectoryReader reader = DirectoryReader.open(dir);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    SegmentFilterCache cache = new SegmentFilterCache(16 * 1024);
+    for (int i = 0; i < 100; i++) {
+      Query query = NumericRangeQuery.newIntRange("val", i, i + 500, true, true);
+      assertSameDocs(searcher, query, cache.getDocSet(searcher, query));
+    }
+    long ramBytesUsed = (Long) cache.getStatistics().get("ramBytesUsed");
+    assertTrue("ramBytesUsed=" + ramBytesUsed, ramBytesUsed <= 16 * 1024);
+    assertTrue((Long) cache.getStatistics().get("evictions") > 0);
+    reader.close();
+    writer.close();
+    cache.close();
+    dir.close();
+  }
+
+  public void testIsSegmentLocal() {
+    Query term = new TermQuery(new Term("id", "1"));
+    assertTrue(SegmentFilterCache.isSegmentLocal(term));
+    assertTrue(SegmentFilterCache.isSegmentLocal(NumericRangeQuery.newIntRange("val", 1, 2, true, true)));
+    assertTrue(SegmentFilterCache.isSegmentLocal(new ConstantScoreQuery(term)));
+    BooleanQuery bq = new BooleanQuery();
+    bq.add(term, BooleanClause.Occur.MUST);
+    bq.add(new TermQuery(new Term("id", "2")), BooleanClause.Occur.SHOULD);
+    assertTrue(SegmentFilterCache.isSegmentLocal(bq));
+
+    assertFalse(SegmentFilterCache.isSegmentLocal(new MatchAllDocsQuery()));
+    assertFalse(SegmentFilterCache.isSegmentLocal(new FuzzyQuery(new Term("id", "1"))));
+    assertFalse(SegmentFilterCache.isSegmentLocal(new ConstantScoreQuery(new QueryWrapperFilter(term))));
+    bq.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+    assertFalse(SegmentFilterCache.isSegmentLocal(bq));
+  }
+}
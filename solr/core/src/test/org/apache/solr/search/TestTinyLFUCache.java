@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util._TestUtil;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.util.ConcurrentTinyLFUCache;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Test for TinyLFUCache
+ *
+ * @see org.apache.solr.search.TinyLFUCache
+ */
+public class TestTinyLFUCache extends LuceneTestCase {
+
+  public void testSimple() throws IOException {
+    TinyLFUCache<Object, Object> sc = new TinyLFUCache<Object, Object>();
+    Map<String, String> l = new HashMap<String, String>();
+    l.put("size", "100");
+    l.put("initialSize", "10");
+    l.put("autowarmCount", "25");
+    // evict in the calling thread so that sizes are exact
+    l.put("maintenanceThread", "false");
+    CacheRegenerator cr = new NoOpRegenerator();
+    Object o = sc.init(l, null, cr);
+    sc.setState(SolrCache.State.LIVE);
+    for (int i = 0; i < 101; i++) {
+      sc.put(i + 1, "" + (i + 1));
+    }
+    assertEquals(100, sc.size());
+    assertEquals("25", sc.get(25));
+    assertEquals(null, sc.get(110));
+    NamedList<Serializable> nl = sc.getStatistics();
+    assertEquals(2L, nl.get("lookups"));
+    assertEquals(1L, nl.get("hits"));
+    assertEquals(101L, nl.get("inserts"));
+    assertEquals(1L, nl.get("evictions"));
+    assertEquals(100L, nl.get("size"));
+
+    TinyLFUCache<Object, Object> scNew = new TinyLFUCache<Object, Object>();
+    scNew.init(l, o, cr);
+    scNew.warm(null, sc);
+    scNew.setState(SolrCache.State.LIVE);
+    sc.close();
+    assertEquals(25, scNew.size());
+    // the only entry that was used is among the warmed ones
+    assertEquals("25", scNew.get(25));
+    scNew.put(103, "103");
+    nl = scNew.getStatistics();
+    assertEquals(1L, nl.get("lookups"));
+    assertEquals(1L, nl.get("hits"));
+    assertEquals(1L, nl.get("inserts"));
+    assertEquals(0L, nl.get("evictions"));
+
+    assertEquals(3L, nl.get("cumulative_lookups"));
+    assertEquals(2L, nl.get("cumulative_hits"));
+    assertEquals(102L, nl.get("cumulative_inserts"));
+    assertEquals(1L, nl.get("cumulative_evictions"));
+    scNew.close();
+  }
+
+  public void testNoAutowarm() throws IOException {
+    TinyLFUCache<Object, Object> sc = new TinyLFUCache<Object, Object>();
+    Map<String, String> l = new HashMap<String, String>();
+    l.put("size", "100");
+    CacheRegenerator cr = new NoOpRegenerator();
+    Object o = sc.init(l, null, cr);
+    sc.setState(SolrCache.State.LIVE);
+    for (int i = 0; i < 100; i++) {
+      sc.put(i + 1, "" + (i + 1));
+    }
+    TinyLFUCache<Object, Object> scNew = new TinyLFUCache<Object, Object>();
+    scNew.init(l, o, cr);
+    scNew.warm(null, sc);
+    scNew.setState(SolrCache.State.LIVE);
+    sc.close();
+    assertEquals(0, scNew.size());
+    assertEquals(null, scNew.get(50));
+    scNew.close();
+  }
+
+  public void testFrequentItemsSurviveScans() {
+    ConcurrentTinyLFUCache<Integer, String> cache = new ConcurrentTinyLFUCache<Integer, String>(100, 100, false);
+    for (int i = 0; i < 50; i++) {
+      cache.put(i, "" + i);
+    }
+    for (int j = 0; j < 5; j++) {
+      for (int i = 0; i < 50; i++) {
+        assertNotNull(cache.get(i));
+      }
+    }
+    // a scan of entries that are never used again
+    for (int i = 1000; i < 2000; i++) {
+      cache.put(i, "" + i);
+    }
+    cache.cleanUp();
+    assertEquals(100, cache.size());
+    for (int i = 0; i < 50; i++) {
+      assertEquals("" + i, cache.get(i));
+    }
+
+    Map<Integer, String> hottest = cache.getHottestItems(50);
+    assertEquals(50, hottest.size());
+    for (int i = 0; i < 50; i++) {
+      assertTrue(hottest.containsKey(i));
+    }
+    assertTrue(cache.getHottestItems(0).isEmpty());
+    cache.destroy();
+  }
+
+  public void testRemoveAndClear() {
+    ConcurrentTinyLFUCache<Integer, String> cache = new ConcurrentTinyLFUCache<Integer, String>(10, 10, random().nextBoolean());
+    cache.put(1, "1");
+    cache.put(2, "2");
+    assertEquals("1", cache.put(1, "one"));
+    assertEquals("one", cache.get(1));
+    assertEquals("2", cache.remove(2));
+    assertNull(cache.remove(2));
+    assertNull(cache.get(2));
+    cache.cleanUp();
+    assertEquals(1, cache.size());
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertNull(cache.get(1));
+    assertTrue(cache.getHottestItems(10).isEmpty());
+    cache.put(3, "3");
+    cache.cleanUp();
+    assertEquals(1, cache.size());
+    cache.destroy();
+  }
+
+  public void testBoundedOvershoot() {
+    final int sz = _TestUtil.nextInt(random(), 1, 200);
+    ConcurrentTinyLFUCache<Integer, String> cache = new ConcurrentTinyLFUCache<Integer, String>(sz, sz, true);
+    // writes that the maintenance executor did not apply yet are bounded
+    // by a fraction of the maximum size
+    final int maxOvershoot = Math.max(1, sz / 16);
+    for (int i = 0; i < 10 * sz; i++) {
+      cache.put(i, "" + i);
+      assertTrue("size=" + cache.size() + " maxSize=" + sz, cache.size() <= sz + maxOvershoot);
+    }
+    cache.cleanUp();
+    assertTrue(cache.size() <= sz);
+    cache.destroy();
+  }
+
+  // enough randomness and concurrency to exercise the buffers and all queues
+  public void testRandom() throws Exception {
+    final int sz = random().nextInt(100) + 1;
+    final int keyrange = random().nextInt(sz * 3) + 1;
+    final ConcurrentTinyLFUCache<Integer, Integer> cache =
+        new ConcurrentTinyLFUCache<Integer, Integer>(sz, sz, random().nextBoolean());
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[_TestUtil.nextInt(random(), 1, 4)];
+    for (int t = 0; t < threads.length; t++) {
+      final long seed = random().nextLong();
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random r = new Random(seed);
+            for (int i = 0; i < 10000; i++) {
+              Integer key = r.nextInt(keyrange);
+              switch (r.nextInt(10)) {
+                case 0:
+                  cache.remove(key);
+                  break;
+                case 1:
+                case 2:
+                case 3:
+                  cache.put(key, key);
+                  break;
+                default:
+                  Integer value = cache.get(key);
+                  if (value != null && !value.equals(key)) {
+                    throw new AssertionError("key=" + key + " value=" + value);
+                  }
+              }
+            }
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) {
+      throw new RuntimeException(error.get());
+    }
+    cache.cleanUp();
+    assertTrue("size=" + cache.size() + " maxSize=" + sz, cache.size() <= sz);
+    assertEquals(cache.size(), cache.getHottestItems(Integer.MAX_VALUE).size());
+    cache.destroy();
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util._TestUtil;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * Tests transaction logs that write an index of their updates into the commit
+ * that ends them.
+ */
+public class TestIndexedTransactionLog extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr.ulog.indexLogs", "true");
+    initCore("solrconfig-tlog.xml", "schema15.xml");
+  }
+
+  @AfterClass
+  public static void afterClass() throws Exception {
+    System.clearProperty("solr.ulog.indexLogs");
+  }
+
+  public void testIndex() throws Exception {
+    File dir = _TestUtil.getTempDir("tlog");
+    dir.mkdirs();
+    File file = new File(dir, "tlog.0000000000000000001");
+
+    TransactionLog tlog = new TransactionLog(file, null);
+    tlog.enableIndex();
+    List<Long> positions = new ArrayList<Long>();
+    positions.add(tlog.write(add("1", 1), 0));
+    positions.add(tlog.write(add("2", 2), 0));
+    positions.add(tlog.writeDelete(delete("1", -3), 0));
+    long snapshot = tlog.snapshot();
+    tlog.write(add("3", 4), UpdateLog.FLAG_GAP);
+    tlog.rollback(snapshot);
+    positions.add(tlog.write(add("4", 5), 0));
+    assertNull("log still open", tlog.getIndex());
+    tlog.writeCommit(new CommitUpdateCommand(null, false), 0);
+    tlog.deleteOnClose = false;
+    tlog.decref();
+
+    TransactionLog reopened = new TransactionLog(file, null, true);
+    try {
+      TransactionLog.LogIndex index = reopened.getIndex();
+      assertNotNull(index);
+      assertEquals(4, index.size());
+      assertEquals(UpdateLog.COMMIT, index.getCommitOperation() & UpdateLog.OPERATION_MASK);
+      long[] versions = {1, 2, -3, 5};
+      int[] operations = {UpdateLog.ADD, UpdateLog.ADD, UpdateLog.DELETE, UpdateLog.ADD};
+      for (int i = 0; i < index.size(); i++) {
+        assertEquals(versions[i], index.getVersion(i));
+        assertEquals(operations[i], index.getOperation(i));
+        assertEquals(positions.get(i).longValue(), index.getPosition(i));
+
+        // lookups read the mapped log
+        List<?> entry = (List<?>) reopened.lookup(index.getPosition(i));
+        assertEquals(versions[i], entry.get(1));
+      }
+      SolrInputDocument doc = (SolrInputDocument) ((List<?>) reopened.lookup(index.getPosition(3))).get(2);
+      assertEquals("4", doc.getFieldValue("id"));
+      assertTrue(reopened.endsWithCommit());
+    } finally {
+      reopened.decref();
+    }
+  }
+
+  public void testManyUpdates() throws Exception {
+    File dir = _TestUtil.getTempDir("tlog");
+    dir.mkdirs();
+    TransactionLog tlog = new TransactionLog(new File(dir, "tlog.0000000000000000001"), null);
+    try {
+      tlog.enableIndex();
+      final int numUpdates = atLeast(100);
+      for (int i = 0; i < numUpdates; i++) {
+        tlog.write(add(Integer.toString(i), i + 1), 0);
+      }
+      tlog.writeCommit(new CommitUpdateCommand(null, false), 0);
+      TransactionLog.LogIndex index = tlog.getIndex();
+      assertEquals(numUpdates, index.size());
+      for (int i = 0; i < numUpdates; i++) {
+        assertEquals(i + 1, index.getVersion(i));
+        assertEquals((long) (i + 1), ((List<?>) tlog.lookup(index.getPosition(i))).get(1));
+      }
+    } finally {
+      tlog.decref();
+    }
+  }
+
+  public void testUnindexedLog() throws Exception {
+    File dir = _TestUtil.getTempDir("tlog");
+    dir.mkdirs();
+    TransactionLog tlog = new TransactionLog(new File(dir, "tlog.0000000000000000001"), null);
+    try {
+      long pos = tlog.write(add("1", 1), 0);
+      tlog.writeCommit(new CommitUpdateCommand(null, false), 0);
+      assertNull(tlog.getIndex());
+      assertEquals(1L, ((List<?>) tlog.lookup(pos)).get(1));
+    } finally {
+      tlog.decref();
+    }
+  }
+
+  public void testRecentUpdates() throws Exception {
+    assertU(adoc("id", "1"));
+    assertU(adoc("id", "2"));
+    assertU(commit());
+    assertU(adoc("id", "3"));
+    assertU(delI("1"));
+    assertU(delQ("id:2"));
+    assertU(commit());
+    assertU(adoc("id", "4"));
+
+    UpdateLog ulog = h.getCore().getUpdateHandler().getUpdateLog();
+    UpdateLog.RecentUpdates recent = ulog.getRecentUpdates();
+    try {
+      List<Long> versions = recent.getVersions(10);
+      assertEquals(6, versions.size());
+      for (int i = 1; i < versions.size(); i++) {
+        assertTrue(Math.abs(versions.get(i - 1)) > Math.abs(versions.get(i)));
+      }
+      // the delete by id and by query came from an indexed log
+      assertEquals(1, recent.deleteList.size());
+      assertEquals(1, recent.getDeleteByQuery(0).size());
+      for (Long version : versions) {
+        assertNotNull(recent.lookup(version));
+      }
+      int indexed = 0;
+      for (TransactionLog log : recent.logList) {
+        if (log.getIndex() != null) indexed++;
+      }
+      assertTrue(indexed >= 2);
+    } finally {
+      recent.close();
+    }
+  }
+
+  private static AddUpdateCommand add(String id, long version) {
+    AddUpdateCommand cmd = new AddUpdateCommand(null);
+    cmd.solrDoc = new SolrInputDocument();
+    cmd.solrDoc.addField("id", id);
+    cmd.setVersion(version);
+    return cmd;
+  }
+
+  private static DeleteUpdateCommand delete(String id, long version) {
+    DeleteUpdateCommand cmd = new DeleteUpdateCommand(null);
+    cmd.setIndexedId(new BytesRef(id));
+    cmd.setVersion(version);
+    return cmd;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.util._TestUtil;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Tests that concurrent updates with {@link UpdateLog.SyncLevel#FSYNC} share syncs
+ * of the transaction log, and that all their records make it to the log.
+ */
+public class TestTransactionLogGroupCommit extends SolrTestCaseJ4 {
+
+  /** A log whose syncs are slow, like on a spinning disk. */
+  private static class SlowSyncLog extends TransactionLog {
+    final AtomicInteger concurrentSyncs = new AtomicInteger();
+    volatile boolean overlapped;
+
+    SlowSyncLog(File file) {
+      super(file, null);
+    }
+
+    @Override
+    protected void sync() throws IOException {
+      if (concurrentSyncs.incrementAndGet() > 1) overlapped = true;
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.sync();
+      concurrentSyncs.decrementAndGet();
+    }
+  }
+
+  public void testConcurrentFinish() throws Exception {
+    File dir = _TestUtil.getTempDir("tlog");
+    dir.mkdirs();
+    final SlowSyncLog tlog = new SlowSyncLog(new File(dir, "tlog.0000000000000000001"));
+    final int numThreads = 8;
+    final int numUpdates = 20;
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final AtomicInteger nextId = new AtomicInteger();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < numUpdates; i++) {
+              int id = nextId.incrementAndGet();
+              AddUpdateCommand cmd = new AddUpdateCommand(null);
+              cmd.solrDoc = new SolrInputDocument();
+              cmd.solrDoc.addField("id", Integer.toString(id));
+              cmd.setVersion(id);
+              tlog.write(cmd, 0);
+              tlog.finish(UpdateLog.SyncLevel.FSYNC);
+            }
+          } catch (Throwable th) {
+            error.compareAndSet(null, th);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    assertNull(error.get());
+
+    assertFalse("syncs must not overlap", tlog.overlapped);
+    assertTrue("expected fewer syncs than updates: " + tlog.numSyncs, tlog.numSyncs < numThreads * numUpdates);
+
+    // every update made it to the log
+    Set<Long> versions = new HashSet<Long>();
+    TransactionLog.LogReader reader = tlog.getReader(0);
+    try {
+      for (Object o = reader.next(); o != null; o = reader.next()) {
+        List<?> entry = (List<?>) o;
+        versions.add((Long) entry.get(1));
+      }
+    } finally {
+      reader.close();
+    }
+    assertEquals(numThreads * numUpdates, versions.size());
+
+    // nothing new to sync
+    long before = tlog.numSyncs;
+    tlog.finish(UpdateLog.SyncLevel.FSYNC);
+    assertEquals(before, tlog.numSyncs);
+
+    tlog.decref();
+  }
+}
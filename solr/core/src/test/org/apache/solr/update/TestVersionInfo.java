@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.junit.BeforeClass;
+
+/**
+ * Tests the clock and the update locks of {@link VersionInfo} under concurrency.
+ */
+public class TestVersionInfo extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig-tlog.xml", "schema15.xml");
+  }
+
+  private static VersionInfo getVersionInfo() {
+    return h.getCore().getUpdateHandler().getUpdateLog().getVersionInfo();
+  }
+
+  public void testConcurrentClocks() throws Exception {
+    final VersionInfo vinfo = getVersionInfo();
+    final int numThreads = 8;
+    final int numClocks = atLeast(1000);
+    final List<List<Long>> clocks = new ArrayList<List<Long>>();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final List<Long> threadClocks = new ArrayList<Long>();
+      clocks.add(threadClocks);
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < numClocks; i++) {
+              threadClocks.add(vinfo.getNewClock());
+              if (i % 100 == 0) {
+                // a clock seen from another node
+                vinfo.updateClock(vinfo.getOldClock() + 10);
+              }
+            }
+          } catch (Throwable th) {
+            error.compareAndSet(null, th);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    assertNull(error.get());
+
+    Set<Long> seen = new HashSet<Long>();
+    for (List<Long> threadClocks : clocks) {
+      for (int i = 0; i < threadClocks.size(); i++) {
+        assertTrue("duplicate clock", seen.add(threadClocks.get(i)));
+        if (i > 0) {
+          assertTrue("clock went back", threadClocks.get(i) > threadClocks.get(i - 1));
+        }
+      }
+    }
+    assertEquals(numThreads * numClocks, seen.size());
+
+    long old = vinfo.getOldClock();
+    vinfo.updateClock(old - 1);
+    assertEquals(old, vinfo.getOldClock());
+    assertTrue(vinfo.getNewClock() > old);
+  }
+
+  public void testBlockUpdates() throws Exception {
+    final VersionInfo vinfo = getVersionInfo();
+    final int numThreads = 4;
+    final AtomicBoolean blocked = new AtomicBoolean();
+    final AtomicBoolean updatedWhileBlocked = new AtomicBoolean();
+    final CountDownLatch done = new CountDownLatch(numThreads);
+
+    vinfo.blockUpdates();
+    blocked.set(true);
+    try {
+      // the thread that blocks updates may still update
+      vinfo.lockForUpdate();
+      vinfo.unlockForUpdate();
+
+      for (int t = 0; t < numThreads; t++) {
+        new Thread() {
+          @Override
+          public void run() {
+            vinfo.lockForUpdate();
+            try {
+              if (blocked.get()) updatedWhileBlocked.set(true);
+            } finally {
+              vinfo.unlockForUpdate();
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+      assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+      blocked.set(false);
+    } finally {
+      vinfo.unblockUpdates();
+    }
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    assertFalse(updatedWhileBlocked.get());
+
+    // updates don't block each other
+    vinfo.lockForUpdate();
+    try {
+      final CountDownLatch other = new CountDownLatch(1);
+      new Thread() {
+        @Override
+        public void run() {
+          vinfo.lockForUpdate();
+          vinfo.unlockForUpdate();
+          other.countDown();
+        }
+      }.start();
+      assertTrue(other.await(30, TimeUnit.SECONDS));
+    } finally {
+      vinfo.unlockForUpdate();
+    }
+  }
+}
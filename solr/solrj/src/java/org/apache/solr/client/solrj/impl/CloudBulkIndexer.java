@@ -0,0 +1,429 @@
+package org.apache.solr.client.solrj.impl;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.Aliases;
+import org.apache.solr.common.cloud.DocCollection;
+import org.apache.solr.common.cloud.Replica;
+import org.apache.solr.common.cloud.Slice;
+import org.apache.solr.common.cloud.ZkCoreNodeProps;
+import org.apache.solr.common.cloud.ZkStateReader;
+import org.apache.solr.common.util.SolrjNamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk loads documents into a SolrCloud collection through a
+ * {@link CloudSolrServer}.
+ * <p>
+ * Documents are routed to their shard on the calling thread and put on a
+ * bounded queue per shard. Each shard has its own flusher thread that drains
+ * its queue in batches and sends them to the current shard leader, so shards
+ * are fed in parallel and a slow shard does not hold up the others.
+ * <p>
+ * A full shard queue is the backpressure signal: {@link #add} blocks until
+ * there is room, {@link #offer} gives up after a timeout, and
+ * {@link #getQueueSizes()} reports how far behind each shard is.
+ * <p>
+ * The leader is looked up from the {@link ZkStateReader} cluster state for
+ * every batch, so a new leader is picked up as soon as ZooKeeper reports it.
+ * A batch that fails is retried once against the leader at that time;
+ * batches that still fail are passed to {@link #handleError}. If a flusher
+ * stops before its queue is empty, e.g. after {@link #shutdown()} timed out,
+ * the documents left in the queue are passed to {@link #handleError} too, and
+ * the next document for that shard starts a new flusher.
+ * <p>
+ * This class is thread safe.
+ */
+public class CloudBulkIndexer {
+  static final Logger log = LoggerFactory.getLogger(CloudBulkIndexer.class);
+
+  private final CloudSolrServer server;
+  private final String collection;
+  private final int queueSize;
+  private final int batchSize;
+  private final ExecutorService flushers;
+  private final ConcurrentMap<String,ShardQueue> shardQueues = new ConcurrentHashMap<String,ShardQueue>();
+
+  // docs that were accepted but not yet sent (or given up on)
+  private final AtomicLong pending = new AtomicLong();
+  private final AtomicLong numSent = new AtomicLong();
+  private final AtomicLong numFailed = new AtomicLong();
+
+  private volatile boolean closed = false;
+  private int pollQueueTime = 250;
+  private int leaderWaitTime = 30000;
+
+  /**
+   * @param server
+   *          The client to look up the cluster state and send batches with
+   * @param collection
+   *          The collection (or alias) to index into
+   * @param queueSize
+   *          The number of documents buffered per shard before callers block
+   * @param batchSize
+   *          The maximum number of documents sent to a shard per request
+   */
+  public CloudBulkIndexer(CloudSolrServer server, String collection, int queueSize, int batchSize) {
+    if (collection == null) {
+      throw new IllegalArgumentException("collection must not be null");
+    }
+    if (queueSize < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("queueSize and batchSize must be positive");
+    }
+    this.server = server;
+    this.collection = collection;
+    this.queueSize = queueSize;
+    this.batchSize = batchSize;
+    this.flushers = Executors.newCachedThreadPool(new SolrjNamedThreadFactory("cloudBulkIndexer"));
+    server.connect();
+  }
+
+  /**
+   * Queues a document, waiting for room in its shard's queue if needed.
+   */
+  public void add(SolrInputDocument doc) throws InterruptedException {
+    while (true) {
+      ShardQueue shardQueue = getShardQueue(doc);
+      pending.incrementAndGet();
+      try {
+        shardQueue.queue.put(doc);
+      } catch (InterruptedException e) {
+        done(1);
+        throw e;
+      }
+      if (!unqueueIfStopped(shardQueue, doc)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Queues a document unless its shard's queue stays full for longer than the
+   * given time.
+   *
+   * @return false if the shard leader is too far behind to accept the document
+   */
+  public boolean offer(SolrInputDocument doc, long timeout, TimeUnit unit) throws InterruptedException {
+    while (true) {
+      ShardQueue shardQueue = getShardQueue(doc);
+      pending.incrementAndGet();
+      boolean queued = false;
+      try {
+        queued = shardQueue.queue.offer(doc, timeout, unit);
+      } finally {
+        if (!queued) {
+          done(1);
+        }
+      }
+      if (!queued || !unqueueIfStopped(shardQueue, doc)) {
+        return queued;
+      }
+    }
+  }
+
+  /**
+   * Takes a document that was just queued back if its flusher may have
+   * exited in the meantime, in which case nobody would send it.
+   *
+   * @return true if the document should be queued again on a new flusher
+   */
+  private boolean unqueueIfStopped(ShardQueue shardQueue, SolrInputDocument doc) {
+    if (!closed && !shardQueue.stopped) {
+      return false;
+    }
+    if (!shardQueue.queue.remove(doc)) {
+      // the flusher got it before it stopped
+      return false;
+    }
+    done(1);
+    if (closed) {
+      throw new IllegalStateException("CloudBulkIndexer has been shut down");
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of documents waiting to be sent, keyed by shard name
+   */
+  public Map<String,Integer> getQueueSizes() {
+    Map<String,Integer> sizes = new HashMap<String,Integer>();
+    for (ShardQueue shardQueue : shardQueues.values()) {
+      sizes.put(shardQueue.shard, shardQueue.queue.size());
+    }
+    return sizes;
+  }
+
+  /**
+   * @return the number of documents waiting to be sent to the given shard
+   */
+  public int getQueueSize(String shard) {
+    ShardQueue shardQueue = shardQueues.get(shard);
+    return shardQueue == null ? 0 : shardQueue.queue.size();
+  }
+
+  /** The number of documents successfully sent so far */
+  public long getNumSent() {
+    return numSent.get();
+  }
+
+  /** The number of documents that could not be sent */
+  public long getNumFailed() {
+    return numFailed.get();
+  }
+
+  /**
+   * Waits until every queued document has been sent or given up on.
+   */
+  public void blockUntilFinished() throws InterruptedException {
+    synchronized (pending) {
+      while (pending.get() > 0) {
+        pending.wait(pollQueueTime);
+      }
+    }
+  }
+
+  /**
+   * Sends all queued documents and stops the flusher threads. No documents
+   * may be added afterwards.
+   */
+  public void shutdown() {
+    closed = true;
+    flushers.shutdown();
+    try {
+      if (!flushers.awaitTermination(60, TimeUnit.SECONDS)) {
+        flushers.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      flushers.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Called with a batch that could not be sent to its shard. The default
+   * implementation logs the error.
+   */
+  protected void handleError(String shard, List<SolrInputDocument> batch, Throwable ex) {
+    log.error("Could not send " + batch.size() + " documents to shard " + shard, ex);
+  }
+
+  /**
+   * How long a flusher waits for more documents before checking whether it
+   * should stop, in ms.
+   */
+  public void setPollQueueTime(int pollQueueTime) {
+    this.pollQueueTime = pollQueueTime;
+  }
+
+  /**
+   * How long to wait for a shard to get a leader before failing a batch, in
+   * ms.
+   */
+  public void setLeaderWaitTime(int leaderWaitTime) {
+    this.leaderWaitTime = leaderWaitTime;
+  }
+
+  private ShardQueue getShardQueue(SolrInputDocument doc) {
+    if (closed) {
+      throw new IllegalStateException("CloudBulkIndexer has been shut down");
+    }
+    Object id = doc.getFieldValue(server.getIdField());
+    if (id == null) {
+      throw new SolrException(ErrorCode.BAD_REQUEST, "Document is missing mandatory id field " + server.getIdField());
+    }
+    DocCollection col = getCollection();
+    Slice slice = col.getRouter().getTargetSlice(id.toString(), doc, null, col);
+    if (slice == null) {
+      throw new SolrException(ErrorCode.BAD_REQUEST, "No active slice for document " + id + " in collection " + col.getName());
+    }
+    String shard = slice.getName();
+    ShardQueue shardQueue = shardQueues.get(shard);
+    if (shardQueue == null) {
+      synchronized (shardQueues) {
+        shardQueue = shardQueues.get(shard);
+        if (shardQueue == null) {
+          shardQueue = new ShardQueue(col.getName(), shard);
+          shardQueues.put(shard, shardQueue);
+          try {
+            flushers.execute(shardQueue);
+          } catch (RejectedExecutionException e) {
+            // shut down concurrently
+            shardQueues.remove(shard);
+            throw new IllegalStateException("CloudBulkIndexer has been shut down");
+          }
+        }
+      }
+    }
+    return shardQueue;
+  }
+
+  private DocCollection getCollection() {
+    ZkStateReader zkStateReader = server.getZkStateReader();
+    String name = collection;
+    Aliases aliases = zkStateReader.getAliases();
+    if (aliases != null) {
+      Map<String,String> collectionAliases = aliases.getCollectionAliasMap();
+      if (collectionAliases != null && collectionAliases.containsKey(name)) {
+        name = collectionAliases.get(name);
+      }
+    }
+    return zkStateReader.getClusterState().getCollection(name);
+  }
+
+  // handleError may be overridden to rethrow, which must not kill the flusher
+  private void fail(String shard, List<SolrInputDocument> batch, Throwable ex) {
+    numFailed.addAndGet(batch.size());
+    try {
+      handleError(shard, batch, ex);
+    } catch (Throwable t) {
+      log.error("Error handler failed for shard " + shard, t);
+    }
+  }
+
+  private void done(int numDocs) {
+    if (pending.addAndGet(-numDocs) == 0) {
+      synchronized (pending) {
+        pending.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * The documents routed to one shard and the flusher that sends them.
+   */
+  class ShardQueue implements Runnable {
+    final String collection;
+    final String shard;
+    final BlockingQueue<SolrInputDocument> queue;
+    // set once the flusher exits, after which queued documents are not sent
+    volatile boolean stopped = false;
+
+    ShardQueue(String collection, String shard) {
+      this.collection = collection;
+      this.shard = shard;
+      this.queue = new ArrayBlockingQueue<SolrInputDocument>(queueSize);
+    }
+
+    @Override
+    public void run() {
+      log.debug("starting flusher for shard {}", shard);
+      List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+      try {
+        while (!closed || !queue.isEmpty()) {
+          try {
+            SolrInputDocument doc = queue.poll(pollQueueTime, TimeUnit.MILLISECONDS);
+            if (doc == null) {
+              continue;
+            }
+            batch.add(doc);
+            queue.drainTo(batch, batchSize - 1);
+            send(batch);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          } finally {
+            if (!batch.isEmpty()) {
+              done(batch.size());
+              batch.clear();
+            }
+          }
+        }
+      } finally {
+        stop();
+      }
+      log.debug("stopping flusher for shard {}", shard);
+    }
+
+    // fails whatever is left, so that blockUntilFinished() returns
+    private void stop() {
+      stopped = true;
+      shardQueues.remove(shard, this);
+      List<SolrInputDocument> rest = new ArrayList<SolrInputDocument>();
+      queue.drainTo(rest);
+      if (!rest.isEmpty()) {
+        try {
+          fail(shard, rest, new SolrException(ErrorCode.SERVICE_UNAVAILABLE,
+              "The flusher of shard " + shard + " stopped before sending " + rest.size() + " documents"));
+        } finally {
+          done(rest.size());
+        }
+      }
+    }
+
+    private void send(List<SolrInputDocument> batch) throws InterruptedException {
+      UpdateRequest request = new UpdateRequest();
+      request.add(new ArrayList<SolrInputDocument>(batch));
+      Exception failure = null;
+      // a failed batch is retried once, after the leader may have moved
+      for (int attempt = 0; attempt < 2; attempt++) {
+        try {
+          server.getLbServer().request(new LBHttpSolrServer.Req(request, getUrls()));
+          numSent.addAndGet(batch.size());
+          return;
+        } catch (InterruptedException e) {
+          throw e;
+        } catch (Exception e) {
+          failure = e;
+          if (e instanceof SolrException && ((SolrException) e).code() / 100 == 4) {
+            // the documents were rejected, sending them again won't help
+            break;
+          }
+          log.warn("Sending " + batch.size() + " documents to shard " + shard + " failed", e);
+        }
+      }
+      fail(shard, batch, failure);
+    }
+
+    // the current leader first, then the other replicas which forward to it
+    private List<String> getUrls() throws InterruptedException {
+      ZkStateReader zkStateReader = server.getZkStateReader();
+      Replica leader = zkStateReader.getLeaderRetry(collection, shard, leaderWaitTime);
+      List<String> urls = new ArrayList<String>();
+      urls.add(new ZkCoreNodeProps(leader).getBaseUrl() + "/" + collection);
+      Slice slice = zkStateReader.getClusterState().getSlice(collection, shard);
+      if (slice != null) {
+        for (Replica replica : slice.getReplicas()) {
+          if (!replica.getName().equals(leader.getName())
+              && zkStateReader.getClusterState().liveNodesContain(replica.getNodeName())) {
+            urls.add(new ZkCoreNodeProps(replica).getBaseUrl() + "/" + collection);
+          }
+        }
+      }
+      return urls;
+    }
+  }
+}
@@ -264,6 +264,18 @@ public class CloudSolrServer extends SolrServer {
     this.parallelUpdates = parallelUpdates;
   }
 
+  /**
+   * Creates a {@link CloudBulkIndexer} that batches documents per shard and
+   * sends the batches to the shard leaders in parallel.
+   *
+   * @param collection the collection to index into, or null for the default collection
+   * @param queueSize the number of documents buffered per shard
+   * @param batchSize the maximum number of documents sent per request
+   */
+  public CloudBulkIndexer createBulkIndexer(String collection, int queueSize, int batchSize) {
+    return new CloudBulkIndexer(this, collection != null ? collection : defaultCollection, queueSize, batchSize);
+  }
+
   private NamedList directUpdate(AbstractUpdateRequest request, ClusterState clusterState) throws SolrServerException {
     UpdateRequest updateRequest = (UpdateRequest) request;
     ModifiableSolrParams params = (ModifiableSolrParams) request.getParams();
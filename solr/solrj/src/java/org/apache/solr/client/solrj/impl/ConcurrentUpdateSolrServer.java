@@ -19,7 +19,9 @@ package org.apache.solr.client.solrj.impl;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
@@ -80,6 +82,10 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
   final int threadCount;
   boolean shutdownExecutor = false;
   int pollQueueTime = 250;
+  boolean streamDeletes = false;
+
+  // how often a runner waiting for more updates checks whether someone waits for the queue to drain
+  private static final long POLL_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
 
   /**
    * Uses an internally managed HttpClient instance.
@@ -122,6 +128,10 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
    */
   class Runner implements Runnable {
     final Lock runnerLock = new ReentrantLock();
+    // the requests sent in the current http request
+    final List<UpdateRequest> streamed = new ArrayList<UpdateRequest>();
+    // a request with other params than the current http request: it starts the next one
+    UpdateRequest next;
 
     @Override
     public void run() {
@@ -131,12 +141,19 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
       HttpPost method = null;
       HttpResponse response = null;
       try {
-        while (!queue.isEmpty()) {
+        while (next != null || !queue.isEmpty()) {
           try {
-            final UpdateRequest updateRequest = queue.poll(250,
-                TimeUnit.MILLISECONDS);
+            final UpdateRequest updateRequest;
+            if (next != null) {
+              updateRequest = next;
+              next = null;
+            } else {
+              updateRequest = queue.poll(250, TimeUnit.MILLISECONDS);
+            }
             if (updateRequest == null)
               break;
+            streamed.clear();
+            streamed.add(updateRequest);
 
             String contentType = server.requestWriter.getUpdateContentType();
             final boolean isXml = ClientUtils.TEXT_XML.equals(contentType);
@@ -155,10 +172,14 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
                   while (req != null) {
                     SolrParams currentParams = new ModifiableSolrParams(req.getParams());
                     if (!origParams.toNamedList().equals(currentParams.toNamedList())) {
-                      queue.add(req); // params are different, push back to queue
+                      // params are different: send it next, so that updates stay in order
+                      next = req;
                       break;
                     }
-                    
+                    if (req != updateRequest) {
+                      streamed.add(req);
+                    }
+
                     server.requestWriter.write(req, out);
                     if (isXml) {
                       // check for commit or optimize
@@ -180,7 +201,7 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
                       }
                     }
                     out.flush();
-                    req = queue.poll(pollQueueTime, TimeUnit.MILLISECONDS);
+                    req = pollQueue();
                   }
                   if (isXml) {
                     out.write("</stream>".getBytes("UTF-8"));
@@ -214,7 +235,8 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
               msg.append("\n\n");
               msg.append("\n\n");
               msg.append("request: ").append(method.getURI());
-              handleError(new SolrException(ErrorCode.getErrorCode(statusCode), msg.toString()));
+              handleError(new SolrException(ErrorCode.getErrorCode(statusCode), msg.toString()),
+                  new ArrayList<UpdateRequest>(streamed));
             }
           } finally {
             try {
@@ -227,8 +249,15 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
           }
         }
       } catch (Throwable e) {
-        handleError(e);
+        List<UpdateRequest> failed = new ArrayList<UpdateRequest>(streamed);
+        if (next != null) {
+          // never sent
+          failed.add(next);
+          next = null;
+        }
+        handleError(e, failed);
       } finally {
+        streamed.clear();
 
         // remove it from the list of running things unless we are the last
         // runner and the queue is full...
@@ -252,6 +281,23 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
     }
   }
 
+  /**
+   * Waits up to pollQueueTime for the next update to stream, but stops waiting as
+   * soon as {@link #blockUntilFinished()} is waiting for the runners to finish.
+   */
+  private UpdateRequest pollQueue() throws InterruptedException {
+    UpdateRequest req = queue.poll();
+    if (req != null || pollQueueTime <= 0) return req;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pollQueueTime);
+    while (lock == null) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) return null;
+      req = queue.poll(Math.min(remaining, POLL_SLICE_NANOS), TimeUnit.NANOSECONDS);
+      if (req != null) return req;
+    }
+    return queue.poll();
+  }
+
   @Override
   public NamedList<Object> request(final SolrRequest request)
       throws SolrServerException, IOException {
@@ -261,7 +307,7 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
     UpdateRequest req = (UpdateRequest) request;
 
     // this happens for commit...
-    if (req.getDocuments() == null || req.getDocuments().isEmpty()) {
+    if ((req.getDocuments() == null || req.getDocuments().isEmpty()) && !isStreamedDelete(req)) {
       blockUntilFinished();
       return server.request(request);
     }
@@ -340,6 +386,12 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
     return dummy;
   }
 
+  private boolean isStreamedDelete(UpdateRequest req) {
+    if (!streamDeletes || req.getAction() != null) return false;
+    return (req.getDeleteByIdMap() != null && !req.getDeleteByIdMap().isEmpty())
+        || (req.getDeleteQuery() != null && !req.getDeleteQuery().isEmpty());
+  }
+
   public synchronized void blockUntilFinished() {
     lock = new CountDownLatch(1);
     try {
@@ -364,6 +416,15 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
     log.error("error", ex);
   }
 
+  /**
+   * Called when the http request that streamed the given update requests
+   * failed. The server does not tell which of them failed, and those after
+   * it were not applied. By default calls {@link #handleError(Throwable)}.
+   */
+  public void handleError(Throwable ex, List<UpdateRequest> requests) {
+    handleError(ex);
+  }
+
   @Override
   public void shutdown() {
     server.shutdown();
@@ -421,6 +482,16 @@ public class ConcurrentUpdateSolrServer extends SolrServer {
     this.pollQueueTime = pollQueueTime;
   }
 
+  /**
+   * @param streamDeletes if true, deletes are streamed in order with the added
+   * documents instead of waiting for the queue to drain and being sent in a request
+   * of their own. The request writer must be able to write several update requests
+   * into a single stream, like {@link BinaryRequestWriter}.
+   */
+  public void setStreamDeletes(boolean streamDeletes) {
+    this.streamDeletes = streamDeletes;
+  }
+
   public void setRequestWriter(RequestWriter requestWriter) {
     server.setRequestWriter(requestWriter);
   }
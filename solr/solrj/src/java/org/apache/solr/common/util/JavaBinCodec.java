@@ -26,6 +26,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.nio.ByteBuffer;
 
 /**
@@ -35,8 +37,9 @@ import java.nio.ByteBuffer;
  * ObjectResolver and pass it over It is expected that this class is used on both end of the pipes. The class has one
  * read method and one write method for each of the datatypes
  * <p/>
- * Note -- Never re-use an instance of this class for more than one marshal or unmarshall operation. Always create a new
- * instance.
+ * Note -- An instance must not be shared between threads. The scratch buffers, string cache and extern string table
+ * are taken from a pool at the start of {@link #marshal} and {@link #unmarshal} and returned at the end, so creating
+ * a new instance per operation is cheap.
  */
 public class JavaBinCodec {
 
@@ -86,12 +89,19 @@ public class JavaBinCodec {
   }
 
   public void marshal(Object nl, OutputStream os) throws IOException {
-    init(FastOutputStream.wrap(os));
+    final boolean pooled = acquireContext();
+    final boolean wrapped = !(os instanceof FastOutputStream);
+    init(wrapped ? new FastOutputStream(os, ctx.ioBuffer, 0) : (FastOutputStream) os);
     try {
       daos.writeByte(VERSION);
       writeVal(nl);
     } finally {
       daos.flushBuffer();
+      if (pooled) {
+        // the stream buffer goes back to the pool too
+        if (wrapped) daos = null;
+        releaseContext();
+      }
     }
   }
 
@@ -103,13 +113,131 @@ public class JavaBinCodec {
   byte version;
 
   public Object unmarshal(InputStream is) throws IOException {
-    FastInputStream dis = FastInputStream.wrap(is);
-    version = dis.readByte();
-    if (version != VERSION) {
-      throw new RuntimeException("Invalid version (expected " + VERSION +
-          ", but " + version + ") or the data in not in 'javabin' format");
+    final boolean pooled = acquireContext();
+    try {
+      FastInputStream dis = is instanceof FastInputStream ? (FastInputStream) is : new FastInputStream(is, ctx.ioBuffer, 0, 0);
+      version = dis.readByte();
+      if (version != VERSION) {
+        throw new RuntimeException("Invalid version (expected " + VERSION +
+            ", but " + version + ") or the data in not in 'javabin' format");
+      }
+      return readVal(dis);
+    } finally {
+      if (pooled) releaseContext();
+    }
+  }
+
+  private Context ctx;
+
+  // takes a context from the pool unless this codec already has one
+  private boolean acquireContext() {
+    if (ctx != null) return false;
+    ctx = Context.POOL.poll();
+    if (ctx == null) ctx = new Context(true);
+    return true;
+  }
+
+  private void releaseContext() {
+    Context released = ctx;
+    ctx = null;
+    released.release();
+  }
+
+  // the context for codecs that are used without marshal/unmarshal
+  private Context context() {
+    if (ctx == null) ctx = new Context(false);
+    return ctx;
+  }
+
+  /**
+   * The scratch state of a codec: the stream buffer, the UTF-8 buffer, the
+   * string cache and the extern string table of the current message.
+   */
+  static final class Context {
+    static final BlockingQueue<Context> POOL = new ArrayBlockingQueue<Context>(
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    // don't pool buffers that grew larger than this
+    private static final int MAX_POOLED_SIZE = 1 << 16;
+
+    // only in pooled contexts: codecs used without marshal/unmarshal, like
+    // those of the transaction log, often live for a single value
+    final byte[] ioBuffer;
+    final StringCache strings;
+    byte[] bytes;
+    CharArr arr = new CharArr();
+
+    int stringsCount = 0;
+    Map<String, Integer> stringsMap;
+    List<String> stringsList;
+
+    Context(boolean pooled) {
+      ioBuffer = pooled ? new byte[8192] : null;
+      strings = pooled ? new StringCache() : null;
+    }
+
+    void release() {
+      stringsCount = 0;
+      if (stringsMap != null) {
+        if (stringsMap.size() > 1024) stringsMap = null;
+        else stringsMap.clear();
+      }
+      if (stringsList != null) {
+        if (stringsList.size() > 1024) stringsList = null;
+        else stringsList.clear();
+      }
+      if (bytes != null && bytes.length > MAX_POOLED_SIZE) bytes = null;
+      if (arr.capacity() > MAX_POOLED_SIZE) arr = new CharArr();
+      POOL.offer(this);
+    }
+  }
+
+  /**
+   * A direct mapped cache of short strings keyed by their UTF-8 bytes, so
+   * that strings which repeat across a response (field values, facet terms)
+   * are decoded and allocated once.
+   */
+  static final class StringCache {
+    static final int SIZE = 512; // must be a power of 2
+    static final int MAX_LENGTH = 32;
+
+    private final byte[] keys = new byte[SIZE * MAX_LENGTH];
+    private final int[] lengths = new int[SIZE];
+    private final String[] values = new String[SIZE];
+
+    String get(byte[] utf8, int len, CharArr arr) {
+      if (len > MAX_LENGTH) {
+        return decode(utf8, len, arr);
+      }
+      int hash = 0;
+      for (int i = 0; i < len; i++) {
+        hash = 31 * hash + utf8[i];
+      }
+      final int slot = (hash ^ (hash >>> 9)) & (SIZE - 1);
+      final int base = slot * MAX_LENGTH;
+      String value = values[slot];
+      if (value != null && lengths[slot] == len && matches(utf8, len, base)) {
+        return value;
+      }
+      value = decode(utf8, len, arr);
+      System.arraycopy(utf8, 0, keys, base, len);
+      lengths[slot] = len;
+      values[slot] = value;
+      return value;
+    }
+
+    private boolean matches(byte[] utf8, int len, int base) {
+      for (int i = 0; i < len; i++) {
+        if (keys[base + i] != utf8[i]) return false;
+      }
+      return true;
+    }
+
+    private static String decode(byte[] utf8, int len, CharArr arr) {
+      arr.reset();
+      ByteUtils.UTF8toUTF16(utf8, 0, len, arr);
+      return arr.toString();
     }
-    return readVal(dis);
   }
 
 
@@ -246,6 +374,22 @@ public class JavaBinCodec {
       writeArray((Object[]) val);
       return true;
     }
+    if (val instanceof int[]) {
+      writeIntArray((int[]) val);
+      return true;
+    }
+    if (val instanceof long[]) {
+      writeLongArray((long[]) val);
+      return true;
+    }
+    if (val instanceof float[]) {
+      writeFloatArray((float[]) val);
+      return true;
+    }
+    if (val instanceof double[]) {
+      writeDoubleArray((double[]) val);
+      return true;
+    }
     if (val instanceof SolrDocument) {
       //this needs special treatment to know which fields are to be written
       if (resolver == null) {
@@ -454,6 +598,47 @@ public class JavaBinCodec {
     }
   }
 
+  /**
+   * Writes the ints without boxing them. They are read back as a List of Integers.
+   */
+  public void writeIntArray(int[] arr) throws IOException {
+    writeTag(ARR, arr.length);
+    for (int i = 0; i < arr.length; i++) {
+      writeInt(arr[i]);
+    }
+  }
+
+  /**
+   * Writes the longs without boxing them. They are read back as a List of Longs.
+   */
+  public void writeLongArray(long[] arr) throws IOException {
+    writeTag(ARR, arr.length);
+    for (int i = 0; i < arr.length; i++) {
+      writeLong(arr[i]);
+    }
+  }
+
+  /**
+   * Writes the floats without boxing them. They are read back as a List of Floats.
+   */
+  public void writeFloatArray(float[] arr) throws IOException {
+    writeTag(ARR, arr.length);
+    for (int i = 0; i < arr.length; i++) {
+      writeFloat(arr[i]);
+    }
+  }
+
+  /**
+   * Writes the doubles without boxing them. They are read back as a List of Doubles.
+   */
+  public void writeDoubleArray(double[] arr) throws IOException {
+    writeTag(ARR, arr.length);
+    for (int i = 0; i < arr.length; i++) {
+      daos.writeByte(DOUBLE);
+      daos.writeDouble(arr[i]);
+    }
+  }
+
   public List<Object> readArray(DataInputInputStream dis) throws IOException {
     int sz = readSize(dis);
     ArrayList<Object> l = new ArrayList<Object>(sz);
@@ -471,26 +656,30 @@ public class JavaBinCodec {
       writeTag(NULL);
       return;
     }
+    Context ctx = context();
     int end = s.length();
     int maxSize = end * 4;
-    if (bytes == null || bytes.length < maxSize) bytes = new byte[maxSize];
-    int sz = ByteUtils.UTF16toUTF8(s, 0, end, bytes, 0);
+    if (ctx.bytes == null || ctx.bytes.length < maxSize) ctx.bytes = new byte[maxSize];
+    int sz = ByteUtils.UTF16toUTF8(s, 0, end, ctx.bytes, 0);
 
     writeTag(STR, sz);
-    daos.write(bytes, 0, sz);
+    daos.write(ctx.bytes, 0, sz);
   }
 
-  byte[] bytes;
-  CharArr arr = new CharArr();
+  /**
+   * write a string that is already UTF-8 encoded, without decoding it
+   */
+  public void writeUTF8Str(byte[] utf8, int offset, int len) throws IOException {
+    writeTag(STR, len);
+    daos.write(utf8, offset, len);
+  }
 
   public String readStr(DataInputInputStream dis) throws IOException {
     int sz = readSize(dis);
-    if (bytes == null || bytes.length < sz) bytes = new byte[sz];
-    dis.readFully(bytes, 0, sz);
-
-    arr.reset();
-    ByteUtils.UTF8toUTF16(bytes, 0, sz, arr);
-    return arr.toString();
+    Context ctx = context();
+    if (ctx.bytes == null || ctx.bytes.length < sz) ctx.bytes = new byte[sz];
+    dis.readFully(ctx.bytes, 0, sz);
+    return ctx.strings == null ? StringCache.decode(ctx.bytes, sz, ctx.arr) : ctx.strings.get(ctx.bytes, sz, ctx.arr);
   }
 
   public void writeInt(int val) throws IOException {
@@ -673,34 +862,32 @@ public class JavaBinCodec {
     return i;
   }
 
-  private int stringsCount = 0;
-  private Map<String, Integer> stringsMap;
-  private List<String> stringsList;
-
   public void writeExternString(String s) throws IOException {
     if (s == null) {
       writeTag(NULL);
       return;
     }
-    Integer idx = stringsMap == null ? null : stringsMap.get(s);
+    Context ctx = context();
+    Integer idx = ctx.stringsMap == null ? null : ctx.stringsMap.get(s);
     if (idx == null) idx = 0;
     writeTag(EXTERN_STRING, idx);
     if (idx == 0) {
       writeStr(s);
-      if (stringsMap == null) stringsMap = new HashMap<String, Integer>();
-      stringsMap.put(s, ++stringsCount);
+      if (ctx.stringsMap == null) ctx.stringsMap = new HashMap<String, Integer>();
+      ctx.stringsMap.put(s, ++ctx.stringsCount);
     }
 
   }
 
   public String readExternString(DataInputInputStream fis) throws IOException {
     int idx = readSize(fis);
+    Context ctx = context();
     if (idx != 0) {// idx != 0 is the index of the extern string
-      return stringsList.get(idx - 1);
+      return ctx.stringsList.get(idx - 1);
     } else {// idx == 0 means it has a string value
       String s = (String) readVal(fis);
-      if (stringsList == null) stringsList = new ArrayList<String>();
-      stringsList.add(s);
+      if (ctx.stringsList == null) ctx.stringsList = new ArrayList<String>();
+      ctx.stringsList.add(s);
       return s;
     }
   }
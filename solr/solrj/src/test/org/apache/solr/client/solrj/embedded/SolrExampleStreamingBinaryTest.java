@@ -17,11 +17,18 @@ package org.apache.solr.client.solrj.embedded;
  * limitations under the License.
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.lucene.util.LuceneTestCase.Slow;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
 import org.apache.solr.client.solrj.impl.BinaryResponseParser;
 import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrServer;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
 
 @Slow
 public class SolrExampleStreamingBinaryTest extends SolrExampleStreamingTest {
@@ -33,4 +40,106 @@ public class SolrExampleStreamingBinaryTest extends SolrExampleStreamingTest {
     s.setRequestWriter(new BinaryRequestWriter());
     return s;
   }
+
+  public void testStreamedDeletes() throws Exception {
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    ConcurrentUpdateSolrServer s = new ConcurrentUpdateSolrServer(
+        jetty.getBaseUrl().toString() + "/collection1", 10, 1) {
+      @Override
+      public void handleError(Throwable ex) {
+        failures.add(ex);
+      }
+    };
+    s.setParser(new BinaryResponseParser());
+    s.setRequestWriter(new BinaryRequestWriter());
+    s.setStreamDeletes(true);
+    // a stream waits a long time for more updates...
+    s.setPollQueueTime(60000);
+    try {
+      s.deleteByQuery("*:*");
+      for (int i = 0; i < 10; i++) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", "streamed" + i);
+        s.add(doc);
+      }
+      s.deleteById("streamed3");
+      s.deleteByQuery("id:streamed5");
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.addField("id", "streamed5");
+      s.add(doc);
+
+      // ...but not when someone is waiting for it to finish
+      long start = System.nanoTime();
+      s.blockUntilFinished();
+      assertTrue(System.nanoTime() - start < 30000000000L);
+      assertEquals(0, failures.size());
+    } finally {
+      s.shutdown();
+    }
+
+    // the deletes were applied in order with the adds
+    HttpSolrServer server = new HttpSolrServer(jetty.getBaseUrl().toString() + "/collection1");
+    try {
+      server.commit();
+      assertEquals(9, server.query(new SolrQuery("id:streamed*")).getResults().getNumFound());
+      assertEquals(1, server.query(new SolrQuery("id:streamed5")).getResults().getNumFound());
+      assertEquals(0, server.query(new SolrQuery("id:streamed3")).getResults().getNumFound());
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  public void testStreamedDeleteWithOtherParams() throws Exception {
+    final List<UpdateRequest> failed = new ArrayList<UpdateRequest>();
+    ConcurrentUpdateSolrServer s = new ConcurrentUpdateSolrServer(
+        jetty.getBaseUrl().toString() + "/collection1", 10, 1) {
+      @Override
+      public void handleError(Throwable ex, List<UpdateRequest> requests) {
+        synchronized (failed) {
+          failed.addAll(requests);
+        }
+      }
+    };
+    s.setParser(new BinaryResponseParser());
+    s.setRequestWriter(new BinaryRequestWriter());
+    s.setStreamDeletes(true);
+    s.setPollQueueTime(60000);
+    try {
+      s.deleteByQuery("*:*");
+      for (int i = 0; i < 10; i++) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", "other" + i);
+        s.add(doc);
+      }
+      // like the _version_ of a distributed delete by query, the params
+      // differ from those of the adds around it
+      UpdateRequest delete = new UpdateRequest();
+      delete.deleteByQuery("id:other5");
+      delete.setParam("some.param", "42");
+      s.request(delete);
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.addField("id", "other5");
+      s.add(doc);
+
+      // a failing request, in a stream of its own
+      UpdateRequest bad = new UpdateRequest();
+      bad.add(new SolrInputDocument());
+      bad.setParam("some.param", "43");
+      s.request(bad);
+      s.blockUntilFinished();
+      assertEquals(1, failed.size());
+      assertSame(bad, failed.get(0));
+    } finally {
+      s.shutdown();
+    }
+
+    // the delete was applied before the add that followed it
+    HttpSolrServer server = new HttpSolrServer(jetty.getBaseUrl().toString() + "/collection1");
+    try {
+      server.commit();
+      assertEquals(10, server.query(new SolrQuery("id:other*")).getResults().getNumFound());
+    } finally {
+      server.shutdown();
+    }
+  }
 }
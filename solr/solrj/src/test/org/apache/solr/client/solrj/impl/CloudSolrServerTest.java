@@ -19,17 +19,23 @@ package org.apache.solr.client.solrj.impl;
 
 import java.io.File;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.lucene.util.LuceneTestCase.Slow;
+import org.apache.solr.client.solrj.StreamingResponseCallback;
 import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
 import org.apache.solr.client.solrj.request.QueryRequest;
 import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.cloud.AbstractFullDistribZkTestBase;
 import org.apache.solr.cloud.AbstractZkTestCase;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -192,8 +198,132 @@ public class CloudSolrServerTest extends AbstractFullDistribZkTestBase {
       threadedClient.shutdown();
     }
     
+    bulkIndex();
+    
+    streamResponse();
+    
+    del("*:*");
+    commit();
+  }
+  
+  private void bulkIndex() throws Exception {
+    del("*:*");
+    commit();
+    
+    CloudBulkIndexer indexer = cloudClient.createBulkIndexer(null, 10, 7);
+    try {
+      int numDocs = atLeast(100);
+      for (int i = 0; i < numDocs; i++) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(id, 1000 + i);
+        doc.addField("a_t", "bulk");
+        if (i % 2 == 0) {
+          indexer.add(doc);
+        } else {
+          assertTrue(indexer.offer(doc, 30, TimeUnit.SECONDS));
+        }
+      }
+      indexer.blockUntilFinished();
+      assertEquals(numDocs, indexer.getNumSent());
+      assertEquals(0, indexer.getNumFailed());
+      
+      // every shard got its own queue
+      Map<String,Integer> queueSizes = indexer.getQueueSizes();
+      assertEquals(sliceCount, queueSizes.size());
+      for (Integer size : queueSizes.values()) {
+        assertEquals(0, size.intValue());
+      }
+      
+      commit();
+      ModifiableSolrParams params = new ModifiableSolrParams();
+      params.add("q", "a_t:bulk");
+      assertEquals(numDocs, cloudClient.query(params).getResults().getNumFound());
+    } finally {
+      indexer.shutdown();
+    }
+    
+    try {
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.addField(id, 999);
+      indexer.add(doc);
+      fail("Expected exception");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    
+    // an error handler that rethrows must not stop the flushers
+    final AtomicInteger numErrors = new AtomicInteger();
+    indexer = new CloudBulkIndexer(cloudClient, cloudClient.getDefaultCollection(), 10, 7) {
+      @Override
+      protected void handleError(String shard, List<SolrInputDocument> batch, Throwable ex) {
+        numErrors.incrementAndGet();
+        throw new RuntimeException(ex);
+      }
+    };
+    ignoreException("not_a_number");
+    try {
+      int numBad = atLeast(20);
+      for (int i = 0; i < numBad; i++) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(id, 2000 + i);
+        doc.addField("a_i", "not_a_number");
+        indexer.add(doc);
+      }
+      indexer.blockUntilFinished();
+      assertEquals(numBad, indexer.getNumFailed());
+      assertTrue(numErrors.get() > 0);
+      
+      int numGood = atLeast(20);
+      for (int i = 0; i < numGood; i++) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(id, 3000 + i);
+        doc.addField("a_t", "bulk");
+        indexer.add(doc);
+      }
+      indexer.blockUntilFinished();
+      assertEquals(numGood, indexer.getNumSent());
+    } finally {
+      indexer.shutdown();
+      resetExceptionIgnores();
+    }
+  }
+  
+  private void streamResponse() throws Exception {
     del("*:*");
+    int numDocs = atLeast(50);
+    for (int i = 0; i < numDocs; i++) {
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.addField(id, i);
+      doc.addField("a_t", "stream");
+      cloudClient.add(doc);
+    }
     commit();
+    
+    final List<SolrDocument> streamed = new ArrayList<SolrDocument>();
+    final long[] numFound = new long[1];
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    params.add("q", "a_t:stream");
+    params.add("rows", Integer.toString(numDocs));
+    params.add("sort", "id asc");
+    QueryResponse rsp = cloudClient.queryAndStreamResponse(params, new StreamingResponseCallback() {
+      @Override
+      public void streamSolrDocument(SolrDocument doc) {
+        streamed.add(doc);
+      }
+      
+      @Override
+      public void streamDocListInfo(long found, long start, Float maxScore) {
+        numFound[0] = found;
+      }
+    });
+    
+    // the documents went to the callback, not into the response
+    assertEquals(numDocs, numFound[0]);
+    assertEquals(0, rsp.getResults().size());
+    assertEquals(numDocs, streamed.size());
+    for (int i = 0; i < numDocs; i++) {
+      assertEquals(i, ((Number) streamed.get(i).getFieldValue(id)).intValue());
+    }
   }
   
   @Override
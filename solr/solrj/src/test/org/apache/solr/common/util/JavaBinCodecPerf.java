@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.solr.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+
+/** Performance tester for JavaBinCodec.
+ * Marshals or unmarshals a query response or an update request with the given
+ * number of documents over and over, and prints the time taken and the number
+ * of bytes per message.  Use -Xbatch for more predictable results, and run
+ * tests such that the duration is at least 10 seconds for better accuracy.
+ */
+public class JavaBinCodecPerf {
+  static Random rand = new Random(0);
+
+  static NamedList<Object> queryResponse(int numDocs) {
+    SolrDocumentList docs = new SolrDocumentList();
+    docs.setNumFound(numDocs * 100);
+    docs.setStart(0);
+    docs.setMaxScore(1.0f);
+    for (int i = 0; i < numDocs; i++) {
+      SolrDocument doc = new SolrDocument();
+      doc.addField("id", "doc" + i);
+      doc.addField("title", "title " + rand.nextInt(1000));
+      doc.addField("cat", "cat" + rand.nextInt(10));
+      doc.addField("cat", "cat" + rand.nextInt(10));
+      doc.addField("price", rand.nextFloat() * 100);
+      doc.addField("popularity", rand.nextInt(10));
+      doc.addField("timestamp", new Date(rand.nextLong() >>> 24));
+      doc.addField("score", rand.nextFloat());
+      docs.add(doc);
+    }
+
+    NamedList<Object> header = new SimpleOrderedMap<Object>();
+    header.add("status", 0);
+    header.add("QTime", rand.nextInt(100));
+
+    NamedList<Object> counts = new NamedList<Object>();
+    for (int i = 0; i < 10; i++) {
+      counts.add("cat" + i, rand.nextInt(numDocs * 10 + 1));
+    }
+    NamedList<Object> facetFields = new SimpleOrderedMap<Object>();
+    facetFields.add("cat", counts);
+    NamedList<Object> facets = new SimpleOrderedMap<Object>();
+    facets.add("facet_fields", facetFields);
+
+    NamedList<Object> rsp = new SimpleOrderedMap<Object>();
+    rsp.add("responseHeader", header);
+    rsp.add("response", docs);
+    rsp.add("facet_counts", facets);
+    return rsp;
+  }
+
+  static UpdateRequest updateRequest(int numDocs) {
+    UpdateRequest req = new UpdateRequest();
+    for (int i = 0; i < numDocs; i++) {
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.addField("id", "doc" + i);
+      doc.addField("title", "title " + rand.nextInt(1000));
+      doc.addField("cat", "cat" + rand.nextInt(10));
+      doc.addField("price", rand.nextFloat() * 100);
+      doc.addField("popularity", rand.nextInt(10));
+      req.add(doc);
+    }
+    return req;
+  }
+
+  static byte[] marshal(Object o) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    if (o instanceof UpdateRequest) {
+      new JavaBinUpdateRequestCodec().marshal((UpdateRequest) o, os);
+    } else {
+      new JavaBinCodec().marshal(o, os);
+    }
+    return os.toByteArray();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length<4) {
+      System.out.println("JavaBinCodecPerf <payload> <numDocs> <test> <iter>");
+      System.out.println("  payload => query | update");
+      System.out.println("  test => marshal | unmarshal");
+      return;
+    }
+    String payload = args[0].intern();
+    int numDocs = Integer.parseInt(args[1]);
+    String test = args[2].intern();
+    int iter = Integer.parseInt(args[3]);
+
+    final Object msg = payload=="update" ? updateRequest(numDocs) : queryResponse(numDocs);
+    final byte[] bytes = marshal(msg);
+    final int[] docCount = new int[1];
+    JavaBinUpdateRequestCodec.StreamingUpdateHandler handler = new JavaBinUpdateRequestCodec.StreamingUpdateHandler() {
+      @Override
+      public void update(SolrInputDocument document, UpdateRequest req) {
+        docCount[0]++;
+      }
+    };
+
+    long ret=0;
+    long start = System.currentTimeMillis();
+
+    if (test=="marshal") {
+      for (int it=0; it<iter; it++) {
+        ret += marshal(msg).length;
+      }
+    }
+
+    if (test=="unmarshal") {
+      for (int it=0; it<iter; it++) {
+        ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+        if (payload=="update") {
+          new JavaBinUpdateRequestCodec().unmarshal(is, handler);
+        } else {
+          ret += ((NamedList<?>) new JavaBinCodec().unmarshal(is)).size();
+        }
+      }
+      ret += docCount[0];
+    }
+
+    long end = System.currentTimeMillis();
+    System.out.println("ret="+ret);
+    System.out.println("bytes="+bytes.length);
+    System.out.println("TIME="+(end-start));
+  }
+}
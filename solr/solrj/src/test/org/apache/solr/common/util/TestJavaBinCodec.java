@@ -19,9 +19,14 @@ package org.apache.solr.common.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.lucene.util.LuceneTestCase;
 import org.apache.lucene.util._TestUtil;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
 
 public class TestJavaBinCodec extends LuceneTestCase {
   
@@ -36,4 +41,97 @@ public class TestJavaBinCodec extends LuceneTestCase {
       assertEquals(s, o);
     }
   }
+
+  public void testPrimitiveArrays() throws Exception {
+    int[] ints = {0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 42};
+    long[] longs = {0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40};
+    float[] floats = {0f, -1.5f, Float.MAX_VALUE, Float.NaN};
+    double[] doubles = {0d, -1.5d, Double.MIN_VALUE, Double.NEGATIVE_INFINITY};
+    NamedList<Object> nl = new NamedList<Object>();
+    nl.add("ints", ints);
+    nl.add("longs", longs);
+    nl.add("floats", floats);
+    nl.add("doubles", doubles);
+    nl.add("empty", new int[0]);
+
+    NamedList<?> read = (NamedList<?>) roundTrip(new JavaBinCodec(), nl);
+    List<Object> expected = new ArrayList<Object>();
+    for (int i : ints) expected.add(i);
+    assertEquals(expected, read.get("ints"));
+    expected.clear();
+    for (long l : longs) expected.add(l);
+    assertEquals(expected, read.get("longs"));
+    expected.clear();
+    for (float f : floats) expected.add(f);
+    assertEquals(expected, read.get("floats"));
+    expected.clear();
+    for (double d : doubles) expected.add(d);
+    assertEquals(expected, read.get("doubles"));
+    assertEquals(Arrays.asList(), read.get("empty"));
+  }
+
+  public void testRepeatedStrings() throws Exception {
+    // few distinct values, so most of them are served from the string cache
+    String[] values = new String[50];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = _TestUtil.randomUnicodeString(random(), 40);
+    }
+    JavaBinCodec javabin = new JavaBinCodec();
+    for (int iter = 0; iter < 20 * RANDOM_MULTIPLIER; iter++) {
+      List<Object> list = new ArrayList<Object>();
+      for (int i = 0; i < 500; i++) {
+        list.add(values[random().nextInt(values.length)]);
+      }
+      assertEquals(list, roundTrip(javabin, list));
+    }
+  }
+
+  public void testExternStrings() throws Exception {
+    // the extern string table must not leak from one message into the next
+    SolrDocument doc = new SolrDocument();
+    doc.addField("field1", "a");
+    doc.addField("field2", 1);
+    for (int iter = 0; iter < 10; iter++) {
+      SolrDocumentList docs = new SolrDocumentList();
+      docs.add(doc);
+      docs.add(doc);
+      SolrDocumentList read = (SolrDocumentList) roundTrip(new JavaBinCodec(), docs);
+      assertEquals(2, read.size());
+      for (SolrDocument d : read) {
+        assertEquals("a", d.getFieldValue("field1"));
+        assertEquals(1, d.getFieldValue("field2"));
+      }
+    }
+  }
+
+  public void testWithoutMarshal() throws Exception {
+    // the way the transaction log uses codecs: one value at a time, with the
+    // extern string table kept across values
+    List<Object> values = new ArrayList<Object>();
+    for (int i = 0; i < 100; i++) {
+      values.add(_TestUtil.randomUnicodeString(random(), 40));
+    }
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    FastOutputStream fos = new FastOutputStream(os);
+    JavaBinCodec writer = new JavaBinCodec();
+    writer.init(fos);
+    for (Object value : values) {
+      writer.writeVal(value);
+      writer.writeExternString("field");
+    }
+    fos.flushBuffer();
+
+    JavaBinCodec reader = new JavaBinCodec();
+    FastInputStream fis = new FastInputStream(new ByteArrayInputStream(os.toByteArray()));
+    for (Object value : values) {
+      assertEquals(value, reader.readVal(fis));
+      assertEquals("field", reader.readVal(fis));
+    }
+  }
+
+  private static Object roundTrip(JavaBinCodec javabin, Object o) throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    javabin.marshal(o, os);
+    return javabin.unmarshal(new ByteArrayInputStream(os.toByteArray()));
+  }
 }
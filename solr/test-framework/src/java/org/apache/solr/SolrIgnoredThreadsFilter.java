@@ -43,8 +43,10 @@ public class SolrIgnoredThreadsFilter implements ThreadFilter {
     }
 
     if (threadName.startsWith("facetExecutor-") || 
+        threadName.startsWith("cacheMaintenanceExecutor-") ||
         threadName.startsWith("cmdDistribExecutor-") ||
-        threadName.startsWith("httpShardExecutor-")) {
+        threadName.startsWith("httpShardExecutor-") ||
+        threadName.startsWith("httpShardHedgeExecutor-")) {
       return true;
     }
     